@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that results include the allocation profile
+ * (<code>gc.alloc.rate.norm</code>, bytes allocated per operation), and writes them as JSON for comparison
+ * across releases.
+ *
+ * <p>Accepts the standard JMH command line, e.g. a benchmark name pattern, or <code>-rff</code> to name the
+ * result file, which defaults to <code>jmh-result.json</code>.</p>
+ */
+public final class BenchmarkRunner {
+
+    /** Constructor. */
+    private BenchmarkRunner() {
+
+    }
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args JMH command line
+     *
+     * @throws CommandLineOptionException if the command line is invalid
+     * @throws RunnerException if the benchmarks fail
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of building a SAML 2 {@link Response} with an {@link Assertion} through the
+ * {@link XMLObjectBuilderFactory}, matching the content of the response fixture.
+ *
+ * <p>Builders are looked up for every object, as most code does.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BuilderBenchmark {
+
+    /** Builder factory. */
+    @Nonnull private XMLObjectBuilderFactory builderFactory;
+
+    /**
+     * Initialize the library.
+     *
+     * @throws InitializationException if the library cannot be initialized
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InitializationException {
+        InitializationService.initialize();
+        builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+    }
+
+    /**
+     * Build an assertion.
+     *
+     * @return the assertion
+     */
+    @Benchmark
+    public Assertion buildAssertion() {
+        final Instant now = Instant.now();
+
+        final Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_a75adf55-01d7-40cc-929f-dbd8372ebdfc");
+        assertion.setIssueInstant(now);
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setIssuer(buildIssuer());
+
+        final NameID nameID = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameID.setFormat(NameID.TRANSIENT);
+        nameID.setValue("_820d2843-2342-8236-ad28-8ac94fb3e6a1");
+        final SubjectConfirmation confirmation = build(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+        confirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+        final Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        subject.setNameID(nameID);
+        subject.getSubjectConfirmations().add(confirmation);
+        assertion.setSubject(subject);
+
+        final Audience audience = build(Audience.DEFAULT_ELEMENT_NAME);
+        audience.setURI("https://sp.example.org");
+        final AudienceRestriction restriction = build(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+        restriction.getAudiences().add(audience);
+        final Conditions conditions = build(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(now);
+        conditions.setNotOnOrAfter(now.plusSeconds(600));
+        conditions.getAudienceRestrictions().add(restriction);
+        assertion.setConditions(conditions);
+
+        final AuthnContextClassRef classRef = build(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+        classRef.setURI(AuthnContext.PPT_AUTHN_CTX);
+        final AuthnContext authnContext = build(AuthnContext.DEFAULT_ELEMENT_NAME);
+        authnContext.setAuthnContextClassRef(classRef);
+        final AuthnStatement authnStatement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setAuthnInstant(now);
+        authnStatement.setAuthnContext(authnContext);
+        assertion.getAuthnStatements().add(authnStatement);
+
+        final AttributeStatement attributeStatement = build(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        attributeStatement.getAttributes().add(
+                buildAttribute("fooAttrib", "urn:foo:attrib", "SomeValue", "SomeOtherValue"));
+        attributeStatement.getAttributes().add(
+                buildAttribute("eduPersonPrincipalName", "urn:oid:1.3.6.1.4.1.5923.1.1.1.6", "j.doe@idp.example.org"));
+        assertion.getAttributeStatements().add(attributeStatement);
+
+        return assertion;
+    }
+
+    /**
+     * Build a response containing an assertion.
+     *
+     * @return the response
+     */
+    @Benchmark
+    public Response buildResponse() {
+        final StatusCode statusCode = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS);
+        final Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        status.setStatusCode(statusCode);
+
+        final Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_c7055387-af61-4fce-8b98-e2927324b306");
+        response.setInResponseTo("_abcdef123456");
+        response.setIssueInstant(Instant.now());
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssuer(buildIssuer());
+        response.setStatus(status);
+        response.getAssertions().add(buildAssertion());
+        return response;
+    }
+
+    /**
+     * Build an issuer.
+     *
+     * @return the issuer
+     */
+    @Nonnull private Issuer buildIssuer() {
+        final Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setFormat(Issuer.ENTITY);
+        issuer.setValue("https://idp.example.org");
+        return issuer;
+    }
+
+    /**
+     * Build an attribute with string values.
+     *
+     * @param friendlyName friendly name
+     * @param name name
+     * @param values values
+     *
+     * @return the attribute
+     */
+    @Nonnull private Attribute buildAttribute(@Nonnull final String friendlyName, @Nonnull final String name,
+            @Nonnull final String... values) {
+        final Attribute attribute = build(Attribute.DEFAULT_ELEMENT_NAME);
+        attribute.setFriendlyName(friendlyName);
+        attribute.setName(name);
+        attribute.setNameFormat(Attribute.URI_REFERENCE);
+        for (final String value : values) {
+            final XSString attributeValue = builderFactory.<XSString>ensureBuilder(XSString.TYPE_NAME)
+                    .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+            attributeValue.setValue(value);
+            attribute.getAttributeValues().add(attributeValue);
+        }
+        return attribute;
+    }
+
+    /**
+     * Build an object through the builder factory.
+     *
+     * @param <T> type of object
+     * @param name element name, also used to look up the builder
+     *
+     * @return the object
+     */
+    @Nonnull private <T extends XMLObject> T build(@Nonnull final QName name) {
+        return builderFactory.<T>ensureBuilder(name).buildObject(name);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Marshaller;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+/**
+ * Benchmark of {@link org.opensaml.core.xml.io.AbstractXMLObjectMarshaller#marshall(XMLObject)}.
+ *
+ * <p>The cached DOM is dropped before each marshalling, as a marshaller otherwise returns it unchanged. Dropping
+ * it is cheap next to rebuilding it, so is measured along with it.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MarshallBenchmark {
+
+    /**
+     * Marshall the fixture into a new document.
+     *
+     * @param state fixture
+     *
+     * @return the marshalled fixture
+     *
+     * @throws MarshallingException if the fixture cannot be marshalled
+     */
+    @Benchmark
+    public Element marshall(final XMLObjectFixtureState state) throws MarshallingException {
+        final XMLObject xmlObject = state.xmlObject;
+        xmlObject.releaseDOM();
+        xmlObject.releaseChildrenDOM(true);
+        final Marshaller marshaller = XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(xmlObject);
+        if (marshaller == null) {
+            throw new MarshallingException("No marshaller for " + xmlObject.getElementQName());
+        }
+        return marshaller.marshall(xmlObject);
+    }
+
+}
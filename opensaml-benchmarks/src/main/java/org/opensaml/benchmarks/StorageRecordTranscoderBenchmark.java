@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.impl.memcached.CompactStorageRecordTranscoder;
+import org.opensaml.storage.impl.memcached.MemcachedStorageRecord;
+import org.opensaml.storage.impl.memcached.StorageRecordTranscoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of an encode and decode round trip through {@link CompactStorageRecordTranscoder}, compared with
+ * {@link StorageRecordTranscoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StorageRecordTranscoderBenchmark {
+
+    /** Kind of value stored: a single character, 200 random bytes in Base64, or repetitive XML. */
+    @Param({"tiny", "random", "xml"})
+    public String value;
+
+    /** Transcoder in use before {@link CompactStorageRecordTranscoder}. */
+    @Nonnull private final StorageRecordTranscoder legacy = new StorageRecordTranscoder();
+
+    /** Compact transcoder. */
+    @Nonnull private final CompactStorageRecordTranscoder compact = new CompactStorageRecordTranscoder();
+
+    /** Record to transcode. */
+    @Nonnull private MemcachedStorageRecord<?> record;
+
+    /** Build the record. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final String data = switch (value) {
+            case "tiny" -> "x";
+            case "random" -> {
+                final byte[] bytes = new byte[200];
+                new Random(200).nextBytes(bytes);
+                yield Base64.getEncoder().encodeToString(bytes);
+            }
+            case "xml" -> "<session>" + "<attribute name=\"mail\">user@example.org</attribute>".repeat(100)
+                    + "</session>";
+            default -> throw new IllegalArgumentException("Unknown value kind " + value);
+        };
+        record = new MemcachedStorageRecord<>(data, System.currentTimeMillis() + 3600000);
+    }
+
+    /**
+     * Round trip through {@link StorageRecordTranscoder}.
+     *
+     * @return the decoded record
+     */
+    @Benchmark
+    public MemcachedStorageRecord<?> legacyRoundTrip() {
+        return legacy.decode(legacy.encode(record));
+    }
+
+    /**
+     * Round trip through {@link CompactStorageRecordTranscoder}.
+     *
+     * @return the decoded record
+     */
+    @Benchmark
+    public MemcachedStorageRecord<?> compactRoundTrip() {
+        return compact.decode(compact.encode(record));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.impl.ConcurrentMemoryStorageService;
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Benchmark of a replay-style create, read and delete against {@link ConcurrentMemoryStorageService}, compared with
+ * {@link MemoryStorageService}, from several threads sharing one context.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(8)
+@State(Scope.Benchmark)
+public class StorageServiceBenchmark {
+
+    /** Storage service implementation: the lock-based or the concurrent one. */
+    @Param({"memory", "concurrent"})
+    public String service;
+
+    /** Source of unique keys across threads. */
+    @Nonnull private final AtomicLong keys = new AtomicLong();
+
+    /** Storage service under test. */
+    @Nonnull private AbstractStorageService storage;
+
+    /**
+     * Build and initialize the storage service.
+     *
+     * @throws ComponentInitializationException if initialization fails
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws ComponentInitializationException {
+        storage = switch (service) {
+            case "memory" -> new MemoryStorageService();
+            case "concurrent" -> new ConcurrentMemoryStorageService();
+            default -> throw new IllegalArgumentException("Unknown storage service " + service);
+        };
+        storage.setId("benchmark");
+        storage.initialize();
+    }
+
+    /** Destroy the storage service. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.destroy();
+    }
+
+    /**
+     * Create, read and delete one record.
+     *
+     * @return the record read back
+     *
+     * @throws IOException if a storage operation fails
+     */
+    @Benchmark
+    public StorageRecord<?> createReadDelete() throws IOException {
+        final String key = Long.toString(keys.incrementAndGet());
+        storage.create("replay", key, "x", System.currentTimeMillis() + 60000);
+        final StorageRecord<?> record = storage.read("replay", key);
+        storage.delete("replay", key);
+        return record;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.shared.xml.XMLParserException;
+
+/**
+ * Benchmark of {@link org.opensaml.core.xml.util.XMLObjectSupport#unmarshallFromInputStream}, covering both
+ * parsing and unmarshalling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UnmarshallBenchmark {
+
+    /**
+     * Parse and unmarshall the fixture.
+     *
+     * @param state fixture
+     *
+     * @return the unmarshalled fixture
+     *
+     * @throws XMLParserException if the fixture cannot be parsed
+     * @throws UnmarshallingException if the fixture cannot be unmarshalled
+     */
+    @Benchmark
+    public XMLObject unmarshallFromInputStream(final XMLObjectFixtureState state)
+            throws XMLParserException, UnmarshallingException {
+        return state.unmarshall();
+    }
+
+}
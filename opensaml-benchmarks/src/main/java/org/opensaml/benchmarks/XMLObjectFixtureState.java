@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.xml.XMLParserException;
+
+/**
+ * Per-thread state holding a parsed fixture document.
+ *
+ * <p>The fixtures are a SAML 2 Response carrying an assertion with authentication and attribute statements,
+ * and a metadata aggregate with keys and extensions.</p>
+ */
+@State(Scope.Thread)
+public class XMLObjectFixtureState {
+
+    /** Fixture to use. */
+    @Param({"response", "metadata"})
+    public String fixture;
+
+    /** Parser pool. */
+    @Nonnull ParserPool parserPool;
+
+    /** Serialized fixture. */
+    @Nonnull byte[] document;
+
+    /** Fixture unmarshalled once, with its DOM cached. */
+    @Nonnull XMLObject xmlObject;
+
+    /**
+     * Initialize the library and load the fixture.
+     *
+     * @throws InitializationException if the library cannot be initialized
+     * @throws IOException if the fixture cannot be read
+     * @throws XMLParserException if the fixture cannot be parsed
+     * @throws UnmarshallingException if the fixture cannot be unmarshalled
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InitializationException, IOException, XMLParserException, UnmarshallingException {
+        InitializationService.initialize();
+        final ParserPool pool = XMLObjectProviderRegistrySupport.getParserPool();
+        if (pool == null) {
+            throw new InitializationException("No parser pool configured");
+        }
+        parserPool = pool;
+
+        try (final InputStream is = XMLObjectFixtureState.class.getResourceAsStream(fixture + ".xml")) {
+            if (is == null) {
+                throw new IOException("Fixture " + fixture + " not found");
+            }
+            document = is.readAllBytes();
+        }
+        xmlObject = unmarshall();
+    }
+
+    /**
+     * Unmarshall a fresh copy of the fixture.
+     *
+     * @return the unmarshalled fixture
+     *
+     * @throws XMLParserException if the fixture cannot be parsed
+     * @throws UnmarshallingException if the fixture cannot be unmarshalled
+     */
+    @Nonnull public XMLObject unmarshall() throws XMLParserException, UnmarshallingException {
+        return XMLObjectSupport.unmarshallFromInputStream(parserPool, new ByteArrayInputStream(document));
+    }
+
+}
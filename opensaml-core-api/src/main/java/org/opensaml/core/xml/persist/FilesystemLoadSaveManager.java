@@ -309,6 +309,13 @@ public class FilesystemLoadSaveManager<T extends XMLObject> extends AbstractCond
         }
     }
     
+    /** {@inheritDoc} */
+    @Nullable public Instant getLastModified(@Nonnull final String key) throws IOException {
+        final File file = buildFile(key);
+        final long lastModified = file.lastModified();
+        return lastModified > 0 ? Instant.ofEpochMilli(lastModified) : null;
+    }
+    
     /** {@inheritDoc} */
     protected synchronized boolean isUnmodifiedSinceLastLoad(@Nonnull final String key) throws IOException {
         final File file = buildFile(key);
@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.opensaml.core.xml.XMLObject;
@@ -135,6 +136,11 @@ public class MapLoadSaveManager<T extends XMLObject> extends AbstractConditional
         return backingMap.get(key);
     }
 
+    /** {@inheritDoc} */
+    @Nullable public Instant getLastModified(@Nonnull final String key) throws IOException {
+        return dataLastModified.get(key);
+    }
+
     /** {@inheritDoc} */
     public void save(@Nonnull final String key, @Nonnull final T xmlObject) throws IOException {
         save(key, xmlObject, false);
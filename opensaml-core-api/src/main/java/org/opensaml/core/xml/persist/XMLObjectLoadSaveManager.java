@@ -15,6 +15,7 @@
 package org.opensaml.core.xml.persist;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -79,6 +80,23 @@ public interface XMLObjectLoadSaveManager<T extends XMLObject> {
      */
     @Nullable T load(@Nonnull @NotEmpty final String key) throws IOException;
     
+    /**
+     * Get the time at which the object indexed by the supplied key was last saved.
+     * 
+     * <p>The default implementation returns null.</p>
+     * 
+     * @param key the key of the desired object
+     * 
+     * @return the last modified time, or null if there is no such object or the time is not known
+     * 
+     * @throws IOException if there is a fatal error obtaining the last modified time
+     * 
+     * @since 5.2.0
+     */
+    @Nullable default Instant getLastModified(@Nonnull @NotEmpty final String key) throws IOException {
+        return null;
+    }
+    
     /**
      * Save a particular object, indexed by the supplied key.
      * 
@@ -273,6 +273,20 @@ public class FilesystemLoadSaveManagerTest extends XMLObjectBaseTestCase {
         Assert.assertNull(manager.getLoadLastModified("bar"));
     }
 
+    @Test
+    public void getLastModified() throws IOException {
+        Assert.assertNull(manager.getLastModified("foo"));
+        
+        final Instant before = Instant.now().minusSeconds(2);
+        manager.save("foo", (SimpleXMLObject) buildXMLObject(SimpleXMLObject.ELEMENT_NAME, true));
+        final Instant lastModified = manager.getLastModified("foo");
+        Assert.assertNotNull(lastModified);
+        Assert.assertTrue(lastModified.isAfter(before));
+        
+        manager.remove("foo");
+        Assert.assertNull(manager.getLastModified("foo"));
+    }
+
     @Test
     public void buildTargetFileFromKey() throws IOException {
         File target = manager.buildFile("abc");
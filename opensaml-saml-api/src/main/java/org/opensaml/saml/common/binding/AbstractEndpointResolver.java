@@ -14,10 +14,15 @@
 
 package org.opensaml.saml.common.binding;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -30,10 +35,17 @@ import org.opensaml.saml.criterion.EndpointCriterion;
 import org.opensaml.saml.criterion.RoleDescriptorCriterion;
 import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.IndexedEndpoint;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.slf4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.shared.annotation.constraint.NonNegative;
 import net.shibboleth.shared.collection.CollectionSupport;
 import net.shibboleth.shared.component.AbstractIdentifiedInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.ResolverException;
@@ -72,6 +84,14 @@ import net.shibboleth.shared.resolver.ResolverException;
  * <p>Subclasses should override the {{@link #doCheckEndpoint(CriteriaSet, Endpoint)} method to implement
  * further criteria.</p>
  * 
+ * <p>If an endpoint cache size is set, the endpoints selected from a role's metadata are cached for each
+ * endpoint type, binding set and {@link #getEndpointCheckKey(CriteriaSet)}, together with a prefix trie of
+ * their locations used to answer {@link BestMatchLocationCriterion} lookups. The cache is keyed on the identity
+ * of the {@link RoleDescriptor}, so reloaded metadata is never served from entries for its predecessor. Entries
+ * record the positions of the selected endpoints rather than the endpoints themselves, and check the role's
+ * endpoints only through weak references, so they hold no strong reference back to the metadata and are discarded
+ * once the old metadata is no longer referenced.</p>
+ * 
  * @param <EndpointType> type of endpoint
  */
 public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
@@ -80,9 +100,18 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
     /** Class logger. */
     @Nonnull private Logger log = LoggerFactory.getLogger(AbstractEndpointResolver.class);
     
+    /** Maximum number of selections cached for a single role. */
+    private static final int MAX_SELECTIONS_PER_ROLE = 100;
+
     /** Sorting rule for results. */
     private boolean inMetadataOrder;
     
+    /** Maximum number of roles whose endpoint selections are cached. */
+    @NonNegative private long endpointCacheSize;
+    
+    /** Cached endpoint selections, per role. */
+    @Nullable private Cache<RoleDescriptor, Cache<SelectionKey, EndpointSelection>> endpointCache;
+    
     /** Constructor. */
     public AbstractEndpointResolver() {
         super.setId(getClass().getName());
@@ -117,6 +146,48 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
         inMetadataOrder = flag;
     }
     
+    /**
+     * Get the maximum number of roles whose endpoint selections are cached.
+     * 
+     * @return the maximum number of roles whose endpoint selections are cached
+     * 
+     * @since 5.2.0
+     */
+    @NonNegative public long getEndpointCacheSize() {
+        return endpointCacheSize;
+    }
+    
+    /**
+     * Set the maximum number of roles whose endpoint selections are cached.
+     * 
+     * <p>Selections are only cached for criteria for which {@link #getEndpointCheckKey(CriteriaSet)} returns a
+     * key.</p>
+     * 
+     * <p>Defaults to 0, which disables caching.</p>
+     * 
+     * @param size the maximum number of roles whose endpoint selections are cached
+     * 
+     * @since 5.2.0
+     */
+    public void setEndpointCacheSize(@NonNegative final long size) {
+        checkSetterPreconditions();
+        
+        endpointCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Endpoint cache size cannot be negative");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (endpointCacheSize > 0) {
+            endpointCache = CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .maximumSize(endpointCacheSize)
+                    .build();
+        }
+    }
+    
     /** {@inheritDoc} */
     @Nonnull public Iterable<EndpointType> resolve(@Nullable final CriteriaSet criteria)
             throws ResolverException {
@@ -132,6 +203,24 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
             return CollectionSupport.emptyList();
         }
         
+        final CachedSelection<EndpointType> selection = getCachedSelection(criteria);
+        if (selection != null) {
+            final List<EndpointType> endpoints = selection.endpoints();
+            log.debug("{} {} endpoints selected from cache", getLogPrefix(), endpoints.size());
+            return endpoints;
+        }
+        
+        return selectCandidates(criteria);
+    }
+    
+    /**
+     * Get the endpoints from the metadata which meet the supplied criteria.
+     * 
+     * @param criteria input criteria set
+     * 
+     * @return mutable list of endpoints which meet the criteria
+     */
+    @Nonnull private List<EndpointType> selectCandidates(@Nonnull final CriteriaSet criteria) {
         final List<EndpointType> candidates = getCandidatesFromMetadata(criteria);
         final Iterator<EndpointType> i = candidates.iterator();
         while (i.hasNext()) {
@@ -159,12 +248,22 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
             return null;
         }
         
+        final BestMatchLocationCriterion startsWith = criteria.get(BestMatchLocationCriterion.class);
+        
+        final CachedSelection<EndpointType> selection = getCachedSelection(criteria);
+        if (selection != null) {
+            final EndpointType selected = startsWith != null ? selection.getBestMatch(startsWith.getLocation())
+                    : selection.getFirst();
+            if (selected == null) {
+                log.debug("{} No candidate endpoints met criteria", getLogPrefix());
+            }
+            return selected;
+        }
+        
         // Starting at -1 ensures the first candidate automatically starts as the best match.
         int bestMatchLen = -1;
         EndpointType bestMatch = null;
         
-        final BestMatchLocationCriterion startsWith = criteria.get(BestMatchLocationCriterion.class);
-        
         for (final EndpointType candidate : getCandidatesFromMetadata(criteria)) {
             assert candidate != null;
             if (doCheckEndpoint(criteria, candidate)) {
@@ -217,6 +316,78 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
     protected boolean doCheckEndpoint(@Nonnull final CriteriaSet criteria, @Nonnull final EndpointType endpoint) {
         return true;
     }
+    
+    /**
+     * Get a key capturing every input of {@link #doCheckEndpoint(CriteriaSet, Endpoint)} other than the
+     * endpoint itself, for use in caching endpoint selections.
+     * 
+     * <p>Two criteria sets with equal keys, the same role, endpoint type and bindings must accept exactly the
+     * same endpoints. The key is compared with {@link Object#equals(Object)}.</p>
+     * 
+     * <p>The default returns null, so selections are never cached unless a subclass which knows its
+     * checks overrides this method.</p>
+     * 
+     * @param criteria input criteria set
+     * 
+     * @return the key, or null if selections for these criteria may not be cached
+     * 
+     * @since 5.2.0
+     */
+    @Nullable protected Object getEndpointCheckKey(@Nonnull final CriteriaSet criteria) {
+        return null;
+    }
+    
+    /**
+     * Get the cached selection of endpoints for the supplied criteria, selecting and caching it if necessary.
+     * 
+     * @param criteria input criteria set
+     * 
+     * @return the selection, or null if selections for these criteria are not cached
+     */
+    @Nullable private CachedSelection<EndpointType> getCachedSelection(@Nonnull final CriteriaSet criteria) {
+        final Cache<RoleDescriptor, Cache<SelectionKey, EndpointSelection>> cache = endpointCache;
+        final RoleDescriptorCriterion role = criteria.get(RoleDescriptorCriterion.class);
+        if (cache == null || role == null) {
+            return null;
+        }
+        
+        final Object checkKey = getEndpointCheckKey(criteria);
+        if (checkKey == null) {
+            return null;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final EndpointCriterion<EndpointType> epCriterion = criteria.get(EndpointCriterion.class);
+        assert epCriterion != null;
+        QName endpointType = epCriterion.getEndpoint().getSchemaType();
+        if (endpointType == null) {
+            endpointType = epCriterion.getEndpoint().getElementQName();
+        }
+        final BindingCriterion bindingCriterion = criteria.get(BindingCriterion.class);
+        final SelectionKey key = new SelectionKey(endpointType,
+                bindingCriterion != null ? bindingCriterion.getBindings() : null, checkKey);
+        
+        final List<Endpoint> roleEndpoints = role.getRole().getEndpoints(endpointType);
+        
+        try {
+            // Neither the selections nor their loaders may refer to the role, which is weakly held.
+            final Cache<SelectionKey, EndpointSelection> selections = cache.get(role.getRole(),
+                    () -> CacheBuilder.newBuilder()
+                        .maximumSize(MAX_SELECTIONS_PER_ROLE)
+                        .<SelectionKey, EndpointSelection>build());
+            EndpointSelection selection =
+                    selections.get(key, () -> new EndpointSelection(selectCandidates(criteria), roleEndpoints));
+            if (!selection.isCurrent(roleEndpoints)) {
+                // The role's endpoints have been changed in place since the selection was made.
+                selection = new EndpointSelection(selectCandidates(criteria), roleEndpoints);
+                selections.put(key, selection);
+            }
+            return new CachedSelection<>(selection, roleEndpoints);
+        } catch (final ExecutionException e) {
+            // Selection does not throw checked exceptions.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
     /**
      * Verify that the required {@link EndpointCriterion} is present.
@@ -385,4 +556,225 @@ public abstract class AbstractEndpointResolver<EndpointType extends Endpoint>
         return "Endpoint Resolver " + getId() + ":";
     }
 
-}
\ No newline at end of file
+    /**
+     * Key of a cached endpoint selection within a role.
+     * 
+     * @param endpointType the type of endpoint selected
+     * @param bindings the bindings supplied, if any
+     * @param checkKey the key of the endpoint checks applied
+     */
+    private record SelectionKey(@Nonnull QName endpointType, @Nullable List<String> bindings,
+            @Nonnull Object checkKey) {
+    }
+    
+    /**
+     * A cached selection of endpoints, recorded as their positions among the endpoints of their type in the role,
+     * with a prefix trie of their locations.
+     * 
+     * <p>Nothing here strongly refers to the role or its endpoints, which are supplied by each caller.</p>
+     */
+    private static final class EndpointSelection {
+        
+        /** Positions of the selected endpoints among those of the role, in order of preference. */
+        @Nonnull private final int[] positions;
+        
+        /** The endpoints of the type in the role when the selection was made, in order. */
+        @Nonnull private final List<WeakReference<Endpoint>> roleEndpointRefs;
+        
+        /** Root of the location trie, built on first use. */
+        @Nullable private volatile LocationNode locationTrie;
+        
+        /**
+         * Constructor.
+         *
+         * @param selected the selected endpoints, in order of preference
+         * @param roleEndpoints the endpoints of the type in the role
+         */
+        EndpointSelection(@Nonnull final List<? extends Endpoint> selected,
+                @Nonnull final List<Endpoint> roleEndpoints) {
+            final Map<Endpoint, Integer> roleIndex = new IdentityHashMap<>(roleEndpoints.size());
+            for (int i = 0; i < roleEndpoints.size(); i++) {
+                roleIndex.put(roleEndpoints.get(i), i);
+            }
+            positions = new int[selected.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = roleIndex.get(selected.get(i));
+            }
+            roleEndpointRefs = new ArrayList<>(roleEndpoints.size());
+            for (final Endpoint endpoint : roleEndpoints) {
+                roleEndpointRefs.add(new WeakReference<>(endpoint));
+            }
+        }
+        
+        /**
+         * Get whether the selection was made from the current endpoints of the role, that is, the same endpoint
+         * objects in the same order.
+         * 
+         * @param roleEndpoints the endpoints of the type in the role
+         * 
+         * @return true iff the selection may be used with the endpoints
+         */
+        boolean isCurrent(@Nonnull final List<Endpoint> roleEndpoints) {
+            if (roleEndpoints.size() != roleEndpointRefs.size()) {
+                return false;
+            }
+            for (int i = 0; i < roleEndpoints.size(); i++) {
+                if (roleEndpointRefs.get(i).get() != roleEndpoints.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Get the selected endpoints.
+         * 
+         * @param <T> type of endpoint
+         * @param roleEndpoints the endpoints of the type in the role
+         * 
+         * @return the selected endpoints, in order of preference
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull <T extends Endpoint> List<T> endpoints(@Nonnull final List<Endpoint> roleEndpoints) {
+            final List<T> endpoints = new ArrayList<>(positions.length);
+            for (final int position : positions) {
+                endpoints.add((T) roleEndpoints.get(position));
+            }
+            return endpoints;
+        }
+        
+        /**
+         * Get the first selected endpoint.
+         * 
+         * @param <T> type of endpoint
+         * @param roleEndpoints the endpoints of the type in the role
+         * 
+         * @return the first endpoint, or null if none were selected
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable <T extends Endpoint> T getFirst(@Nonnull final List<Endpoint> roleEndpoints) {
+            return positions.length > 0 ? (T) roleEndpoints.get(positions[0]) : null;
+        }
+        
+        /**
+         * Get the endpoint whose location shares the longest prefix with a location, preferring earlier
+         * endpoints among equally good matches.
+         * 
+         * <p>Endpoints with neither a Location nor a ResponseLocation are never matched.</p>
+         * 
+         * @param <T> type of endpoint
+         * @param location the location to match
+         * @param roleEndpoints the endpoints of the type in the role
+         * 
+         * @return the best match, or null if no endpoint has a location
+         */
+        @SuppressWarnings("unchecked")
+        @Nullable <T extends Endpoint> T getBestMatch(@Nonnull final String location,
+                @Nonnull final List<Endpoint> roleEndpoints) {
+            LocationNode node = locationTrie;
+            if (node == null) {
+                node = buildTrie(roleEndpoints);
+                locationTrie = node;
+            }
+            
+            for (int i = 0; i < location.length(); i++) {
+                final LocationNode child = node.children.get(location.charAt(i));
+                if (child == null) {
+                    break;
+                }
+                node = child;
+            }
+            return node.first >= 0 ? (T) roleEndpoints.get(positions[node.first]) : null;
+        }
+        
+        /**
+         * Build the prefix trie of the endpoint locations.
+         * 
+         * @param roleEndpoints the endpoints of the type in the role
+         * 
+         * @return the root of the trie
+         */
+        @Nonnull private LocationNode buildTrie(@Nonnull final List<Endpoint> roleEndpoints) {
+            final LocationNode root = new LocationNode();
+            for (int i = 0; i < positions.length; i++) {
+                final Endpoint endpoint = roleEndpoints.get(positions[i]);
+                String endpointLocation = endpoint.getLocation();
+                if (endpointLocation == null) {
+                    endpointLocation = endpoint.getResponseLocation();
+                }
+                if (endpointLocation == null) {
+                    continue;
+                }
+                LocationNode node = root;
+                node.mark(i);
+                for (int j = 0; j < endpointLocation.length(); j++) {
+                    node = node.children.computeIfAbsent(endpointLocation.charAt(j), c -> new LocationNode());
+                    node.mark(i);
+                }
+            }
+            return root;
+        }
+    }
+    
+    /**
+     * A cached selection applied to the current endpoints of its role.
+     * 
+     * @param <T> type of endpoint
+     * @param selection the cached selection
+     * @param roleEndpoints the endpoints of the type in the role
+     */
+    private record CachedSelection<T extends Endpoint>(@Nonnull EndpointSelection selection,
+            @Nonnull List<Endpoint> roleEndpoints) {
+        
+        /**
+         * Get the selected endpoints.
+         * 
+         * @return the selected endpoints, in order of preference
+         */
+        @Nonnull List<T> endpoints() {
+            return selection.endpoints(roleEndpoints);
+        }
+        
+        /**
+         * Get the first selected endpoint.
+         * 
+         * @return the first endpoint, or null if none were selected
+         */
+        @Nullable T getFirst() {
+            return selection.getFirst(roleEndpoints);
+        }
+        
+        /**
+         * Get the endpoint whose location best matches a location.
+         * 
+         * @param location the location to match
+         * 
+         * @return the best match, or null if no endpoint has a location
+         */
+        @Nullable T getBestMatch(@Nonnull final String location) {
+            return selection.getBestMatch(location, roleEndpoints);
+        }
+    }
+    
+    /** A node of a location prefix trie. */
+    private static final class LocationNode {
+        
+        /** Child nodes, by the next character. */
+        @Nonnull private final Map<Character, LocationNode> children = new HashMap<>();
+        
+        /** Position of the first endpoint whose location has the prefix of this node, or -1. */
+        private int first = -1;
+        
+        /**
+         * Record an endpoint whose location has the prefix of this node.
+         * 
+         * @param position position of the endpoint in the selection
+         */
+        void mark(final int position) {
+            if (first < 0) {
+                first = position;
+            }
+        }
+    }
+
+}
@@ -17,7 +17,13 @@ package org.opensaml.saml.common.profile.logic;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
@@ -47,6 +53,7 @@ import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.NotLive;
 import net.shibboleth.shared.annotation.constraint.Unmodifiable;
 import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.collection.LockableClassToInstanceMultiMap;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
 import net.shibboleth.shared.primitive.StringSupport;
@@ -61,6 +68,12 @@ import java.util.function.Predicate;
  * <p>This class uses a nested helper class, {@link Candidate}, to capture the rules to check for, with each such
  * object representing a single condition that the predicate can combine either via an AND or OR semantic to produce
  * the final result. Each {@link Candidate}'s own matching rules must match entirely.</p>
+ * 
+ * <p>The tags of an entity, including those inherited from its parent groups, are indexed by Attribute Name and
+ * NameFormat the first time the entity is evaluated, and the index is cached in the entity's object metadata for
+ * use by every instance of this class. Exact values are then matched by set lookups, and the outcome of each
+ * regular expression is remembered per indexed Attribute. The index is rebuilt if the entity's tags are
+ * subsequently replaced, for example by a metadata filter.</p>
  */
 public class EntityAttributesPredicate implements Predicate<EntityDescriptor> {
 
@@ -150,7 +163,7 @@ public class EntityAttributesPredicate implements Predicate<EntityDescriptor> {
             return false;
         }
         
-        Collection<Attribute> entityAttributes = null;
+        List<Attribute> entityAttributes = null;
 
         // Check for a tag match in the EntityAttributes extension of the entity and its parent(s).
         Extensions exts = input.getExtensions();
@@ -187,19 +200,209 @@ public class EntityAttributesPredicate implements Predicate<EntityDescriptor> {
         log.trace("Checking for match against {} Entity Attributes for {}", entityAttributes.size(),
                 input.getEntityID());
         
-        // If we find a matching tag, we win. Each tag is treated in OR fashion.
-        final EntityAttributesMatcher matcher = new EntityAttributesMatcher(entityAttributes);
+        final EntityTags tags = getEntityTags(input, entityAttributes);
         
         // Then we determine whether the overall set of tag containers is AND or OR.
         if (matchAll) {
-            return Iterables.all(candidateSet, matcher::test);
+            return Iterables.all(candidateSet, c -> matches(tags, c));
         }
-        if (Iterables.tryFind(candidateSet, matcher::test).isPresent()) {
+        if (Iterables.tryFind(candidateSet, c -> matches(tags, c)).isPresent()) {
             return true;
         }
 
         return false;
     }
+// Checkstyle: CyclomaticComplexity ON
+    
+    /**
+     * Determine whether a {@link Candidate} criterion is satisfied by the indexed tags of an entity.
+     * 
+     * @param tags the indexed tags
+     * @param input the candidate
+     * 
+     * @return true iff every value and regular expression of the candidate is matched by a tag
+     */
+    private boolean matches(@Nonnull final EntityTags tags, @Nullable final Candidate input) {
+        if (input == null) {
+            return false;
+        }
+        
+        final TagValues values = tags.getValues(input.getName(), input.getNameFormat());
+        if (values == null) {
+            return input.values.isEmpty() && input.regexps.isEmpty();
+        }
+        
+        for (final String tagvalstr : input.values) {
+            if (tagvalstr == null || !(values.values.contains(tagvalstr)
+                    || trimTags && values.trimmedValues.contains(tagvalstr))) {
+                return false;
+            }
+            log.trace("Matched Entity Attribute ({}:{}) value {}", input.getNameFormat(), input.getName(),
+                    tagvalstr);
+        }
+        
+        for (final Pattern tagexp : input.regexps) {
+            if (tagexp == null || !values.matches(tagexp)) {
+                return false;
+            }
+            log.trace("Matched Entity Attribute ({}:{}) regular expression {}", input.getNameFormat(),
+                    input.getName(), tagexp);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Get the indexed tags of an entity, building and caching them in its object metadata if necessary.
+     * 
+     * @param entity the entity
+     * @param attributes the tags of the entity and its parent groups
+     * 
+     * @return the indexed tags
+     */
+    @Nonnull private EntityTags getEntityTags(@Nonnull final EntityDescriptor entity,
+            @Nonnull final List<Attribute> attributes) {
+        
+        final LockableClassToInstanceMultiMap<Object> objectMetadata = entity.getObjectMetadata();
+        final ReadWriteLock rwlock = objectMetadata.getReadWriteLock();
+        
+        try {
+            rwlock.readLock().lock();
+            final List<EntityTags> cached = objectMetadata.get(EntityTags.class);
+            if (!cached.isEmpty() && cached.get(0).isIndexOf(attributes)) {
+                return cached.get(0);
+            }
+        } finally {
+            rwlock.readLock().unlock();
+        }
+        
+        log.trace("Indexing Entity Attributes for {}", entity.getEntityID());
+        final EntityTags tags = buildEntityTags(attributes);
+        
+        try {
+            rwlock.writeLock().lock();
+            
+            // Need to check again in case another thread indexed the same tags while we were waiting.
+            final List<EntityTags> cached = objectMetadata.get(EntityTags.class);
+            if (!cached.isEmpty() && cached.get(0).isIndexOf(attributes)) {
+                return cached.get(0);
+            }
+            objectMetadata.remove(EntityTags.class);
+            objectMetadata.put(tags);
+            return tags;
+        } finally {
+            rwlock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Index a collection of tags by Attribute Name and NameFormat.
+     * 
+     * @param attributes the tags
+     * 
+     * @return the indexed tags
+     */
+    @Nonnull private EntityTags buildEntityTags(@Nonnull final List<Attribute> attributes) {
+        final Map<String, Map<String, Set<String>>> byFormat = new HashMap<>();
+        final Map<String, Set<String>> anyFormat = new HashMap<>();
+        
+        for (final Attribute a : attributes) {
+            final String name = a.getName();
+            if (name == null) {
+                continue;
+            }
+            String nameFormat = a.getNameFormat();
+            if (nameFormat == null) {
+                nameFormat = Attribute.UNSPECIFIED;
+            }
+            
+            final List<String> attributeValues = getPossibleAttributeValuesAsStrings(a);
+            byFormat.computeIfAbsent(name, n -> new HashMap<>())
+                .computeIfAbsent(nameFormat, f -> new HashSet<>())
+                .addAll(attributeValues);
+            anyFormat.computeIfAbsent(name, n -> new HashSet<>()).addAll(attributeValues);
+        }
+        
+        final Map<String, Map<String, TagValues>> indexedByFormat = new HashMap<>(byFormat.size());
+        for (final Map.Entry<String, Map<String, Set<String>>> entry : byFormat.entrySet()) {
+            final Map<String, TagValues> formats = new HashMap<>(entry.getValue().size());
+            for (final Map.Entry<String, Set<String>> format : entry.getValue().entrySet()) {
+                formats.put(format.getKey(), new TagValues(format.getValue()));
+            }
+            indexedByFormat.put(entry.getKey(), formats);
+        }
+        
+        final Map<String, TagValues> indexedAnyFormat = new HashMap<>(anyFormat.size());
+        for (final Map.Entry<String, Set<String>> entry : anyFormat.entrySet()) {
+            indexedAnyFormat.put(entry.getKey(), new TagValues(entry.getValue()));
+        }
+        
+        return new EntityTags(attributes, indexedByFormat, indexedAnyFormat);
+    }
+
+    /** Get all possible strings values for the attribute.  This copes with the fact that
+     * an attribute can return multiple values {@link Attribute#getAttributeValues()} and that some
+     * type of value can have multiple values (for instance a boolean can be 1/0/true/false).
+     *
+     * @param attribute what to inspect
+     * @return all possible values, as string.
+     */
+    @Nonnull @Live private List<String> getPossibleAttributeValuesAsStrings(final @Nonnull Attribute attribute) {
+        final List<XMLObject> cvals = attribute.getAttributeValues();
+        final List<String> result = new ArrayList<>(cvals.size()*2);
+        for (final XMLObject cval : cvals) {
+            assert cval != null;
+            result.addAll(xmlObjectToStrings(cval));
+        }
+        return result;
+    }
+ 
+    /**
+     * Convert an XMLObject to an array of String which can represent the type, if recognized.
+     * 
+     * @param object object to convert
+     * @return the converted value, or null
+     */
+    @Nullable @Unmodifiable @NotLive private List<String> xmlObjectToStrings(@Nonnull final XMLObject object) {
+        String toMatch = null;
+        String toMatchAlt = null;
+        if (object instanceof XSString xs) {
+            toMatch = xs.getValue();
+        } else if (object instanceof XSURI xs) {
+            toMatch = xs.getURI();
+        } else if (object instanceof XSBoolean xs) {
+            final XSBooleanValue val = xs.getValue();
+            if (val != null) {
+                toMatch = val.getValue() ? "1" : "0";
+                toMatchAlt = val.getValue() ? "true" : "false";
+            }
+        } else if (object instanceof XSInteger xs) {
+            final Integer val = xs.getValue();
+            if (val != null) {
+                toMatch = val.toString();
+            }
+        } else if (object instanceof XSDateTime) {
+            final Instant dt = ((XSDateTime) object).getValue();
+            if (dt != null) {
+                toMatch = DOMTypeSupport.instantToString(dt);
+            }
+        } else if (object instanceof XSBase64Binary) {
+            toMatch = ((XSBase64Binary) object).getValue();
+        } else if (object instanceof XSAny) {
+            final XSAny wc = (XSAny) object;
+            if (wc.getUnknownAttributes().isEmpty() && wc.getUnknownXMLObjects().isEmpty()) {
+                toMatch = wc.getTextContent();
+            }
+        }
+        if (toMatch != null && toMatchAlt != null) {
+            return CollectionSupport.listOf(toMatch, toMatchAlt);
+        } else if (toMatch != null) {
+            return CollectionSupport.singletonList(toMatch);
+        }
+        log.warn("Unrecognized XMLObject type ({}), unable to convert to a string for comparison",
+                object.getClass().getName());
+        return CollectionSupport.emptyList();
+    }
     
     /**
      * An object to encapsulate the set of criteria that must be satisfied by an {@link EntityAttributes}
@@ -311,167 +514,122 @@ public class EntityAttributesPredicate implements Predicate<EntityDescriptor> {
     }
     
     /**
-     * Determines whether an {@link Candidate} criterion is satisfied by the {@link Attribute}s
-     * in an {@link EntityAttributes} extension.
+     * The tags of an entity and its parent groups, indexed by Attribute Name and NameFormat.
      */
-    private class EntityAttributesMatcher implements Predicate<Candidate> {
+    private static final class EntityTags {
+        
+        /** The tags that were indexed, with the number of values each had. */
+        @Nonnull private final List<Attribute> attributes;
+        
+        /** The number of values of each indexed tag. */
+        @Nonnull private final int[] valueCounts;
         
-        /** Population to evaluate for a match. */
-        @Nonnull private final Collection<Attribute> attributes;
+        /** Values by Attribute Name and NameFormat. */
+        @Nonnull private final Map<String, Map<String, TagValues>> byFormat;
+        
+        /** Values by Attribute Name, regardless of NameFormat. */
+        @Nonnull private final Map<String, TagValues> anyFormat;
         
         /**
          * Constructor.
          *
-         * @param attrs population to evaluate for a match
+         * @param attrs the tags that were indexed
+         * @param formats values by Attribute Name and NameFormat
+         * @param any values by Attribute Name
          */
-        public EntityAttributesMatcher(@Nonnull final Collection<Attribute> attrs) {
-            attributes = Constraint.isNotNull(attrs, "Extension attributes cannot be null");
+        EntityTags(@Nonnull final List<Attribute> attrs, @Nonnull final Map<String, Map<String, TagValues>> formats,
+                @Nonnull final Map<String, TagValues> any) {
+            attributes = new ArrayList<>(attrs);
+            valueCounts = new int[attributes.size()];
+            for (int i = 0; i < valueCounts.length; i++) {
+                valueCounts[i] = attributes.get(i).getAttributeValues().size();
+            }
+            byFormat = formats;
+            anyFormat = any;
         }
-
-// Checkstyle: MethodLength OFF
-        /** {@inheritDoc} */
-        public boolean test(@Nullable final Candidate input) {
-            if (input == null) {
+        
+        /**
+         * Get whether this is the index of the given tags, which are compared by identity.
+         * 
+         * @param attrs the current tags of the entity and its parent groups
+         * 
+         * @return true iff the tags are those that were indexed
+         */
+        boolean isIndexOf(@Nonnull final List<Attribute> attrs) {
+            if (attrs.size() != attributes.size()) {
                 return false;
             }
-            
-            final List<String> tagvals = input.values;
-            final List<Pattern> tagexps = input.regexps;
-
-            // Track whether we've found every match we need (possibly with arrays of 0 size).
-            final boolean[] valflags = new boolean[tagvals.size()];
-            final boolean[] expflags = new boolean[tagexps.size()];
-
-            // Check each attribute/tag in the populated set.
-            for (final Attribute a : attributes) {
-                // Compare Name and NameFormat for a matching tag.
-                final String name = a.getName();
-                String nameFormat = a.getNameFormat();
-                if (nameFormat == null) {
-                    nameFormat = Attribute.UNSPECIFIED;
-                }
-                if (name != null && name.equals(input.getName())
-                        && (input.getNameFormat() == null || nameFormat.equals(input.getNameFormat()))) {
-
-                    final List<String> attributeValues = getPossibleAttributeValuesAsStrings(a);
-                    // Check each tag value's simple content for a value match.
-                    for (int tagindex = 0; tagindex < tagvals.size(); ++tagindex) {
-                        final String tagvalstr = tagvals.get(tagindex);
-                        for (final String cvalstr: attributeValues) {
-                            if (tagvalstr != null && cvalstr != null) {
-                                if (tagvalstr.equals(cvalstr)) {
-                                    log.trace("Matched Entity Attribute ({}:{}) value {}", a.getNameFormat(),
-                                            a.getName(), tagvalstr);
-                                    valflags[tagindex] = true;
-                                    break;
-                                } else if (trimTags) {
-                                    if (tagvalstr.equals(cvalstr.trim())) {
-                                        log.trace("Matched Entity Attribute ({}:{}) value {}", a.getNameFormat(),
-                                                a.getName(), tagvalstr);
-                                        valflags[tagindex] = true;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-
-                    // Check each tag regular expression for a match.
-                    for (int tagindex = 0; tagindex < tagexps.size(); ++tagindex) {
-                        for (final String cvalstr: attributeValues) {
-                            if (tagexps.get(tagindex) != null && cvalstr != null) {
-                                if (tagexps.get(tagindex).matcher(cvalstr).matches()) {
-                                    log.trace("Matched Entity Attribute ({}:{}) value {}", a.getNameFormat(),
-                                            a.getName(), cvalstr);
-                                    expflags[tagindex] = true;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-
-            for (final boolean flag : valflags) {
-                if (!flag) {
-                    return false;
-                }
-            }
-
-            for (final boolean flag : expflags) {
-                if (!flag) {
+            for (int i = 0; i < valueCounts.length; i++) {
+                if (attrs.get(i) != attributes.get(i)
+                        || attrs.get(i).getAttributeValues().size() != valueCounts[i]) {
                     return false;
                 }
             }
-
             return true;
         }
-// Checkstyle: MethodLength ON
-
-        /** Get all possible strings values for the attribute.  This copes with the fact that
-         * an attribute can return multiple values {@link Attribute#getAttributeValues()} and that some
-         * type of value can have multiple values (for instance a boolean can be 1/0/true/false).
+        
+        /**
+         * Get the values of the tags with a given Attribute Name and NameFormat.
+         * 
+         * @param name the Attribute Name
+         * @param nameFormat the Attribute NameFormat, or null for any
+         * 
+         * @return the values, or null if there is no such tag
+         */
+        @Nullable TagValues getValues(@Nonnull final String name, @Nullable final String nameFormat) {
+            if (nameFormat == null) {
+                return anyFormat.get(name);
+            }
+            final Map<String, TagValues> formats = byFormat.get(name);
+            return formats != null ? formats.get(nameFormat) : null;
+        }
+    }
+    
+    /**
+     * The values of the tags with a given Attribute Name and NameFormat.
+     */
+    private static final class TagValues {
+        
+        /** The values. */
+        @Nonnull private final Set<String> values;
+        
+        /** The values, trimmed. */
+        @Nonnull private final Set<String> trimmedValues;
+        
+        /** Outcome of each regular expression evaluated so far. */
+        @Nonnull private final Map<Pattern, Boolean> regexpResults;
+        
+        /**
+         * Constructor.
          *
-         * @param attribute what to inspect
-         * @return all possible values, as string.
+         * @param vals the values
          */
-        @Nonnull @Live private List<String> getPossibleAttributeValuesAsStrings(final @Nonnull Attribute attribute) {
-            final List<XMLObject> cvals = attribute.getAttributeValues();
-            final List<String> result = new ArrayList<>(cvals.size()*2);
-            for (final XMLObject cval : cvals) {
-                assert cval != null;
-                result.addAll(xmlObjectToStrings(cval));
+        TagValues(@Nonnull final Set<String> vals) {
+            values = vals;
+            trimmedValues = new HashSet<>(vals.size());
+            for (final String val : vals) {
+                trimmedValues.add(val.trim());
             }
-            return result;
+            regexpResults = new ConcurrentHashMap<>();
         }
-     
+        
         /**
-         * Convert an XMLObject to an array of String which can represent the type, if recognized.
+         * Get whether any value matches a regular expression.
          * 
-         * @param object object to convert
-         * @return the converted value, or null
+         * @param regexp the regular expression
+         * 
+         * @return true iff a value matches the regular expression
          */
-        @Nullable @Unmodifiable @NotLive private List<String> xmlObjectToStrings(@Nonnull final XMLObject object) {
-            String toMatch = null;
-            String toMatchAlt = null;
-            if (object instanceof XSString xs) {
-                toMatch = xs.getValue();
-            } else if (object instanceof XSURI xs) {
-                toMatch = xs.getURI();
-            } else if (object instanceof XSBoolean xs) {
-                final XSBooleanValue val = xs.getValue();
-                if (val != null) {
-                    toMatch = val.getValue() ? "1" : "0";
-                    toMatchAlt = val.getValue() ? "true" : "false";
-                }
-            } else if (object instanceof XSInteger xs) {
-                final Integer val = xs.getValue();
-                if (val != null) {
-                    toMatch = val.toString();
-                }
-            } else if (object instanceof XSDateTime) {
-                final Instant dt = ((XSDateTime) object).getValue();
-                if (dt != null) {
-                    toMatch = DOMTypeSupport.instantToString(dt);
-                }
-            } else if (object instanceof XSBase64Binary) {
-                toMatch = ((XSBase64Binary) object).getValue();
-            } else if (object instanceof XSAny) {
-                final XSAny wc = (XSAny) object;
-                if (wc.getUnknownAttributes().isEmpty() && wc.getUnknownXMLObjects().isEmpty()) {
-                    toMatch = wc.getTextContent();
+        boolean matches(@Nonnull final Pattern regexp) {
+            return regexpResults.computeIfAbsent(regexp, p -> {
+                for (final String val : values) {
+                    if (p.matcher(val).matches()) {
+                        return true;
+                    }
                 }
-            }
-            if (toMatch != null && toMatchAlt != null) {
-                return CollectionSupport.listOf(toMatch, toMatchAlt);
-            } else if (toMatch != null) {
-                return CollectionSupport.singletonList(toMatch);
-            }
-            log.warn("Unrecognized XMLObject type ({}), unable to convert to a string for comparison",
-                    object.getClass().getName());
-            return CollectionSupport.emptyList();
+                return false;
+            });
         }
     }
-// Checkstyle: CyclomaticComplexity OFF
 
-}
\ No newline at end of file
+}
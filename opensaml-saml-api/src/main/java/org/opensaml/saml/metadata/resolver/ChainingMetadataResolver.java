@@ -15,10 +15,21 @@
 package org.opensaml.saml.metadata.resolver;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -26,6 +37,7 @@ import java.util.stream.StreamSupport;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.profile.criterion.ProfileRequestContextCriterion;
 import org.opensaml.saml.metadata.criteria.entity.DetectDuplicateEntityIDsCriterion;
@@ -33,11 +45,16 @@ import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.slf4j.Logger;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.NotLive;
 import net.shibboleth.shared.annotation.constraint.Unmodifiable;
 import net.shibboleth.shared.collection.CollectionSupport;
 import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.primitive.LoggerFactory;
 import net.shibboleth.shared.primitive.StringSupport;
 import net.shibboleth.shared.resolver.CriteriaSet;
@@ -48,10 +65,38 @@ import net.shibboleth.shared.resolver.ResolverException;
  * 
  * The Iterable of entity descriptors returned is the first non-null and non-empty Iterable found while iterating over
  * the registered resolvers in resolver list order.
+ * 
+ * <p>
+ * In concurrent mode the registered resolvers are queried in parallel rather than in turn. The result is the same,
+ * but the latency of a miss on one resolver no longer delays the query of the next.
+ * </p>
  */
 public class ChainingMetadataResolver extends AbstractIdentifiableInitializableComponent implements MetadataResolver,
         RefreshableMetadataResolver, ClearableMetadataResolver {
 
+    /**
+     * Metric name for the timer of each registered resolver, relative to the resolver's base name.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_TIMER_RESOLVE = "timer.resolve";
+
+    /**
+     * Metric name for the count of non-empty results of each registered resolver, relative to the resolver's
+     * base name.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_HITS = "counter.hits";
+
+    /**
+     * Metric name for the count of empty results of each registered resolver, relative to the resolver's
+     * base name.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_MISSES = "counter.misses";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(ChainingMetadataResolver.class);
 
@@ -67,10 +112,26 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
     /** Activation condition. */
     @Nullable private Predicate<ProfileRequestContext> activationCondition;
     
+    /** Whether the registered resolvers are queried concurrently. */
+    private boolean concurrentResolution;
+    
+    /** Executor used to query the registered resolvers in concurrent mode. */
+    @Nullable private ExecutorService executor;
+    
+    /** Whether the executor was created by this resolver, and so is shut down with it. */
+    private boolean createdOwnExecutor;
+    
+    /** Base name for metrics. */
+    @Nullable @NotEmpty private String metricsBaseName;
+    
+    /** Metrics of each registered resolver. */
+    @Nonnull private Map<MetadataResolver, MemberMetrics> memberMetrics;
+    
     /** Constructor. */
     public ChainingMetadataResolver() {
         resolvers = CollectionSupport.emptyList();
         detectDuplicateEntityIDs = DetectDuplicateEntityIDs.Off;
+        memberMetrics = CollectionSupport.emptyMap();
     }    
 
     /** {@inheritDoc} */
@@ -135,6 +196,151 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
         detectDuplicateEntityIDs = strategy != null ? strategy : DetectDuplicateEntityIDs.Off;
     }
 
+    /**
+     * Get whether the registered resolvers are queried concurrently.
+     * 
+     * @return whether the registered resolvers are queried concurrently
+     * 
+     * @since 5.2.0
+     */
+    public boolean isConcurrentResolution() {
+        return concurrentResolution;
+    }
+
+    /**
+     * Set whether the registered resolvers are queried concurrently.
+     * 
+     * <p>
+     * Each query is submitted to every registered resolver at once. The first non-empty result in resolver list
+     * order is returned as soon as it and the results of all resolvers ahead of it are available. Queries that
+     * have not started by then are cancelled, and the results of those still running are ignored. When duplicate
+     * entityID detection is in effect, the resolvers are queried in turn, since every resolver must be queried in
+     * any case.
+     * </p>
+     * 
+     * <p>
+     * Defaults to false.
+     * </p>
+     * 
+     * @param flag whether the registered resolvers are queried concurrently
+     * 
+     * @since 5.2.0
+     */
+    public void setConcurrentResolution(final boolean flag) {
+        checkSetterPreconditions();
+        concurrentResolution = flag;
+    }
+
+    /**
+     * Get the executor used to query the registered resolvers in concurrent mode.
+     * 
+     * @return the executor, or null if one is created on initialization
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the executor used to query the registered resolvers in concurrent mode.
+     * 
+     * <p>
+     * If not set, a pool of daemon threads, no larger than the number of registered resolvers, is used and shut
+     * down when this resolver is destroyed. Queries that find the pool fully busy run in the calling thread. An
+     * executor supplied here is not shut down by this resolver.
+     * </p>
+     * 
+     * @param executorService the executor
+     * 
+     * @since 5.2.0
+     */
+    public void setExecutor(@Nullable final ExecutorService executorService) {
+        checkSetterPreconditions();
+        executor = executorService;
+    }
+
+    /**
+     * Get the base name for metrics.
+     * 
+     * @return the base name for metrics
+     * 
+     * @since 5.2.0
+     */
+    @Nullable @NotEmpty public String getMetricsBaseName() {
+        return metricsBaseName;
+    }
+
+    /**
+     * Set the base name for metrics.
+     * 
+     * <p>
+     * The metrics of each registered resolver are named relative to this name and the resolver's ID. Defaults to
+     * the class name and the ID of this resolver.
+     * </p>
+     * 
+     * @param baseName the base name for metrics
+     * 
+     * @since 5.2.0
+     */
+    public void setMetricsBaseName(@Nullable @NotEmpty final String baseName) {
+        checkSetterPreconditions();
+        metricsBaseName = StringSupport.trimOrNull(baseName);
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (metricsBaseName == null) {
+            metricsBaseName = MetricRegistry.name(getClass().getName(), getId());
+        }
+        
+        final MetricRegistry metricRegistry = MetricsSupport.getMetricRegistry();
+        if (metricRegistry != null) {
+            final Map<MetadataResolver, MemberMetrics> metrics = new IdentityHashMap<>();
+            for (final MetadataResolver resolver : resolvers) {
+                final String baseName = MetricRegistry.name(metricsBaseName, resolver.getId());
+                metrics.put(resolver, new MemberMetrics(
+                        metricRegistry.timer(MetricRegistry.name(baseName, METRIC_TIMER_RESOLVE)),
+                        metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_HITS)),
+                        metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_MISSES))));
+            }
+            memberMetrics = metrics;
+        }
+        
+        if (concurrentResolution && executor == null) {
+            final String threadName = "ChainingMetadataResolver [" + getId() + "]-";
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(0, Math.max(1, resolvers.size()), 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    r -> {
+                        final Thread thread = new Thread(r, threadName + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (r, pool) -> {
+                        if (pool.isShutdown()) {
+                            throw new RejectedExecutionException("Executor has been shut down");
+                        }
+                        r.run();
+                    });
+            createdOwnExecutor = true;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (createdOwnExecutor && executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            createdOwnExecutor = false;
+        }
+        memberMetrics = CollectionSupport.emptyMap();
+        
+        super.doDestroy();
+    }
+
     /** {@inheritDoc} */
     @Override public boolean isRequireValidMetadata() {
         log.warn("Attempt to access unsupported requireValidMetadata property on ChainingMetadataResolver");
@@ -212,6 +418,11 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
         }
         log.trace("Effective DetectDuplicateEntityIDs value is: {}", detectDuplicates);
 
+        final ExecutorService executorService = executor;
+        if (concurrentResolution && executorService != null && detectDuplicates == DetectDuplicateEntityIDs.Off) {
+            return resolveConcurrently(criteria, executorService);
+        }
+
         Iterable<EntityDescriptor> result = null;
         Set<String> resultEntityIDs = null;
         for (final MetadataResolver resolver : resolvers) {
@@ -222,7 +433,7 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
                     continue;
                 }
                 
-                final Iterable<EntityDescriptor> descriptors = resolver.resolve(criteria);
+                final Iterable<EntityDescriptor> descriptors = resolveMember(resolver, criteria);
                 if (descriptors != null && descriptors.iterator().hasNext()) {
                     if (detectDuplicates == DetectDuplicateEntityIDs.Off) {
                         log.trace("Resolved EntityDescriptor(s) from '{}', duplicate detection disabled, returning",
@@ -248,6 +459,84 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
         return CollectionSupport.emptyList();
     }
 // Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Query the registered resolvers concurrently, returning the first non-empty result in resolver list order.
+     * 
+     * @param criteria the criteria set
+     * @param executorService the executor to query the resolvers with
+     * 
+     * @return the first non-empty result, or an empty result
+     * 
+     * @throws ResolverException if the queries cannot be submitted or the calling thread is interrupted
+     */
+    @Nonnull private Iterable<EntityDescriptor> resolveConcurrently(@Nullable final CriteriaSet criteria,
+            @Nonnull final ExecutorService executorService) throws ResolverException {
+        final List<Future<Iterable<EntityDescriptor>>> futures = new ArrayList<>(resolvers.size());
+        try {
+            for (final MetadataResolver resolver : resolvers) {
+                assert resolver != null;
+                futures.add(executorService.submit(() -> resolveMember(resolver, criteria)));
+            }
+            
+            for (int i = 0; i < futures.size(); i++) {
+                final MetadataResolver resolver = resolvers.get(i);
+                try {
+                    final Iterable<EntityDescriptor> descriptors = futures.get(i).get();
+                    if (descriptors != null && descriptors.iterator().hasNext()) {
+                        log.trace("Resolved EntityDescriptor(s) from '{}', cancelling remaining resolvers",
+                                resolver.getId());
+                        return descriptors;
+                    }
+                } catch (final ExecutionException e) {
+                    log.warn("Error retrieving metadata from resolver of type {}, proceeding to next resolver",
+                            resolver.getClass().getName(), e.getCause());
+                }
+            }
+        } catch (final RejectedExecutionException e) {
+            throw new ResolverException("Unable to submit query to registered resolvers", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolverException("Interrupted while waiting for registered resolvers", e);
+        } finally {
+            for (final Future<Iterable<EntityDescriptor>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        
+        return CollectionSupport.emptyList();
+    }
+
+    /**
+     * Query a registered resolver, recording its metrics.
+     * 
+     * @param resolver the registered resolver
+     * @param criteria the criteria set
+     * 
+     * @return the result of the resolver
+     * 
+     * @throws ResolverException if the resolver fails
+     */
+    @Nullable private Iterable<EntityDescriptor> resolveMember(@Nonnull final MetadataResolver resolver,
+            @Nullable final CriteriaSet criteria) throws ResolverException {
+        final MemberMetrics metrics = memberMetrics.get(resolver);
+        if (metrics == null) {
+            return resolver.resolve(criteria);
+        }
+        
+        final Timer.Context context = metrics.timer().time();
+        try {
+            final Iterable<EntityDescriptor> descriptors = resolver.resolve(criteria);
+            if (descriptors != null && descriptors.iterator().hasNext()) {
+                metrics.hits().inc();
+            } else {
+                metrics.misses().inc();
+            }
+            return descriptors;
+        } finally {
+            context.stop();
+        }
+    }
     
     /**
      * Perform duplicate entityID detection.
@@ -439,4 +728,14 @@ public class ChainingMetadataResolver extends AbstractIdentifiableInitializableC
         return null;
     }
 
+    /**
+     * Metrics of a registered resolver.
+     * 
+     * @param timer timer of the resolver's queries
+     * @param hits count of the resolver's non-empty results
+     * @param misses count of the resolver's empty results
+     */
+    private record MemberMetrics(@Nonnull Timer timer, @Nonnull Counter hits, @Nonnull Counter misses) {
+    }
+
 }
\ No newline at end of file
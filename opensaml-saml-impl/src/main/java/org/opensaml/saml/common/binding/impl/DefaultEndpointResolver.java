@@ -14,9 +14,11 @@
 
 package org.opensaml.saml.common.binding.impl;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.saml.common.binding.AbstractEndpointResolver;
 import org.opensaml.saml.criterion.BindingCriterion;
@@ -70,6 +72,24 @@ public class DefaultEndpointResolver<EndpointType extends Endpoint> extends Abst
         return true;
     }
     
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected Object getEndpointCheckKey(@Nonnull final CriteriaSet criteria) {
+        final EndpointCriterion<EndpointType> epCriterion = criteria.get(EndpointCriterion.class);
+        final EndpointType comparisonEndpoint = epCriterion != null ? epCriterion.getEndpoint() : null;
+        if (comparisonEndpoint != null && comparisonEndpoint.getParent() != null) {
+            // The comparison endpoint may itself be one of the candidates, which is matched by identity.
+            return null;
+        }
+        
+        final BindingCriterion bindingCriterion = criteria.get(BindingCriterion.class);
+        return Arrays.asList(
+                isInMetadataOrder() && bindingCriterion != null ? bindingCriterion.getBindings() : null,
+                comparisonEndpoint != null ? comparisonEndpoint.getBinding() : null,
+                comparisonEndpoint != null ? comparisonEndpoint.getLocation() : null,
+                comparisonEndpoint instanceof IndexedEndpoint indexed ? indexed.getIndex() : null);
+    }
+    
     /**
      * Verify the candidate's Binding attribute, if set, is among the set in the supplied criterion.
      * 
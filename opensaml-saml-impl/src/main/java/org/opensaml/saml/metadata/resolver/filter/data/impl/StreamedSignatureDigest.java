@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.filter.data.impl;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Object metadata attached to the root {@link org.opensaml.xmlsec.signature.Signature} of metadata that was
+ * unmarshalled in streaming mode, holding the digest of the signed content computed while it was parsed.
+ *
+ * <p>
+ * Streamed metadata does not retain a DOM of the whole document, so the signature's reference cannot be
+ * dereferenced again. The digest is compared with the reference's DigestValue instead, and only the
+ * SignedInfo is verified against the signing key.
+ * </p>
+ *
+ * @since 5.2.0
+ */
+public class StreamedSignatureDigest {
+
+    /** The Reference URI that the digest was computed for. */
+    @Nonnull private final String referenceURI;
+
+    /** The digest algorithm URI. */
+    @Nonnull private final String digestAlgorithm;
+
+    /** The digest value. */
+    @Nonnull private final byte[] digestValue;
+
+    /**
+     * Constructor.
+     *
+     * @param uri the Reference URI that the digest was computed for
+     * @param algorithm the digest algorithm URI
+     * @param value the digest value
+     */
+    public StreamedSignatureDigest(@Nonnull final String uri, @Nonnull final String algorithm,
+            @Nonnull final byte[] value) {
+        referenceURI = Constraint.isNotNull(uri, "Reference URI cannot be null");
+        digestAlgorithm = Constraint.isNotNull(algorithm, "Digest algorithm cannot be null");
+        digestValue = Constraint.isNotNull(value, "Digest value cannot be null").clone();
+    }
+
+    /**
+     * Get the Reference URI that the digest was computed for.
+     *
+     * @return the Reference URI
+     */
+    @Nonnull public String getReferenceURI() {
+        return referenceURI;
+    }
+
+    /**
+     * Get the digest algorithm URI.
+     *
+     * @return the digest algorithm URI
+     */
+    @Nonnull public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Get the digest value.
+     *
+     * @return a copy of the digest value
+     */
+    @Nonnull public byte[] getDigestValue() {
+        return digestValue.clone();
+    }
+
+}
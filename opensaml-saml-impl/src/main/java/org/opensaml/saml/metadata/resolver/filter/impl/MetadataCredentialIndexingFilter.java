@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.filter.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.metadata.resolver.filter.AbstractMetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml.security.impl.MetadataCredentialIndex;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.slf4j.Logger;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.resolver.ResolverException;
+
+/**
+ * A filter that resolves the credentials of every {@link RoleDescriptor} in the metadata when it is loaded, and
+ * attaches them to the role descriptor as a {@link MetadataCredentialIndex}.
+ *
+ * <p>
+ * {@link org.opensaml.saml.security.impl.MetadataCredentialResolver} uses the index instead of resolving KeyInfo
+ * on the request path, so the {@link KeyInfoCredentialResolver} supplied to this filter should be equivalent to
+ * the one supplied to the credential resolver. A role descriptor whose KeyInfo can not be resolved is not indexed,
+ * and its credentials are resolved on demand as before.
+ * </p>
+ *
+ * <p>
+ * This filter should run after any filter which removes or modifies roles or their key descriptors.
+ * </p>
+ *
+ * @since 5.2.0
+ */
+public class MetadataCredentialIndexingFilter extends AbstractMetadataFilter {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MetadataCredentialIndexingFilter.class);
+
+    /** Resolver used to resolve credentials from KeyInfo. */
+    @NonnullAfterInit private KeyInfoCredentialResolver keyInfoCredentialResolver;
+
+    /** Maximum number of roles indexed concurrently. */
+    @Positive private int parallelism;
+
+    /** Pool on which roles are indexed, if parallelism is greater than 1. */
+    @Nullable private ForkJoinPool indexingPool;
+
+    /** Constructor. */
+    public MetadataCredentialIndexingFilter() {
+        parallelism = 1;
+    }
+
+    /**
+     * Get the resolver used to resolve credentials from KeyInfo.
+     *
+     * @return the KeyInfo credential resolver
+     *
+     * @since 5.2.0
+     */
+    @NonnullAfterInit public KeyInfoCredentialResolver getKeyInfoCredentialResolver() {
+        return keyInfoCredentialResolver;
+    }
+
+    /**
+     * Set the resolver used to resolve credentials from KeyInfo.
+     *
+     * @param resolver the KeyInfo credential resolver
+     *
+     * @since 5.2.0
+     */
+    public void setKeyInfoCredentialResolver(@Nonnull final KeyInfoCredentialResolver resolver) {
+        checkSetterPreconditions();
+        keyInfoCredentialResolver = Constraint.isNotNull(resolver, "KeyInfoCredentialResolver cannot be null");
+    }
+
+    /**
+     * Get the maximum number of roles indexed concurrently.
+     *
+     * <p>Defaults to 1.</p>
+     *
+     * @return the maximum number of roles indexed concurrently
+     *
+     * @since 5.2.0
+     */
+    @Positive public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the maximum number of roles indexed concurrently.
+     *
+     * <p>If greater than 1, the KeyInfo of the roles is resolved on a pool of this many threads.</p>
+     *
+     * <p>Defaults to 1, indexing roles sequentially on the calling thread.</p>
+     *
+     * @param threads maximum number of roles indexed concurrently
+     *
+     * @since 5.2.0
+     */
+    public void setParallelism(@Positive final int threads) {
+        checkSetterPreconditions();
+        parallelism = Constraint.isGreaterThan(0, threads, "Parallelism must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (keyInfoCredentialResolver == null) {
+            throw new ComponentInitializationException("A KeyInfoCredentialResolver instance is required");
+        }
+
+        if (parallelism > 1) {
+            indexingPool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (indexingPool != null) {
+            indexingPool.shutdown();
+        }
+        indexingPool = null;
+
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public XMLObject filter(@Nullable final XMLObject metadata, @Nonnull final MetadataFilterContext context)
+            throws FilterException {
+        checkComponentActive();
+
+        if (metadata == null) {
+            return null;
+        }
+
+        final List<RoleDescriptor> roles = new ArrayList<>();
+        collectRoles(metadata, roles);
+
+        final List<Callable<MetadataCredentialIndex>> tasks = new ArrayList<>(roles.size());
+        for (final RoleDescriptor role : roles) {
+            tasks.add(() -> buildIndex(role));
+        }
+
+        final List<MetadataCredentialIndex> indexes = new ArrayList<>(roles.size());
+        final ForkJoinPool pool = indexingPool;
+        if (pool != null && tasks.size() > 1) {
+            try {
+                for (final Future<MetadataCredentialIndex> future : pool.invokeAll(tasks)) {
+                    indexes.add(future.get());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FilterException("Interrupted while indexing metadata credentials", e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new FilterException("Error indexing metadata credentials", e);
+            }
+        } else {
+            for (final RoleDescriptor role : roles) {
+                assert role != null;
+                indexes.add(buildIndex(role));
+            }
+        }
+
+        int indexed = 0;
+        for (int i = 0; i < roles.size(); i++) {
+            final RoleDescriptor role = roles.get(i);
+            role.getObjectMetadata().remove(MetadataCredentialIndex.class);
+            final MetadataCredentialIndex index = indexes.get(i);
+            if (index != null) {
+                role.getObjectMetadata().put(index);
+                indexed++;
+            }
+        }
+        log.debug("Indexed credentials of {} of {} roles", indexed, roles.size());
+
+        return metadata;
+    }
+
+    /**
+     * Collect the roles of all entities in a metadata tree.
+     *
+     * @param metadata the metadata
+     * @param roles the roles collected so far
+     */
+    private void collectRoles(@Nonnull final XMLObject metadata, @Nonnull final List<RoleDescriptor> roles) {
+        if (metadata instanceof EntitiesDescriptor group) {
+            for (final EntitiesDescriptor child : group.getEntitiesDescriptors()) {
+                assert child != null;
+                collectRoles(child, roles);
+            }
+            for (final EntityDescriptor child : group.getEntityDescriptors()) {
+                assert child != null;
+                collectRoles(child, roles);
+            }
+        } else if (metadata instanceof EntityDescriptor entity) {
+            roles.addAll(entity.getRoleDescriptors());
+        }
+    }
+
+    /**
+     * Build the credential index of a role.
+     *
+     * @param role the role
+     *
+     * @return the index, or null if the KeyInfo of the role could not be resolved
+     */
+    @Nullable private MetadataCredentialIndex buildIndex(@Nonnull final RoleDescriptor role) {
+        try {
+            return MetadataCredentialIndex.build(role, keyInfoCredentialResolver);
+        } catch (final ResolverException e) {
+            String entityID = null;
+            if (role.getParent() instanceof EntityDescriptor entity) {
+                entityID = entity.getEntityID();
+            }
+            log.warn("Unable to index credentials of role {} of entity '{}', they will be resolved on demand: {}",
+                    role.getElementQName(), entityID, e.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -14,46 +14,109 @@
 
 package org.opensaml.saml.metadata.resolver.filter.impl;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.apache.xml.security.algorithms.implementations.ECDSAUtils;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.saml.metadata.resolver.filter.AbstractMetadataFilter;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
 import org.opensaml.saml.metadata.resolver.filter.data.impl.MetadataSource;
+import org.opensaml.saml.metadata.resolver.filter.data.impl.StreamedSignatureDigest;
 import org.opensaml.saml.saml2.metadata.AffiliationDescriptor;
 import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
 import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.UsageType;
 import org.opensaml.security.criteria.UsageCriterion;
+import org.opensaml.security.crypto.JCAConstants;
 import org.opensaml.security.x509.TrustedNamesCriterion;
+import org.opensaml.xmlsec.algorithm.AlgorithmDescriptor;
+import org.opensaml.xmlsec.algorithm.AlgorithmRegistry;
+import org.opensaml.xmlsec.algorithm.AlgorithmSupport;
+import org.opensaml.xmlsec.algorithm.SignatureAlgorithm;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
 import org.opensaml.xmlsec.signature.SignableXMLObject;
 import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.impl.SignatureImpl;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignaturePrevalidator;
 import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.opensaml.xmlsec.signature.support.SignatureValidationParametersCriterion;
+import org.opensaml.xmlsec.signature.support.impl.SignatureAlgorithmValidator;
 import org.slf4j.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 import net.shibboleth.shared.annotation.ParameterName;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.primitive.StringSupport;
 import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
 
 /**
  * A metadata filter that validates XML signatures.
  */
 public class SignatureValidationFilter extends AbstractMetadataFilter {
     
+    /**
+     * Metric name for the timer of the parallel verification of member signatures.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_TIMER_PARALLEL_VERIFICATION = "timer.parallelVerification";
+    
+    /**
+     * Metric name for the counter of member signatures verified in parallel.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_PARALLEL_VERIFICATIONS =
+            "counter.parallelVerifications";
+    
+    /**
+     * Metric name for the gauge of the number of member signatures that may be verified concurrently.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_GAUGE_PARALLELISM = "gauge.parallelism";
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(SignatureValidationFilter.class);
 
@@ -74,6 +137,24 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
     
     /** Strategy function for extracting dynamic trusted names from signed metadata elements. */
     @Nullable private Function<XMLObject, Set<String>> dynamicTrustedNamesStrategy;
+    
+    /** Maximum number of member signatures verified concurrently. */
+    @Positive private int parallelism;
+    
+    /** Base name for Metrics instrumentation names. */
+    @Nullable private String metricsBaseName;
+    
+    /** Pool on which member signatures are verified, if parallelism is greater than 1. */
+    @Nullable private ForkJoinPool verificationPool;
+    
+    /** Metrics Timer for the parallel verification of member signatures. */
+    @Nullable private Timer timerParallelVerification;
+    
+    /** Metrics Counter for member signatures verified in parallel. */
+    @Nullable private Counter counterParallelVerifications;
+    
+    /** Metrics Gauge for the verification parallelism. */
+    @Nullable private Gauge<Integer> gaugeParallelism;
 
     /**
      * Constructor.
@@ -92,6 +173,7 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
         Constraint.isNotNull(engine, "SignatureTrustEngine cannot be null");
         
         requireSignedRoot = true;
+        parallelism = 1;
 
         signatureTrustEngine = engine;
         signaturePrevalidator = new SAMLSignatureProfileValidator();
@@ -214,6 +296,114 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
         defaultCriteria = newCriteria;
     }
 
+    /**
+     * Get the maximum number of member signatures verified concurrently.
+     * 
+     * <p>Defaults to 1.</p>
+     * 
+     * @return the maximum number of member signatures verified concurrently
+     * 
+     * @since 5.2.0
+     */
+    @Positive public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set the maximum number of member signatures verified concurrently.
+     * 
+     * <p>
+     * If greater than 1, once the signature of an {@link EntitiesDescriptor} root has been verified, the
+     * signatures of all its members, their roles and their affiliations are verified on a pool of this many
+     * threads before any member is removed. Members that fail are then removed in document order, exactly
+     * as they would be by sequential processing. Before verification starts, the whole DOM of the metadata is
+     * expanded on the calling thread, so that DOM implementations which build nodes lazily on first access,
+     * such as Xerces with deferred node expansion enabled, are only read by the verification threads.
+     * </p>
+     * 
+     * <p>Defaults to 1, verifying signatures sequentially on the calling thread.</p>
+     * 
+     * @param threads maximum number of member signatures verified concurrently
+     * 
+     * @since 5.2.0
+     */
+    public void setParallelism(@Positive final int threads) {
+        checkSetterPreconditions();
+        parallelism = Constraint.isGreaterThan(0, threads, "Parallelism must be greater than 0");
+    }
+    
+    /**
+     * Get the base name for Metrics instrumentation.
+     * 
+     * @return the Metrics base name
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public String getMetricsBaseName() {
+        return metricsBaseName;
+    }
+    
+    /**
+     * Set the base name for Metrics instrumentation.
+     * 
+     * <p>Defaults to the class name, followed by the filter type if one is set.</p>
+     * 
+     * @param baseName the Metrics base name
+     * 
+     * @since 5.2.0
+     */
+    public void setMetricsBaseName(@Nullable final String baseName) {
+        checkSetterPreconditions();
+        metricsBaseName = StringSupport.trimOrNull(baseName);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (metricsBaseName == null) {
+            metricsBaseName = MetricRegistry.name(getClass().getName(), getType());
+        }
+        
+        if (parallelism > 1) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            verificationPool = pool;
+            
+            final MetricRegistry metricRegistry = MetricsSupport.getMetricRegistry();
+            if (metricRegistry != null) {
+                timerParallelVerification = metricRegistry.timer(
+                        MetricRegistry.name(metricsBaseName, METRIC_TIMER_PARALLEL_VERIFICATION));
+                counterParallelVerifications = metricRegistry.counter(
+                        MetricRegistry.name(metricsBaseName, METRIC_COUNTER_PARALLEL_VERIFICATIONS));
+                gaugeParallelism = MetricsSupport.register(
+                        MetricRegistry.name(metricsBaseName, METRIC_GAUGE_PARALLELISM),
+                        new Gauge<Integer>() {
+                            public Integer getValue() {
+                                return pool.getParallelism();
+                            }},
+                        true);
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (gaugeParallelism != null) {
+            MetricsSupport.remove(MetricRegistry.name(metricsBaseName, METRIC_GAUGE_PARALLELISM), gaugeParallelism);
+        }
+        if (verificationPool != null) {
+            verificationPool.shutdown();
+        }
+        gaugeParallelism = null;
+        counterParallelVerifications = null;
+        timerParallelVerification = null;
+        verificationPool = null;
+        
+        super.doDestroy();
+    }
+
     /** {@inheritDoc} */
     @Nullable public XMLObject filter(@Nullable final XMLObject metadata, @Nonnull final MetadataFilterContext context)
             throws FilterException {
@@ -268,7 +458,7 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
                 log.trace("Skipping root signature validation of EntityDescriptor based on filter context data");
             } else {
                 log.trace("Proceeding with signature validation of EntityDescriptor");
-                verifySignature(entityDescriptor, entityID, false);
+                checkSignature(entityDescriptor, entityID, false, context);
             }
         }
         
@@ -284,7 +474,7 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
             
             try {
                 final String roleID = getRoleIDToken(entityID, roleChild);
-                verifySignature(roleChild, roleID, false);
+                checkSignature(roleChild, roleID, false, context);
             } catch (final FilterException e) {
                 log.error("RoleDescriptor '{}' subordinate to entity '{}' failed signature verification, " 
                        + "removing from metadata provider", 
@@ -304,7 +494,7 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
                         affiliationDescriptor.getOwnerID());
                 
                 try {
-                    verifySignature(affiliationDescriptor, affiliationDescriptor.getOwnerID(), false);
+                    checkSignature(affiliationDescriptor, affiliationDescriptor.getOwnerID(), false, context);
                 } catch (final FilterException e) {
                     log.error("AffiliationDescriptor with owner ID '{}' subordinate to entity '{}' " + 
                             "failed signature verification, removing from metadata provider", 
@@ -327,7 +517,6 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
      * @throws FilterException thrown if an error occurs during the signature verification process
      *                          on the root EntitiesDescriptor specified
      */
-    // Checkstyle: CyclomaticComplexity OFF
     protected void processEntityGroup(@Nonnull final EntitiesDescriptor entitiesDescriptor,
             @Nonnull final MetadataFilterContext context, final boolean isRoot) throws FilterException {
 
@@ -339,9 +528,35 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
                 log.trace("Skipping root signature validation of EntitiesDescriptor based on filter context data");
             } else {
                 log.trace("Proceeding with signature validation of EntitiesDescriptor");
-                verifySignature(entitiesDescriptor, name, true);
+                checkSignature(entitiesDescriptor, name, true, context);
+            }
+        }
+        
+        VerifiedSignatures verified = null;
+        if (isRoot && verificationPool != null && context.get(VerifiedSignatures.class) == null) {
+            verified = verifyMembers(entitiesDescriptor);
+            context.add(verified);
+        }
+        try {
+            processEntityGroupMembers(entitiesDescriptor, context);
+        } finally {
+            if (verified != null) {
+                context.remove(verified);
             }
         }
+    }
+    
+    /**
+     * Process the members of the specified EntitiesDescriptor.
+     * 
+     * If signature verification fails on a member, it will be removed from the entities descriptor group.
+     * 
+     * @param entitiesDescriptor the EntitiesDescriptor whose members are to be processed
+     * @param context the current filter context
+     */
+    // Checkstyle: CyclomaticComplexity OFF
+    private void processEntityGroupMembers(@Nonnull final EntitiesDescriptor entitiesDescriptor,
+            @Nonnull final MetadataFilterContext context) {
         
         // Can't use IndexedXMLObjectChildrenList sublist iterator remove() to remove members,
         // so just note them in a set and then remove after iteration has completed.
@@ -392,6 +607,219 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
     }
     // Checkstyle: CyclomaticComplexity ON
     
+    /**
+     * Evaluate the signature on the signed metadata instance, using the result of parallel verification
+     * if it has already been verified.
+     * 
+     * @param signedMetadata the metadata object whose signature is to be verified
+     * @param metadataEntryName the name of the metadata entry, for logging
+     * @param isEntityGroup flag indicating whether the signed object is a metadata group (EntitiesDescriptor)
+     * @param context the current filter context
+     * 
+     * @throws FilterException thrown if the metadata entry's signature can not be established as trusted,
+     *                         or if an error occurs during the signature verification process
+     */
+    private void checkSignature(@Nonnull final SignableXMLObject signedMetadata,
+            @Nullable @NotEmpty final String metadataEntryName, final boolean isEntityGroup,
+            @Nonnull final MetadataFilterContext context) throws FilterException {
+        
+        final VerifiedSignatures verified = context.get(VerifiedSignatures.class);
+        if (verified != null && verified.results.containsKey(signedMetadata)) {
+            final FilterException failure = verified.results.get(signedMetadata);
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+        
+        verifySignature(signedMetadata, metadataEntryName, isEntityGroup);
+    }
+    
+    /**
+     * Verify the signatures of all the members of a group, their roles and their affiliations in parallel.
+     * 
+     * <p>The members of a signed nested group are only verified once the group's own signature has been, in a
+     * later round, and not at all if it failed, since sequential processing discards such a group unseen.</p>
+     * 
+     * @param entitiesDescriptor the group
+     * 
+     * @return the results, which are applied by the sequential processing of the group
+     * 
+     * @throws FilterException if the verification is interrupted
+     */
+    @Nonnull private VerifiedSignatures verifyMembers(@Nonnull final EntitiesDescriptor entitiesDescriptor)
+            throws FilterException {
+        
+        final ForkJoinPool pool = verificationPool;
+        assert pool != null;
+        
+        final Element dom = entitiesDescriptor.getDOM();
+        if (dom != null) {
+            expandDOM(dom.getOwnerDocument());
+        }
+        
+        final VerifiedSignatures verified = new VerifiedSignatures();
+        int verifications = 0;
+        List<EntitiesDescriptor> groups = CollectionSupport.singletonList(entitiesDescriptor);
+        final Timer.Context timerContext = MetricsSupport.startTimer(timerParallelVerification);
+        try {
+            while (!groups.isEmpty()) {
+                final List<SignableXMLObject> signed = new ArrayList<>();
+                final List<Callable<FilterException>> tasks = new ArrayList<>();
+                final List<EntitiesDescriptor> signedGroups = new ArrayList<>();
+                for (final EntitiesDescriptor group : groups) {
+                    collectMemberSignatures(group, signed, tasks, signedGroups);
+                }
+                if (tasks.isEmpty()) {
+                    break;
+                }
+                
+                log.debug("Verifying {} member signatures with parallelism {}", tasks.size(),
+                        pool.getParallelism());
+                final List<Future<FilterException>> futures = pool.invokeAll(tasks);
+                for (int i = 0; i < futures.size(); i++) {
+                    verified.results.put(signed.get(i), futures.get(i).get());
+                }
+                verifications += tasks.size();
+                
+                groups = new ArrayList<>(signedGroups.size());
+                for (final EntitiesDescriptor group : signedGroups) {
+                    if (verified.results.get(group) == null) {
+                        groups.add(group);
+                    } else {
+                        log.debug("Not verifying the members of EntitiesDescriptor '{}', whose signature failed",
+                                getGroupName(group));
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FilterException("Interrupted while verifying member signatures", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FilterException("Error verifying member signatures", e);
+        } finally {
+            MetricsSupport.stopTimer(timerContext);
+        }
+        
+        if (counterParallelVerifications != null) {
+            counterParallelVerifications.inc(verifications);
+        }
+        return verified;
+    }
+    
+    /**
+     * Visit every node of a DOM tree, forcing a DOM implementation that defers the construction of nodes, or of
+     * their data, to complete it.
+     * 
+     * <p>Deferred DOM implementations update their internal state on first access to a node, which is not
+     * safe to do from several threads at once.</p>
+     * 
+     * @param root the root of the tree
+     */
+    private void expandDOM(@Nonnull final Node root) {
+        Node node = root;
+        while (node != null) {
+            expandNode(node);
+            final NamedNodeMap attributes = node.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    expandNode(attributes.item(i));
+                }
+            }
+            
+            // Depth-first, document order, without recursion.
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+    
+    /**
+     * Access the name and data of a node.
+     * 
+     * @param node the node
+     */
+    private void expandNode(@Nonnull final Node node) {
+        node.getNamespaceURI();
+        node.getLocalName();
+        node.getPrefix();
+        node.getNodeValue();
+    }
+    
+    /**
+     * Collect the signatures that sequential processing of a group's members would verify, other than those
+     * within signed nested groups.
+     * 
+     * @param entitiesDescriptor the group
+     * @param signed the signed objects, in document order
+     * @param tasks the verification task for each signed object
+     * @param signedGroups the signed nested groups, whose members are left to a later round
+     */
+    private void collectMemberSignatures(@Nonnull final EntitiesDescriptor entitiesDescriptor,
+            @Nonnull final List<SignableXMLObject> signed, @Nonnull final List<Callable<FilterException>> tasks,
+            @Nonnull final List<EntitiesDescriptor> signedGroups) {
+        
+        for (final EntityDescriptor entity : entitiesDescriptor.getEntityDescriptors()) {
+            if (!entity.isSigned()) {
+                continue;
+            }
+            final String entityID = entity.getEntityID();
+            addVerification(entity, entityID, false, signed, tasks);
+            for (final RoleDescriptor role : entity.getRoleDescriptors()) {
+                if (role.isSigned()) {
+                    addVerification(role, getRoleIDToken(entityID, role), false, signed, tasks);
+                }
+            }
+            final AffiliationDescriptor affiliation = entity.getAffiliationDescriptor();
+            if (affiliation != null && affiliation.isSigned()) {
+                addVerification(affiliation, affiliation.getOwnerID(), false, signed, tasks);
+            }
+        }
+        
+        for (final EntitiesDescriptor group : entitiesDescriptor.getEntitiesDescriptors()) {
+            if (group.isSigned()) {
+                addVerification(group, getGroupName(group), true, signed, tasks);
+                signedGroups.add(group);
+            } else {
+                collectMemberSignatures(group, signed, tasks, signedGroups);
+            }
+        }
+    }
+    
+    /**
+     * Add a verification task.
+     * 
+     * @param signedMetadata the signed object
+     * @param metadataEntryName the name of the metadata entry, for logging
+     * @param isEntityGroup flag indicating whether the signed object is a metadata group (EntitiesDescriptor)
+     * @param signed the signed objects
+     * @param tasks the verification tasks
+     */
+    private void addVerification(@Nonnull final SignableXMLObject signedMetadata,
+            @Nullable final String metadataEntryName, final boolean isEntityGroup,
+            @Nonnull final List<SignableXMLObject> signed, @Nonnull final List<Callable<FilterException>> tasks) {
+        signed.add(signedMetadata);
+        tasks.add(() -> {
+            try {
+                verifySignature(signedMetadata, metadataEntryName, isEntityGroup);
+                return null;
+            } catch (final FilterException e) {
+                return e;
+            }
+        });
+    }
+    
     /**
      * Evaluate the signature on the signed metadata instance.
      * 
@@ -423,8 +851,22 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
         
         final CriteriaSet criteriaSet = buildCriteriaSet(signedMetadata, isEntityGroup);
         
+        final List<StreamedSignatureDigest> streamedDigests =
+                signature.getObjectMetadata().get(StreamedSignatureDigest.class);
+        
         try {
-            if (getSignatureTrustEngine().validate(signature, criteriaSet)) {
+            final boolean valid;
+            if (!streamedDigests.isEmpty()) {
+                if (signedMetadata.getDOM() == null) {
+                    log.error("Streamed metadata entry {} was modified before its signature was verified",
+                            metadataEntryName);
+                    throw new FilterException("Streamed metadata entry was modified before signature verification");
+                }
+                valid = validateStreamedSignature(signature, streamedDigests.get(0), criteriaSet);
+            } else {
+                valid = getSignatureTrustEngine().validate(signature, criteriaSet);
+            }
+            if (valid) {
                 log.trace("Signature trust establishment succeeded for metadata entry {}", metadataEntryName);
             } else {
                 log.error("Signature trust establishment failed for metadata entry {}", metadataEntryName);
@@ -438,6 +880,93 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
         }
     }
 
+    /**
+     * Validate a signature whose reference digest was computed while the metadata was streamed, and whose
+     * signed content is therefore no longer available as a DOM.
+     * 
+     * <p>
+     * The streamed digest is compared with the reference's DigestValue, and the SignatureValue is then
+     * verified over the canonicalized SignedInfo as a raw signature, using any credentials resolved from the
+     * signature's KeyInfo as candidates.
+     * </p>
+     * 
+     * @param signature the signature to validate
+     * @param streamedDigest the digest computed while streaming
+     * @param criteriaSet the trust engine criteria
+     * 
+     * @return true if the digest matches and the signature is valid and trusted
+     * 
+     * @throws SecurityException if the signature cannot be evaluated
+     * 
+     * @since 5.2.0
+     */
+    protected boolean validateStreamedSignature(@Nonnull final Signature signature,
+            @Nonnull final StreamedSignatureDigest streamedDigest, @Nonnull final CriteriaSet criteriaSet)
+                    throws SecurityException {
+        
+        final XMLSignature xmlSignature =
+                signature instanceof SignatureImpl impl ? impl.getXMLSignature() : null;
+        if (xmlSignature == null) {
+            throw new SecurityException("Signature does not expose an Apache XMLSignature");
+        }
+        
+        final SignatureValidationParametersCriterion validationCriterion =
+                criteriaSet.get(SignatureValidationParametersCriterion.class);
+        if (validationCriterion != null) {
+            try {
+                new SignatureAlgorithmValidator(validationCriterion.getSignatureValidationParameters())
+                    .validate(signature);
+            } catch (final SignatureException e) {
+                log.warn("XML signature failed algorithm include/exclude validation");
+                return false;
+            }
+        }
+        
+        try {
+            final SignedInfo signedInfo = xmlSignature.getSignedInfo();
+            if (signedInfo.getLength() != 1) {
+                log.error("Streamed signature does not contain exactly one Reference");
+                return false;
+            }
+            final Reference reference = signedInfo.item(0);
+            if (!streamedDigest.getReferenceURI().equals(reference.getURI())
+                    || !streamedDigest.getDigestAlgorithm().equals(
+                            reference.getMessageDigestAlgorithm().getAlgorithmURI())
+                    || !MessageDigest.isEqual(streamedDigest.getDigestValue(), reference.getDigestValue())) {
+                log.error("Digest of streamed metadata did not match the signature Reference");
+                return false;
+            }
+            
+            final String algorithmURI = signedInfo.getSignatureMethodURI();
+            final AlgorithmRegistry registry = AlgorithmSupport.getGlobalAlgorithmRegistry();
+            final AlgorithmDescriptor descriptor = registry != null ? registry.get(algorithmURI) : null;
+            byte[] signatureValue = xmlSignature.getSignatureValue();
+            if (descriptor instanceof SignatureAlgorithm sigAlg) {
+                if (JCAConstants.KEY_ALGO_EC.equals(sigAlg.getKey())) {
+                    // XML Signature encodes ECDSA values as r||s rather than the ASN.1 form used by JCA.
+                    signatureValue = ECDSAUtils.convertXMLDSIGtoASN1(signatureValue);
+                } else if (JCAConstants.KEY_ALGO_DSA.equals(sigAlg.getKey())) {
+                    throw new SecurityException("DSA signatures are not supported on streamed metadata");
+                }
+            }
+            final byte[] content = signedInfo.getCanonicalizedOctetStream();
+            
+            final KeyInfoCredentialResolver kiResolver = getSignatureTrustEngine().getKeyInfoResolver();
+            if (kiResolver != null && signature.getKeyInfo() != null) {
+                for (final Credential candidate
+                        : kiResolver.resolve(new CriteriaSet(new KeyInfoCriterion(signature.getKeyInfo())))) {
+                    if (getSignatureTrustEngine().validate(signatureValue, content, algorithmURI, criteriaSet,
+                            candidate)) {
+                        return true;
+                    }
+                }
+            }
+            return getSignatureTrustEngine().validate(signatureValue, content, algorithmURI, criteriaSet, null);
+        } catch (final XMLSecurityException | IOException | ResolverException e) {
+            throw new SecurityException("Unable to evaluate streamed signature", e);
+        }
+    }
+
     /**
      * Perform pre-validation on the Signature token.
      * 
@@ -547,4 +1076,12 @@ public class SignatureValidationFilter extends AbstractMetadataFilter {
         return false;
     }
 
-}
\ No newline at end of file
+    /** Results of the parallel verification of member signatures, for the duration of a filter run. */
+    private static final class VerifiedSignatures implements MetadataFilterContext.Data {
+        
+        /** The failure of each signed object whose signature was verified, or null if it was valid. */
+        @Nonnull private final Map<SignableXMLObject, FilterException> results = new IdentityHashMap<>();
+        
+    }
+
+}
@@ -15,7 +15,13 @@
 package org.opensaml.saml.metadata.resolver.impl;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -34,6 +40,7 @@ import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.slf4j.Logger;
 
+import com.google.common.base.MoreObjects;
 import com.google.common.collect.Iterables;
 
 import net.shibboleth.shared.annotation.constraint.NotLive;
@@ -64,6 +71,9 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
      * entire metadata collection. Defaults to false. */
     private boolean resolveViaPredicatesOnly;
     
+    /** Flag indicating whether unchanged entities are carried over from the previous metadata on refresh. */
+    private boolean deltaRefresh;
+    
     /** Constructor. */
     public AbstractBatchMetadataResolver() {
         indexes = CollectionSupport.emptySet();
@@ -140,6 +150,116 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         resolveViaPredicatesOnly = flag;
     }
 
+    /**
+     * Get the flag indicating whether unchanged entities are carried over from the previous metadata
+     * when new metadata is processed.
+     * 
+     * @return true if unchanged entities are carried over, false if not
+     * 
+     * @since 5.2.0
+     */
+    public boolean isDeltaRefresh() {
+        return deltaRefresh;
+    }
+
+    /**
+     * Set the flag indicating whether unchanged entities are carried over from the previous metadata
+     * when new metadata is processed.
+     * 
+     * <p>
+     * Each entity is fingerprinted by a digest of its canonical form before filtering. When an entity's
+     * fingerprint and enclosing group names are the same as those of an entity in the previous metadata,
+     * it is counted as unchanged. This relies on the configured filters treating each entity as a function
+     * of its own content and the names of its enclosing groups. The number of added, removed, changed and
+     * unchanged entities is exposed by {@link #getDeltaRefreshMetrics()}.
+     * </p>
+     * 
+     * <p>
+     * When the metadata is a single unchanged entity, the previous, already filtered instance, along with
+     * any data cached on it, replaces the newly filtered one. Members of an {@link EntitiesDescriptor} are
+     * never carried over, since moving them into the new metadata would modify the previous metadata, which
+     * may still be in use.
+     * </p>
+     * 
+     * <p>
+     * Defaults to false.
+     * </p>
+     * 
+     * @param flag true if unchanged entities are carried over, false if not
+     * 
+     * @since 5.2.0
+     */
+    public void setDeltaRefresh(final boolean flag) {
+        checkSetterPreconditions();
+        deltaRefresh = flag;
+    }
+
+    /**
+     * Get the delta between the current metadata and the metadata it replaced, if delta refresh is enabled.
+     * 
+     * @return the delta metrics, or null if the current metadata was not processed in delta refresh mode
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public DeltaRefreshMetrics getDeltaRefreshMetrics() {
+        return ensureBackingStore().getDeltaRefreshMetrics();
+    }
+
+    /**
+     * Remove from the entity ID index of the current backing store the descriptors whose effective expiration
+     * has passed, so that they are no longer examined on lookup. Nothing is removed if valid metadata is not
+     * required.
+     * 
+     * <p>
+     * Expired descriptors are not removed from the ordered descriptor list or the secondary indexes, which are
+     * read without locking, so iteration and secondary index lookups are unaffected.
+     * </p>
+     * 
+     * @return the number of descriptors removed
+     * 
+     * @since 5.2.0
+     */
+    protected int removeExpiredEntityDescriptors() {
+        if (!isRequireValidMetadata()) {
+            return 0;
+        }
+        
+        final BatchEntityBackingStore backingStore = ensureBackingStore();
+        final Map<String, List<EntityDescriptor>> indexedDescriptors = backingStore.getIndexedDescriptors();
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        for (final Map.Entry<String, Long> entry : backingStore.getEffectiveExpirations().entrySet()) {
+            if (entry.getValue() > now) {
+                continue;
+            }
+            final String entityID = entry.getKey();
+            final List<EntityDescriptor> descriptors = indexedDescriptors.get(entityID);
+            if (descriptors == null) {
+                continue;
+            }
+            
+            // Lookups copy the indexed lists without locking, so a list is replaced rather than modified.
+            final List<EntityDescriptor> remaining = new ArrayList<>(descriptors.size());
+            for (final EntityDescriptor descriptor : descriptors) {
+                if (computeEffectiveExpiration(descriptor) > now) {
+                    remaining.add(descriptor);
+                }
+            }
+            removed += descriptors.size() - remaining.size();
+            if (remaining.isEmpty()) {
+                indexedDescriptors.remove(entityID);
+            } else {
+                indexedDescriptors.put(entityID, remaining);
+            }
+            updateEffectiveExpiration(entityID, backingStore);
+        }
+        
+        if (removed > 0) {
+            log.debug("{} Removed {} expired EntityDescriptor(s) from the entityID index", getLogPrefix(), removed);
+        }
+        return removed;
+    }
+
     /** {@inheritDoc} */
     @Nullable public Instant getRootValidUntil() {
         final XMLObject cached = ensureBackingStore().getCachedOriginalMetadata();
@@ -213,6 +333,72 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         return ensureBackingStore().getSecondaryIndexManager().lookupIndexedItems(criteria);
     }
     
+    /** {@inheritDoc} */
+    @Override protected void preProcessEntityDescriptor(@Nonnull final EntityDescriptor entityDescriptor,
+            @Nonnull final EntityBackingStore backingStore) {
+        final BatchEntityBackingStore batchBackingStore = (BatchEntityBackingStore) backingStore;
+        if (batchBackingStore.reusableDescriptors != null) {
+            super.preProcessEntityDescriptor(selectDescriptor(entityDescriptor, batchBackingStore), backingStore);
+        } else {
+            super.preProcessEntityDescriptor(entityDescriptor, backingStore);
+        }
+    }
+
+    /**
+     * Select the instance of an entity to make effective in delta refresh mode: the unchanged instance from the
+     * previous metadata if there is one and it is not a member of a group, otherwise the newly filtered instance.
+     * 
+     * @param entityDescriptor the newly filtered entity
+     * @param backingStore the new backing store
+     * 
+     * @return the instance to use
+     */
+    @Nonnull private EntityDescriptor selectDescriptor(@Nonnull final EntityDescriptor entityDescriptor,
+            @Nonnull final BatchEntityBackingStore backingStore) {
+        final String fingerprint = EntityFingerprinter.getFingerprint(entityDescriptor);
+        if (fingerprint == null) {
+            return entityDescriptor;
+        }
+        
+        final StringBuilder key = new StringBuilder(fingerprint);
+        for (XMLObject parent = entityDescriptor.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent instanceof EntitiesDescriptor) {
+                key.append('\n').append(((EntitiesDescriptor) parent).getName());
+            }
+        }
+        final String fingerprintKey = key.toString();
+        
+        // A duplicate within the new metadata gets its own instance.
+        if (backingStore.fingerprintedDescriptors.containsKey(fingerprintKey)) {
+            return entityDescriptor;
+        }
+        
+        final Map<String, EntityDescriptor> reusable = backingStore.reusableDescriptors;
+        final EntityDescriptor previous = reusable != null ? reusable.get(fingerprintKey) : null;
+        if (previous == null) {
+            backingStore.fingerprintedDescriptors.put(fingerprintKey, entityDescriptor);
+            return entityDescriptor;
+        }
+        
+        // Moving a member of a group into the new metadata would detach it from the previous metadata, which
+        // may still be in use, so only a standalone entity is carried over.
+        if (previous.getParent() != null || entityDescriptor.getParent() != null) {
+            backingStore.fingerprintedDescriptors.put(fingerprintKey, entityDescriptor);
+            backingStore.unchangedDescriptors.add(entityDescriptor);
+            return entityDescriptor;
+        }
+        
+        backingStore.fingerprintedDescriptors.put(fingerprintKey, previous);
+        backingStore.unchangedDescriptors.add(previous);
+        if (backingStore.getCachedOriginalMetadata() == entityDescriptor) {
+            backingStore.setCachedOriginalMetadata(previous);
+        }
+        if (backingStore.getCachedFilteredMetadata() == entityDescriptor) {
+            backingStore.setCachedFilteredMetadata(previous);
+        }
+        return previous;
+    }
+
     /** {@inheritDoc} */
     @Override protected void indexEntityDescriptor(@Nonnull final EntityDescriptor entityDescriptor, 
             @Nonnull final EntityBackingStore backingStore) {
@@ -283,6 +469,10 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         
         final BatchEntityBackingStore newBackingStore = createNewBackingStore();
         
+        if (isDeltaRefresh()) {
+            EntityFingerprinter.fingerprint(root);
+        }
+        
         final XMLObject filteredMetadata = filterMetadata(root);
         
         if (isCacheSourceMetadata()) {
@@ -293,21 +483,67 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         if (filteredMetadata == null) {
             log.info("{} Metadata filtering process produced a null document, resulting in an empty data set", 
                     getLogPrefix());
+            if (isDeltaRefresh()) {
+                newBackingStore.deltaRefreshMetrics = computeDelta(newBackingStore);
+            }
             return newBackingStore;
         }
         
-        if (filteredMetadata instanceof EntityDescriptor) {
-            preProcessEntityDescriptor((EntityDescriptor)filteredMetadata, newBackingStore);
-        } else if (filteredMetadata instanceof EntitiesDescriptor) {
-            preProcessEntitiesDescriptor((EntitiesDescriptor)filteredMetadata, newBackingStore);
-        } else {
-            log.warn("{} Document root was neither an EntityDescriptor nor an EntitiesDescriptor: {}", 
-                    getLogPrefix(), root.getClass().getName());
+        if (isDeltaRefresh()) {
+            newBackingStore.reusableDescriptors = ensureBackingStore().fingerprintedDescriptors;
+        }
+        
+        try {
+            if (filteredMetadata instanceof EntityDescriptor) {
+                preProcessEntityDescriptor((EntityDescriptor)filteredMetadata, newBackingStore);
+            } else if (filteredMetadata instanceof EntitiesDescriptor) {
+                preProcessEntitiesDescriptor((EntitiesDescriptor)filteredMetadata, newBackingStore);
+            } else {
+                log.warn("{} Document root was neither an EntityDescriptor nor an EntitiesDescriptor: {}", 
+                        getLogPrefix(), root.getClass().getName());
+            }
+        } finally {
+            newBackingStore.reusableDescriptors = null;
+        }
+        
+        if (isDeltaRefresh()) {
+            newBackingStore.deltaRefreshMetrics = computeDelta(newBackingStore);
         }
         
         return newBackingStore;
     }
 
+    /**
+     * Compute the delta between the current backing store and a new one.
+     * 
+     * @param newBackingStore the new backing store
+     * 
+     * @return the delta metrics
+     */
+    @Nonnull private DeltaRefreshMetrics computeDelta(@Nonnull final BatchEntityBackingStore newBackingStore) {
+        final Set<String> previousEntityIDs = ensureBackingStore().getIndexedDescriptors().keySet();
+        final Map<String, List<EntityDescriptor>> indexedDescriptors = newBackingStore.getIndexedDescriptors();
+        
+        final DeltaRefreshMetrics metrics = new DeltaRefreshMetrics();
+        for (final Map.Entry<String, List<EntityDescriptor>> entry : indexedDescriptors.entrySet()) {
+            if (!previousEntityIDs.contains(entry.getKey())) {
+                metrics.entitiesAdded++;
+            } else if (entry.getValue().stream().allMatch(newBackingStore.unchangedDescriptors::contains)) {
+                metrics.entitiesUnchanged++;
+            } else {
+                metrics.entitiesChanged++;
+            }
+        }
+        for (final String entityID : previousEntityIDs) {
+            if (!indexedDescriptors.containsKey(entityID)) {
+                metrics.entitiesRemoved++;
+            }
+        }
+        
+        log.debug("{} Delta refresh metrics: {}", getLogPrefix(), metrics);
+        return metrics;
+    }
+
     /**
      * Specialized entity backing store implementation for batch metadata resolvers.
      * 
@@ -330,6 +566,18 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         /** Manager for secondary indexes. */
         @Nonnull private final MetadataIndexManager<EntityDescriptor> secondaryIndexManager;
         
+        /** Fingerprinted entities, keyed by fingerprint and enclosing group names, for use by delta refresh. */
+        @Nonnull private final Map<String, EntityDescriptor> fingerprintedDescriptors;
+        
+        /** Entities whose fingerprint matched an entity in the previous metadata. */
+        @Nonnull private final Set<EntityDescriptor> unchangedDescriptors;
+        
+        /** Fingerprinted entities of the previous metadata, while the new metadata is being processed. */
+        @Nullable private Map<String, EntityDescriptor> reusableDescriptors;
+        
+        /** Delta from the previous metadata, if computed. */
+        @Nullable private DeltaRefreshMetrics deltaRefreshMetrics;
+        
         /**
          * Constructor.
          *
@@ -338,6 +586,8 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         protected BatchEntityBackingStore(@Nullable final Set<MetadataIndex> initIndexes) {
             secondaryIndexManager =
                     new MetadataIndexManager<>(initIndexes, new MetadataIndexManager.IdentityExtractionFunction());
+            fingerprintedDescriptors = new HashMap<>();
+            unchangedDescriptors = Collections.newSetFromMap(new IdentityHashMap<>());
         }
 
         /**
@@ -398,6 +648,82 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         @Nonnull public MetadataIndexManager<EntityDescriptor> getSecondaryIndexManager() {
             return secondaryIndexManager;
         }
+        
+        /**
+         * Get the delta from the previous metadata.
+         * 
+         * @return the delta metrics, or null if delta refresh was not used
+         * 
+         * @since 5.2.0
+         */
+        @Nullable public DeltaRefreshMetrics getDeltaRefreshMetrics() {
+            return deltaRefreshMetrics;
+        }
+    }
+    
+    /**
+     * Counts of the entities that differ between a metadata document and the one it replaced, 
+     * computed in delta refresh mode. Entities are counted by entityID.
+     * 
+     * @since 5.2.0
+     */
+    public static class DeltaRefreshMetrics {
+        
+        /** Entities which were not present in the previous metadata. */
+        private int entitiesAdded;
+        
+        /** Entities which are no longer present. */
+        private int entitiesRemoved;
+        
+        /** Entities which were present in the previous metadata but have changed. */
+        private int entitiesChanged;
+        
+        /** Entities which are unchanged from the previous metadata. */
+        private int entitiesUnchanged;
+        
+        /**
+         * Get entities which were not present in the previous metadata.
+         * @return Returns the entitiesAdded.
+         */
+        public int getEntitiesAdded() {
+            return entitiesAdded;
+        }
+        
+        /**
+         * Get entities which are no longer present.
+         * @return Returns the entitiesRemoved.
+         */
+        public int getEntitiesRemoved() {
+            return entitiesRemoved;
+        }
+        
+        /**
+         * Get entities which were present in the previous metadata but have changed.
+         * @return Returns the entitiesChanged.
+         */
+        public int getEntitiesChanged() {
+            return entitiesChanged;
+        }
+        
+        /**
+         * Get entities which are unchanged from the previous metadata.
+         * @return Returns the entitiesUnchanged.
+         */
+        public int getEntitiesUnchanged() {
+            return entitiesUnchanged;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("entitiesAdded", entitiesAdded)
+                    .add("entitiesRemoved", entitiesRemoved)
+                    .add("entitiesChanged", entitiesChanged)
+                    .add("entitiesUnchanged", entitiesUnchanged)
+                    .toString();
+        }
+        
     }
 
 }
\ No newline at end of file
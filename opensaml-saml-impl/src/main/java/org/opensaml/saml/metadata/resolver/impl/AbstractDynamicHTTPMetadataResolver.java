@@ -96,6 +96,9 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
     /** Optional HttpClient security parameters.*/
     @Nullable private HttpClientSecurityParameters httpClientSecurityParameters;
     
+    /** Whether the response body is unmarshalled as it is read, rather than buffered first. */
+    private boolean streamingUnmarshall;
+    
     /**
      * Constructor.
      *
@@ -170,6 +173,39 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
         httpClientSecurityParameters = params;
     }
     
+    /**
+     * Gets whether the response body is unmarshalled as it is read, rather than buffered first.
+     * 
+     * @return whether the response body is unmarshalled as it is read
+     * 
+     * @since 5.2.0
+     */
+    public boolean isStreamingUnmarshall() {
+        return streamingUnmarshall;
+    }
+
+    /**
+     * Sets whether the response body is unmarshalled as it is read, rather than buffered first.
+     * 
+     * <p>
+     * This avoids holding a copy of each response body in memory while it is parsed, and lets parsing overlap
+     * with the transfer. The original bytes are then not attached to the metadata as an {@link XMLObjectSource},
+     * so the persistent cache, if enabled, stores the metadata as re-serialized from its DOM.
+     * </p>
+     * 
+     * <p>
+     * Defaults to false.
+     * </p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 5.2.0
+     */
+    public void setStreamingUnmarshall(final boolean flag) {
+        checkSetterPreconditions();
+        streamingUnmarshall = flag;
+    }
+    
     /**
      * Get the list of supported MIME {@link MediaType} instances used in validation of 
      * the response Content-Type header.
@@ -357,8 +393,9 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
             
             try (final HttpEntity entity = response.getEntity()) {
                 try (final InputStream ins = entity.getContent()) {
-                    // TODO why are we buffering the InputStream to byte[] like this,
-                    // rather than just unmarshalling it directly?
+                    if (isStreamingUnmarshall()) {
+                        return unmarshallMetadata(ins);
+                    }
                     final byte[] source = ByteStreams.toByteArray(ins);
                     assert source != null;
                     try (final ByteArrayInputStream bais = new ByteArrayInputStream(source)) {
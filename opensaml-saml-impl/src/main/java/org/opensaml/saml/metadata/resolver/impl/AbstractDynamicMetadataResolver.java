@@ -19,7 +19,11 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -28,6 +32,17 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -103,6 +118,13 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     @Nonnull @NotEmpty
     public static final String METRIC_GAUGE_PERSISTENT_CACHE_INIT = "gauge.persistentCacheInitialization";
     
+    /**
+     * Metric name for the gauge of the number of entities scheduled for prefetching.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_GAUGE_PREFETCH_BACKLOG = "gauge.prefetchBacklog";
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractDynamicMetadataResolver.class);
         
@@ -121,6 +143,9 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     /** Metrics Gauge for the persistent cache initialization.*/
     @Nullable private Gauge<PersistentCacheInitializationMetrics> gaugePersistentCacheInit;
     
+    /** Metrics Gauge for the number of entities scheduled for prefetching. */
+    @Nullable private Gauge<Integer> gaugePrefetchBacklog;
+    
     /** Timer used to schedule background metadata update tasks. */
     @NonnullAfterInit private Timer taskTimer;
     
@@ -136,6 +161,18 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     /** Negative lookup cache duration. */
     @Nonnull private Duration negativeLookupCacheDuration;
     
+    /** Maximum random addition to the negative lookup cache duration. */
+    @Nonnull private Duration negativeLookupCacheJitter;
+    
+    /** Maximum number of entityIDs held in the negative lookup cache. */
+    @Positive private int maxNegativeLookupCacheEntries;
+    
+    /** Whether metadata due for refresh is returned while it is refreshed in the background. */
+    private boolean staleWhileRevalidate;
+    
+    /** Executor used to fetch metadata in the background. */
+    @Nullable private Executor backgroundFetchExecutor;
+    
     /** Factor used to compute when the next refresh interval will occur. Default value: 0.75 */
     @Positive @Nonnull private Float refreshDelayFactor;
     
@@ -156,6 +193,24 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     /** The backing store cleanup sweeper background task. */
     private BackingStoreCleanupSweeper cleanupTask;
     
+    /** Interval at which the prefetch task runs. Default value: 0 (disabled). */
+    @Nonnull private Duration prefetchInterval;
+    
+    /** Minimum decayed access count of an entity for its metadata to be prefetched. */
+    @Positive private long prefetchThreshold;
+    
+    /** Maximum number of prefetches that run at once. */
+    @Positive private int maxConcurrentPrefetches;
+    
+    /** The prefetch task. */
+    @Nullable private PrefetchScheduler prefetchTask;
+    
+    /** Permits for running prefetches. */
+    @NonnullAfterInit private Semaphore prefetchPermits;
+    
+    /** Number of entities scheduled for prefetching but not yet refreshed. */
+    @Nonnull private final AtomicInteger prefetchBacklog;
+    
     /** The manager for the persistent cache store for resolved metadata. */
     @Nullable private XMLObjectLoadSaveManager<EntityDescriptor> persistentCacheManager;
     
@@ -175,6 +230,9 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     /** Object tracking metrics related to the persistent cache initialization. */
     @NonnullAfterInit private PersistentCacheInitializationMetrics persistentCacheInitMetrics;
     
+    /** Number of threads used to initialize from the persistent cache. */
+    @Positive private int persistentCacheInitializationThreads;
+    
     /** The set of indexes configured. */
     @Nonnull private Set<MetadataIndex> indexes;
     
@@ -206,8 +264,20 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
         negativeLookupCacheDuration = Duration.ofMinutes(10);
         
+        negativeLookupCacheJitter = Duration.ZERO;
+        
+        maxNegativeLookupCacheEntries = 10000;
+        
         cleanupTaskInterval = Duration.ofMinutes(30);
         
+        prefetchInterval = Duration.ZERO;
+        
+        prefetchThreshold = 10;
+        
+        maxConcurrentPrefetches = 4;
+        
+        prefetchBacklog = new AtomicInteger();
+        
         maxIdleEntityData = Duration.ofHours(8);
         
         // Default to removing idle metadata
@@ -217,6 +287,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         initializeFromPersistentCacheInBackground = true;
         
         backgroundInitializationFromCacheDelay = Duration.ofSeconds(2);
+        
+        persistentCacheInitializationThreads = 1;
     }
     
     /**
@@ -274,6 +346,54 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
     }
 
+    /**
+     * Get the number of threads used to initialize from the persistent cache.
+     * 
+     * <p>Defaults to: 1.</p>
+     * 
+     * @return the number of threads
+     * 
+     * @since 5.2.0
+     */
+    @Positive public int getPersistentCacheInitializationThreads() {
+        return persistentCacheInitializationThreads;
+    }
+
+    /**
+     * Set the number of threads used to initialize from the persistent cache.
+     * 
+     * <p>
+     * With more than one thread, the entries in the persistent cache are loaded, unmarshalled and processed
+     * concurrently, those most recently saved first. The dynamic resolver saves an entity's metadata each time
+     * it is fetched, which happens when the entity is used, so the entities most likely to be requested become
+     * available first. This requires a persistent cache manager that supports concurrent access, such as
+     * {@link org.opensaml.core.xml.persist.FilesystemLoadSaveManager}.
+     * </p>
+     * 
+     * <p>Defaults to: 1.</p>
+     * 
+     * @param threads the number of threads
+     * 
+     * @since 5.2.0
+     */
+    public void setPersistentCacheInitializationThreads(@Positive final int threads) {
+        checkSetterPreconditions();
+        
+        persistentCacheInitializationThreads =
+                Constraint.isGreaterThan(0, threads, "Persistent cache initialization threads must be positive");
+    }
+
+    /**
+     * Get the metrics tracking the progress of the initialization from the persistent cache.
+     * 
+     * @return the metrics, or null if the resolver has not been initialized
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public PersistentCacheInitializationMetrics getPersistentCacheInitializationMetrics() {
+        return persistentCacheInitMetrics;
+    }
+
     /**
      * Get the manager for the persistent cache store for resolved metadata.
      * 
@@ -435,6 +555,139 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         negativeLookupCacheDuration = duration;
     }
     
+    /**
+     *  Get the maximum random addition to the negative lookup cache duration.
+     *  
+     *  <p>Defaults to: 0.</p>
+     *  
+     * @return the negative lookup cache jitter
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull public Duration getNegativeLookupCacheJitter() {
+        return negativeLookupCacheJitter;
+    }
+
+    /**
+     *  Set the maximum random addition to the negative lookup cache duration.
+     *  
+     *  <p>
+     *  Spreading the expiry of negative lookups for entities that were requested together keeps them from being
+     *  fetched from the origin source again all at once.
+     *  </p>
+     *  
+     *  <p>Defaults to: 0.</p>
+     *  
+     * @param jitter the negative lookup cache jitter
+     * 
+     * @since 5.2.0
+     */
+    public void setNegativeLookupCacheJitter(@Nonnull final Duration jitter) {
+        checkSetterPreconditions();
+
+        Constraint.isNotNull(jitter, "Duration cannot be null");
+        Constraint.isFalse(jitter.isNegative(), "Duration cannot be negative");
+        
+        negativeLookupCacheJitter = jitter;
+    }
+    
+    /**
+     *  Get the maximum number of entityIDs held in the negative lookup cache.
+     *  
+     *  <p>Defaults to: 10000.</p>
+     *  
+     * @return the maximum number of negative lookup cache entries
+     * 
+     * @since 5.2.0
+     */
+    @Positive public int getMaxNegativeLookupCacheEntries() {
+        return maxNegativeLookupCacheEntries;
+    }
+
+    /**
+     *  Set the maximum number of entityIDs held in the negative lookup cache.
+     *  
+     *  <p>
+     *  When the limit is exceeded the oldest negative lookup is evicted, along with the management data of its
+     *  entityID, so that requests for many unknown entities do not grow the backing store without bound.
+     *  </p>
+     *  
+     *  <p>Defaults to: 10000.</p>
+     *  
+     * @param max the maximum number of negative lookup cache entries
+     * 
+     * @since 5.2.0
+     */
+    public void setMaxNegativeLookupCacheEntries(@Positive final int max) {
+        checkSetterPreconditions();
+        
+        maxNegativeLookupCacheEntries = Constraint.isGreaterThan(0, max, "Maximum entries must be positive");
+    }
+    
+    /**
+     * Get whether metadata that is due for refresh is returned while it is refreshed in the background.
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @return true if stale metadata is returned while it is refreshed, false otherwise
+     * 
+     * @since 5.2.0
+     */
+    public boolean isStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+    
+    /**
+     * Set whether metadata that is due for refresh is returned while it is refreshed in the background.
+     * 
+     * <p>
+     * Otherwise the request that finds the metadata due for refresh fetches it from the origin source before
+     * returning, and concurrent requests for the entity wait for it. Metadata that is no longer valid is never
+     * returned either way.
+     * </p>
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @param flag true if stale metadata is returned while it is refreshed, false otherwise
+     * 
+     * @since 5.2.0
+     */
+    public void setStaleWhileRevalidate(final boolean flag) {
+        checkSetterPreconditions();
+        
+        staleWhileRevalidate = flag;
+    }
+    
+    /**
+     * Get the executor used to fetch metadata in the background.
+     * 
+     * @return the executor, or null if background fetches run on the task timer
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public Executor getBackgroundFetchExecutor() {
+        return backgroundFetchExecutor;
+    }
+    
+    /**
+     * Set the executor used to fetch metadata in the background.
+     * 
+     * <p>
+     * Background fetches otherwise run one at a time on the task timer, which may be shared with other
+     * resolvers and also runs the cleanup task. An executor lets them run concurrently, and is not shut down
+     * by this resolver.
+     * </p>
+     * 
+     * @param executor the executor
+     * 
+     * @since 5.2.0
+     */
+    public void setBackgroundFetchExecutor(@Nullable final Executor executor) {
+        checkSetterPreconditions();
+        
+        backgroundFetchExecutor = executor;
+    }
+    
     /**
      * Gets the delay factor used to compute the next refresh time.
      * 
@@ -564,6 +817,118 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         cleanupTaskInterval = interval;
     }
     
+    /**
+     * Get the interval at which the prefetch task runs.
+     * 
+     * <p>Defaults to: 0 (disabled).</p>
+     * 
+     * @return the interval
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull public Duration getPrefetchInterval() {
+        return prefetchInterval;
+    }
+
+    /**
+     * Set the interval at which the prefetch task runs.
+     * 
+     * <p>
+     * Each run selects the entities whose refresh is due before the next run and which were accessed at least
+     * {@link #getPrefetchThreshold()} times, with access counts halved at every run so that they reflect recent
+     * popularity. Their metadata is refreshed in the background, the most popular first, at a random point
+     * before the refresh is due so that refreshes do not all happen at once. Requests for those entities are
+     * then not delayed by a fetch from the origin source. A value of 0 disables prefetching.
+     * </p>
+     * 
+     * <p>Defaults to: 0 (disabled).</p>
+     * 
+     * @param interval the interval to set
+     * 
+     * @since 5.2.0
+     */
+    public void setPrefetchInterval(@Nonnull final Duration interval) {
+        checkSetterPreconditions();
+        
+        Constraint.isNotNull(interval, "Prefetch interval may not be null");
+        Constraint.isFalse(interval.isNegative(), "Prefetch interval may not be negative");
+        
+        prefetchInterval = interval;
+    }
+    
+    /**
+     * Get the minimum decayed access count of an entity for its metadata to be prefetched.
+     * 
+     * <p>Defaults to: 10.</p>
+     * 
+     * @return the minimum access count
+     * 
+     * @since 5.2.0
+     */
+    @Positive public long getPrefetchThreshold() {
+        return prefetchThreshold;
+    }
+
+    /**
+     * Set the minimum decayed access count of an entity for its metadata to be prefetched.
+     * 
+     * <p>Defaults to: 10.</p>
+     * 
+     * @param threshold the minimum access count
+     * 
+     * @since 5.2.0
+     */
+    public void setPrefetchThreshold(@Positive final long threshold) {
+        checkSetterPreconditions();
+        
+        prefetchThreshold = Constraint.isGreaterThan(0, threshold, "Prefetch threshold must be positive");
+    }
+    
+    /**
+     * Get the maximum number of prefetches that run at once.
+     * 
+     * <p>Defaults to: 4.</p>
+     * 
+     * @return the maximum number of concurrent prefetches
+     * 
+     * @since 5.2.0
+     */
+    @Positive public int getMaxConcurrentPrefetches() {
+        return maxConcurrentPrefetches;
+    }
+
+    /**
+     * Set the maximum number of prefetches that run at once.
+     * 
+     * <p>
+     * Prefetches run on the {@link #getBackgroundFetchExecutor()} if one is set, otherwise one at a time on
+     * the task timer. A prefetch that would exceed the limit is skipped, and the entity is considered again on
+     * the next run.
+     * </p>
+     * 
+     * <p>Defaults to: 4.</p>
+     * 
+     * @param max the maximum number of concurrent prefetches
+     * 
+     * @since 5.2.0
+     */
+    public void setMaxConcurrentPrefetches(@Positive final int max) {
+        checkSetterPreconditions();
+        
+        maxConcurrentPrefetches = Constraint.isGreaterThan(0, max, "Maximum concurrent prefetches must be positive");
+    }
+    
+    /**
+     * Get the number of entities scheduled for prefetching whose metadata has not yet been refreshed.
+     * 
+     * @return the prefetch backlog
+     * 
+     * @since 5.2.0
+     */
+    public int getPrefetchBacklog() {
+        return prefetchBacklog.get();
+    }
+    
     /**
      * Get the configured indexes.
      * 
@@ -660,6 +1025,10 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                         if (shouldAttemptRefresh(mgmtData)) {
                             log.debug("{} Metadata was indicated to be refreshed based on refresh trigger time", 
                                     getLogPrefix());
+                            if (isStaleWhileRevalidate()) {
+                                scheduleBackgroundRefresh(mgmtData);
+                                candidates = descriptors;
+                            }
                         } else {
                             log.debug("{} Found requested metadata in backing store", getLogPrefix());
                             candidates = descriptors;
@@ -806,6 +1175,12 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                         + "while this thread was waiting on the write lock", getLogPrefix());
                 return descriptors;
             }
+            // Likewise, concurrent requests for an unknown entity cost one fetch rather than one each.
+            if (descriptors.isEmpty() && mgmtData.isNegativeLookupCacheActive()) {
+                log.debug("{} Metadata was not found by another thread " 
+                        + "while this thread was waiting on the write lock", getLogPrefix());
+                return descriptors;
+            }
             log.debug("{} Resolving metadata dynamically for entity ID: {}", getLogPrefix(), entityID);
             
             final Context contextFetchFromOriginSource = MetricsSupport.startTimer(timerFetchFromOriginSource);
@@ -825,6 +1200,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                             Instant.now()));
                     log.debug("{} Had existing data, recalculated refresh trigger time as: {}", 
                             getLogPrefix(), mgmtData.getRefreshTriggerTime());
+                } else {
+                    evictNegativeLookups(ensureBackingStore().recordNegativeLookup(entityID));
                 }
             } else {
                 mgmtData.clearNegativeLookupCache();
@@ -846,6 +1223,142 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
     }
     
+    /**
+     * Schedule a background refresh of an entity's metadata, unless one is already pending.
+     * 
+     * @param mgmtData the entity's management data
+     */
+    private void scheduleBackgroundRefresh(@Nonnull final EntityManagementData mgmtData) {
+        if (!mgmtData.refreshPending.compareAndSet(false, true)) {
+            return;
+        }
+        
+        final String entityID = mgmtData.getEntityID();
+        log.debug("{} Scheduling background refresh of metadata for entity ID: {}", getLogPrefix(), entityID);
+        final Runnable refresh = () -> {
+            try {
+                if (!isDestroyed()) {
+                    refreshInBackground(mgmtData);
+                }
+            } catch (final Throwable t) {
+                log.error("{} Error refreshing metadata in the background for entity ID: {}", 
+                        getLogPrefix(), entityID, t);
+            } finally {
+                mgmtData.refreshPending.set(false);
+            }
+        };
+        
+        if (!executeInBackground(refresh)) {
+            mgmtData.refreshPending.set(false);
+        }
+    }
+    
+    /**
+     * Run a task in the background, on the background fetch executor if there is one, otherwise on
+     * the task timer.
+     * 
+     * @param task the task
+     * 
+     * @return true if the task was accepted, false if the resolver is being destroyed
+     */
+    private boolean executeInBackground(@Nonnull final Runnable task) {
+        final Executor executor = getBackgroundFetchExecutor();
+        final Timer timer = taskTimer;
+        try {
+            if (executor != null) {
+                executor.execute(task);
+            } else if (timer != null) {
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        task.run();
+                    }
+                }, 0);
+            } else {
+                return false;
+            }
+            return true;
+        } catch (final IllegalStateException | RejectedExecutionException e) {
+            log.debug("{} Background task was not accepted", getLogPrefix(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Refresh an entity's metadata from the origin source in the background.
+     * 
+     * <p>
+     * Unlike {@link #resolveFromOriginSourceWithEntityID(CriteriaSet, String)}, the entity's lock is only held
+     * while the fetched metadata is processed, so that the current metadata can be returned during the fetch.
+     * </p>
+     * 
+     * @param mgmtData the entity's management data
+     */
+    private void refreshInBackground(@Nonnull final EntityManagementData mgmtData) {
+        final String entityID = mgmtData.getEntityID();
+        log.debug("{} Refreshing metadata in the background for entity ID: {}", getLogPrefix(), entityID);
+        
+        XMLObject root = null;
+        final Context contextFetchFromOriginSource = MetricsSupport.startTimer(timerFetchFromOriginSource);
+        try {
+            root = fetchFromOriginSource(new CriteriaSet(new EntityIdCriterion(entityID)));
+        } catch (final IOException e) {
+            log.error("{} Error fetching metadata from origin source", getLogPrefix(), e);
+        } finally {
+            MetricsSupport.stopTimer(contextFetchFromOriginSource);
+        }
+        
+        final Lock writeLock = mgmtData.getReadWriteLock().writeLock();
+        try {
+            writeLock.lock();
+            if (root == null) {
+                mgmtData.setRefreshTriggerTime(computeRefreshTriggerTime(mgmtData.getExpirationTime(), 
+                        Instant.now()));
+                log.debug("{} No metadata was refreshed, recalculated refresh trigger time as: {}", 
+                        getLogPrefix(), mgmtData.getRefreshTriggerTime());
+            } else {
+                mgmtData.clearNegativeLookupCache();
+                processNewMetadata(root, entityID);
+            }
+        } catch (final FilterException e) {
+            log.error("{} Metadata filtering problem processing refreshed metadata", getLogPrefix(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Remove the negative lookups displaced from the negative lookup cache, along with the management data of
+     * their entityIDs.
+     * 
+     * <p>
+     * An entity whose lock is currently held is skipped, to be removed by the cleanup task in due course, since
+     * the caller holds the lock of another entity.
+     * </p>
+     * 
+     * @param entityIDs the displaced entityIDs
+     */
+    private void evictNegativeLookups(@Nonnull final List<String> entityIDs) {
+        final DynamicEntityBackingStore backingStore = ensureBackingStore();
+        for (final String entityID : entityIDs) {
+            final EntityManagementData mgmtData = backingStore.mgmtDataMap.get(entityID);
+            if (mgmtData == null) {
+                continue;
+            }
+            final Lock writeLock = mgmtData.getReadWriteLock().writeLock();
+            if (writeLock.tryLock()) {
+                try {
+                    final List<EntityDescriptor> descriptors = backingStore.getIndexedDescriptors().get(entityID);
+                    if (descriptors == null || descriptors.isEmpty()) {
+                        log.debug("{} Evicting negative lookup for entity ID: {}", getLogPrefix(), entityID);
+                        backingStore.removeManagementData(entityID);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+    }
+
     /**
      * Fetch metadata from an origin source based on the input criteria when the entityID is not known,
      * store it in the backing store and then return it.
@@ -1116,7 +1629,10 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
         removeByEntityID(entityID, backingStore);
         
-        super.preProcessEntityDescriptor(entityDescriptor, backingStore);
+        // Entities are processed concurrently, each under its own lock, so guard the shared ordered list.
+        synchronized (backingStore.getOrderedDescriptors()) {
+            super.preProcessEntityDescriptor(entityDescriptor, backingStore);
+        }
         
         final DynamicEntityBackingStore dynamicBackingStore = (DynamicEntityBackingStore) backingStore;
         final EntityManagementData mgmtData = dynamicBackingStore.getManagementData(entityID);
@@ -1285,6 +1801,12 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             cleanupTask = new BackingStoreCleanupSweeper();
             // Start with a delay of 1 minute, run at the user-specified interval
             taskTimer.schedule(cleanupTask, 1*60*1000, getCleanupTaskInterval().toMillis());
+            
+            prefetchPermits = new Semaphore(getMaxConcurrentPrefetches());
+            if (!getPrefetchInterval().isZero()) {
+                prefetchTask = new PrefetchScheduler();
+                taskTimer.schedule(prefetchTask, getPrefetchInterval().toMillis(), getPrefetchInterval().toMillis());
+            }
 
         } finally {
             initializing = false;
@@ -1338,6 +1860,16 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                             return persistentCacheInitMetrics;
                         }},
                     true);
+            
+            if (!getPrefetchInterval().isZero()) {
+                gaugePrefetchBacklog = MetricsSupport.register(
+                        MetricRegistry.name(getMetricsBaseName(), METRIC_GAUGE_PREFETCH_BACKLOG),
+                        new Gauge<Integer>() {
+                            public Integer getValue() {
+                                return getPrefetchBacklog();
+                            }},
+                        true);
+            }
         }
     }
     
@@ -1354,46 +1886,130 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
         final long start = System.nanoTime();
         try {
-            for (final Pair<String, EntityDescriptor> cacheEntry: ensurePersistentCacheManager().listAll()) {
-                persistentCacheInitMetrics.entriesTotal++;
-                final EntityDescriptor descriptor = cacheEntry.getSecond();
-                assert descriptor != null;
-                final String currentKey = cacheEntry.getFirst();
-                assert currentKey != null;
-                final String entityID = StringSupport.trimOrNull(descriptor.getEntityID());
-                // This has to be non-null at this point...
-                assert entityID != null;
-                log.trace("{} Loaded EntityDescriptor from cache store with entityID '{}' and storage key '{}'", 
-                        getLogPrefix(), entityID, currentKey);
-                
-                final EntityManagementData mgmtData = ensureBackingStore().getManagementData(entityID);
-                final Lock writeLock = mgmtData.getReadWriteLock().writeLock(); 
-                
-                try {
-                    writeLock.lock();
-                    
-                    // This can happen if we init from the persistent cache in a background thread,
-                    // and metadata for this entityID was resolved before we hit this cache entry.
-                    if (!lookupIndexedEntityID(entityID).isEmpty()) {
-                        log.trace("{} Metadata for entityID '{}' found in persistent cache was already live, " 
-                                + "ignoring cached entry", getLogPrefix(), entityID);
-                        persistentCacheInitMetrics.entriesSkippedAlreadyLive++;
-                        continue;
-                    }
-                
-                    processPersistentCacheEntry(currentKey, descriptor);
-                    
-                } finally {
-                    writeLock.unlock();
+            if (getPersistentCacheInitializationThreads() > 1) {
+                initializeFromPersistentCacheInParallel();
+            } else {
+                for (final Pair<String, EntityDescriptor> cacheEntry: ensurePersistentCacheManager().listAll()) {
+                    persistentCacheInitMetrics.entriesTotal.incrementAndGet();
+                    final EntityDescriptor descriptor = cacheEntry.getSecond();
+                    assert descriptor != null;
+                    final String currentKey = cacheEntry.getFirst();
+                    assert currentKey != null;
+                    initializeFromPersistentCacheEntry(currentKey, descriptor);
                 }
             }
         } catch (final IOException e) {
             log.warn("{} Error loading EntityDescriptors from cache", getLogPrefix(), e);
         } finally {
             persistentCacheInitMetrics.processingTime = System.nanoTime() - start; 
+            persistentCacheInitMetrics.complete = true;
             log.debug("{} Persistent cache initialization metrics: {}", getLogPrefix(), persistentCacheInitMetrics);
         }
     }
+    
+    /**
+     * Initialize the resolver with data from the persistent cache manager using multiple threads, loading the
+     * most recently saved entries first.
+     * 
+     * @throws IOException if the keys of the persistent cache entries can not be listed
+     */
+    private void initializeFromPersistentCacheInParallel() throws IOException {
+        final XMLObjectLoadSaveManager<EntityDescriptor> cacheManager = ensurePersistentCacheManager();
+        final Map<String, Instant> lastModified = new HashMap<>();
+        for (final String key : cacheManager.listKeys()) {
+            try {
+                final Instant modified = cacheManager.getLastModified(key);
+                lastModified.put(key, modified != null ? modified : Instant.EPOCH);
+            } catch (final IOException e) {
+                log.debug("{} Error obtaining last modified time of cache storage key '{}'", getLogPrefix(), key, e);
+                lastModified.put(key, Instant.EPOCH);
+            }
+        }
+        final List<String> keys = new ArrayList<>(lastModified.keySet());
+        keys.sort(Comparator.comparing(lastModified::get, Comparator.reverseOrder()));
+        final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>(keys);
+        persistentCacheInitMetrics.entriesRemaining.set(keys.size());
+        
+        final int threads = Math.min(getPersistentCacheInitializationThreads(), Math.max(keys.size(), 1));
+        log.debug("{} Loading {} entries from the persistent cache with {} threads", 
+                getLogPrefix(), keys.size(), threads);
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "PersistentCacheInit-" + getId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.execute(() -> {
+                    String key;
+                    while (!isDestroyed() && (key = queue.poll()) != null) {
+                        try {
+                            final EntityDescriptor descriptor = cacheManager.load(key);
+                            if (descriptor != null) {
+                                persistentCacheInitMetrics.entriesTotal.incrementAndGet();
+                                initializeFromPersistentCacheEntry(key, descriptor);
+                            }
+                        } catch (final Throwable t) {
+                            log.warn("{} Error loading EntityDescriptor from cache with storage key '{}'", 
+                                    getLogPrefix(), key, t);
+                        } finally {
+                            persistentCacheInitMetrics.entriesRemaining.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+        
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("{} Persistent cache initialization in progress: {}", 
+                        getLogPrefix(), persistentCacheInitMetrics);
+            }
+        } catch (final InterruptedException e) {
+            log.warn("{} Interrupted while initializing from the persistent cache", getLogPrefix());
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Initialize the resolver with an entry loaded from the persistent cache, unless metadata for the entity
+     * is already live.
+     * 
+     * @param currentKey the current persistent cache key
+     * @param descriptor the entity descriptor loaded from the cache
+     */
+    private void initializeFromPersistentCacheEntry(@Nonnull final String currentKey,
+            @Nonnull final EntityDescriptor descriptor) {
+        final String entityID = StringSupport.trimOrNull(descriptor.getEntityID());
+        // This has to be non-null at this point...
+        assert entityID != null;
+        log.trace("{} Loaded EntityDescriptor from cache store with entityID '{}' and storage key '{}'", 
+                getLogPrefix(), entityID, currentKey);
+        
+        final EntityManagementData mgmtData = ensureBackingStore().getManagementData(entityID);
+        final Lock writeLock = mgmtData.getReadWriteLock().writeLock(); 
+        
+        try {
+            writeLock.lock();
+            
+            // This can happen if we init from the persistent cache in a background thread,
+            // and metadata for this entityID was resolved before we hit this cache entry.
+            if (!lookupIndexedEntityID(entityID).isEmpty()) {
+                log.trace("{} Metadata for entityID '{}' found in persistent cache was already live, " 
+                        + "ignoring cached entry", getLogPrefix(), entityID);
+                persistentCacheInitMetrics.entriesSkippedAlreadyLive.incrementAndGet();
+                return;
+            }
+        
+            processPersistentCacheEntry(currentKey, descriptor);
+            
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
     /**
      * Process an entry loaded from the persistent cache.
@@ -1412,17 +2028,17 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                     processNewMetadata(descriptor, entityID, true);
                     log.trace("{} Successfully processed EntityDescriptor with entityID '{}' from cache", 
                             getLogPrefix(), descriptor.getEntityID());
-                    persistentCacheInitMetrics.entriesLoaded++;
+                    persistentCacheInitMetrics.entriesLoaded.incrementAndGet();
                 } catch (final FilterException | ResolverException e) {
                     log.warn("{} Error processing EntityDescriptor '{}' from cache with storage key '{}'", 
                             getLogPrefix(), descriptor.getEntityID(), currentKey, e);
-                    persistentCacheInitMetrics.entriesSkippedProcessingException++;
+                    persistentCacheInitMetrics.entriesSkippedProcessingException.incrementAndGet();
                 }
             } else {
                 log.trace("{} Cache initialization predicate indicated to not process EntityDescriptor " 
                         + "with entityID '{}' and cache storage key '{}'",
                         getLogPrefix(), descriptor.getEntityID(), currentKey);
-                persistentCacheInitMetrics.entriesSkippedFailedPredicate++;
+                persistentCacheInitMetrics.entriesSkippedFailedPredicate.incrementAndGet();
             }
             
             // Update storage key if necessary, e.g. if cache key generator impl has changed.
@@ -1443,7 +2059,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                 
             log.trace("{} EntityDescriptor with entityID '{}' and storaage key '{}' in cache was " 
                     + "not valid, skipping and removing", getLogPrefix(), descriptor.getEntityID(), currentKey);
-            persistentCacheInitMetrics.entriesSkippedInvalid++;
+            persistentCacheInitMetrics.entriesSkippedInvalid.incrementAndGet();
             try {
                 ensurePersistentCacheManager().remove(currentKey);
             } catch (final IOException e) {
@@ -1485,7 +2101,9 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             }
         }
         
-        super.removeByEntityID(entityID, backingStore);
+        synchronized (backingStore.getOrderedDescriptors()) {
+            super.removeByEntityID(entityID, backingStore);
+        }
     }
 
     /** {@inheritDoc} */
@@ -1494,6 +2112,10 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         if (cleanupTask != null) {
             cleanupTask.cancel();
         }
+        if (prefetchTask != null) {
+            prefetchTask.cancel();
+        }
+        prefetchTask = null;
         if (createdOwnTaskTimer) {
             taskTimer.cancel();
         }
@@ -1512,8 +2134,13 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             MetricsSupport.remove(MetricRegistry.name(getMetricsBaseName(), METRIC_GAUGE_PERSISTENT_CACHE_INIT), 
                     gaugePersistentCacheInit);
         }
+        if (gaugePrefetchBacklog != null) {
+            MetricsSupport.remove(MetricRegistry.name(getMetricsBaseName(), METRIC_GAUGE_PREFETCH_BACKLOG), 
+                    gaugePrefetchBacklog);
+        }
         ratioGaugeFetchToResolve = null;
         gaugeNumLiveEntityIDs = null;
+        gaugePrefetchBacklog = null;
         gaugePersistentCacheInit = null;
         timerFetchFromOriginSource = null;
         timerResolve = null;
@@ -1550,6 +2177,9 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         /** Manager for secondary indexes. */
         @Nonnull private LockableMetadataIndexManager<String> secondaryIndexManager;
         
+        /** EntityIDs which were most recently negatively cached, oldest first. */
+        @Nonnull private final Set<String> negativeLookups;
+        
         /** 
          * Constructor.
          * 
@@ -1557,6 +2187,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          */
         protected DynamicEntityBackingStore(@Nullable final Set<MetadataIndex> initIndexes) {
             mgmtDataMap = new ConcurrentHashMap<>();
+            negativeLookups = new LinkedHashSet<>();
             secondaryIndexManager = new LockableMetadataIndexManager<>(initIndexes, 
                     new LockableMetadataIndexManager.EntityIDExtractionFunction()); 
 
@@ -1618,6 +2249,33 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             // TODO use intern-ed String here for monitor target?
             synchronized (this) {
                 mgmtDataMap.remove(entityID);
+                negativeLookups.remove(entityID);
+            }
+        }
+        
+        /**
+         * Record that the specified entityID was negatively cached, returning those that it displaces
+         * from the negative lookup cache.
+         * 
+         * @param entityID the input entityID
+         * 
+         * @return the displaced entityIDs, oldest first
+         * 
+         * @since 5.2.0
+         */
+        @Nonnull public List<String> recordNegativeLookup(@Nonnull final String entityID) {
+            Constraint.isNotNull(entityID, "EntityID may not be null");
+            synchronized (this) {
+                negativeLookups.remove(entityID);
+                negativeLookups.add(entityID);
+                
+                final List<String> displaced = new ArrayList<>();
+                final Iterator<String> iterator = negativeLookups.iterator();
+                while (negativeLookups.size() > getMaxNegativeLookupCacheEntries() && iterator.hasNext()) {
+                    displaced.add(iterator.next());
+                    iterator.remove();
+                }
+                return displaced;
             }
         }
         
@@ -1649,6 +2307,12 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         /** Read-write lock instance which governs access to the entity's backing store data. */
         @Nonnull private ReadWriteLock readWriteLock;
         
+        /** Whether a background refresh of the entity's metadata is pending. */
+        @Nonnull private final AtomicBoolean refreshPending;
+        
+        /** Number of accesses of the entity's backing store data, halved at each run of the prefetch task. */
+        @Nonnull private final AtomicLong accessCount;
+        
         /** Constructor. 
          * 
          * @param id the entity ID managed by this instance
@@ -1660,6 +2324,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             refreshTriggerTime = now.plus(getMaxCacheDuration());
             lastAccessedTime = now;
             readWriteLock = new ReentrantReadWriteLock(true);
+            refreshPending = new AtomicBoolean();
+            accessCount = new AtomicLong();
         }
         
         /**
@@ -1739,6 +2405,29 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          */
         public void recordEntityAccess() {
             lastAccessedTime = Instant.now();
+            accessCount.incrementAndGet();
+        }
+        
+        /**
+         * Get the number of recent accesses of the entity's backing store data.
+         * 
+         * @return the decayed access count
+         * 
+         * @since 5.2.0
+         */
+        public long getAccessCount() {
+            return accessCount.get();
+        }
+        
+        /**
+         * Halve the number of recent accesses of the entity's backing store data.
+         * 
+         * @return the access count before it was halved
+         * 
+         * @since 5.2.0
+         */
+        public long decayAccessCount() {
+            return accessCount.getAndUpdate(count -> count >> 1);
         }
         
         /**
@@ -1756,9 +2445,13 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return the time before which no further lookups for the entity will be performed
          */
         @Nonnull public Instant initNegativeLookupCache() {
-            negativeLookupCacheExpiration = Instant.now().plus(getNegativeLookupCacheDuration());
-            assert negativeLookupCacheExpiration != null;
-            return negativeLookupCacheExpiration;
+            Instant expiration = Instant.now().plus(getNegativeLookupCacheDuration());
+            final long jitter = getNegativeLookupCacheJitter().toMillis();
+            if (jitter > 0) {
+                expiration = expiration.plusMillis(ThreadLocalRandom.current().nextLong(jitter + 1));
+            }
+            negativeLookupCacheExpiration = expiration;
+            return expiration;
         }
         
         /**
@@ -1859,6 +2552,126 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
     }
     
+    /**
+     * Background task which refreshes the metadata of frequently accessed entities before it is due for refresh.
+     * 
+     * @since 5.2.0
+     */
+    protected class PrefetchScheduler extends TimerTask {
+        
+        /** Logger. */
+        @Nonnull private final Logger log = LoggerFactory.getLogger(PrefetchScheduler.class);
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            if (isDestroyed() || !isInitialized()) {
+                log.debug("{} PrefetchScheduler will not run because: inited: {}, destroyed: {}",
+                        getLogPrefix(), isInitialized(), isDestroyed());
+                return;
+            }
+            
+            try {
+                schedulePrefetches();
+            } catch (final Throwable t) {
+                log.error("{} Error scheduling metadata prefetches", getLogPrefix(), t);
+            }
+        }
+        
+        /**
+         * Schedule the refresh of the entities due for refresh before the next run, most accessed first.
+         */
+        private void schedulePrefetches() {
+            final Timer timer = taskTimer;
+            if (timer == null) {
+                return;
+            }
+            
+            final Instant now = Instant.now();
+            final Instant horizon = now.plus(getPrefetchInterval());
+            final DynamicEntityBackingStore backingStore = ensureBackingStore();
+            final List<Pair<EntityManagementData, Long>> candidates = new ArrayList<>();
+            for (final String entityID : backingStore.getIndexedDescriptors().keySet()) {
+                final EntityManagementData mgmtData = backingStore.mgmtDataMap.get(entityID);
+                if (mgmtData == null) {
+                    continue;
+                }
+                final long accesses = mgmtData.decayAccessCount();
+                if (accesses >= getPrefetchThreshold() && !mgmtData.getRefreshTriggerTime().isAfter(horizon)) {
+                    candidates.add(new Pair<>(mgmtData, accesses));
+                }
+            }
+            candidates.sort((a, b) -> Long.compare(b.getSecond(), a.getSecond()));
+            
+            for (final Pair<EntityManagementData, Long> candidate : candidates) {
+                final EntityManagementData mgmtData = candidate.getFirst();
+                assert mgmtData != null;
+                if (!mgmtData.refreshPending.compareAndSet(false, true)) {
+                    continue;
+                }
+                
+                final long untilDue = Duration.between(now, mgmtData.getRefreshTriggerTime()).toMillis();
+                final long delay = untilDue > 0 ? ThreadLocalRandom.current().nextLong(untilDue) : 0;
+                prefetchBacklog.incrementAndGet();
+                log.trace("{} Scheduling prefetch of entity ID '{}' in {} ms", 
+                        getLogPrefix(), mgmtData.getEntityID(), delay);
+                try {
+                    timer.schedule(new TimerTask() {
+                        public void run() {
+                            prefetch(mgmtData);
+                        }
+                    }, delay);
+                } catch (final IllegalStateException e) {
+                    // The timer has been cancelled, so the resolver is being destroyed.
+                    prefetchBacklog.decrementAndGet();
+                    mgmtData.refreshPending.set(false);
+                    return;
+                }
+            }
+            
+            if (!candidates.isEmpty()) {
+                log.debug("{} Scheduled prefetch of {} entities, backlog is {}", 
+                        getLogPrefix(), candidates.size(), getPrefetchBacklog());
+            }
+        }
+        
+        /**
+         * Refresh an entity's metadata, if it is still held and a prefetch permit is available.
+         * 
+         * @param mgmtData the entity's management data
+         */
+        private void prefetch(@Nonnull final EntityManagementData mgmtData) {
+            final String entityID = mgmtData.getEntityID();
+            if (isDestroyed() || !ensureBackingStore().getIndexedDescriptors().containsKey(entityID)
+                    || !prefetchPermits.tryAcquire()) {
+                log.debug("{} Skipping prefetch of entity ID: {}", getLogPrefix(), entityID);
+                prefetchBacklog.decrementAndGet();
+                mgmtData.refreshPending.set(false);
+                return;
+            }
+            
+            final Runnable refresh = () -> {
+                try {
+                    if (!isDestroyed()) {
+                        refreshInBackground(mgmtData);
+                    }
+                } catch (final Throwable t) {
+                    log.error("{} Error prefetching metadata for entity ID: {}", getLogPrefix(), entityID, t);
+                } finally {
+                    prefetchPermits.release();
+                    prefetchBacklog.decrementAndGet();
+                    mgmtData.refreshPending.set(false);
+                }
+            };
+            if (!executeInBackground(refresh)) {
+                prefetchPermits.release();
+                prefetchBacklog.decrementAndGet();
+                mgmtData.refreshPending.set(false);
+            }
+        }
+        
+    }
+    
     /**
      * Default function for generating a cache key for loading and saving an {@link EntityDescriptor}
      * using a {@link XMLObjectLoadSaveManager}.
@@ -1903,26 +2716,32 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         private boolean enabled;
         
         /** Total processing time for the persistent cache, in nanoseconds. */
-        private long processingTime;
+        private volatile long processingTime;
+        
+        /** Whether the initialization from the persistent cache has completed. */
+        private volatile boolean complete;
+        
+        /** Entries in the persistent cache which remain to be processed, when known in advance. */
+        @Nonnull private final AtomicInteger entriesRemaining = new AtomicInteger();
         
         /** Total entries seen in the persistent cache. */
-        private int entriesTotal;
+        @Nonnull private final AtomicInteger entriesTotal = new AtomicInteger();
         
         /** Entries which were successfully loaded and made live. */
-        private int entriesLoaded;
+        @Nonnull private final AtomicInteger entriesLoaded = new AtomicInteger();
         
         /** Entries which were skipped because they were already live by the time they were processed, 
          * generally only seen when initializing from the persistent cache in a background thread. */
-        private int entriesSkippedAlreadyLive;
+        @Nonnull private final AtomicInteger entriesSkippedAlreadyLive = new AtomicInteger();
         
         /** Entries which were skipped because they were determined to be invalid. */
-        private int entriesSkippedInvalid;
+        @Nonnull private final AtomicInteger entriesSkippedInvalid = new AtomicInteger();
         
         /** Entries which were skipped because they failed the persistent cache predicate evaluation. */
-        private int entriesSkippedFailedPredicate;
+        @Nonnull private final AtomicInteger entriesSkippedFailedPredicate = new AtomicInteger();
         
         /** Entries which were skipped due to a processing exception. */
-        private int entriesSkippedProcessingException;
+        @Nonnull private final AtomicInteger entriesSkippedProcessingException = new AtomicInteger();
         
         /**
          * Get whether or not persistent caching was enabled. 
@@ -1940,12 +2759,35 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             return processingTime;
         }
 
+        /**
+         * Get whether the initialization from the persistent cache has completed.
+         * 
+         * @return true if complete, false otherwise
+         * 
+         * @since 5.2.0
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+        
+        /**
+         * Get entries in the persistent cache which remain to be processed. This is only known in advance
+         * when initializing with multiple threads, and is otherwise 0.
+         * 
+         * @return the number of entries remaining
+         * 
+         * @since 5.2.0
+         */
+        public int getEntriesRemaining() {
+            return entriesRemaining.get();
+        }
+
         /**
          * Get total entries seen in the persistent cache.
          * @return Returns the entriesTotal.
          */
         public int getEntriesTotal() {
-            return entriesTotal;
+            return entriesTotal.get();
         }
 
         /**
@@ -1953,7 +2795,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return Returns the entriesLoaded.
          */
         public int getEntriesLoaded() {
-            return entriesLoaded;
+            return entriesLoaded.get();
         }
 
         /**
@@ -1962,7 +2804,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return Returns the entriesSkippedAlreadyLive.
          */
         public int getEntriesSkippedAlreadyLive() {
-            return entriesSkippedAlreadyLive;
+            return entriesSkippedAlreadyLive.get();
         }
 
         /**
@@ -1970,7 +2812,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return Returns the entriesSkippedInvalid.
          */
         public int getEntriesSkippedInvalid() {
-            return entriesSkippedInvalid;
+            return entriesSkippedInvalid.get();
         }
 
         /**
@@ -1978,7 +2820,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return Returns the entriesSkippedFailedPredicate.
          */
         public int getEntriesSkippedFailedPredicate() {
-            return entriesSkippedFailedPredicate;
+            return entriesSkippedFailedPredicate.get();
         }
 
         /**
@@ -1986,7 +2828,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
          * @return Returns the entriesSkippedProcessingException.
          */
         public int getEntriesSkippedProcessingException() {
-            return entriesSkippedProcessingException;
+            return entriesSkippedProcessingException.get();
         }
 
         /** {@inheritDoc} */
@@ -1994,12 +2836,14 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             return MoreObjects.toStringHelper(this)
                     .add("enabled", enabled)
                     .add("processingTime", processingTime)
-                    .add("entriesTotal", entriesTotal)
-                    .add("entriesLoaded", entriesLoaded)
-                    .add("entriesSkippedAlreadyLive", entriesSkippedAlreadyLive)
-                    .add("entriesSkippedInvalid", entriesSkippedInvalid)
-                    .add("entriesSkippedFailedPredicate", entriesSkippedFailedPredicate)
-                    .add("entriesSkippedProcessingException", entriesSkippedProcessingException)
+                    .add("complete", complete)
+                    .add("entriesRemaining", entriesRemaining.get())
+                    .add("entriesTotal", entriesTotal.get())
+                    .add("entriesLoaded", entriesLoaded.get())
+                    .add("entriesSkippedAlreadyLive", entriesSkippedAlreadyLive.get())
+                    .add("entriesSkippedInvalid", entriesSkippedInvalid.get())
+                    .add("entriesSkippedFailedPredicate", entriesSkippedFailedPredicate.get())
+                    .add("entriesSkippedProcessingException", entriesSkippedProcessingException.get())
                     .toString();
         }
         
@@ -16,6 +16,7 @@ package org.opensaml.saml.metadata.resolver.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +44,7 @@ import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
 import org.opensaml.saml.metadata.resolver.filter.data.impl.MetadataSource;
 import org.opensaml.saml.saml2.common.SAML2Support;
+import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
 import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.slf4j.Logger;
@@ -537,13 +539,22 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
             return CollectionSupport.emptyList();
         }
 
-        final List<EntityDescriptor> descriptors = lookupIndexedEntityID(entityID);
+        // Read both from the same store, since a refresh may replace it between the two.
+        final EntityBackingStore backingStore = ensureBackingStore();
+        final long expiration = backingStore.getEffectiveExpiration(entityID);
+        final List<EntityDescriptor> descriptors = lookupIndexedEntityID(entityID, backingStore);
         if (descriptors.isEmpty()) {
             log.debug("{} Metadata backing store does not contain any EntityDescriptors with the ID: {}", 
                     getLogPrefix(), entityID);
             return descriptors;
         }
 
+        // The expiration is the earliest validUntil of the descriptors and their ancestors, so while it lies in the
+        // future every descriptor is still valid and there is no need to walk each one's parent chain.
+        if (!isRequireValidMetadata() || System.currentTimeMillis() < expiration) {
+            return descriptors;
+        }
+
         final Iterator<EntityDescriptor> entitiesIter = descriptors.iterator();
         while (entitiesIter.hasNext()) {
             final EntityDescriptor descriptor = entitiesIter.next();
@@ -566,7 +577,23 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
      * @return list copy of indexed entityID's, may be empty, will never be null
      */
     @Nonnull protected List<EntityDescriptor> lookupIndexedEntityID(@Nonnull @NotEmpty final String entityID) {
-        final List<EntityDescriptor> descriptors = ensureBackingStore().getIndexedDescriptors().get(entityID);
+        return lookupIndexedEntityID(entityID, ensureBackingStore());
+    }
+
+    /**
+     * Lookup the specified entityID from the index of a backing store. The returned list will be a copy of what is
+     * stored in the backing index, and is safe to be manipulated by callers.
+     * 
+     * @param entityID the entityID to lookup
+     * @param backingStore the backing store to look up the entityID in
+     * 
+     * @return list copy of indexed entityID's, may be empty, will never be null
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull protected List<EntityDescriptor> lookupIndexedEntityID(@Nonnull @NotEmpty final String entityID,
+            @Nonnull final EntityBackingStore backingStore) {
+        final List<EntityDescriptor> descriptors = backingStore.getIndexedDescriptors().get(entityID);
         if (descriptors != null) {
             return new ArrayList<>(descriptors);
         }
@@ -641,6 +668,7 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
             backingStore.getOrderedDescriptors().removeAll(descriptors);
         }
         indexedDescriptors.remove(entityID);
+        backingStore.getEffectiveExpirations().remove(entityID);
     }
 
     /**
@@ -662,7 +690,60 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
                 log.warn("{} Detected duplicate EntityDescriptor for entityID: {}", getLogPrefix(), entityID);
             }
             entities.add(entityDescriptor);
+            backingStore.getEffectiveExpirations().merge(entityID, computeEffectiveExpiration(entityDescriptor),
+                    Math::min);
+        }
+    }
+
+    /**
+     * Recompute the effective expiration of the entity ID from the descriptors currently indexed under it.
+     * 
+     * <p>
+     * This must be called if an indexed descriptor is moved to a different parent.
+     * </p>
+     * 
+     * @param entityID the entity ID
+     * @param backingStore the backing store instance to update
+     * 
+     * @since 5.2.0
+     */
+    protected void updateEffectiveExpiration(@Nonnull final String entityID,
+            @Nonnull final EntityBackingStore backingStore) {
+        final List<EntityDescriptor> descriptors = backingStore.getIndexedDescriptors().get(entityID);
+        if (descriptors == null || descriptors.isEmpty()) {
+            backingStore.getEffectiveExpirations().remove(entityID);
+            return;
+        }
+
+        long expiration = Long.MAX_VALUE;
+        for (final EntityDescriptor descriptor : descriptors) {
+            expiration = Math.min(expiration, computeEffectiveExpiration(descriptor));
         }
+        backingStore.getEffectiveExpirations().put(entityID, expiration);
+    }
+
+    /**
+     * Compute the effective expiration of a descriptor: the earliest validUntil of the descriptor and its ancestors.
+     * 
+     * @param descriptor the descriptor
+     * 
+     * @return the expiration in milliseconds since the epoch, or {@link Long#MAX_VALUE} if none applies
+     * 
+     * @since 5.2.0
+     */
+    protected long computeEffectiveExpiration(@Nonnull final XMLObject descriptor) {
+        long expiration = Long.MAX_VALUE;
+        XMLObject current = descriptor;
+        while (current != null) {
+            if (current instanceof TimeBoundSAMLObject timeBound) {
+                final Instant validUntil = timeBound.getValidUntil();
+                if (validUntil != null) {
+                    expiration = Math.min(expiration, validUntil.toEpochMilli());
+                }
+            }
+            current = current.getParent();
+        }
+        return expiration;
     }
 
     /**
@@ -762,10 +843,14 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
         /** Ordered list of entity descriptors. */
         @Nonnull private final List<EntityDescriptor> orderedDescriptors;
 
+        /** Index of entity IDs to the effective expiration of their descriptors, in milliseconds since the epoch. */
+        @Nonnull private final Map<String, Long> effectiveExpirations;
+
         /** Constructor. */
         protected EntityBackingStore() {
             indexedDescriptors = new ConcurrentHashMap<>();
             orderedDescriptors = new ArrayList<>();
+            effectiveExpirations = new ConcurrentHashMap<>();
         }
 
         /**
@@ -786,6 +871,37 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
             return orderedDescriptors;
         }
 
+        /**
+         * Get the index of entity IDs to the effective expiration of their descriptors.
+         * 
+         * <p>
+         * The effective expiration is the earliest validUntil of any descriptor indexed under the entity ID,
+         * or of any of their ancestors, computed when the descriptor is indexed.
+         * </p>
+         * 
+         * @return the effective expiration index
+         * 
+         * @since 5.2.0
+         */
+        @Nonnull public Map<String, Long> getEffectiveExpirations() {
+            return effectiveExpirations;
+        }
+
+        /**
+         * Get the effective expiration of the descriptors indexed under an entity ID.
+         * 
+         * @param entityID the entity ID
+         * 
+         * @return the expiration in milliseconds since the epoch, {@link Long#MAX_VALUE} if none applies,
+         *      or {@link Long#MIN_VALUE} if the entity ID is not indexed
+         * 
+         * @since 5.2.0
+         */
+        public long getEffectiveExpiration(@Nonnull final String entityID) {
+            final Long expiration = effectiveExpirations.get(entityID);
+            return expiration != null ? expiration : Long.MIN_VALUE;
+        }
+
     }
 
 }
\ No newline at end of file
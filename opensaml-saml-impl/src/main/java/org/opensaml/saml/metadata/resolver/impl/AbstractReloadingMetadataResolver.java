@@ -32,12 +32,16 @@ import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterChain;
+import org.opensaml.saml.metadata.resolver.filter.impl.SchemaValidationFilter;
 import org.opensaml.saml.saml2.common.SAML2Support;
 import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
 import org.slf4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer.Context;
 
@@ -47,6 +51,7 @@ import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
 import net.shibboleth.shared.primitive.TimerSupport;
 import net.shibboleth.shared.resolver.ResolverException;
+import net.shibboleth.shared.xml.ParserPool;
 
 /**
  * Base class for metadata providers that cache and periodically refresh their metadata.
@@ -68,6 +73,13 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
     /** Metric name for the timer for {@link #refresh()}. */
     @Nonnull @NotEmpty public static final String METRIC_TIMER_REFRESH = "timer.refresh";
 
+    /**
+     * Metric name for the gauge of the delta from the previous metadata, in delta refresh mode.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_GAUGE_DELTA_REFRESH = "gauge.deltaRefresh";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractReloadingMetadataResolver.class);
 
@@ -122,6 +134,21 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
     /** Metrics Timer for {@link #refresh()}. */
     @Nullable private com.codahale.metrics.Timer timerRefresh;
 
+    /** Metrics Gauge for {@link #getDeltaRefreshMetrics()}. */
+    @Nullable private Gauge<DeltaRefreshMetrics> gaugeDeltaRefresh;
+
+    /** Current task to remove expired entities. */
+    @Nullable private ExpiredEntitySweepTask expiredEntitySweepTask;
+
+    /** Interval between sweeps for expired entities. Default value: 0 (disabled). */
+    @Nonnull private Duration expiredEntitySweepInterval;
+
+    /** Whether new metadata is unmarshalled in streaming mode. */
+    private boolean streamingUnmarshall;
+
+    /** Unmarshaller used in streaming mode. */
+    @Nullable private StreamingMetadataUnmarshaller streamingUnmarshaller;
+
     /** Constructor. */
     protected AbstractReloadingMetadataResolver() {
         this(null);
@@ -139,6 +166,7 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         maxRefreshDelay = Duration.ofHours(4);
         
         expirationWarningThreshold = Duration.ZERO;
+        expiredEntitySweepInterval = Duration.ZERO;
         
         if (backgroundTaskTimer == null) {
             taskTimer = new Timer(TimerSupport.getTimerName(this), true);
@@ -298,6 +326,81 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         minRefreshDelay = delay;
     }
 
+    /**
+     * Gets the interval between sweeps for expired entities.
+     * 
+     * @return interval between sweeps for expired entities
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull public Duration getExpiredEntitySweepInterval() {
+        return expiredEntitySweepInterval;
+    }
+
+    /**
+     * Sets the interval between sweeps for expired entities.
+     * 
+     * <p>
+     * When valid metadata is required, entities whose validUntil, or that of an enclosing group, has passed
+     * are removed from the entity ID index in the background, rather than being re-examined on each lookup
+     * until the next refresh. A value of 0 disables the sweep.
+     * </p>
+     * 
+     * <p>
+     * Defaults to 0.
+     * </p>
+     * 
+     * @param interval interval between sweeps for expired entities
+     * 
+     * @since 5.2.0
+     */
+    public void setExpiredEntitySweepInterval(@Nonnull final Duration interval) {
+        checkSetterPreconditions();
+
+        Constraint.isNotNull(interval, "Expired entity sweep interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Expired entity sweep interval must be greater than or equal to 0");
+
+        expiredEntitySweepInterval = interval;
+    }
+
+    /**
+     * Gets whether new metadata is unmarshalled in streaming mode.
+     * 
+     * @return whether new metadata is unmarshalled in streaming mode
+     * 
+     * @since 5.2.0
+     */
+    public boolean isStreamingUnmarshall() {
+        return streamingUnmarshall;
+    }
+
+    /**
+     * Sets whether new metadata is unmarshalled in streaming mode, using a {@link StreamingMetadataUnmarshaller}.
+     * 
+     * <p>
+     * Rather than parsing the whole of an aggregate into a DOM, the members of the root element are parsed
+     * and unmarshalled one at a time and the root signature is digested as the document is read, which bounds
+     * the additional memory needed by a refresh to the DOM of the largest member. The filters still run over
+     * the complete metadata once it has been read. Filters that require a DOM of the whole document, such as
+     * {@link org.opensaml.saml.metadata.resolver.filter.impl.SchemaValidationFilter}, cannot be used in this
+     * mode, and the DOM passed to {@link #postProcessMetadata(byte[], Document, XMLObject, XMLObject)} holds
+     * only the root element without its members.
+     * </p>
+     * 
+     * <p>
+     * Defaults to false.
+     * </p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 5.2.0
+     */
+    public void setStreamingUnmarshall(final boolean flag) {
+        checkSetterPreconditions();
+
+        streamingUnmarshall = flag;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doDestroy() {
@@ -305,11 +408,22 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
             refreshMetadataTask.cancel();
         }
         
+        if (expiredEntitySweepTask != null) {
+            expiredEntitySweepTask.cancel();
+        }
+        expiredEntitySweepTask = null;
+        
         if (createdOwnTaskTimer) {
             taskTimer.cancel();
         }
         
+        if (gaugeDeltaRefresh != null) {
+            MetricsSupport.remove(MetricRegistry.name(getMetricsBaseName(), METRIC_GAUGE_DELTA_REFRESH), 
+                    gaugeDeltaRefresh);
+        }
+        gaugeDeltaRefresh = null;
         timerRefresh = null;
+        streamingUnmarshaller = null;
         expirationTime = null;
         lastRefresh = null;
         lastUpdate = null;
@@ -334,6 +448,30 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         if (metricRegistry != null) {
             timerRefresh = metricRegistry.timer(
                     MetricRegistry.name(getMetricsBaseName(), METRIC_TIMER_REFRESH));
+            
+            if (isDeltaRefresh()) {
+                gaugeDeltaRefresh = MetricsSupport.register(
+                        MetricRegistry.name(getMetricsBaseName(), METRIC_GAUGE_DELTA_REFRESH),
+                        new Gauge<DeltaRefreshMetrics>() {
+                            public DeltaRefreshMetrics getValue() {
+                                return getDeltaRefreshMetrics();
+                            }},
+                        true);
+            }
+        }
+        
+        if (isStreamingUnmarshall()) {
+            if (requiresDocumentDOM(getMetadataFilter())) {
+                throw new ComponentInitializationException(
+                        "SchemaValidationFilter requires a DOM of the whole document and cannot be used with "
+                        + "streaming unmarshalling");
+            }
+            final ParserPool pool = getParserPool();
+            if (pool == null) {
+                throw new ComponentInitializationException("ParserPool is required for streaming unmarshalling");
+            }
+            streamingUnmarshaller =
+                    new StreamingMetadataUnmarshaller(pool, getUnmarshallerFactory(), isDeltaRefresh());
         }
         
         try {
@@ -342,6 +480,12 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
             throw new ComponentInitializationException("Error refreshing metadata during init", e);
         }
         
+        if (isRequireValidMetadata() && !expiredEntitySweepInterval.isZero()) {
+            expiredEntitySweepTask = new ExpiredEntitySweepTask();
+            final long interval = expiredEntitySweepInterval.toMillis();
+            taskTimer.schedule(expiredEntitySweepTask, interval, interval);
+        }
+        
         if (minRefreshDelay.compareTo(maxRefreshDelay) > 0) {
             throw new ComponentInitializationException("Minimum refresh delay " + minRefreshDelay
                     + " is greater than maximum refresh delay " + maxRefreshDelay);
@@ -487,6 +631,10 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
      */
     @Nonnull protected XMLObject unmarshallMetadata(@Nonnull final byte[] metadataBytes) throws ResolverException {
         try {
+            final StreamingMetadataUnmarshaller streaming = streamingUnmarshaller;
+            if (streaming != null) {
+                return streaming.unmarshall(new ByteArrayInputStream(metadataBytes));
+            }
             return unmarshallMetadata(new ByteArrayInputStream(metadataBytes));
         } catch (final UnmarshallingException e) {
             final String errorMsg = "Unable to unmarshall metadata";
@@ -495,6 +643,20 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         }
     }
 
+    /**
+     * Check whether a filter, or any filter in a chain, requires a DOM of the whole document.
+     * 
+     * @param filter the filter to check
+     * 
+     * @return true if the filter cannot operate on metadata unmarshalled in streaming mode
+     */
+    private boolean requiresDocumentDOM(@Nullable final MetadataFilter filter) {
+        if (filter instanceof MetadataFilterChain chain) {
+            return chain.getFilters().stream().anyMatch(this::requiresDocumentDOM);
+        }
+        return filter instanceof SchemaValidationFilter;
+    }
+
     /**
      * Processes a cached metadata document in order to determine, and schedule, the next time it should be refreshed.
      * 
@@ -635,7 +797,8 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
      * The default implementation of this method is a no-op
      * 
      * @param metadataBytes original raw metadata bytes retrieved via {@link #fetchMetadata}
-     * @param metadataDom original metadata after it has been parsed in to a DOM document
+     * @param metadataDom original metadata after it has been parsed in to a DOM document, limited to the root
+     *          element without its members if {@link #isStreamingUnmarshall()} is set
      * @param originalMetadata original metadata prior to being filtered, with its DOM released
      * @param filteredMetadata metadata after it has been run through all registered filters and its DOM released
      * 
@@ -719,4 +882,22 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         //CheckStyle: ReturnCount ON
     }
 
+    /** Background task that removes expired entities from the entity ID index. */
+    private class ExpiredEntitySweepTask extends TimerTask {
+
+        /** {@inheritDoc} */
+        @Override public void run() {
+            if (isDestroyed()) {
+                // just in case the metadata provider was destroyed before this task runs
+                return;
+            }
+            
+            try {
+                removeExpiredEntityDescriptors();
+            } catch (final Throwable t) {
+                log.error("{} Error removing expired entities", getLogPrefix(), t);
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Attribute;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Namespace;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.StartTag;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Computes fingerprints of unfiltered {@link EntityDescriptor} instances, used to detect entities that are
+ * unchanged between two refreshes of the same metadata source.
+ *
+ * <p>
+ * The fingerprint is the SHA-256 digest of the Exclusive XML Canonicalization of the entity's cached DOM, so
+ * whitespace outside the entity, namespace prefixes declared but unused, and the order of attributes do not
+ * affect it. It is attached to the entity as object metadata.
+ * </p>
+ */
+final class EntityFingerprinter {
+
+    /** Digest algorithm used for fingerprints. */
+    @Nonnull private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Constructor. */
+    private EntityFingerprinter() {
+    }
+
+    /**
+     * Attach a fingerprint to each entity in the metadata that has a cached DOM and no fingerprint yet.
+     *
+     * @param metadata the unfiltered metadata
+     */
+    static void fingerprint(@Nonnull final XMLObject metadata) {
+        if (metadata instanceof EntityDescriptor entity) {
+            final Element element = entity.getDOM();
+            if (element != null && entity.getObjectMetadata().get(Fingerprint.class).isEmpty()) {
+                entity.getObjectMetadata().put(new Fingerprint(digest(element)));
+            }
+        } else if (metadata instanceof EntitiesDescriptor group) {
+            for (final EntitiesDescriptor child : group.getEntitiesDescriptors()) {
+                fingerprint(child);
+            }
+            for (final EntityDescriptor child : group.getEntityDescriptors()) {
+                fingerprint(child);
+            }
+        }
+    }
+
+    /**
+     * Get the fingerprint attached to an entity.
+     *
+     * @param entity the entity
+     *
+     * @return the fingerprint, or null if none was attached
+     */
+    @Nullable static String getFingerprint(@Nonnull final EntityDescriptor entity) {
+        final List<Fingerprint> fingerprints = entity.getObjectMetadata().get(Fingerprint.class);
+        return fingerprints.isEmpty() ? null : fingerprints.get(0).value();
+    }
+
+    /**
+     * Compute the fingerprint of an element.
+     *
+     * @param element the element
+     *
+     * @return the Base64-encoded digest
+     */
+    @Nonnull private static String digest(@Nonnull final Element element) {
+        try {
+            final StreamingExclusiveCanonicalizer canonicalizer =
+                    new StreamingExclusiveCanonicalizer(MessageDigest.getInstance(DIGEST_ALGORITHM), Set.of());
+            render(element, canonicalizer);
+            return Base64.getEncoder().encodeToString(canonicalizer.digest());
+        } catch (final NoSuchAlgorithmException | IOException e) {
+            // SHA-256 is required of every platform, and the digest is written to no actual output.
+            throw new IllegalStateException("Unable to compute entity fingerprint", e);
+        }
+    }
+
+    /**
+     * Feed a DOM subtree to a canonicalizer.
+     *
+     * @param node the root of the subtree
+     * @param canonicalizer the canonicalizer
+     *
+     * @throws IOException if the canonicalizer fails
+     */
+    private static void render(@Nonnull final Node node, @Nonnull final StreamingExclusiveCanonicalizer canonicalizer)
+            throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE -> {
+                canonicalizer.startElement(toStartTag((Element) node));
+                renderChildren(node, canonicalizer);
+                canonicalizer.endElement();
+            }
+            case Node.TEXT_NODE, Node.CDATA_SECTION_NODE -> canonicalizer.characters(node.getNodeValue());
+            case Node.PROCESSING_INSTRUCTION_NODE -> canonicalizer.processingInstruction(
+                    ((ProcessingInstruction) node).getTarget(), ((ProcessingInstruction) node).getData());
+            case Node.ENTITY_REFERENCE_NODE -> renderChildren(node, canonicalizer);
+            default -> {
+                // Comments are not part of the canonical form.
+            }
+        }
+    }
+
+    /**
+     * Feed the children of a DOM node to a canonicalizer.
+     *
+     * @param node the parent node
+     * @param canonicalizer the canonicalizer
+     *
+     * @throws IOException if the canonicalizer fails
+     */
+    private static void renderChildren(@Nonnull final Node node,
+            @Nonnull final StreamingExclusiveCanonicalizer canonicalizer) throws IOException {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            render(child, canonicalizer);
+        }
+    }
+
+    /**
+     * Convert a DOM element into the start tag consumed by the canonicalizer.
+     *
+     * @param element the element
+     *
+     * @return the start tag
+     */
+    @Nonnull private static StartTag toStartTag(@Nonnull final Element element) {
+        final List<Namespace> namespaces = new ArrayList<>();
+        final List<Attribute> attributes = new ArrayList<>();
+        final NamedNodeMap attributeNodes = element.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            final Attr attribute = (Attr) attributeNodes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                namespaces.add(new Namespace(XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getPrefix())
+                        ? attribute.getLocalName() : "", attribute.getValue()));
+            } else {
+                attributes.add(new Attribute(nullToEmpty(attribute.getPrefix()),
+                        nullToEmpty(attribute.getNamespaceURI()), localName(attribute), attribute.getValue()));
+            }
+        }
+        return new StartTag(nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI()),
+                localName(element), namespaces, attributes);
+    }
+
+    /**
+     * Get the local name of a node, falling back to the node name for nodes created without namespace support.
+     *
+     * @param node the node
+     *
+     * @return the local name
+     */
+    @Nonnull private static String localName(@Nonnull final Node node) {
+        final String localName = node.getLocalName();
+        return localName != null ? localName : node.getNodeName();
+    }
+
+    /**
+     * Convert null to the empty string.
+     *
+     * @param value the value
+     *
+     * @return the value, or the empty string
+     */
+    @Nonnull private static String nullToEmpty(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Object metadata holding the fingerprint of an entity.
+     *
+     * @param value the Base64-encoded digest
+     */
+    private record Fingerprint(@Nonnull String value) {
+    }
+
+}
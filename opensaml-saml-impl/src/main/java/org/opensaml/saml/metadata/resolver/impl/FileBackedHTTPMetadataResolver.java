@@ -17,6 +17,9 @@ package org.opensaml.saml.metadata.resolver.impl;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
@@ -27,17 +30,20 @@ import javax.annotation.Nullable;
 
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterChain;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
 import org.opensaml.saml.metadata.resolver.filter.data.impl.MetadataSource;
 import org.slf4j.Logger;
 import org.w3c.dom.Document;
 
-import com.google.common.io.Files;
-
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.primitive.StringSupport;
 import net.shibboleth.shared.resolver.ResolverException;
 
 /**
@@ -57,6 +63,15 @@ import net.shibboleth.shared.resolver.ResolverException;
  * background refresh thread.
  * </p>
  * 
+ * <p>
+ * If {@link #getSnapshotFile()} and {@link #getSnapshotConfigurationVersion()} are set, the filtered metadata is
+ * also saved to that file each time new metadata is loaded. When initializing from the backup file, the filtered
+ * metadata is then loaded from the snapshot instead of being filtered again, provided the snapshot is intact and
+ * was produced from the same backup file contents with the same filters and
+ * {@link #getSnapshotConfigurationVersion()}. Otherwise the backup file is processed in full.
+ * Either way, the first refresh fetches and filters the metadata again.
+ * </p>
+ * 
  */
 public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
 
@@ -78,6 +93,18 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
     /** Duration after which to schedule next refresh, when initialized from backup file. */
     @Nonnull private Duration backupFileInitNextRefreshDelay;
     
+    /** File containing the snapshot of the filtered metadata. */
+    @Nullable private File snapshotFile;
+    
+    /** Version of the filter settings that a snapshot must have been produced with. */
+    @Nullable private String snapshotConfigurationVersion;
+    
+    /** Flag indicating whether metadata load during init was from the snapshot file. */
+    private boolean initializedFromSnapshot;
+    
+    /** Filtered metadata loaded from the snapshot file, while it is being processed. */
+    @Nullable private XMLObject snapshotMetadata;
+    
     /**
      * Constructor.
      * 
@@ -122,6 +149,89 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
         return initializedFromBackupFile;
     }
 
+    /**
+     * Get the flag indicating whether metadata load during initialization was from the snapshot file.
+     * 
+     * @return true if initial load was from the snapshot file, false otherwise
+     * 
+     * @since 5.2.0
+     */
+    public boolean isInitializedFromSnapshot() {
+        return initializedFromSnapshot;
+    }
+
+    /**
+     * Get the file holding a snapshot of the filtered metadata.
+     * 
+     * @return the snapshot file, or null if snapshots are disabled
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Set the file holding a snapshot of the filtered metadata.
+     * 
+     * <p>
+     * The snapshot holds the filtered metadata in a checksummed file bound to a digest of the backup file
+     * contents, the metadata URL, the types of the configured filters and
+     * {@link #getSnapshotConfigurationVersion()}. When initializing from the backup file, a valid snapshot allows
+     * the metadata to be used without filtering it again until the first refresh. That refresh is never made
+     * conditional on the snapshot, so the metadata is always filtered again with the current settings of the
+     * filters. Snapshots are only as trusted as the backup file.
+     * </p>
+     * 
+     * <p>
+     * Snapshots are only written and used if {@link #getSnapshotConfigurationVersion()} is also set.
+     * </p>
+     * 
+     * <p>Defaults to: null (disabled).</p>
+     * 
+     * @param file the snapshot file, or null to disable snapshots
+     * 
+     * @since 5.2.0
+     */
+    public void setSnapshotFile(@Nullable final File file) {
+        checkSetterPreconditions();
+        
+        snapshotFile = file;
+    }
+
+    /**
+     * Get the version of the filter settings that a snapshot must have been produced with.
+     * 
+     * @return the configuration version, or null
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public String getSnapshotConfigurationVersion() {
+        return snapshotConfigurationVersion;
+    }
+
+    /**
+     * Set the version of the filter settings that a snapshot must have been produced with.
+     * 
+     * <p>
+     * The settings of the configured filters, such as trusted keys or predicates, can not be fingerprinted
+     * generically. Deployers that generate this value from their configuration, or change it along with the
+     * settings, ensure that a snapshot produced with other settings is never used. Snapshots are disabled
+     * unless a version is set, since filtering can not otherwise be safely skipped.
+     * </p>
+     * 
+     * <p>Defaults to: null.</p>
+     * 
+     * @param version the configuration version, or null
+     * 
+     * @since 5.2.0
+     */
+    public void setSnapshotConfigurationVersion(@Nullable final String version) {
+        checkSetterPreconditions();
+        
+        snapshotConfigurationVersion = StringSupport.trimOrNull(version);
+    }
+
     /**
      * Get the flag indicating whether initialization should first attempt to load metadata from backup file,
      * if it exists.
@@ -181,6 +291,7 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
     protected void doDestroy() {
         // TODO: if we pull this, becomes Nonnull.
         metadataBackupFile = null;
+        snapshotMetadata = null;
 
         super.doDestroy();
     }
@@ -274,7 +385,7 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
             log.info("{} On initialization, detected existing backup file, attempting load from that: {}",
                         getLogPrefix(), metadataBackupFile.getAbsolutePath());
             try {
-                final byte[] backingData = Files.toByteArray(metadataBackupFile);
+                final byte[] backingData = Files.readAllBytes(metadataBackupFile.toPath());
                 if (backingData == null || backingData.length == 0) {
                     log.info("{} Backup file byte array was null or empty, continuing with normal HTTP fetch: {}", 
                             getLogPrefix(), metadataBackupFile.getAbsolutePath());
@@ -303,7 +414,7 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
                 log.warn("{} Problem reading metadata from remote source, processing existing backup file: {}", 
                         getLogPrefix(), metadataBackupFile.getAbsolutePath());
                 try {
-                    return Files.toByteArray(metadataBackupFile);
+                    return Files.readAllBytes(metadataBackupFile.toPath());
                 } catch (final IOException ioe) {
                     final String errMsg = "Unable to retrieve metadata from backup file "
                             + metadataBackupFile.getAbsolutePath();
@@ -317,6 +428,134 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
     }
 // Checkstyle: CyclomaticComplexity ON
 
+    /** {@inheritDoc} */
+    @Override
+    protected void processNewMetadata(@Nonnull final String metadataIdentifier, @Nonnull final Instant refreshStart,
+            @Nonnull final byte[] metadataBytes) throws ResolverException {
+        final File snapshot = getEffectiveSnapshotFile();
+        if (!initializing || !initializedFromBackupFile || snapshot == null) {
+            super.processNewMetadata(metadataIdentifier, refreshStart, metadataBytes);
+            return;
+        }
+        
+        final InputStream contents = readSnapshot(snapshot, metadataBytes);
+        if (contents != null) {
+            try (final InputStream payload = contents) {
+                snapshotMetadata = unmarshallMetadata(payload);
+                super.processNewMetadata(metadataIdentifier, refreshStart, metadataBytes);
+                if (getCachedOriginalMetadata() != null) {
+                    log.info("{} Successfully initialized from snapshot file: {}", 
+                            getLogPrefix(), snapshot.getAbsolutePath());
+                    initializedFromSnapshot = true;
+                    return;
+                }
+            } catch (final IOException | UnmarshallingException | ResolverException e) {
+                log.warn("{} Error initializing from snapshot file, processing backup file in full", 
+                        getLogPrefix(), e);
+            } finally {
+                snapshotMetadata = null;
+            }
+        }
+        
+        super.processNewMetadata(metadataIdentifier, refreshStart, metadataBytes);
+    }
+    
+    /**
+     * Get the snapshot file if snapshots are enabled.
+     * 
+     * <p>
+     * Snapshots skip the configured filters, so they are only enabled if a
+     * {@link #getSnapshotConfigurationVersion()} ties them to the settings of those filters.
+     * </p>
+     * 
+     * @return the snapshot file, or null if snapshots are disabled
+     */
+    @Nullable private File getEffectiveSnapshotFile() {
+        if (snapshotFile != null && snapshotConfigurationVersion == null) {
+            log.debug("{} No snapshot configuration version is set, ignoring snapshot file", getLogPrefix());
+            return null;
+        }
+        return snapshotFile;
+    }
+    
+    /**
+     * Read the snapshot of the filtered metadata, if it is valid for the given metadata.
+     * 
+     * @param snapshot the snapshot file
+     * @param metadataBytes the raw metadata the snapshot must have been produced from
+     * 
+     * @return a stream over the filtered metadata, or null if there is no valid snapshot
+     */
+    @Nullable private InputStream readSnapshot(@Nonnull final File snapshot,
+            @Nonnull final byte[] metadataBytes) {
+        try {
+            final InputStream contents = MetadataSnapshot.read(snapshot,
+                    MetadataSnapshot.digest(metadataBytes), computeSnapshotConfigurationDigest());
+            if (contents == null) {
+                log.info("{} Snapshot file is missing, invalid or out of date, processing backup file in full: {}", 
+                        getLogPrefix(), snapshot.getAbsolutePath());
+            }
+            return contents;
+        } catch (final IOException e) {
+            log.warn("{} Error reading snapshot file, processing backup file in full: {}", 
+                    getLogPrefix(), snapshot.getAbsolutePath(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Compute the digest of the configuration a snapshot is bound to, consisting of the metadata URL, the
+     * types of the configured filters and the snapshot configuration version.
+     * 
+     * @return the configuration digest
+     */
+    @Nonnull private byte[] computeSnapshotConfigurationDigest() {
+        final StringBuilder configuration = new StringBuilder(getMetadataIdentifier());
+        describeFilter(getMetadataFilter(), configuration);
+        if (snapshotConfigurationVersion != null) {
+            configuration.append(" version=").append(snapshotConfigurationVersion);
+        }
+        return MetadataSnapshot.digest(configuration.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Append the types of a filter, or of the filters in a chain, to a description.
+     * 
+     * @param filter the filter
+     * @param description the description to append to
+     */
+    private void describeFilter(@Nullable final MetadataFilter filter, @Nonnull final StringBuilder description) {
+        if (filter instanceof MetadataFilterChain chain) {
+            description.append('[');
+            for (final MetadataFilter member : chain.getFilters()) {
+                describeFilter(member, description);
+            }
+            description.append(']');
+        } else if (filter != null) {
+            description.append(' ').append(filter.getClass().getName());
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected XMLObject unmarshallMetadata(@Nonnull final byte[] metadataBytes) throws ResolverException {
+        final XMLObject snapshot = snapshotMetadata;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return super.unmarshallMetadata(metadataBytes);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected XMLObject filterMetadata(@Nullable final XMLObject metadata) throws FilterException {
+        if (metadata != null && metadata == snapshotMetadata) {
+            log.debug("{} Metadata was loaded from snapshot file, skipping filtering", getLogPrefix());
+            return metadata;
+        }
+        return super.filterMetadata(metadata);
+    }
+
     /** {@inheritDoc} */
     @Nonnull protected MetadataFilterContext newFilterContext() {
         final MetadataFilterContext context = super.newFilterContext();
@@ -347,6 +586,12 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
     protected void postProcessMetadata(@Nonnull final byte[] metadataBytes, @Nonnull final Document metadataDom,
             @Nonnull final XMLObject originalMetadata, @Nullable final XMLObject filteredMetadata)
                     throws ResolverException {
+        
+        if (snapshotMetadata != null) {
+            // The backup and snapshot files already hold this metadata.
+            super.postProcessMetadata(metadataBytes, metadataDom, originalMetadata, filteredMetadata);
+            return;
+        }
 
         final File staging = new File(metadataBackupFile.getAbsolutePath() + ".staging");
         try {
@@ -358,7 +603,7 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
             }
 
             try {
-                java.nio.file.Files.move(staging.toPath(), metadataBackupFile.toPath(),
+                Files.move(staging.toPath(), metadataBackupFile.toPath(),
                         StandardCopyOption.REPLACE_EXISTING);
             } catch (final IOException e) {
                 log.warn("{} Error moving metadata backup staging file into place: {}",
@@ -371,8 +616,34 @@ public class FileBackedHTTPMetadataResolver extends HTTPMetadataResolver {
             if (staging.exists()) {
                 staging.delete();
             }
+            writeSnapshot(metadataBytes, filteredMetadata);
             super.postProcessMetadata(metadataBytes, metadataDom, originalMetadata, filteredMetadata);
         }
     }
     
+    /**
+     * Save a snapshot of the filtered metadata, if snapshots are enabled.
+     * 
+     * @param metadataBytes the raw metadata the filtered metadata was produced from
+     * @param filteredMetadata the filtered metadata
+     */
+    private void writeSnapshot(@Nonnull final byte[] metadataBytes, @Nullable final XMLObject filteredMetadata) {
+        final File snapshot = getEffectiveSnapshotFile();
+        if (snapshot == null) {
+            return;
+        }
+        
+        try {
+            if (filteredMetadata == null) {
+                Files.deleteIfExists(snapshot.toPath());
+                return;
+            }
+            MetadataSnapshot.write(snapshot, MetadataSnapshot.digest(metadataBytes),
+                    computeSnapshotConfigurationDigest(), filteredMetadata);
+            log.debug("{} Wrote snapshot file: {}", getLogPrefix(), snapshot.getAbsolutePath());
+        } catch (final IOException e) {
+            log.warn("{} Unable to write metadata snapshot file: {}", getLogPrefix(), snapshot.getAbsolutePath(), e);
+        }
+    }
+    
 }
\ No newline at end of file
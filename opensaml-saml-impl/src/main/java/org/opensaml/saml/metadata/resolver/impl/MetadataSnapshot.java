@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+
+/**
+ * Reads and writes snapshots of filtered metadata, used to initialize a resolver without filtering its metadata
+ * source again.
+ *
+ * <p>
+ * A snapshot holds the serialized filtered metadata together with the SHA-256 digest of the source bytes it was
+ * produced from and a digest of the resolver's filter configuration. The whole file is covered by a trailing
+ * SHA-256 checksum. A snapshot is only returned by {@link #read(File, byte[], byte[])} if its checksum is intact
+ * and it is bound to the given source and configuration.
+ * </p>
+ */
+final class MetadataSnapshot {
+
+    /** Digest algorithm used for checksums and bindings. */
+    @Nonnull private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Length of a digest, in bytes. */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** Magic number identifying a snapshot file. */
+    @Nonnull private static final byte[] MAGIC = "OSMDSNAP".getBytes(StandardCharsets.US_ASCII);
+
+    /** Format version. */
+    private static final int VERSION = 2;
+
+    /** Constructor. */
+    private MetadataSnapshot() {
+    }
+
+    /**
+     * Compute the digest used to bind a snapshot to its source or configuration.
+     *
+     * @param data the data to digest
+     *
+     * @return the digest
+     */
+    @Nonnull static byte[] digest(@Nonnull final byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    /**
+     * Write a snapshot, replacing any existing file atomically.
+     *
+     * <p>The metadata may already be in use, so any DOM cached by it is serialized as is and left in place.</p>
+     *
+     * @param file the snapshot file
+     * @param sourceDigest digest of the source bytes the metadata was produced from
+     * @param configurationDigest digest of the filter configuration the metadata was produced with
+     * @param filteredMetadata the filtered metadata
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    static void write(@Nonnull final File file, @Nonnull final byte[] sourceDigest,
+            @Nonnull final byte[] configurationDigest, @Nonnull final XMLObject filteredMetadata) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try {
+            XMLObjectSupport.marshallToOutputStream(filteredMetadata, payload);
+        } catch (final MarshallingException e) {
+            throw new IOException("Unable to serialize filtered metadata", e);
+        }
+
+        final File staging = new File(file.getAbsolutePath() + ".staging");
+        try {
+            final MessageDigest checksum = newDigest();
+            try (final DigestOutputStream digestOut = new DigestOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(staging)), checksum);
+                    final DataOutputStream out = new DataOutputStream(digestOut)) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.write(sourceDigest);
+                out.write(configurationDigest);
+                out.writeInt(payload.size());
+                payload.writeTo(out);
+                digestOut.on(false);
+                out.write(checksum.digest());
+            }
+            Files.move(staging.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (staging.exists()) {
+                staging.delete();
+            }
+        }
+    }
+
+    /**
+     * Read a snapshot, if it is intact and bound to the given source and configuration.
+     *
+     * <p>The file is read into memory rather than mapped, so that it can be replaced on any platform while the
+     * payload is in use.</p>
+     *
+     * @param file the snapshot file
+     * @param sourceDigest digest of the current source bytes
+     * @param configurationDigest digest of the current filter configuration
+     *
+     * @return a stream over the serialized filtered metadata, or null if there is no valid snapshot for the source
+     *          and configuration
+     *
+     * @throws IOException if the snapshot file can not be read
+     */
+    @Nullable static InputStream read(@Nonnull final File file, @Nonnull final byte[] sourceDigest,
+            @Nonnull final byte[] configurationDigest) throws IOException {
+        if (!file.exists() || file.length() < MAGIC.length + DIGEST_LENGTH) {
+            return null;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+        final int contentLength = buffer.limit() - DIGEST_LENGTH;
+        final MessageDigest checksum = newDigest();
+        checksum.update(buffer.duplicate().limit(contentLength));
+        final byte[] expectedChecksum = new byte[DIGEST_LENGTH];
+        buffer.duplicate().position(contentLength).get(expectedChecksum);
+        if (!MessageDigest.isEqual(checksum.digest(), expectedChecksum)) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer content = buffer.limit(contentLength);
+            if (!Arrays.equals(readBytes(content, MAGIC.length), MAGIC) || content.getInt() != VERSION
+                    || !MessageDigest.isEqual(readBytes(content, DIGEST_LENGTH), sourceDigest)
+                    || !MessageDigest.isEqual(readBytes(content, DIGEST_LENGTH), configurationDigest)) {
+                return null;
+            }
+            final int payloadLength = content.getInt();
+            if (payloadLength != content.remaining()) {
+                return null;
+            }
+            return new ByteArrayInputStream(buffer.array(), content.position(), payloadLength);
+        } catch (final BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a number of bytes from a buffer.
+     *
+     * @param buffer the buffer
+     * @param length the number of bytes
+     *
+     * @return the bytes
+     */
+    @Nonnull private static byte[] readBytes(@Nonnull final ByteBuffer buffer, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Create a new message digest.
+     *
+     * @return the message digest
+     */
+    @Nonnull private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            // SHA-256 is required of every platform.
+            throw new IllegalStateException("Unable to create snapshot digest", e);
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+
+/**
+ * Computes the digest of an element subtree under Exclusive XML Canonicalization without building a DOM.
+ *
+ * <p>
+ * The caller feeds the events of the subtree in document order, omitting anything removed by the
+ * enveloped signature transform, and then calls {@link #digest()}. Comments are never rendered, which is
+ * the behavior for same-document references whether or not the transform is the "WithComments" variant.
+ * For a whole-document reference, the caller also feeds the processing instructions outside the root element.
+ * </p>
+ */
+class StreamingExclusiveCanonicalizer {
+
+    /** Attribute ordering: namespace URI, with unqualified attributes first, then local name. */
+    @Nonnull private static final Comparator<Attribute> ATTRIBUTE_ORDER =
+            Comparator.comparing(Attribute::namespaceURI).thenComparing(Attribute::localName);
+
+    /** Digest being computed. */
+    @Nonnull private final MessageDigest messageDigest;
+
+    /** Canonical output, encoded into the digest. */
+    @Nonnull private final Writer output;
+
+    /** Prefixes from the InclusiveNamespaces PrefixList, with the default namespace as the empty string. */
+    @Nonnull private final Set<String> inclusivePrefixes;
+
+    /** Namespace declarations in scope, one frame per open element. */
+    @Nonnull private final Deque<Map<String, String>> inScope;
+
+    /** Namespace declarations rendered on output ancestors, one frame per open element. */
+    @Nonnull private final Deque<Map<String, String>> rendered;
+
+    /** Names of the open elements. */
+    @Nonnull private final Deque<String> openElements;
+
+    /** Whether the root element has been started. */
+    private boolean rootStarted;
+
+    /**
+     * Constructor.
+     *
+     * @param digest the digest to update with the canonical form
+     * @param prefixes the InclusiveNamespaces PrefixList, using the empty string for "#default"
+     */
+    StreamingExclusiveCanonicalizer(@Nonnull final MessageDigest digest, @Nonnull final Set<String> prefixes) {
+        messageDigest = digest;
+        inclusivePrefixes = prefixes;
+        output = new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(OutputStream.nullOutputStream(), digest), StandardCharsets.UTF_8), 8192);
+        inScope = new ArrayDeque<>();
+        inScope.push(Map.of());
+        rendered = new ArrayDeque<>();
+        rendered.push(Map.of());
+        openElements = new ArrayDeque<>();
+    }
+
+    /**
+     * Render an element start tag.
+     *
+     * @param tag the start tag
+     *
+     * @throws IOException if the output fails
+     */
+    void startElement(@Nonnull final StartTag tag) throws IOException {
+        Map<String, String> scope = inScope.element();
+        if (!tag.namespaces().isEmpty()) {
+            scope = new HashMap<>(scope);
+            for (final Namespace ns : tag.namespaces()) {
+                scope.put(ns.prefix(), ns.namespaceURI());
+            }
+        }
+        inScope.push(scope);
+
+        // Namespaces visibly utilized by the element and its attributes, plus the inclusive prefixes in scope.
+        final Map<String, String> candidates = new TreeMap<>();
+        candidates.put(tag.prefix(), tag.namespaceURI());
+        for (final Attribute attribute : tag.attributes()) {
+            if (!attribute.prefix().isEmpty() && !XMLConstants.XML_NS_PREFIX.equals(attribute.prefix())) {
+                candidates.put(attribute.prefix(), attribute.namespaceURI());
+            }
+        }
+        for (final String prefix : inclusivePrefixes) {
+            final String uri = scope.get(prefix);
+            if (uri != null) {
+                candidates.putIfAbsent(prefix, uri);
+            }
+        }
+
+        final Map<String, String> parentRendered = rendered.element();
+        Map<String, String> nowRendered = parentRendered;
+        final String name = tag.qualifiedName();
+        output.write('<');
+        output.write(name);
+        for (final Map.Entry<String, String> candidate : candidates.entrySet()) {
+            final String prefix = candidate.getKey();
+            final String uri = candidate.getValue();
+            final String previous = parentRendered.get(prefix);
+            final boolean render = previous == null ? !prefix.isEmpty() || !uri.isEmpty() : !previous.equals(uri);
+            if (render) {
+                if (nowRendered == parentRendered) {
+                    nowRendered = new HashMap<>(parentRendered);
+                }
+                nowRendered.put(prefix, uri);
+                output.write(prefix.isEmpty() ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+                writeEscaped(uri, true);
+                output.write('"');
+            }
+        }
+        rendered.push(nowRendered);
+
+        final List<Attribute> attributes = new ArrayList<>(tag.attributes());
+        attributes.sort(ATTRIBUTE_ORDER);
+        for (final Attribute attribute : attributes) {
+            output.write(' ');
+            output.write(attribute.prefix().isEmpty() ? attribute.localName()
+                    : attribute.prefix() + ':' + attribute.localName());
+            output.write("=\"");
+            writeEscaped(attribute.value(), true);
+            output.write('"');
+        }
+        output.write('>');
+        openElements.push(name);
+        rootStarted = true;
+    }
+
+    /**
+     * Render the end tag of the innermost open element.
+     *
+     * @throws IOException if the output fails
+     */
+    void endElement() throws IOException {
+        output.write("</");
+        output.write(openElements.pop());
+        output.write('>');
+        rendered.pop();
+        inScope.pop();
+    }
+
+    /**
+     * Render character content.
+     *
+     * @param text the text
+     *
+     * @throws IOException if the output fails
+     */
+    void characters(@Nonnull final String text) throws IOException {
+        writeEscaped(text, false);
+    }
+
+    /**
+     * Render a processing instruction.
+     *
+     * <p>Outside the root element, the instruction is separated from the root element by a line feed.</p>
+     *
+     * @param target the target
+     * @param data the data, if any
+     *
+     * @throws IOException if the output fails
+     */
+    void processingInstruction(@Nonnull final String target, @Nullable final String data) throws IOException {
+        final boolean outsideRoot = openElements.isEmpty();
+        if (outsideRoot && rootStarted) {
+            output.write('\n');
+        }
+        output.write("<?");
+        output.write(target);
+        if (data != null && !data.isEmpty()) {
+            output.write(' ');
+            output.write(data);
+        }
+        output.write("?>");
+        if (outsideRoot && !rootStarted) {
+            output.write('\n');
+        }
+    }
+
+    /**
+     * Complete the digest.
+     *
+     * @return the digest value
+     *
+     * @throws IOException if the output fails
+     */
+    @Nonnull byte[] digest() throws IOException {
+        output.flush();
+        return messageDigest.digest();
+    }
+
+    /**
+     * Write text with the escaping required by the canonical form.
+     *
+     * @param text the text to write
+     * @param attribute whether the text is an attribute value
+     *
+     * @throws IOException if the output fails
+     */
+    private void writeEscaped(@Nonnull final String text, final boolean attribute) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final String replacement = switch (text.charAt(i)) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> attribute ? null : "&gt;";
+                case '"' -> attribute ? "&quot;" : null;
+                case '\t' -> attribute ? "&#x9;" : null;
+                case '\n' -> attribute ? "&#xA;" : null;
+                case '\r' -> "&#xD;";
+                default -> null;
+            };
+            if (replacement != null) {
+                output.write(text, start, i - start);
+                output.write(replacement);
+                start = i + 1;
+            }
+        }
+        output.write(text, start, length - start);
+    }
+
+    /**
+     * A namespace declaration.
+     *
+     * @param prefix the prefix, or the empty string for the default namespace
+     * @param namespaceURI the namespace URI, or the empty string to undeclare the default namespace
+     */
+    record Namespace(@Nonnull String prefix, @Nonnull String namespaceURI) {
+    }
+
+    /**
+     * An attribute.
+     *
+     * @param prefix the prefix, or the empty string
+     * @param namespaceURI the namespace URI, or the empty string
+     * @param localName the local name
+     * @param value the normalized value
+     */
+    record Attribute(@Nonnull String prefix, @Nonnull String namespaceURI, @Nonnull String localName,
+            @Nonnull String value) {
+    }
+
+    /**
+     * An element start tag.
+     *
+     * @param prefix the prefix, or the empty string
+     * @param namespaceURI the namespace URI, or the empty string
+     * @param localName the local name
+     * @param namespaces the namespace declarations on the element
+     * @param attributes the attributes, excluding namespace declarations
+     */
+    record StartTag(@Nonnull String prefix, @Nonnull String namespaceURI, @Nonnull String localName,
+            @Nonnull List<Namespace> namespaces, @Nonnull List<Attribute> attributes) {
+
+        /**
+         * Get the qualified name of the element.
+         *
+         * @return the qualified name
+         */
+        @Nonnull String qualifiedName() {
+            return prefix.isEmpty() ? localName : prefix + ':' + localName;
+        }
+
+        /**
+         * Get the value of an unqualified attribute.
+         *
+         * @param name the local name
+         *
+         * @return the value, or null
+         */
+        @Nullable String getAttribute(@Nonnull final String name) {
+            for (final Attribute attribute : attributes) {
+                if (attribute.namespaceURI().isEmpty() && attribute.localName().equals(name)) {
+                    return attribute.value();
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,712 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallerFactory;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.metadata.resolver.filter.data.impl.StreamedSignatureDigest;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Attribute;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Namespace;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.StartTag;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.algorithm.AlgorithmDescriptor;
+import org.opensaml.xmlsec.algorithm.AlgorithmRegistry;
+import org.opensaml.xmlsec.algorithm.AlgorithmSupport;
+import org.opensaml.xmlsec.algorithm.DigestAlgorithm;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.primitive.StringSupport;
+import net.shibboleth.shared.xml.ElementSupport;
+import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.xml.QNameSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+
+/**
+ * Unmarshalls a metadata aggregate from a stream without parsing the whole document into a DOM.
+ *
+ * <p>
+ * The document is read with StAX. Each child {@link EntityDescriptor} or {@link EntitiesDescriptor} of an
+ * {@link EntitiesDescriptor} root is parsed into a DOM document of its own and unmarshalled, and that DOM is
+ * released straight away unless the member contains a signature that will have to be verified later. The root
+ * element, its signature and its extensions are unmarshalled from a DOM that excludes the members, and that
+ * DOM is left cached on the returned object. Peak memory is the unmarshalled object tree plus the DOM of the
+ * largest member, rather than the tree plus a DOM of the whole document.
+ * </p>
+ *
+ * <p>
+ * If the root element is signed, the digest of its signature's reference is computed as the document is
+ * read and attached to the {@link Signature} as a {@link StreamedSignatureDigest}. Only an enveloped
+ * signature with Exclusive Canonicalization, the form required by the SAML signature profile, can be
+ * digested this way. Any other root element is unmarshalled whole.
+ * </p>
+ *
+ * @since 5.2.0
+ */
+public class StreamingMetadataUnmarshaller {
+
+    /** InclusiveNamespaces element name. */
+    @Nonnull private static final QName INCLUSIVE_NAMESPACES =
+            new QName(SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS, "InclusiveNamespaces");
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StreamingMetadataUnmarshaller.class);
+
+    /** Pool used to create the DOM documents. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** Factory used to obtain unmarshallers. */
+    @Nonnull private final UnmarshallerFactory unmarshallerFactory;
+
+    /** Factory for the stream readers. */
+    @Nonnull private final XMLInputFactory inputFactory;
+
+    /** Whether to fingerprint the entities in each member before its DOM is released. */
+    private final boolean fingerprintEntities;
+
+    /**
+     * Constructor.
+     *
+     * @param pool pool used to create DOM documents
+     * @param factory factory used to obtain unmarshallers
+     */
+    public StreamingMetadataUnmarshaller(@Nonnull final ParserPool pool,
+            @Nonnull final UnmarshallerFactory factory) {
+        this(pool, factory, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pool pool used to create DOM documents
+     * @param factory factory used to obtain unmarshallers
+     * @param fingerprint whether to fingerprint each entity, for resolvers in delta refresh mode, before
+     *          the DOM it was unmarshalled from is released
+     */
+    public StreamingMetadataUnmarshaller(@Nonnull final ParserPool pool,
+            @Nonnull final UnmarshallerFactory factory, final boolean fingerprint) {
+        fingerprintEntities = fingerprint;
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+        unmarshallerFactory = Constraint.isNotNull(factory, "UnmarshallerFactory cannot be null");
+
+        inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Unmarshall metadata from a stream. The caller is responsible for closing the stream.
+     *
+     * @param input the metadata
+     *
+     * @return the unmarshalled metadata
+     *
+     * @throws UnmarshallingException if the metadata cannot be parsed or unmarshalled
+     */
+    @Nonnull public XMLObject unmarshall(@Nonnull final InputStream input) throws UnmarshallingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(input);
+            return new StreamParse(reader).parse();
+        } catch (final XMLStreamException | XMLParserException | IOException | NoSuchAlgorithmException e) {
+            throw new UnmarshallingException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    log.debug("Failed to close stream reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unmarshall an element.
+     *
+     * @param element the element
+     *
+     * @return the unmarshalled object
+     *
+     * @throws UnmarshallingException if no unmarshaller is registered or unmarshalling fails
+     */
+    @Nonnull private XMLObject unmarshallElement(@Nonnull final Element element) throws UnmarshallingException {
+        final Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(element);
+        if (unmarshaller == null) {
+            throw new UnmarshallingException("No unmarshaller registered for element "
+                    + QNameSupport.getNodeQName(element));
+        }
+        return unmarshaller.unmarshall(element);
+    }
+
+    /**
+     * Check the name of a start tag.
+     *
+     * @param tag the start tag
+     * @param namespaceURI the expected namespace
+     * @param localName the expected local name
+     *
+     * @return whether the tag has the expected name
+     */
+    private static boolean isElement(@Nonnull final StartTag tag, @Nonnull final String namespaceURI,
+            @Nonnull final String localName) {
+        return namespaceURI.equals(tag.namespaceURI()) && localName.equals(tag.localName());
+    }
+
+    /**
+     * Convert null to the empty string.
+     *
+     * @param value input value
+     *
+     * @return the value, or the empty string
+     */
+    @Nonnull private static String nullToEmpty(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+    /** A deferred canonicalization step. */
+    @FunctionalInterface
+    private interface CanonicalEvent {
+
+        /**
+         * Apply the step.
+         *
+         * @param canonicalizer the canonicalizer
+         *
+         * @throws IOException if the output fails
+         */
+        void apply(@Nonnull StreamingExclusiveCanonicalizer canonicalizer) throws IOException;
+    }
+
+    /** State of a single parse. */
+    private class StreamParse {
+
+        /** The reader. */
+        @Nonnull private final XMLStreamReader reader;
+
+        /** Digest of the root signature's reference, if it is being computed. */
+        @Nullable private StreamingExclusiveCanonicalizer canonicalizer;
+
+        /** The Reference URI being digested. */
+        @Nullable private String referenceURI;
+
+        /** The digest algorithm URI. */
+        @Nullable private String digestAlgorithm;
+
+        /** Whether the element most recently read contains a signature. */
+        private boolean containsSignature;
+
+        /** Processing instructions ahead of the root, part of a whole-document reference. */
+        @Nonnull private final List<CanonicalEvent> prolog = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param streamReader the reader
+         */
+        StreamParse(@Nonnull final XMLStreamReader streamReader) {
+            reader = streamReader;
+        }
+
+// Checkstyle: CyclomaticComplexity|MethodLength OFF
+        /**
+         * Parse the document.
+         *
+         * @return the unmarshalled metadata
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         * @throws XMLParserException if a DOM document cannot be created
+         * @throws IOException if the digest cannot be computed
+         * @throws NoSuchAlgorithmException if the digest algorithm is not available
+         * @throws UnmarshallingException if an element cannot be unmarshalled
+         */
+        @Nonnull XMLObject parse() throws XMLStreamException, XMLParserException, IOException,
+                NoSuchAlgorithmException, UnmarshallingException {
+            final StartTag rootTag = readRootTag();
+
+            if (!isElement(rootTag, SAMLConstants.SAML20MD_NS, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                log.debug("Metadata root {} is not an EntitiesDescriptor, unmarshalling it whole",
+                        rootTag.qualifiedName());
+                return unmarshallElement(readElement(parserPool.newDocument(), rootTag, null));
+            }
+
+            final Document shell = parserPool.newDocument();
+            final Element rootElement = createElement(shell, rootTag, null);
+            shell.appendChild(rootElement);
+
+            final List<XMLObject> members = new ArrayList<>();
+            List<CanonicalEvent> deferred = new ArrayList<>();
+            while (true) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        final StartTag tag = readStartTag();
+                        if (deferred != null && isElement(tag, SignatureConstants.XMLSIG_NS,
+                                Signature.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                            // The enveloped signature is left out of the digest.
+                            final Element signature = readElement(rootElement, tag, null);
+                            final StreamingExclusiveCanonicalizer c14n = newCanonicalizer(rootTag, signature);
+                            if (c14n != null) {
+                                if ("".equals(referenceURI)) {
+                                    for (final CanonicalEvent event : prolog) {
+                                        event.apply(c14n);
+                                    }
+                                }
+                                c14n.startElement(rootTag);
+                                for (final CanonicalEvent event : deferred) {
+                                    event.apply(c14n);
+                                }
+                                canonicalizer = c14n;
+                            }
+                            deferred = null;
+                        } else {
+                            deferred = null;
+                            if (isElement(tag, SAMLConstants.SAML20MD_NS,
+                                    EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)
+                                    || isElement(tag, SAMLConstants.SAML20MD_NS,
+                                            EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                                members.add(readMember(tag, rootTag.namespaces()));
+                            } else {
+                                readElement(rootElement, tag, null);
+                            }
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (canonicalizer != null) {
+                            canonicalizer.endElement();
+                            if ("".equals(referenceURI)) {
+                                readEpilog(canonicalizer);
+                            }
+                        }
+                        return assemble(rootElement, members);
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        final String text = reader.getText();
+                        if (deferred != null) {
+                            deferred.add(c -> c.characters(text));
+                        } else if (canonicalizer != null) {
+                            canonicalizer.characters(text);
+                        }
+                    }
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        final String target = reader.getPITarget();
+                        final String data = reader.getPIData();
+                        if (deferred != null) {
+                            deferred.add(c -> c.processingInstruction(target, data));
+                        } else if (canonicalizer != null) {
+                            canonicalizer.processingInstruction(target, data);
+                        }
+                    }
+                    case XMLStreamConstants.DTD, XMLStreamConstants.ENTITY_REFERENCE ->
+                        throw new XMLStreamException("DTDs and entity references are not permitted in metadata");
+                    case XMLStreamConstants.END_DOCUMENT ->
+                        throw new XMLStreamException("Metadata ended before the end of the root element");
+                    default -> {
+                        // Comments are neither retained nor digested.
+                    }
+                }
+            }
+        }
+// Checkstyle: CyclomaticComplexity|MethodLength ON
+
+        /**
+         * Unmarshall the root and attach the members and the digest.
+         *
+         * @param rootElement the DOM of the root, without its members
+         * @param members the unmarshalled members, in document order
+         *
+         * @return the unmarshalled root
+         *
+         * @throws UnmarshallingException if the root cannot be unmarshalled
+         * @throws IOException if the digest cannot be computed
+         */
+        @Nonnull private XMLObject assemble(@Nonnull final Element rootElement,
+                @Nonnull final List<XMLObject> members) throws UnmarshallingException, IOException {
+            final XMLObject root = unmarshallElement(rootElement);
+            if (!(root instanceof EntitiesDescriptor group)) {
+                throw new UnmarshallingException("Root element did not unmarshall to an EntitiesDescriptor");
+            }
+
+            for (final XMLObject member : members) {
+                if (member instanceof EntityDescriptor entity) {
+                    group.getEntityDescriptors().add(entity);
+                } else if (member instanceof EntitiesDescriptor child) {
+                    group.getEntitiesDescriptors().add(child);
+                }
+            }
+
+            final Signature signature = group.getSignature();
+            final String uri = referenceURI;
+            final String algorithm = digestAlgorithm;
+            if (canonicalizer != null && signature != null && uri != null && algorithm != null) {
+                signature.getObjectMetadata().put(
+                        new StreamedSignatureDigest(uri, algorithm, canonicalizer.digest()));
+            }
+
+            // Adding the members released the root's DOM, restore it for signature prevalidation.
+            group.setDOM(rootElement);
+
+            log.debug("Unmarshalled {} metadata members from stream", members.size());
+            return group;
+        }
+
+        /**
+         * Read a member of the root into a DOM document of its own and unmarshall it.
+         *
+         * @param tag the member's start tag
+         * @param inherited namespace declarations in scope from the root
+         *
+         * @return the unmarshalled member
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         * @throws XMLParserException if a DOM document cannot be created
+         * @throws IOException if the digest cannot be updated
+         * @throws UnmarshallingException if the member cannot be unmarshalled
+         */
+        @Nonnull private XMLObject readMember(@Nonnull final StartTag tag, @Nonnull final List<Namespace> inherited)
+                throws XMLStreamException, XMLParserException, IOException, UnmarshallingException {
+            containsSignature = false;
+            final XMLObject member = unmarshallElement(readElement(parserPool.newDocument(), tag, inherited));
+            if (fingerprintEntities) {
+                EntityFingerprinter.fingerprint(member);
+            }
+            if (!containsSignature) {
+                member.releaseDOM();
+                member.releaseChildrenDOM(true);
+            }
+            return member;
+        }
+
+        /**
+         * Build the canonicalizer for the root signature's reference.
+         *
+         * @param rootTag the root start tag
+         * @param signature the root signature
+         *
+         * @return the canonicalizer, or null if the signature cannot be digested while streaming
+         *
+         * @throws NoSuchAlgorithmException if the digest algorithm is not available
+         */
+        @Nullable private StreamingExclusiveCanonicalizer newCanonicalizer(@Nonnull final StartTag rootTag,
+                @Nonnull final Element signature) throws NoSuchAlgorithmException {
+            final Element signedInfo = ElementSupport.getFirstChildElement(signature,
+                    new QName(SignatureConstants.XMLSIG_NS, "SignedInfo"));
+            final List<Element> references = signedInfo != null
+                    ? ElementSupport.getChildElementsByTagNameNS(signedInfo, SignatureConstants.XMLSIG_NS,
+                            "Reference")
+                    : List.of();
+            if (references.size() != 1) {
+                log.warn("Root signature does not have exactly one Reference, it cannot be digested while streaming");
+                return null;
+            }
+            final Element reference = references.get(0);
+
+            final String uri = reference.getAttributeNS(null, "URI");
+            final String id = rootTag.getAttribute("ID");
+            if (!reference.hasAttributeNS(null, "URI") || !uri.isEmpty() && (id == null || !uri.equals("#" + id))) {
+                log.warn("Root signature Reference URI '{}' does not identify the root element", uri);
+                return null;
+            }
+
+            boolean enveloped = false;
+            Element exclusive = null;
+            final Element transforms = ElementSupport.getFirstChildElement(reference,
+                    new QName(SignatureConstants.XMLSIG_NS, "Transforms"));
+            final List<Element> transformList = transforms != null
+                    ? ElementSupport.getChildElementsByTagNameNS(transforms, SignatureConstants.XMLSIG_NS,
+                            "Transform")
+                    : List.of();
+            for (final Element transform : transformList) {
+                final String algorithm = transform.getAttributeNS(null, "Algorithm");
+                if (SignatureConstants.TRANSFORM_ENVELOPED_SIGNATURE.equals(algorithm) && !enveloped) {
+                    enveloped = true;
+                } else if ((SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS.equals(algorithm)
+                        || SignatureConstants.TRANSFORM_C14N_EXCL_WITH_COMMENTS.equals(algorithm))
+                        && exclusive == null) {
+                    exclusive = transform;
+                } else {
+                    log.warn("Root signature transform '{}' cannot be applied while streaming", algorithm);
+                    return null;
+                }
+            }
+            if (!enveloped || exclusive == null) {
+                log.warn("Root signature is not an enveloped signature with Exclusive Canonicalization, "
+                        + "it cannot be digested while streaming");
+                return null;
+            }
+
+            final Set<String> prefixes = new HashSet<>();
+            final Element inclusive = ElementSupport.getFirstChildElement(exclusive, INCLUSIVE_NAMESPACES);
+            if (inclusive != null) {
+                for (final String prefix : StringSupport.stringToList(inclusive.getAttributeNS(null, "PrefixList"),
+                        " \t\r\n")) {
+                    prefixes.add("#default".equals(prefix) ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+                }
+            }
+
+            final Element digestMethod = ElementSupport.getFirstChildElement(reference,
+                    new QName(SignatureConstants.XMLSIG_NS, "DigestMethod"));
+            final String algorithm = digestMethod != null ? digestMethod.getAttributeNS(null, "Algorithm") : null;
+            final AlgorithmRegistry registry = AlgorithmSupport.getGlobalAlgorithmRegistry();
+            final AlgorithmDescriptor descriptor = registry != null ? registry.get(algorithm) : null;
+            if (!(descriptor instanceof DigestAlgorithm)) {
+                log.warn("Root signature digest algorithm '{}' is not supported", algorithm);
+                return null;
+            }
+
+            referenceURI = uri;
+            digestAlgorithm = algorithm;
+            return new StreamingExclusiveCanonicalizer(MessageDigest.getInstance(descriptor.getJCAAlgorithmID()),
+                    prefixes);
+        }
+
+        /**
+         * Advance to the root element and read its start tag.
+         *
+         * @return the root start tag
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         */
+        @Nonnull private StartTag readRootTag() throws XMLStreamException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        return readStartTag();
+                    }
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        final String target = reader.getPITarget();
+                        final String data = reader.getPIData();
+                        prolog.add(c -> c.processingInstruction(target, data));
+                    }
+                    case XMLStreamConstants.DTD, XMLStreamConstants.ENTITY_REFERENCE ->
+                        throw new XMLStreamException("DTDs and entity references are not permitted in metadata");
+                    default -> {
+                        // Other prolog content is not significant.
+                    }
+                }
+            }
+            throw new XMLStreamException("Metadata does not contain a root element");
+        }
+
+        /**
+         * Read the rest of the document after the root, feeding its processing instructions to the digest of a
+         * whole-document reference.
+         *
+         * @param c14n the canonicalizer
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         * @throws IOException if the digest cannot be updated
+         */
+        private void readEpilog(@Nonnull final StreamingExclusiveCanonicalizer c14n)
+                throws XMLStreamException, IOException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION ->
+                        c14n.processingInstruction(reader.getPITarget(), reader.getPIData());
+                    case XMLStreamConstants.ENTITY_REFERENCE ->
+                        throw new XMLStreamException("Entity references are not permitted in metadata");
+                    default -> {
+                        // Comments and whitespace are not part of the canonical form.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Capture the start tag at the reader's position.
+         *
+         * @return the start tag
+         */
+        @Nonnull private StartTag readStartTag() {
+            final int namespaceCount = reader.getNamespaceCount();
+            final List<Namespace> namespaces;
+            if (namespaceCount == 0) {
+                namespaces = List.of();
+            } else {
+                namespaces = new ArrayList<>(namespaceCount);
+                for (int i = 0; i < namespaceCount; i++) {
+                    namespaces.add(new Namespace(nullToEmpty(reader.getNamespacePrefix(i)),
+                            nullToEmpty(reader.getNamespaceURI(i))));
+                }
+            }
+
+            final int attributeCount = reader.getAttributeCount();
+            final List<Attribute> attributes;
+            if (attributeCount == 0) {
+                attributes = List.of();
+            } else {
+                attributes = new ArrayList<>(attributeCount);
+                for (int i = 0; i < attributeCount; i++) {
+                    attributes.add(new Attribute(nullToEmpty(reader.getAttributePrefix(i)),
+                            nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+                            reader.getAttributeValue(i)));
+                }
+            }
+
+            return new StartTag(nullToEmpty(reader.getPrefix()), nullToEmpty(reader.getNamespaceURI()),
+                    reader.getLocalName(), namespaces, attributes);
+        }
+
+// Checkstyle: CyclomaticComplexity OFF
+        /**
+         * Read the element whose start tag has just been read into a DOM, feeding the digest if one is being
+         * computed.
+         *
+         * @param parent the node to append the element to
+         * @param tag the element's start tag
+         * @param inherited namespace declarations in scope from outside the new DOM, if any
+         *
+         * @return the element
+         *
+         * @throws XMLStreamException if the document cannot be parsed
+         * @throws IOException if the digest cannot be updated
+         */
+        @Nonnull private Element readElement(@Nonnull final Node parent, @Nonnull final StartTag tag,
+                @Nullable final List<Namespace> inherited) throws XMLStreamException, IOException {
+            final Document document = parent instanceof Document doc ? doc : parent.getOwnerDocument();
+            final Element element = createElement(document, tag, inherited);
+            parent.appendChild(element);
+            if (canonicalizer != null) {
+                canonicalizer.startElement(tag);
+            }
+
+            Node current = element;
+            int depth = 1;
+            while (depth > 0) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        final StartTag child = readStartTag();
+                        if (isElement(child, SignatureConstants.XMLSIG_NS, Signature.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                            containsSignature = true;
+                        }
+                        final Element childElement = createElement(document, child, null);
+                        current.appendChild(childElement);
+                        current = childElement;
+                        depth++;
+                        if (canonicalizer != null) {
+                            canonicalizer.startElement(child);
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        current = current.getParentNode();
+                        depth--;
+                        if (canonicalizer != null) {
+                            canonicalizer.endElement();
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        final String text = reader.getText();
+                        current.appendChild(document.createTextNode(text));
+                        if (canonicalizer != null) {
+                            canonicalizer.characters(text);
+                        }
+                    }
+                    case XMLStreamConstants.COMMENT -> current.appendChild(document.createComment(reader.getText()));
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        final String target = reader.getPITarget();
+                        final String data = reader.getPIData();
+                        current.appendChild(document.createProcessingInstruction(target, data));
+                        if (canonicalizer != null) {
+                            canonicalizer.processingInstruction(target, data);
+                        }
+                    }
+                    case XMLStreamConstants.DTD, XMLStreamConstants.ENTITY_REFERENCE ->
+                        throw new XMLStreamException("DTDs and entity references are not permitted in metadata");
+                    case XMLStreamConstants.END_DOCUMENT ->
+                        throw new XMLStreamException("Metadata ended inside element " + tag.qualifiedName());
+                    default -> {
+                        // Nothing else can occur inside an element.
+                    }
+                }
+            }
+            return element;
+        }
+// Checkstyle: CyclomaticComplexity ON
+
+        /**
+         * Create a DOM element from a start tag.
+         *
+         * @param document the owning document
+         * @param tag the start tag
+         * @param inherited namespace declarations to copy onto the element unless it redeclares them
+         *
+         * @return the element
+         */
+        @Nonnull private Element createElement(@Nonnull final Document document, @Nonnull final StartTag tag,
+                @Nullable final List<Namespace> inherited) {
+            final Element element = document.createElementNS(StringSupport.trimOrNull(tag.namespaceURI()),
+                    tag.qualifiedName());
+            if (inherited != null) {
+                for (final Namespace namespace : inherited) {
+                    if (tag.namespaces().stream().noneMatch(ns -> ns.prefix().equals(namespace.prefix()))) {
+                        declareNamespace(element, namespace);
+                    }
+                }
+            }
+            for (final Namespace namespace : tag.namespaces()) {
+                declareNamespace(element, namespace);
+            }
+            for (final Attribute attribute : tag.attributes()) {
+                element.setAttributeNS(StringSupport.trimOrNull(attribute.namespaceURI()),
+                        attribute.prefix().isEmpty() ? attribute.localName()
+                                : attribute.prefix() + ':' + attribute.localName(),
+                        attribute.value());
+            }
+            return element;
+        }
+
+        /**
+         * Add a namespace declaration to an element.
+         *
+         * @param element the element
+         * @param namespace the declaration
+         */
+        private void declareNamespace(@Nonnull final Element element, @Nonnull final Namespace namespace) {
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, namespace.prefix().isEmpty()
+                    ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ':' + namespace.prefix(),
+                    namespace.namespaceURI());
+        }
+    }
+
+}
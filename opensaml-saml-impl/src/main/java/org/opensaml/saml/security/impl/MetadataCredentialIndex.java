@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.security.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.signature.KeyInfo;
+
+import net.shibboleth.shared.annotation.constraint.NotLive;
+import net.shibboleth.shared.annotation.constraint.Unmodifiable;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.resolver.ResolverException;
+
+/**
+ * The credentials of a {@link RoleDescriptor}, resolved from the KeyInfo of each of its {@link KeyDescriptor}s
+ * ahead of time.
+ *
+ * <p>
+ * An index is built when metadata is loaded, typically by
+ * {@link org.opensaml.saml.metadata.resolver.filter.impl.MetadataCredentialIndexingFilter}, and attached to the
+ * object metadata of its role descriptor. It is immutable, so {@link MetadataCredentialResolver} reads it without
+ * locking or resolving any KeyInfo on the request path.
+ * </p>
+ *
+ * <p>
+ * An index records the key descriptors it was built from, so that {@link #isIndexOf(RoleDescriptor)} can detect
+ * a role descriptor modified after indexing. Such an index is ignored rather than trusted.
+ * </p>
+ *
+ * @since 5.2.0
+ */
+public final class MetadataCredentialIndex {
+
+    /** The credentials of each key descriptor, in document order. */
+    @Nonnull private final List<KeyDescriptorCredentials> keyDescriptorCredentials;
+
+    /** The key descriptors of the role descriptor when it was indexed. */
+    @Nonnull private final KeyDescriptor[] keyDescriptors;
+
+    /** The KeyInfo of each key descriptor when it was indexed. */
+    @Nonnull private final KeyInfo[] keyInfos;
+
+    /** The usage of each key descriptor when it was indexed. */
+    @Nonnull private final UsageType[] uses;
+
+    /**
+     * Constructor.
+     *
+     * @param credentials the credentials of each key descriptor
+     * @param descriptors the key descriptors of the role descriptor
+     */
+    private MetadataCredentialIndex(@Nonnull final List<KeyDescriptorCredentials> credentials,
+            @Nonnull final List<KeyDescriptor> descriptors) {
+        keyDescriptorCredentials = CollectionSupport.copyToList(credentials);
+        keyDescriptors = descriptors.toArray(new KeyDescriptor[descriptors.size()]);
+        keyInfos = new KeyInfo[keyDescriptors.length];
+        uses = new UsageType[keyDescriptors.length];
+        for (int i = 0; i < keyDescriptors.length; i++) {
+            keyInfos[i] = keyDescriptors[i].getKeyInfo();
+            uses[i] = keyDescriptors[i].getUse();
+        }
+    }
+
+    /**
+     * Get the credentials of each key descriptor of the role, in document order.
+     *
+     * @return the credentials of each key descriptor
+     */
+    @Nonnull @Unmodifiable @NotLive public List<KeyDescriptorCredentials> getKeyDescriptorCredentials() {
+        return keyDescriptorCredentials;
+    }
+
+    /**
+     * Get whether this index still reflects the key descriptors of a role descriptor.
+     *
+     * <p>The key descriptors, and their KeyInfo and usage, must be the same objects the index was built from.</p>
+     *
+     * @param roleDescriptor the role descriptor
+     *
+     * @return true if the index is current for the role descriptor
+     */
+    public boolean isIndexOf(@Nonnull final RoleDescriptor roleDescriptor) {
+        final List<KeyDescriptor> descriptors = roleDescriptor.getKeyDescriptors();
+        if (descriptors.size() != keyDescriptors.length) {
+            return false;
+        }
+        for (int i = 0; i < keyDescriptors.length; i++) {
+            final KeyDescriptor descriptor = descriptors.get(i);
+            if (descriptor != keyDescriptors[i] || descriptor.getKeyInfo() != keyInfos[i]
+                    || descriptor.getUse() != uses[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the index attached to a role descriptor, if any.
+     *
+     * @param roleDescriptor the role descriptor
+     *
+     * @return the index, or null if the role descriptor has not been indexed
+     */
+    @Nullable public static MetadataCredentialIndex get(@Nonnull final RoleDescriptor roleDescriptor) {
+        final List<MetadataCredentialIndex> indexes = roleDescriptor.getObjectMetadata().get(
+                MetadataCredentialIndex.class);
+        return indexes.isEmpty() ? null : indexes.get(0);
+    }
+
+    /**
+     * Build the index of a role descriptor, resolving the KeyInfo of each of its key descriptors.
+     *
+     * <p>The credentials are decorated exactly as if they had been resolved by {@link MetadataCredentialResolver}.
+     * </p>
+     *
+     * @param roleDescriptor the role descriptor
+     * @param keyInfoCredentialResolver the resolver used to resolve credentials from KeyInfo
+     *
+     * @return the index
+     *
+     * @throws ResolverException if the KeyInfo of a key descriptor can not be resolved
+     */
+    @Nonnull public static MetadataCredentialIndex build(@Nonnull final RoleDescriptor roleDescriptor,
+            @Nonnull final KeyInfoCredentialResolver keyInfoCredentialResolver) throws ResolverException {
+
+        String entityID = null;
+        if (roleDescriptor.getParent() instanceof EntityDescriptor entity) {
+            entityID = entity.getEntityID();
+        }
+
+        final List<KeyDescriptorCredentials> credentials = new ArrayList<>();
+        for (final KeyDescriptor keyDescriptor : roleDescriptor.getKeyDescriptors()) {
+            if (keyDescriptor.getKeyInfo() == null) {
+                continue;
+            }
+            UsageType mdUsage = keyDescriptor.getUse();
+            if (mdUsage == null) {
+                mdUsage = UsageType.UNSPECIFIED;
+            }
+            credentials.add(new KeyDescriptorCredentials(mdUsage, CollectionSupport.copyToList(
+                    MetadataCredentialResolver.resolveKeyDescriptorCredentials(keyInfoCredentialResolver,
+                            keyDescriptor, entityID, mdUsage))));
+        }
+        return new MetadataCredentialIndex(credentials, roleDescriptor.getKeyDescriptors());
+    }
+
+    /**
+     * The credentials resolved from one key descriptor.
+     *
+     * @param usage the effective usage of the key descriptor
+     * @param credentials the credentials resolved from its KeyInfo
+     */
+    public record KeyDescriptorCredentials(@Nonnull UsageType usage,
+            @Nonnull @Unmodifiable @NotLive List<Credential> credentials) {
+    }
+
+}
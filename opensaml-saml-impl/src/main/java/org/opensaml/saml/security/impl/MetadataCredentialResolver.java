@@ -97,6 +97,12 @@ import net.shibboleth.shared.resolver.ResolverException;
  * An instance of {@link KeyInfoCredentialResolver} must always be supplied.
  * </p>
  * 
+ * <p>
+ * If a {@link MetadataCredentialIndex} has been attached to a role descriptor when its metadata was loaded, the
+ * credentials are taken from the index, provided the key descriptors have not changed since. Otherwise they are
+ * resolved from the KeyInfo on first use and cached in the object metadata of each {@link KeyDescriptor}.
+ * </p>
+ * 
  */
 public class MetadataCredentialResolver extends AbstractCriteriaFilteringCredentialResolver 
         implements InitializableComponent {
@@ -341,6 +347,17 @@ public class MetadataCredentialResolver extends AbstractCriteriaFilteringCredent
             @Nonnull final RoleDescriptor roleDescriptor, @Nullable final String entityID, 
             @Nonnull final UsageType usage) throws ResolverException {
         
+        final MetadataCredentialIndex index = MetadataCredentialIndex.get(roleDescriptor);
+        if (index != null && index.isIndexOf(roleDescriptor)) {
+            log.debug("Resolving credentials from precomputed index of RoleDescriptor");
+            for (final MetadataCredentialIndex.KeyDescriptorCredentials entry : index.getKeyDescriptorCredentials()) {
+                if (matchUsage(entry.usage(), usage)) {
+                    accumulator.addAll(entry.credentials());
+                }
+            }
+            return;
+        }
+        
         final List<KeyDescriptor> keyDescriptors = roleDescriptor.getKeyDescriptors();
         for (final KeyDescriptor keyDescriptor : keyDescriptors) {
             UsageType mdUsage = keyDescriptor.getUse();
@@ -402,25 +419,8 @@ public class MetadataCredentialResolver extends AbstractCriteriaFilteringCredent
                 return;
             }
             
-            final List<Credential> newCreds = new ArrayList<>();
-            
-            final CriteriaSet critSet = new CriteriaSet();
-            critSet.add(new KeyInfoCriterion(keyDescriptor.getKeyInfo()));
-            
-            final Iterable<Credential> resolvedCreds = getKeyInfoCredentialResolver().resolve(critSet);
-            for (final Credential cred : resolvedCreds) {
-                if (cred instanceof MutableCredential) {
-                    final MutableCredential mutableCred = (MutableCredential) cred;
-                    mutableCred.setEntityId(entityID);
-                    mutableCred.setUsageType(mdUsage);
-                }
-                
-                final CredentialContextSet contextSet = cred.getCredentialContextSet();
-                if (contextSet != null) {
-                    contextSet.add(new SAMLMDCredentialContext(keyDescriptor));
-                }
-                newCreds.add(cred);
-            }
+            final List<Credential> newCreds = resolveKeyDescriptorCredentials(getKeyInfoCredentialResolver(),
+                    keyDescriptor, entityID, mdUsage);
             
             keyDescriptorObjectMetadata.putAll(newCreds);
             
@@ -432,6 +432,46 @@ public class MetadataCredentialResolver extends AbstractCriteriaFilteringCredent
     }
     //CheckStyle: ReturnCount ON
 
+    /**
+     * Resolve the credentials from the KeyInfo of a KeyDescriptor, and decorate them with the entity ID, usage
+     * and metadata context.
+     * 
+     * @param keyInfoCredentialResolver the resolver used to resolve credentials from KeyInfo
+     * @param keyDescriptor the KeyDescriptor being processed
+     * @param entityID the entity ID of the KeyDescriptor being processed
+     * @param mdUsage the effective credential usage type in effect for the resolved credentials
+     * 
+     * @return the resolved credentials
+     * 
+     * @throws ResolverException if there is a problem resolving credentials from the KeyDescriptor's KeyInfo element
+     */
+    @Nonnull static List<Credential> resolveKeyDescriptorCredentials(
+            @Nonnull final KeyInfoCredentialResolver keyInfoCredentialResolver,
+            @Nonnull final KeyDescriptor keyDescriptor, @Nullable final String entityID,
+            @Nonnull final UsageType mdUsage) throws ResolverException {
+        
+        final List<Credential> newCreds = new ArrayList<>();
+        
+        final CriteriaSet critSet = new CriteriaSet();
+        critSet.add(new KeyInfoCriterion(keyDescriptor.getKeyInfo()));
+        
+        final Iterable<Credential> resolvedCreds = keyInfoCredentialResolver.resolve(critSet);
+        for (final Credential cred : resolvedCreds) {
+            if (cred instanceof MutableCredential) {
+                final MutableCredential mutableCred = (MutableCredential) cred;
+                mutableCred.setEntityId(entityID);
+                mutableCred.setUsageType(mdUsage);
+            }
+            
+            final CredentialContextSet contextSet = cred.getCredentialContextSet();
+            if (contextSet != null) {
+                contextSet.add(new SAMLMDCredentialContext(keyDescriptor));
+            }
+            newCreds.add(cred);
+        }
+        return newCreds;
+    }
+
     /**
      * Match usage enum type values from entityDescriptorResolver KeyDescriptor and from credential criteria.
      * 
@@ -17,6 +17,7 @@ package org.opensaml.saml.common.binding.impl;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -387,6 +388,146 @@ public class DefaultEndpointResolverTest extends XMLObjectBaseTestCase {
         Assert.assertEquals(ep.getLocation(), "https://sp2.example.org/sub/POST");
     }
     
+    /**
+     * Cached selections match uncached ones, and are reused for the same role.
+     * 
+     * @throws UnmarshallingException ...
+     * @throws ResolverException ...
+     * @throws ComponentInitializationException ...
+     */
+    @Test
+    public void testCachedSelection() throws UnmarshallingException, ResolverException,
+            ComponentInitializationException {
+        final DefaultEndpointResolver<AssertionConsumerService> cachingResolver = new DefaultEndpointResolver<>();
+        cachingResolver.setEndpointCacheSize(10);
+        cachingResolver.initialize();
+        
+        endpointCrit.getEndpoint().setLocation(null);
+        final RoleDescriptorCriterion roleCrit =
+                new RoleDescriptorCriterion(loadMetadata("/org/opensaml/saml/common/binding/SPWithVhosts.xml"));
+        
+        for (final String location : CollectionSupport.listOf("https://sp.example.org/Foo",
+                "https://sp2.example.org/Foo", "https://sp2.example.org/bar/Foo", "https://sp2.example.org/sub/Foo",
+                "https://sp2.example.org/sub/POST", "urn:nomatch")) {
+            final CriteriaSet crits = new CriteriaSet(endpointCrit, roleCrit, new BestMatchLocationCriterion(location));
+            Assert.assertSame(cachingResolver.resolveSingle(crits), resolver.resolveSingle(crits), location);
+            Assert.assertSame(cachingResolver.resolveSingle(crits), resolver.resolveSingle(crits), location);
+        }
+        
+        final CriteriaSet crits = new CriteriaSet(endpointCrit, roleCrit);
+        final List<AssertionConsumerService> expected = new ArrayList<>();
+        resolver.resolve(crits).forEach(expected::add);
+        final Iterable<AssertionConsumerService> first = cachingResolver.resolve(crits);
+        Assert.assertEquals(first, expected);
+        Assert.assertEquals(cachingResolver.resolve(crits), first);
+        Assert.assertSame(cachingResolver.resolveSingle(crits), resolver.resolveSingle(crits));
+        
+        // A different requested binding is a different selection.
+        endpointCrit.getEndpoint().setBinding(SAMLConstants.SAML2_ARTIFACT_BINDING_URI);
+        final List<AssertionConsumerService> artifact = new ArrayList<>();
+        resolver.resolve(crits).forEach(artifact::add);
+        Assert.assertEquals(cachingResolver.resolve(crits), artifact);
+        Assert.assertNotEquals(artifact, expected);
+        
+        // Reloaded metadata is not served from the cache.
+        final RoleDescriptorCriterion reloaded =
+                new RoleDescriptorCriterion(loadMetadata("/org/opensaml/saml/common/binding/SPWithVhosts.xml"));
+        final CriteriaSet reloadedCrits = new CriteriaSet(endpointCrit, reloaded);
+        final Iterable<AssertionConsumerService> fromReloaded = cachingResolver.resolve(reloadedCrits);
+        for (final AssertionConsumerService ep : fromReloaded) {
+            Assert.assertSame(ep.getParent(), reloaded.getRole());
+        }
+    }
+    
+    /**
+     * Cached selections are not reused once the role's endpoints are replaced or reordered in place.
+     * 
+     * @throws UnmarshallingException ...
+     * @throws ResolverException ...
+     * @throws ComponentInitializationException ...
+     */
+    @Test
+    public void testCachedSelectionChangedInPlace() throws UnmarshallingException, ResolverException,
+            ComponentInitializationException {
+        final DefaultEndpointResolver<AssertionConsumerService> cachingResolver = new DefaultEndpointResolver<>();
+        cachingResolver.setEndpointCacheSize(10);
+        cachingResolver.initialize();
+        
+        endpointCrit.getEndpoint().setLocation(null);
+        final SPSSODescriptor role = loadMetadata("/org/opensaml/saml/common/binding/SPWithVhosts.xml");
+        final CriteriaSet crits = new CriteriaSet(endpointCrit, new RoleDescriptorCriterion(role));
+        Assert.assertEquals(cachingResolver.resolve(crits), resolver.resolve(crits));
+        
+        // Same number of endpoints, but a different one.
+        final AssertionConsumerService replacement = (AssertionConsumerService) builderFactory.ensureBuilder(
+                AssertionConsumerService.DEFAULT_ELEMENT_NAME).buildObject(
+                        AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        replacement.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        replacement.setLocation("https://sp.example.org/Replaced");
+        replacement.setIndex(1);
+        role.getAssertionConsumerServices().set(0, replacement);
+        final List<AssertionConsumerService> replaced = new ArrayList<>();
+        cachingResolver.resolve(crits).forEach(replaced::add);
+        Assert.assertEquals(replaced, resolver.resolve(crits));
+        Assert.assertSame(replaced.get(0), replacement);
+        
+        // Same endpoints, in a different order.
+        role.getAssertionConsumerServices().remove(replacement);
+        role.getAssertionConsumerServices().add(replacement);
+        final List<AssertionConsumerService> reordered = new ArrayList<>();
+        cachingResolver.resolve(crits).forEach(reordered::add);
+        Assert.assertEquals(reordered, resolver.resolve(crits));
+        Assert.assertSame(reordered.get(reordered.size() - 1), replacement);
+    }
+    
+    /**
+     * Cached selections do not prevent their metadata from being collected.
+     * 
+     * @throws UnmarshallingException ...
+     * @throws ResolverException ...
+     * @throws ComponentInitializationException ...
+     * @throws InterruptedException ...
+     */
+    @Test
+    public void testCachedSelectionCollected() throws UnmarshallingException, ResolverException,
+            ComponentInitializationException, InterruptedException {
+        final DefaultEndpointResolver<AssertionConsumerService> cachingResolver = new DefaultEndpointResolver<>();
+        cachingResolver.setEndpointCacheSize(10);
+        cachingResolver.initialize();
+        
+        endpointCrit.getEndpoint().setLocation(null);
+        final WeakReference<SPSSODescriptor> role = resolveAndRelease(cachingResolver);
+        
+        for (int i = 0; i < 50 && role.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(role.get(), "Metadata was retained by the endpoint cache");
+    }
+    
+    /**
+     * Resolve endpoints from freshly loaded metadata, populating the resolver's cache, and release the metadata.
+     * 
+     * @param cachingResolver the resolver
+     * 
+     * @return a weak reference to the role the endpoints were resolved from
+     * 
+     * @throws UnmarshallingException ...
+     * @throws ResolverException ...
+     */
+    @Nonnull private WeakReference<SPSSODescriptor> resolveAndRelease(
+            @Nonnull final DefaultEndpointResolver<AssertionConsumerService> cachingResolver)
+                    throws UnmarshallingException, ResolverException {
+        final SPSSODescriptor role = loadMetadata("/org/opensaml/saml/common/binding/SPWithVhosts.xml");
+        final RoleDescriptorCriterion roleCrit = new RoleDescriptorCriterion(role);
+        
+        Assert.assertNotNull(cachingResolver.resolveSingle(new CriteriaSet(endpointCrit, roleCrit,
+                new BestMatchLocationCriterion("https://sp2.example.org/sub/Foo"))));
+        Assert.assertTrue(cachingResolver.resolve(new CriteriaSet(endpointCrit, roleCrit)).iterator().hasNext());
+        
+        return new WeakReference<>(role);
+    }
+    
     @Nonnull private SPSSODescriptor loadMetadata(@Nonnull @NotEmpty final String path) throws UnmarshallingException {
         
         try {
@@ -24,6 +24,7 @@ import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
 import org.opensaml.saml.common.profile.logic.EntityAttributesPredicate;
 import org.opensaml.saml.common.profile.logic.EntityAttributesPredicate.Candidate;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
 import org.opensaml.saml.metadata.resolver.impl.ResourceBackedMetadataResolver;
 import org.opensaml.saml.saml2.core.Attribute;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
@@ -144,4 +145,37 @@ public class EntityAttributesPredicateTest extends XMLObjectBaseTestCase {
         Assert.assertNotNull(entity2);
         Assert.assertTrue(condition.test(entity2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIndexedTags() throws Exception {
+
+        final Candidate candidate = new Candidate("urn:foo", Attribute.URI_REFERENCE);
+        candidate.setRegexps(CollectionSupport.singletonList(Pattern.compile("b.z")));
+        final EntityAttributesPredicate condition =
+                new EntityAttributesPredicate(CollectionSupport.singletonList(candidate), false);
+
+        final Candidate candidate2 = new Candidate("urn:foo");
+        candidate2.setValues(CollectionSupport.singletonList("bar"));
+        final EntityAttributesPredicate condition2 =
+                new EntityAttributesPredicate(CollectionSupport.singletonList(candidate2), false);
+
+        final EntityDescriptor entity =
+                metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion("https://idp-sub1.example.org")));
+        Assert.assertNotNull(entity);
+        
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(condition.test(entity));
+            Assert.assertTrue(condition2.test(entity));
+        }
+        
+        // Removing the entity's own tag must be reflected in subsequent evaluations.
+        assert entity.getExtensions() != null;
+        final EntityAttributes tags = (EntityAttributes) entity.getExtensions().getUnknownXMLObjects(
+                EntityAttributes.DEFAULT_ELEMENT_NAME).get(0);
+        tags.getAttributes().clear();
+        
+        Assert.assertFalse(condition.test(entity));
+        Assert.assertTrue(condition2.test(entity));
+    }
+
+}
@@ -14,36 +14,55 @@
 
 package org.opensaml.saml.metadata.resolver.filter.impl;
 
+import java.io.StringReader;
+import java.security.KeyPair;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.shibboleth.shared.annotation.constraint.NonnullBeforeTest;
 import net.shibboleth.shared.collection.CollectionSupport;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.impl.BasicParserPool;
 
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SignableSAMLObject;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
 import org.opensaml.saml.metadata.resolver.filter.data.impl.MetadataSource;
 import org.opensaml.saml.metadata.resolver.impl.DOMMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.CredentialSupport;
 import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.crypto.KeySupport;
 import org.opensaml.security.x509.X509Credential;
 import org.opensaml.security.x509.X509Support;
+import org.opensaml.xmlsec.SignatureSigningParameters;
 import org.opensaml.xmlsec.SignatureValidationParameters;
 import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
 import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
 import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
 import org.opensaml.xmlsec.signature.support.SignatureValidationParametersCriterion;
+import org.opensaml.xmlsec.signature.support.Signer;
 import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * Unit tests for {@link SignatureValidationFilter}.
@@ -306,6 +325,205 @@ public class SignatureValidationFilterExplicitKeyTest extends XMLObjectBaseTestC
         }
     }
 
+    @Test
+    public void testParallelMemberVerification() throws Exception {
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        final Credential signingCred = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+        final List<String> expected = new ArrayList<>();
+        final Element dom = buildSignedGroup(signingCred, expected);
+        
+        final EntitiesDescriptor metadata = (EntitiesDescriptor) unmarshallerFactory.ensureUnmarshaller(dom)
+                .unmarshall(dom);
+        Assert.assertEquals(filterInParallel(metadata, signingCred), expected);
+        Assert.assertTrue(filterContext.isEmpty());
+    }
+    
+    @Test
+    public void testParallelMemberVerificationDeferredDOM() throws Exception {
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        final Credential signingCred = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+        final List<String> expected = new ArrayList<>();
+        final String xml = SerializeSupport.nodeToString(buildSignedGroup(signingCred, expected));
+        
+        // Deferred node expansion is the default, set here so that the test does not depend on it.
+        final BasicParserPool deferredPool = new BasicParserPool();
+        deferredPool.setBuilderFeatures(CollectionSupport.singletonMap(
+                "http://apache.org/xml/features/dom/defer-node-expansion", Boolean.TRUE));
+        deferredPool.initialize();
+        
+        for (int i = 0; i < 10; i++) {
+            final Document doc = deferredPool.parse(new StringReader(xml));
+            final Element dom = doc.getDocumentElement();
+            assert dom != null;
+            final EntitiesDescriptor metadata = (EntitiesDescriptor) unmarshallerFactory.ensureUnmarshaller(dom)
+                    .unmarshall(dom);
+            Assert.assertEquals(filterInParallel(metadata, signingCred), expected);
+        }
+        Assert.assertTrue(filterContext.isEmpty());
+    }
+    
+    @Test
+    public void testParallelMemberVerificationSkipsFailedGroup() throws Exception {
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        final Credential signingCred = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+        
+        final EntitiesDescriptor root = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        final List<Signature> entitySignatures = new ArrayList<>();
+        final List<Signature> groupSignatures = new ArrayList<>();
+        for (final String name : CollectionSupport.listOf("good", "bad")) {
+            final EntitiesDescriptor group = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+            group.setName(name);
+            group.setID("_" + name);
+            groupSignatures.add(prepareSignature(group, signingCred));
+            for (int i = 0; i < 3; i++) {
+                final EntityDescriptor entity = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+                entity.setEntityID("https://sp" + i + "." + name + ".example.org");
+                entity.setID("_" + name + i);
+                entitySignatures.add(prepareSignature(entity, signingCred));
+                group.getEntityDescriptors().add(entity);
+            }
+            root.getEntitiesDescriptors().add(group);
+        }
+        
+        final Element dom = XMLObjectSupport.marshall(root);
+        for (final Signature signature : entitySignatures) {
+            Signer.signObject(signature);
+        }
+        for (final Signature signature : groupSignatures) {
+            Signer.signObject(signature);
+        }
+        ((Element) dom.getChildNodes().item(1)).setAttributeNS(null, "Name", "tampered");
+        
+        final EntitiesDescriptor metadata = (EntitiesDescriptor) unmarshallerFactory.ensureUnmarshaller(dom)
+                .unmarshall(dom);
+        final Set<XMLObject> validated = ConcurrentHashMap.newKeySet();
+        final SignatureValidationFilter filter = new SignatureValidationFilter(new ExplicitKeySignatureTrustEngine(
+                new StaticCredentialResolver(signingCred), kiResolver) {
+            @Override protected boolean doValidate(final Signature signature, final CriteriaSet trustBasisCriteria)
+                    throws SecurityException {
+                validated.add(signature.getParent());
+                return super.doValidate(signature, trustBasisCriteria);
+            }
+        });
+        filter.setRequireSignedRoot(false);
+        filter.setParallelism(4);
+        filter.initialize();
+        try {
+            filter.filter(metadata, filterContext);
+        } finally {
+            filter.destroy();
+        }
+        
+        Assert.assertEquals(metadata.getEntitiesDescriptors().size(), 1);
+        final EntitiesDescriptor good = metadata.getEntitiesDescriptors().get(0);
+        Assert.assertEquals(good.getName(), "good");
+        Assert.assertEquals(good.getEntityDescriptors().size(), 3);
+        
+        // The tampered group was checked, but none of its members were.
+        Assert.assertEquals(validated.size(), 5);
+        Assert.assertTrue(validated.containsAll(good.getEntityDescriptors()));
+        Assert.assertTrue(filterContext.isEmpty());
+    }
+    
+    /**
+     * Prepare the signature of a signable object.
+     * 
+     * @param signable the object to sign
+     * @param signingCred the signing credential
+     * 
+     * @return the signature, to be computed once the object is marshalled
+     * 
+     * @throws Exception if something goes wrong
+     */
+    private Signature prepareSignature(final SignableSAMLObject signable, final Credential signingCred)
+            throws Exception {
+        final Signature signature = buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+        signable.setSignature(signature);
+        final SignatureSigningParameters params = new SignatureSigningParameters();
+        params.setSigningCredential(signingCred);
+        params.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        params.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        params.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+        SignatureSupport.prepareSignatureParams(signature, params);
+        return signature;
+    }
+    
+    /**
+     * Build a group of 20 signed entities, two of whose signatures are invalid.
+     * 
+     * @param signingCred the signing credential
+     * @param expected populated with the IDs of the entities whose signatures are valid
+     * 
+     * @return the DOM of the group
+     * 
+     * @throws Exception if something goes wrong
+     */
+    private Element buildSignedGroup(final Credential signingCred, final List<String> expected) throws Exception {
+        final EntitiesDescriptor group = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        final List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final EntityDescriptor entity = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+            entity.setEntityID("https://sp" + i + ".example.org");
+            entity.setID("_entity" + i);
+            final Signature signature = buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+            entity.setSignature(signature);
+            final SignatureSigningParameters params = new SignatureSigningParameters();
+            params.setSigningCredential(signingCred);
+            params.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+            params.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+            params.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+            SignatureSupport.prepareSignatureParams(signature, params);
+            signatures.add(signature);
+            group.getEntityDescriptors().add(entity);
+        }
+        
+        final Element dom = XMLObjectSupport.marshall(group);
+        for (final Signature signature : signatures) {
+            Signer.signObject(signature);
+        }
+        
+        // Invalidate two of the member signatures.
+        for (int i = 0; i < 20; i++) {
+            final Element entity = (Element) dom.getChildNodes().item(i);
+            if (i == 3 || i == 11) {
+                entity.setAttributeNS(null, "entityID", "https://tampered.example.org");
+            } else {
+                expected.add("https://sp" + i + ".example.org");
+            }
+        }
+        return dom;
+    }
+    
+    /**
+     * Filter a group, verifying member signatures in parallel.
+     * 
+     * @param metadata the group
+     * @param signingCred the trusted credential
+     * 
+     * @return the IDs of the remaining entities
+     * 
+     * @throws Exception if something goes wrong
+     */
+    private List<String> filterInParallel(final EntitiesDescriptor metadata, final Credential signingCred)
+            throws Exception {
+        final SignatureValidationFilter filter = new SignatureValidationFilter(new ExplicitKeySignatureTrustEngine(
+                new StaticCredentialResolver(signingCred), kiResolver));
+        filter.setRequireSignedRoot(false);
+        filter.setParallelism(4);
+        filter.initialize();
+        try {
+            filter.filter(metadata, filterContext);
+        } finally {
+            filter.destroy();
+        }
+        
+        final List<String> remaining = new ArrayList<>();
+        for (final EntityDescriptor entity : metadata.getEntityDescriptors()) {
+            remaining.add(entity.getEntityID());
+        }
+        return remaining;
+    }
+
     @Test
     public void testIsSkipRootSignatureEval() throws ComponentInitializationException {
         final MetadataFilterContext context = new MetadataFilterContext();
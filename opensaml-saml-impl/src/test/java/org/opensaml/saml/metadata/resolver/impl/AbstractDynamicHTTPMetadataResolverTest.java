@@ -130,6 +130,31 @@ public class AbstractDynamicHTTPMetadataResolverTest extends XMLObjectBaseTestCa
         Assert.assertEquals(result.getObjectMetadata().get(XMLObjectSource.class).size(), 1);
     }
     
+    @Test
+    public void testResponseHandlerStreamingUnmarshall() throws Exception {
+        final MockDynamicHTTPMetadataResolver streamingResolver =
+                new MockDynamicHTTPMetadataResolver(httpClientBuilder.buildClient());
+        streamingResolver.setId("myStreamingResolver");
+        streamingResolver.setParserPool(parserPool);
+        streamingResolver.setStreamingUnmarshall(true);
+        streamingResolver.initialize();
+        
+        try {
+            HttpClientResponseHandler<XMLObject> responseHandler =
+                    streamingResolver.new BasicMetadataResponseHandler();
+            
+            BasicClassicHttpResponse httpResponse = new BasicClassicHttpResponse(HttpStatus.SC_OK, "OK");
+            httpResponse.setEntity(new ByteArrayEntity(entityDescriptorBytes, ContentType.TEXT_XML));
+            
+            XMLObject result = responseHandler.handleResponse(httpResponse);
+            Assert.assertTrue(result instanceof EntityDescriptor);
+            Assert.assertEquals(((EntityDescriptor) result).getEntityID(), "https://foo1.example.org/idp/shibboleth");
+            Assert.assertFalse(result.getObjectMetadata().containsKey(XMLObjectSource.class));
+        } finally {
+            streamingResolver.destroy();
+        }
+    }
+    
     @Test
     public void testResponseHandlerBadStatusCode() throws Exception {
         HttpClientResponseHandler<XMLObject> responseHandler = resolver.new BasicMetadataResponseHandler();
@@ -18,6 +18,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.KeyPair;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -26,6 +29,9 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -42,6 +48,7 @@ import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.criterion.EntityRoleCriterion;
 import org.opensaml.saml.metadata.resolver.filter.impl.SignatureValidationFilter;
 import org.opensaml.saml.metadata.resolver.impl.AbstractDynamicMetadataResolver.DynamicEntityBackingStore;
+import org.opensaml.saml.metadata.resolver.impl.AbstractDynamicMetadataResolver.PersistentCacheInitializationMetrics;
 import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
 import org.opensaml.saml.metadata.resolver.index.impl.FunctionDrivenMetadataIndex;
 import org.opensaml.saml.metadata.resolver.index.impl.RoleMetadataIndex;
@@ -345,6 +352,149 @@ public class AbstractDynamicMetadataResolverTest extends XMLObjectBaseTestCase {
         Assert.assertTrue(backingStore.getIndexedDescriptors().containsKey(id1));
     }
     
+    @Test
+    public void testConcurrentMissesCoalesced() throws Exception {
+        resolver.initialize();
+        
+        final CountDownLatch gate = new CountDownLatch(1);
+        resolver.fetchGate = gate;
+        
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))));
+                } catch (final ResolverException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        
+        Thread.sleep(200);
+        gate.countDown();
+        for (final Thread thread : threads) {
+            thread.join(10000);
+        }
+        
+        Assert.assertEquals(resolver.fetchCount.get(), 1);
+    }
+    
+    @Test
+    public void testNegativeLookupCacheBounded() throws ComponentInitializationException, ResolverException {
+        resolver.setMaxNegativeLookupCacheEntries(2);
+        resolver.setNegativeLookupCacheJitter(Duration.ofSeconds(1));
+        resolver.initialize();
+        
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))));
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("urn:test:unknown:a"))));
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("urn:test:unknown:b"))));
+        Assert.assertEquals(resolver.fetchCount.get(), 3);
+        
+        // The oldest negative lookup was evicted, the others are still cached.
+        Assert.assertFalse(resolver.ensureBackingStore().getManagementDataEntityIDs().contains(id1));
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("urn:test:unknown:b"))));
+        Assert.assertEquals(resolver.fetchCount.get(), 3);
+        
+        sourceMap.put(id1, ed1);
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(resolver.fetchCount.get(), 4);
+    }
+    
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        sourceMap.put(id1, ed1);
+        resolver.setStaleWhileRevalidate(true);
+        resolver.initialize();
+        
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(resolver.fetchCount.get(), 1);
+        
+        final DynamicEntityBackingStore backingStore = resolver.ensureBackingStore();
+        backingStore.getManagementData(id1).setRefreshTriggerTime(Instant.now().minusSeconds(1));
+        final CountDownLatch gate = new CountDownLatch(1);
+        resolver.fetchGate = gate;
+        
+        // The stale metadata is returned without waiting on the refresh, which is scheduled only once.
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        
+        gate.countDown();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!backingStore.getManagementData(id1).getRefreshTriggerTime().isAfter(Instant.now())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        
+        Assert.assertTrue(backingStore.getManagementData(id1).getRefreshTriggerTime().isAfter(Instant.now()));
+        Assert.assertEquals(resolver.fetchCount.get(), 2);
+        Assert.assertNotNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))));
+    }
+    
+    @Test
+    public void testStaleWhileRevalidateWithExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        sourceMap.put(id1, ed1);
+        resolver.setStaleWhileRevalidate(true);
+        resolver.setBackgroundFetchExecutor(tasks::add);
+        resolver.initialize();
+        
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        
+        final DynamicEntityBackingStore backingStore = resolver.ensureBackingStore();
+        backingStore.getManagementData(id1).setRefreshTriggerTime(Instant.now().minusSeconds(1));
+        
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(tasks.size(), 1);
+        Assert.assertEquals(resolver.fetchCount.get(), 1);
+        
+        tasks.get(0).run();
+        Assert.assertEquals(resolver.fetchCount.get(), 2);
+        Assert.assertTrue(backingStore.getManagementData(id1).getRefreshTriggerTime().isAfter(Instant.now()));
+    }
+    
+    @Test
+    public void testPrefetch() throws Exception {
+        final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<>());
+        sourceMap.put(id1, ed1);
+        sourceMap.put(id2, ed2);
+        resolver.setPrefetchInterval(Duration.ofHours(1));
+        resolver.setPrefetchThreshold(10);
+        resolver.setBackgroundFetchExecutor(tasks::add);
+        resolver.initialize();
+        
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        }
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id2))), ed2);
+        Assert.assertEquals(resolver.fetchCount.get(), 2);
+        
+        final DynamicEntityBackingStore backingStore = resolver.ensureBackingStore();
+        Assert.assertTrue(backingStore.getManagementData(id1).getAccessCount() >= 10);
+        backingStore.getManagementData(id1).setRefreshTriggerTime(Instant.now().minusSeconds(1));
+        backingStore.getManagementData(id2).setRefreshTriggerTime(Instant.now().minusSeconds(1));
+        
+        // Only the popular entity is prefetched, and its access count decays.
+        final long accesses = backingStore.getManagementData(id1).getAccessCount();
+        resolver.new PrefetchScheduler().run();
+        Assert.assertEquals(backingStore.getManagementData(id1).getAccessCount(), accesses >> 1);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (tasks.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(tasks.size(), 1);
+        Assert.assertEquals(resolver.getPrefetchBacklog(), 1);
+        
+        tasks.get(0).run();
+        Assert.assertEquals(resolver.fetchCount.get(), 3);
+        Assert.assertEquals(resolver.getPrefetchBacklog(), 0);
+        Assert.assertTrue(backingStore.getManagementData(id1).getRefreshTriggerTime().isAfter(Instant.now()));
+        Assert.assertFalse(backingStore.getManagementData(id2).getRefreshTriggerTime().isAfter(Instant.now()));
+    }
+    
     @Test
     public void testDOMDropFromFetch() throws ComponentInitializationException, ResolverException {
         sourceMap.put(id1, ed1);
@@ -509,6 +659,46 @@ public class AbstractDynamicMetadataResolverTest extends XMLObjectBaseTestCase {
         }
     }
     
+    @Test
+    public void testInitFromPersistentCacheInParallel() throws ComponentInitializationException, ResolverException,
+            IOException {
+        persistentCacheKeyGenerator = new AbstractDynamicMetadataResolver.DefaultCacheKeyGenerator();
+        persistentCacheManager.save(persistentCacheKeyGenerator.apply(ed1), ed1);
+        persistentCacheManager.save(persistentCacheKeyGenerator.apply(ed2), ed2);
+        persistentCacheManager.save(persistentCacheKeyGenerator.apply(ed3), ed3);
+        Assert.assertNotNull(persistentCacheManager.getLastModified(persistentCacheKeyGenerator.apply(ed1)));
+        
+        resolver.setPersistentCacheManager(persistentCacheManager);
+        resolver.setPersistentCacheKeyGenerator(persistentCacheKeyGenerator);
+        resolver.setInitializeFromPersistentCacheInBackground(false);
+        resolver.setPersistentCacheInitializationThreads(4);
+        
+        resolver.initialize();
+        
+        final DynamicEntityBackingStore backingStore = resolver.ensureBackingStore();
+        
+        for (final String entityID : List.of(id1, id2, id3)) {
+            Assert.assertTrue(backingStore.getIndexedDescriptors().containsKey(entityID));
+            Assert.assertEquals(backingStore.getIndexedDescriptors().get(entityID).size(), 1);
+        }
+        Assert.assertEquals(backingStore.getOrderedDescriptors().size(), 3);
+        
+        final PersistentCacheInitializationMetrics metrics = resolver.getPersistentCacheInitializationMetrics();
+        assert metrics != null;
+        Assert.assertTrue(metrics.isComplete());
+        Assert.assertEquals(metrics.getEntriesTotal(), 3);
+        Assert.assertEquals(metrics.getEntriesLoaded(), 3);
+        Assert.assertEquals(metrics.getEntriesRemaining(), 0);
+        
+        Assert.assertTrue(sourceMap.isEmpty());
+        
+        for (final String entityID : List.of(id1, id2, id3)) {
+            EntityDescriptor ed = resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID)));
+            assert ed != null;
+            Assert.assertEquals(ed.getEntityID(), entityID);
+        }
+    }
+    
     @Test
     public void testInitFromPersistentCacheWithPredicate() throws ComponentInitializationException, ResolverException, IOException {
         persistentCacheKeyGenerator = new AbstractDynamicMetadataResolver.DefaultCacheKeyGenerator();
@@ -695,6 +885,10 @@ public class AbstractDynamicMetadataResolverTest extends XMLObjectBaseTestCase {
         private Map<String,EntityDescriptor> originSourceMap;
         
         private boolean secondaryLookup;
+        
+        private final AtomicInteger fetchCount = new AtomicInteger();
+        
+        private volatile CountDownLatch fetchGate;
 
         public MockDynamicResolver(Map<String, EntityDescriptor> map) {
             this(map, null);
@@ -710,6 +904,15 @@ public class AbstractDynamicMetadataResolverTest extends XMLObjectBaseTestCase {
         }
 
         protected XMLObject fetchFromOriginSource(@Nullable CriteriaSet criteria) throws IOException {
+            fetchCount.incrementAndGet();
+            final CountDownLatch gate = fetchGate;
+            if (gate != null) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
             
             final EntityIdCriterion c1 = criteria != null ? criteria.get(EntityIdCriterion.class) : null;
             if (c1 != null) {
@@ -17,6 +17,12 @@ package org.opensaml.saml.metadata.resolver.impl;
 import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
@@ -33,6 +39,7 @@ import org.testng.annotations.Test;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.PredicateSupport;
 import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
 
 @SuppressWarnings("javadoc")
 public class ChainingMetadataResolverTest extends XMLObjectBaseTestCase {
@@ -99,6 +106,76 @@ public class ChainingMetadataResolverTest extends XMLObjectBaseTestCase {
         Assert.assertEquals(descriptor2.getEntityID(), entityID2, "Entity's ID does not match requested ID");
     }
 
+    @Test()
+    public void testConcurrentResolution() throws Exception {
+        metadataProvider.setConcurrentResolution(true);
+        metadataProvider.initialize();
+        
+        try {
+            EntityDescriptor descriptor =
+                    metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID)));
+            assert descriptor != null;
+            Assert.assertEquals(descriptor.getEntityID(), entityID, "Entity's ID does not match requested ID");
+            
+            EntityDescriptor descriptor2 =
+                    metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID2)));
+            assert descriptor2 != null;
+            Assert.assertEquals(descriptor2.getEntityID(), entityID2, "Entity's ID does not match requested ID");
+            
+            Assert.assertNull(metadataProvider.resolveSingle(
+                    new CriteriaSet(new EntityIdCriterion("https://unknown.example.org"))));
+        } finally {
+            metadataProvider.destroy();
+        }
+    }
+
+    @Test()
+    public void testConcurrentResolutionIgnoresRemaining() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final ChainingMetadataResolver blocking = new ChainingMetadataResolver() {
+            @Override
+            @Nonnull public Iterable<EntityDescriptor> resolve(@Nullable final CriteriaSet criteria)
+                    throws ResolverException {
+                started.countDown();
+                try {
+                    release.await(1, TimeUnit.MINUTES);
+                } catch (final InterruptedException e) {
+                    interrupted.countDown();
+                } finally {
+                    finished.countDown();
+                }
+                return List.of();
+            }
+        };
+        blocking.setId("blocking");
+        blocking.initialize();
+        
+        final List<MetadataResolver> resolvers = new ArrayList<>(metadataProvider.getResolvers());
+        resolvers.add(blocking);
+        metadataProvider.setResolvers(resolvers);
+        metadataProvider.setConcurrentResolution(true);
+        metadataProvider.initialize();
+        
+        try {
+            EntityDescriptor descriptor =
+                    metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID)));
+            assert descriptor != null;
+            Assert.assertEquals(descriptor.getEntityID(), entityID, "Entity's ID does not match requested ID");
+            
+            // The query to the last resolver, if it started at all, runs to completion and its result is ignored.
+            release.countDown();
+            if (started.await(10, TimeUnit.SECONDS)) {
+                Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+                Assert.assertEquals(interrupted.getCount(), 1);
+            }
+        } finally {
+            metadataProvider.destroy();
+        }
+    }
+
     @Test()
     public void testFilterDisallowed() throws ComponentInitializationException {
         metadataProvider.initialize();
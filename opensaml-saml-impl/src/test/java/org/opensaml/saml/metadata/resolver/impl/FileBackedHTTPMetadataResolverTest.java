@@ -64,6 +64,7 @@ public class FileBackedHTTPMetadataResolverTest extends XMLObjectBaseTestCase {
     private String badMDURL;
     private String backupFilePath;
     private File backupFile;
+    private File snapshotFile;
     private FileBackedHTTPMetadataResolver metadataProvider;
     private String entityID;
     private CriteriaSet criteriaSet;
@@ -83,6 +84,7 @@ public class FileBackedHTTPMetadataResolverTest extends XMLObjectBaseTestCase {
         backupFilePath = System.getProperty("java.io.tmpdir") + System.getProperty("file.separator") 
                 + "filebacked-http-metadata.xml";
         backupFile = new File(backupFilePath);
+        snapshotFile = new File(backupFilePath + ".snapshot");
         
         criteriaSet = new CriteriaSet(new EntityIdCriterion(entityID));
     }
@@ -91,6 +93,7 @@ public class FileBackedHTTPMetadataResolverTest extends XMLObjectBaseTestCase {
     protected void tearDown() throws IOException {
         Path nioBackupFilePath = backupFile.toPath();
         Files.deleteIfExists(nioBackupFilePath);
+        Files.deleteIfExists(snapshotFile.toPath());
     }
     
     @Test
@@ -308,6 +311,81 @@ public class FileBackedHTTPMetadataResolverTest extends XMLObjectBaseTestCase {
         Assert.assertNotNull(metadataProvider.resolveSingle(criteriaSet), "Metadata retrieved from HTTP refreshed metadata was null");
     }
     
+    @Test
+    public void testInitFromSnapshot() throws Exception {
+        try (FileOutputStream backupFileOutputStream = new FileOutputStream(backupFile)) {
+            Resources.copy(Resources.getResource(relativeMDResource), backupFileOutputStream);
+        }
+        
+        // The first initialization filters the backup file and writes the snapshot.
+        MockContextTrackingFilter mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, "1");
+        Assert.assertTrue(metadataProvider.isInitializedFromBackupFile());
+        Assert.assertFalse(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNotNull(mockFilter.lastFilterContext);
+        Assert.assertTrue(snapshotFile.exists());
+        metadataProvider.destroy();
+        
+        // The second is served from the snapshot without filtering.
+        mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, "1");
+        Assert.assertTrue(metadataProvider.isInitializedFromBackupFile());
+        Assert.assertTrue(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNull(mockFilter.lastFilterContext);
+        final Boolean flag = metadataProvider.wasLastRefreshSuccess();
+        Assert.assertTrue(flag != null && flag);
+        final EntityDescriptor descriptor = metadataProvider.resolveSingle(criteriaSet);
+        Assert.assertNotNull(descriptor);
+        Assert.assertEquals(descriptor.getEntityID(), entityID);
+        metadataProvider.destroy();
+        
+        // A corrupted snapshot falls back to the full processing of the backup file.
+        final byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+        snapshot[snapshot.length / 2] ^= 0x01;
+        Files.write(snapshotFile.toPath(), snapshot);
+        mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, "1");
+        Assert.assertTrue(metadataProvider.isInitializedFromBackupFile());
+        Assert.assertFalse(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNotNull(mockFilter.lastFilterContext);
+        Assert.assertNotNull(metadataProvider.resolveSingle(criteriaSet));
+        metadataProvider.destroy();
+        
+        // Without a configuration version, snapshots are disabled.
+        mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, null);
+        Assert.assertTrue(metadataProvider.isInitializedFromBackupFile());
+        Assert.assertFalse(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNotNull(mockFilter.lastFilterContext);
+        metadataProvider.destroy();
+        
+        // A snapshot produced with another configuration version is not used.
+        mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, "2");
+        Assert.assertFalse(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNotNull(mockFilter.lastFilterContext);
+        metadataProvider.destroy();
+        
+        mockFilter = new MockContextTrackingFilter();
+        metadataProvider = buildSnapshotResolver(mockFilter, "2");
+        Assert.assertTrue(metadataProvider.isInitializedFromSnapshot());
+        Assert.assertNull(mockFilter.lastFilterContext);
+    }
+    
+    private FileBackedHTTPMetadataResolver buildSnapshotResolver(final MockContextTrackingFilter filter,
+            final String configurationVersion) throws Exception {
+        final FileBackedHTTPMetadataResolver resolver =
+                new FileBackedHTTPMetadataResolver(httpClientBuilder.buildClient(), badMDURL, backupFilePath);
+        resolver.setParserPool(parserPool);
+        resolver.setId("test");
+        resolver.setBackupFileInitNextRefreshDelay(Duration.ofHours(1));
+        resolver.setSnapshotFile(snapshotFile);
+        resolver.setSnapshotConfigurationVersion(configurationVersion);
+        resolver.setMetadataFilter(filter);
+        resolver.initialize();
+        return resolver;
+    }
+    
     /**
      * Tests initialization from backup file, followed shortly by real refresh via HTTP, for the special case
      * of a backup file that is already expired. See OSJ-261.  Issue there was the backupFileInitNextRefreshDelay
@@ -18,6 +18,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
 
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.PredicateSupport;
@@ -26,6 +28,8 @@ import net.shibboleth.shared.resolver.ResolverException;
 
 import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
+import org.opensaml.saml.metadata.resolver.impl.AbstractBatchMetadataResolver.DeltaRefreshMetrics;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -182,6 +186,166 @@ public class FilesystemMetadataResolverTest extends XMLObjectBaseTestCase {
         }
     }
     
+    /**
+     * Tests that unchanged entities are detected in delta refresh mode, without modifying the previous metadata.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testDeltaRefresh() throws Exception {
+        final File targetFile = File.createTempFile("filesystem-md-provider-delta", ".xml");
+        try {
+            java.nio.file.Files.writeString(targetFile.toPath(), deltaMetadata(
+                    entity("https://a.example.org", "https://a.example.org/acs"),
+                    entity("https://b.example.org", "https://b.example.org/acs"),
+                    entity("https://c.example.org", "https://c.example.org/acs")));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setId("test");
+            metadataProvider.setDeltaRefresh(true);
+            metadataProvider.initialize();
+            
+            DeltaRefreshMetrics metrics = metadataProvider.getDeltaRefreshMetrics();
+            Assert.assertNotNull(metrics);
+            Assert.assertEquals(metrics.getEntitiesAdded(), 3);
+            
+            final EntityDescriptor a = resolve("https://a.example.org");
+            final EntityDescriptor b = resolve("https://b.example.org");
+            final EntitiesDescriptor previousRoot = (EntitiesDescriptor) a.getParent();
+            
+            // Whitespace outside of an entity does not change it.
+            java.nio.file.Files.writeString(targetFile.toPath(), deltaMetadata(
+                    "\n\n" + entity("https://a.example.org", "https://a.example.org/acs"),
+                    entity("https://b.example.org", "https://b.example.org/acs2"),
+                    entity("https://d.example.org", "https://d.example.org/acs")));
+            Assert.assertTrue(targetFile.setLastModified(System.currentTimeMillis() + 60000));
+            metadataProvider.refresh();
+            
+            metrics = metadataProvider.getDeltaRefreshMetrics();
+            Assert.assertNotNull(metrics);
+            Assert.assertEquals(metrics.getEntitiesAdded(), 1);
+            Assert.assertEquals(metrics.getEntitiesRemoved(), 1);
+            Assert.assertEquals(metrics.getEntitiesChanged(), 1);
+            Assert.assertEquals(metrics.getEntitiesUnchanged(), 1);
+            
+            Assert.assertNotSame(resolve("https://b.example.org"), b);
+            Assert.assertNull(resolve("https://c.example.org"));
+            Assert.assertNotNull(resolve("https://d.example.org"));
+            
+            // Members of a group are not carried over, so the previous metadata is left intact.
+            final EntityDescriptor newA = resolve("https://a.example.org");
+            Assert.assertNotNull(newA);
+            Assert.assertNotSame(newA, a);
+            Assert.assertNotSame(newA.getParent(), previousRoot);
+            Assert.assertSame(a.getParent(), previousRoot);
+            Assert.assertEquals(previousRoot.getEntityDescriptors().size(), 3);
+            Assert.assertSame(previousRoot.getEntityDescriptors().get(0), a);
+            Assert.assertSame(previousRoot.getEntityDescriptors().get(1), b);
+        } finally {
+            metadataProvider.destroy();
+            targetFile.delete();
+        }
+    }
+    
+    /**
+     * Tests that an unchanged standalone entity is carried over in delta refresh mode.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testDeltaRefreshStandalone() throws Exception {
+        final File targetFile = File.createTempFile("filesystem-md-provider-delta-standalone", ".xml");
+        try {
+            final String entity = entity("https://a.example.org", "https://a.example.org/acs")
+                    .replace("<md:EntityDescriptor ",
+                            "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" ");
+            java.nio.file.Files.writeString(targetFile.toPath(), entity);
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setId("test");
+            metadataProvider.setDeltaRefresh(true);
+            metadataProvider.initialize();
+            
+            final EntityDescriptor a = resolve("https://a.example.org");
+            Assert.assertNotNull(a);
+            
+            java.nio.file.Files.writeString(targetFile.toPath(), "\n" + entity + "\n");
+            Assert.assertTrue(targetFile.setLastModified(System.currentTimeMillis() + 60000));
+            metadataProvider.refresh();
+            
+            final DeltaRefreshMetrics metrics = metadataProvider.getDeltaRefreshMetrics();
+            Assert.assertNotNull(metrics);
+            Assert.assertEquals(metrics.getEntitiesUnchanged(), 1);
+            Assert.assertSame(resolve("https://a.example.org"), a);
+            Assert.assertNull(a.getParent());
+        } finally {
+            metadataProvider.destroy();
+            targetFile.delete();
+        }
+    }
+    
+    @Test
+    public void testEffectiveExpiration() throws Exception {
+        final File targetFile = File.createTempFile("filesystem-md-provider-expiration", ".xml");
+        try {
+            final Instant rootValidUntil = Instant.now().plus(Duration.ofDays(1));
+            java.nio.file.Files.writeString(targetFile.toPath(),
+                    "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" validUntil=\""
+                    + rootValidUntil + "\">"
+                    + entity("https://a.example.org", "https://a.example.org/acs")
+                    + entity("https://b.example.org", "https://b.example.org/acs").replace("<md:EntityDescriptor ",
+                            "<md:EntityDescriptor validUntil=\"" + Instant.now().minus(Duration.ofMinutes(1)) + "\" ")
+                    + "</md:EntitiesDescriptor>");
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setId("test");
+            metadataProvider.initialize();
+            
+            Assert.assertEquals(metadataProvider.ensureBackingStore().getEffectiveExpiration("https://a.example.org"),
+                    rootValidUntil.toEpochMilli());
+            Assert.assertTrue(metadataProvider.ensureBackingStore().getEffectiveExpiration("https://b.example.org")
+                    <= System.currentTimeMillis());
+            Assert.assertEquals(metadataProvider.ensureBackingStore().getEffectiveExpiration("https://c.example.org"),
+                    Long.MIN_VALUE);
+            
+            Assert.assertNotNull(resolve("https://a.example.org"));
+            Assert.assertNull(resolve("https://b.example.org"));
+            
+            Assert.assertEquals(metadataProvider.removeExpiredEntityDescriptors(), 1);
+            Assert.assertFalse(metadataProvider.ensureBackingStore().getIndexedDescriptors()
+                    .containsKey("https://b.example.org"));
+            Assert.assertFalse(metadataProvider.ensureBackingStore().getEffectiveExpirations()
+                    .containsKey("https://b.example.org"));
+            Assert.assertNotNull(resolve("https://a.example.org"));
+            Assert.assertEquals(metadataProvider.removeExpiredEntityDescriptors(), 0);
+        } finally {
+            metadataProvider.destroy();
+            targetFile.delete();
+        }
+    }
+    
+    private EntityDescriptor resolve(final String id) throws ResolverException {
+        return metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion(id)));
+    }
+    
+    private String deltaMetadata(final String... entities) {
+        return "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" "
+                + "xmlns:unused=\"urn:example:unused\" validUntil=\""
+                + Instant.now().plus(Duration.ofDays(1)) + "\">"
+                + String.join("", entities) + "</md:EntitiesDescriptor>";
+    }
+    
+    private String entity(final String id, final String location) {
+        return "<md:EntityDescriptor entityID=\"" + id + "\">"
+                + "<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" "
+                + "Location=\"" + location + "\" index=\"1\"/>"
+                + "</md:SPSSODescriptor></md:EntityDescriptor>";
+    }
+    
     /**
      * Tests failure mode of a metadata file which disappears after initial creation of the provider.
      * 
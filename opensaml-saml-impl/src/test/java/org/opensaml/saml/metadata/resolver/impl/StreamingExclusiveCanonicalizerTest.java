@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.opensaml.core.testing.XMLObjectBaseTestCase;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Attribute;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.Namespace;
+import org.opensaml.saml.metadata.resolver.impl.StreamingExclusiveCanonicalizer.StartTag;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import net.shibboleth.shared.xml.ElementSupport;
+
+/**
+ * Unit test for {@link StreamingExclusiveCanonicalizer}, cross-checking its digests against Santuario's Exclusive
+ * XML Canonicalization.
+ */
+@SuppressWarnings({"javadoc", "null"})
+public class StreamingExclusiveCanonicalizerTest extends XMLObjectBaseTestCase {
+
+    @Test
+    public void testDefaultNamespaceUndeclaration() throws Exception {
+        final Document doc = parse("<a xmlns=\"urn:a\"><b xmlns=\"\"><c/></b><d xmlns=\"\"/></a>");
+        final Element root = doc.getDocumentElement();
+        assertCanonical(root, "");
+        assertDigest(root, "", "<a xmlns=\"urn:a\"><b xmlns=\"\"><c></c></b><d xmlns=\"\"></d></a>");
+
+        // Nothing was rendered for the default namespace above the subtree, so there is nothing to undeclare.
+        final Element child = ElementSupport.getFirstChildElement(root);
+        assertCanonical(child, "");
+        assertDigest(child, "", "<b><c></c></b>");
+    }
+
+    @Test
+    public void testInclusiveNamespaces() throws Exception {
+        final Document doc = parse("<n:a xmlns:n=\"urn:n\" xmlns:x=\"urn:x\" xmlns:y=\"urn:y\" xmlns=\"urn:d\">"
+                + "<n:b><n:c attr=\"v\"/><e/></n:b></n:a>");
+        final Element child = ElementSupport.getFirstChildElement(doc.getDocumentElement());
+        assertCanonical(child, "");
+        assertCanonical(child, "x");
+        assertCanonical(child, "#default");
+        assertCanonical(child, "x y #default");
+        assertCanonical(child, "unbound");
+        assertDigest(child, "x", "<n:b xmlns:n=\"urn:n\" xmlns:x=\"urn:x\"><n:c attr=\"v\"></n:c>"
+                + "<e xmlns=\"urn:d\"></e></n:b>");
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        final Document doc = parse("<a xmlns:z=\"urn:a\" xmlns:b=\"urn:z\" xmlns=\"urn:d\""
+                + " b:attr=\"1\" z:attr=\"2\" attr=\"3\" z:b=\"4\" xml:lang=\"en\"><z:c b:x=\"5\" z:x=\"6\"/></a>");
+        assertCanonical(doc.getDocumentElement(), "");
+        assertDigest(doc.getDocumentElement(), "", "<a xmlns=\"urn:d\" xmlns:b=\"urn:z\" xmlns:z=\"urn:a\""
+                + " attr=\"3\" xml:lang=\"en\" z:attr=\"2\" z:b=\"4\" b:attr=\"1\">"
+                + "<z:c z:x=\"6\" b:x=\"5\"></z:c></a>");
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        final Document doc = parse("<a attr=\"&quot;&lt;&gt;&amp;&#9;&#10;&#13; x\">text &amp; &lt; &gt; \""
+                + " &#13; <![CDATA[ <cdata> & ]]></a>");
+        assertCanonical(doc.getDocumentElement(), "");
+        assertDigest(doc.getDocumentElement(), "", "<a attr=\"&quot;&lt;>&amp;&#x9;&#xA;&#xD; x\">"
+                + "text &amp; &lt; &gt; \" &#xD;  &lt;cdata&gt; &amp; </a>");
+    }
+
+    @Test
+    public void testProcessingInstructionsAndComments() throws Exception {
+        final Document doc = parse("<?xml version=\"1.0\"?>\n<?before data?>\n<!-- before -->\n"
+                + "<a><?inner?><!-- inner --><b/></a>\n<!-- after -->\n<?after more data?>\n");
+        assertCanonical(doc, "");
+        assertDigest(doc, "", "<?before data?>\n<a><?inner?><b></b></a>\n<?after more data?>");
+
+        // Within a subtree, only the instructions inside the element are rendered.
+        assertCanonical(doc.getDocumentElement(), "");
+        assertDigest(doc.getDocumentElement(), "", "<a><?inner?><b></b></a>");
+    }
+
+    /**
+     * Assert that the streamed digest of a node matches Santuario's.
+     *
+     * @param node the node to canonicalize
+     * @param prefixList the InclusiveNamespaces PrefixList
+     *
+     * @throws Exception if an error occurs
+     */
+    private void assertCanonical(final Node node, final String prefixList) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS).canonicalizeSubtree(node,
+                prefixList.isEmpty() ? null : prefixList, out);
+        Assert.assertEquals(streamDigest(node, prefixList), MessageDigest.getInstance("SHA-256").digest(
+                out.toByteArray()), "Digest differs from Santuario's canonical form " + out);
+    }
+
+    /**
+     * Assert that the streamed digest of a node is that of the expected canonical form.
+     *
+     * @param node the node to canonicalize
+     * @param prefixList the InclusiveNamespaces PrefixList
+     * @param expected the expected canonical form
+     *
+     * @throws Exception if an error occurs
+     */
+    private void assertDigest(final Node node, final String prefixList, final String expected) throws Exception {
+        Assert.assertEquals(streamDigest(node, prefixList), MessageDigest.getInstance("SHA-256").digest(
+                expected.getBytes(StandardCharsets.UTF_8)), "Digest differs from " + expected);
+    }
+
+    /**
+     * Feed a node to a canonicalizer, as the streaming unmarshaller would.
+     *
+     * @param node the node to canonicalize
+     * @param prefixList the InclusiveNamespaces PrefixList
+     *
+     * @return the digest
+     *
+     * @throws Exception if an error occurs
+     */
+    private byte[] streamDigest(final Node node, final String prefixList) throws Exception {
+        final Set<String> prefixes = new HashSet<>();
+        for (final String prefix : prefixList.split(" ")) {
+            if (!prefix.isEmpty()) {
+                prefixes.add("#default".equals(prefix) ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+            }
+        }
+        final StreamingExclusiveCanonicalizer c14n =
+                new StreamingExclusiveCanonicalizer(MessageDigest.getInstance("SHA-256"), prefixes);
+        if (node instanceof Document) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                render(child, c14n, List.of());
+            }
+        } else {
+            render(node, c14n, inherited((Element) node));
+        }
+        return c14n.digest();
+    }
+
+    /**
+     * Feed a DOM subtree to a canonicalizer.
+     *
+     * @param node the root of the subtree
+     * @param c14n the canonicalizer
+     * @param inherited namespace declarations in scope from outside the subtree
+     *
+     * @throws Exception if an error occurs
+     */
+    private void render(final Node node, final StreamingExclusiveCanonicalizer c14n,
+            final List<Namespace> inherited) throws Exception {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE -> {
+                c14n.startElement(toStartTag((Element) node, inherited));
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    render(child, c14n, List.of());
+                }
+                c14n.endElement();
+            }
+            case Node.TEXT_NODE, Node.CDATA_SECTION_NODE -> c14n.characters(node.getNodeValue());
+            case Node.PROCESSING_INSTRUCTION_NODE -> c14n.processingInstruction(
+                    ((ProcessingInstruction) node).getTarget(), ((ProcessingInstruction) node).getData());
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Collect the namespace declarations in scope from the ancestors of an element.
+     *
+     * @param element the element
+     *
+     * @return the declarations, nearest first
+     */
+    private List<Namespace> inherited(final Element element) {
+        final List<Namespace> namespaces = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+        for (Node ancestor = element.getParentNode(); ancestor instanceof Element;
+                ancestor = ancestor.getParentNode()) {
+            for (final Namespace ns : toStartTag((Element) ancestor, List.of()).namespaces()) {
+                if (seen.add(ns.prefix())) {
+                    namespaces.add(ns);
+                }
+            }
+        }
+        return namespaces;
+    }
+
+    /**
+     * Convert a DOM element into a start tag.
+     *
+     * @param element the element
+     * @param inherited namespace declarations in scope from outside the element, overridden by its own
+     *
+     * @return the start tag
+     */
+    private StartTag toStartTag(final Element element, final List<Namespace> inherited) {
+        final List<Namespace> namespaces = new ArrayList<>();
+        final List<Attribute> attributes = new ArrayList<>();
+        final Set<String> declared = new HashSet<>();
+        final NamedNodeMap attributeNodes = element.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            final Attr attribute = (Attr) attributeNodes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                final String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getPrefix())
+                        ? attribute.getLocalName() : "";
+                namespaces.add(new Namespace(prefix, attribute.getValue()));
+                declared.add(prefix);
+            } else {
+                attributes.add(new Attribute(nullToEmpty(attribute.getPrefix()),
+                        nullToEmpty(attribute.getNamespaceURI()), attribute.getLocalName(), attribute.getValue()));
+            }
+        }
+        for (final Namespace ns : inherited) {
+            if (!declared.contains(ns.prefix())) {
+                namespaces.add(ns);
+            }
+        }
+        return new StartTag(nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI()),
+                element.getLocalName(), namespaces, attributes);
+    }
+
+    private Document parse(final String xml) throws Exception {
+        return parserPool.parse(new StringReader(xml));
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value != null ? value : "";
+    }
+
+}
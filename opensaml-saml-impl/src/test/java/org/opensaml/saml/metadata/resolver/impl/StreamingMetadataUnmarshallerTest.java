@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.List;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.testing.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.common.xml.SAMLSchemaBuilder;
+import org.opensaml.saml.common.xml.SAMLSchemaBuilder.SAML1Version;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
+import org.opensaml.saml.metadata.resolver.filter.data.impl.StreamedSignatureDigest;
+import org.opensaml.saml.metadata.resolver.filter.impl.SchemaValidationFilter;
+import org.opensaml.saml.metadata.resolver.filter.impl.SignatureValidationFilter;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.x509.X509Support;
+import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.resolver.CriteriaSet;
+
+/** Unit test for {@link StreamingMetadataUnmarshaller}. */
+@SuppressWarnings({"javadoc", "null"})
+public class StreamingMetadataUnmarshallerTest extends XMLObjectBaseTestCase {
+
+    private final String switchMDFileValid = "/org/opensaml/saml/saml2/metadata/provider/metadata.aaitest_signed.xml";
+
+    private final String switchMDFileInvalid =
+            "/org/opensaml/saml/saml2/metadata/provider/metadata.aaitest_signed.invalid.xml";
+
+    /** DigestValue of the root signature's Reference in the SWITCH metadata. */
+    private final String switchMDDigest = "b94jC4YhJnx+0Uj/9tQ/xkZz+hs=";
+
+    private final String switchMDCertBase64 =
+        "MIICrzCCAhgCAQAwDQYJKoZIhvcNAQEEBQAwgZ8xCzAJBgNVBAYTAkNIMUAwPgYDVQQKEzdTV0lU" +
+        "Q0ggLSBUZWxlaW5mb3JtYXRpa2RpZW5zdGUgZnVlciBMZWhyZSB1bmQgRm9yc2NodW5nMQwwCgYD" +
+        "VQQLEwNBQUkxIjAgBgNVBAMTGVNXSVRDSGFhaSBNZXRhZGF0YSBTaWduZXIxHDAaBgkqhkiG9w0B" +
+        "CQEWDWFhaUBzd2l0Y2guY2gwHhcNMDUwODAzMTEyMjUxWhcNMTUwODAxMTEyMjUxWjCBnzELMAkG" +
+        "A1UEBhMCQ0gxQDA+BgNVBAoTN1NXSVRDSCAtIFRlbGVpbmZvcm1hdGlrZGllbnN0ZSBmdWVyIExl" +
+        "aHJlIHVuZCBGb3JzY2h1bmcxDDAKBgNVBAsTA0FBSTEiMCAGA1UEAxMZU1dJVENIYWFpIE1ldGFk" +
+        "YXRhIFNpZ25lcjEcMBoGCSqGSIb3DQEJARYNYWFpQHN3aXRjaC5jaDCBnzANBgkqhkiG9w0BAQEF" +
+        "AAOBjQAwgYkCgYEAsmyBYNZ8mKYutdyQShzuOgnVxDP1UBZE+57S2ORZg1qi4JExOJEPnviHuh6H" +
+        "EajljhAMGHxr656paDpfXkmGq/Ybk3xmXy2FTnFGpjFpZUV6dY/oJ82rve27C/NVcwZw2nYRl5C5" +
+        "aCCgx/QlWsBTw+9972141+wBDH7dXlJ+UGkCAwEAATANBgkqhkiG9w0BAQQFAAOBgQCcLuNwTINk" +
+        "fhBlVCIuTixR1R6mYu/+4KUJWtHlRCOUZhSLFept8HxEvfwnuX9xm+Q6Ju/sOgmI1INuSstUGWwV" +
+        "y0AbpCphUDDmIh9A85ye8DrVaBHQrj5b/JEjCvkY0zhLJzgDzZ6btT40TuCnk2GpdAClu5SyCTiy" +
+        "56+zDYqPqg==";
+
+    private StreamingMetadataUnmarshaller unmarshaller;
+
+    private SignatureValidationFilter signatureFilter;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        unmarshaller = new StreamingMetadataUnmarshaller(parserPool, unmarshallerFactory);
+
+        signatureFilter = new SignatureValidationFilter(new ExplicitKeySignatureTrustEngine(
+                new StaticCredentialResolver(CredentialSupport.getSimpleCredential(
+                        X509Support.decodeCertificate(switchMDCertBase64), null)),
+                DefaultSecurityConfigurationBootstrap.buildBasicInlineKeyInfoCredentialResolver()));
+        signatureFilter.initialize();
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        final XMLObject streamed = stream(switchMDFileValid);
+        Assert.assertTrue(streamed instanceof EntitiesDescriptor);
+        final EntitiesDescriptor group = (EntitiesDescriptor) streamed;
+        Assert.assertNotNull(group.getDOM());
+        Assert.assertEquals(group.getName(), "urn:mace:switch.ch:aaitest");
+
+        // Same members, in the same order, as unmarshalling the whole document.
+        final Document document = parserPool.parse(
+                StreamingMetadataUnmarshallerTest.class.getResourceAsStream(switchMDFileValid));
+        final EntitiesDescriptor expected = (EntitiesDescriptor) unmarshallerFactory
+                .ensureUnmarshaller(document.getDocumentElement()).unmarshall(document.getDocumentElement());
+        Assert.assertEquals(group.getEntityDescriptors().size(), expected.getEntityDescriptors().size());
+        for (int i = 0; i < expected.getEntityDescriptors().size(); i++) {
+            final EntityDescriptor entity = group.getEntityDescriptors().get(i);
+            Assert.assertEquals(entity.getEntityID(), expected.getEntityDescriptors().get(i).getEntityID());
+            Assert.assertNull(entity.getDOM());
+        }
+
+        final List<StreamedSignatureDigest> digests =
+                group.getSignature().getObjectMetadata().get(StreamedSignatureDigest.class);
+        Assert.assertEquals(digests.size(), 1);
+        Assert.assertEquals(digests.get(0).getReferenceURI(), "");
+        Assert.assertEquals(digests.get(0).getDigestValue(), Base64.getDecoder().decode(switchMDDigest));
+    }
+
+    @Test
+    public void testSignatureValidation() throws Exception {
+        Assert.assertNotNull(signatureFilter.filter(stream(switchMDFileValid), new MetadataFilterContext()));
+    }
+
+    @Test(expectedExceptions = FilterException.class)
+    public void testInvalidSignature() throws Exception {
+        signatureFilter.filter(stream(switchMDFileInvalid), new MetadataFilterContext());
+    }
+
+    @Test(expectedExceptions = FilterException.class)
+    public void testModifiedBeforeValidation() throws Exception {
+        final EntitiesDescriptor group = (EntitiesDescriptor) stream(switchMDFileValid);
+        group.getEntityDescriptors().remove(0);
+        signatureFilter.filter(group, new MetadataFilterContext());
+    }
+
+    @Test
+    public void testEntityDescriptorRoot() throws Exception {
+        final XMLObject streamed = stream("/org/opensaml/saml/saml2/metadata/provider/openid-metadata.xml");
+        Assert.assertTrue(streamed instanceof EntityDescriptor);
+        Assert.assertNotNull(streamed.getDOM());
+        Assert.assertTrue(((EntityDescriptor) streamed).getSignature().getObjectMetadata()
+                .get(StreamedSignatureDigest.class).isEmpty());
+    }
+
+    @Test
+    public void testResolver() throws Exception {
+        final File mdFile = new File(StreamingMetadataUnmarshallerTest.class
+                .getResource("/org/opensaml/saml/saml2/metadata/InCommon-metadata.xml").toURI());
+        final FilesystemMetadataResolver resolver = new FilesystemMetadataResolver(mdFile);
+        resolver.setParserPool(parserPool);
+        resolver.setId("test");
+        resolver.setStreamingUnmarshall(true);
+        resolver.initialize();
+
+        final EntityDescriptor descriptor =
+                resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("urn:mace:incommon:washington.edu")));
+        Assert.assertNotNull(descriptor);
+        Assert.assertEquals(descriptor.getEntityID(), "urn:mace:incommon:washington.edu");
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testResolverSchemaValidation() throws Exception {
+        final File mdFile = new File(StreamingMetadataUnmarshallerTest.class
+                .getResource("/org/opensaml/saml/saml2/metadata/InCommon-metadata.xml").toURI());
+        final FilesystemMetadataResolver resolver = new FilesystemMetadataResolver(mdFile);
+        resolver.setParserPool(parserPool);
+        resolver.setId("test");
+        resolver.setStreamingUnmarshall(true);
+        resolver.setMetadataFilter(new SchemaValidationFilter(new SAMLSchemaBuilder(SAML1Version.SAML_11)));
+        resolver.initialize();
+    }
+
+    private XMLObject stream(final String path) throws Exception {
+        try (final InputStream input = StreamingMetadataUnmarshallerTest.class.getResourceAsStream(path)) {
+            return unmarshaller.unmarshall(input);
+        }
+    }
+
+}
@@ -35,6 +35,7 @@ import org.opensaml.saml.common.testing.SAMLTestSupport;
 import org.opensaml.saml.criterion.EntityRoleCriterion;
 import org.opensaml.saml.criterion.ProtocolCriterion;
 import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.metadata.resolver.filter.impl.MetadataCredentialIndexingFilter;
 import org.opensaml.saml.metadata.resolver.impl.DOMMetadataResolver;
 import org.opensaml.saml.metadata.resolver.impl.PredicateRoleDescriptorResolver;
 import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
@@ -580,6 +581,81 @@ public class MetadataCredentialResolverTest extends XMLObjectBaseTestCase {
                 "Resolved credential sets were non-equal, caching must have failed");
     }
     
+    /**
+     * Test resolution from credentials indexed when the metadata was loaded.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testCredentialIndex() throws Exception {
+        final MetadataCredentialIndexingFilter filter = new MetadataCredentialIndexingFilter();
+        filter.setKeyInfoCredentialResolver(SAMLTestSupport.buildBasicInlineKeyInfoResolver());
+        filter.setParallelism(2);
+        filter.initialize();
+        
+        final Document mdDoc = parserPool.parse(MetadataCredentialResolverTest.class.getResourceAsStream(mdFileName));
+        final DOMMetadataResolver mdProvider = new DOMMetadataResolver(mdDoc.getDocumentElement());
+        mdProvider.setId("indexed");
+        mdProvider.setMetadataFilter(filter);
+        mdProvider.initialize();
+        
+        roleResolver = new PredicateRoleDescriptorResolver(mdProvider);
+        roleResolver.initialize();
+        
+        mdCredResolver = new MetadataCredentialResolver();
+        mdCredResolver.setRoleDescriptorResolver(roleResolver);
+        mdCredResolver.setKeyInfoCredentialResolver(SAMLTestSupport.buildBasicInlineKeyInfoResolver());
+        mdCredResolver.initialize();
+        
+        final List<Credential> resolved = new ArrayList<>();
+        for (final Credential credential : mdCredResolver.resolve(criteriaSet)) {
+           resolved.add(credential);
+           checkContextAndID(credential, idpEntityID, idpRole, true);
+        }
+        Assert.assertEquals(resolved.size(), 3, "Incorrect number of credentials resolved");
+        
+        criteriaSet.add(new UsageCriterion(UsageType.SIGNING));
+        final List<Credential> signing = new ArrayList<>();
+        for (final Credential credential : mdCredResolver.resolve(criteriaSet)) {
+            Assert.assertNotEquals(credential.getUsageType(), UsageType.ENCRYPTION);
+            Assert.assertTrue(resolved.contains(credential), "Credential was not resolved from the index");
+            signing.add(credential);
+        }
+        Assert.assertEquals(signing.size(), 2, "Incorrect number of credentials resolved");
+        
+        // Nothing was resolved lazily into the KeyDescriptor object metadata.
+        for (final RoleDescriptor role : roleResolver.resolve(new CriteriaSet(entityIdCriteria, roleCriteria))) {
+            final MetadataCredentialIndex index = MetadataCredentialIndex.get(role);
+            Assert.assertNotNull(index);
+            Assert.assertTrue(index.isIndexOf(role));
+            for (final KeyDescriptor keyDescriptor : role.getKeyDescriptors()) {
+                Assert.assertTrue(keyDescriptor.getObjectMetadata().get(Credential.class).isEmpty());
+            }
+        }
+        
+        // An index of a role modified since it was built is ignored in favor of the KeyDescriptors.
+        for (final RoleDescriptor role : roleResolver.resolve(new CriteriaSet(entityIdCriteria, roleCriteria))) {
+            role.getKeyDescriptors().remove(role.getKeyDescriptors().size() - 1);
+            final MetadataCredentialIndex index = MetadataCredentialIndex.get(role);
+            Assert.assertNotNull(index);
+            Assert.assertFalse(index.isIndexOf(role));
+        }
+        int count = 0;
+        for (final Credential credential : mdCredResolver.resolve(new CriteriaSet(entityIdCriteria, roleCriteria))) {
+            checkContextAndID(credential, idpEntityID, idpRole, true);
+            count++;
+        }
+        Assert.assertTrue(count < resolved.size(), "Credentials of the removed KeyDescriptor were resolved");
+        for (final RoleDescriptor role : roleResolver.resolve(new CriteriaSet(entityIdCriteria, roleCriteria))) {
+            for (final KeyDescriptor keyDescriptor : role.getKeyDescriptors()) {
+                Assert.assertFalse(keyDescriptor.getObjectMetadata().get(Credential.class).isEmpty());
+            }
+        }
+        
+        mdProvider.destroy();
+        filter.destroy();
+    }
+    
     /**
      * Test resolving directly from a RoleDescriptor input.
      * 
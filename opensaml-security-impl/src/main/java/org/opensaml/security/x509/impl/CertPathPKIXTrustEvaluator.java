@@ -15,6 +15,7 @@
 package org.opensaml.security.x509.impl;
 
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.cert.CRL;
 import java.security.cert.CertPathBuilder;
 import java.security.cert.CertPathBuilderException;
@@ -28,12 +29,19 @@ import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CertSelector;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,15 +56,30 @@ import org.opensaml.security.x509.X509Credential;
 import org.opensaml.security.x509.X509Support;
 import org.slf4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.shared.annotation.ParameterName;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
 
 /**
  * An implementation of {@link PKIXTrustEvaluator} that is based on the Java CertPath API.
+ * 
+ * <p>
+ * Validation results may optionally be cached, see {@link #setValidationResultCacheTTL(Duration)}. A cached result
+ * is keyed on the untrusted certificate chain (and CRLs, if processed), the trust anchors and CRLs of the
+ * {@link PKIXValidationInformation} and the validation options in effect, and is reused until the earliest of the
+ * configured TTL, the expiration of a certificate in the untrusted chain or the next update of a CRL used. While
+ * caching is enabled, the trust anchors and CRL material of each {@link PKIXValidationInformation} instance are
+ * also prepared once and reused for as long as its certificates and CRLs are unchanged.
+ * </p>
  */
 public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
 
+    /** Default maximum number of cached validation results. */
+    public static final long DEFAULT_VALIDATION_RESULT_CACHE_SIZE = 10000;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(CertPathPKIXTrustEvaluator.class);
     
@@ -68,11 +91,28 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
     
     /** Options influencing processing behavior. */
     @Nonnull private PKIXValidationOptions options;
+    
+    /** Maximum time a validation result is cached. Null or zero disables caching. */
+    @Nullable private volatile Duration validationResultCacheTTL;
+    
+    /** Maximum number of cached validation results. */
+    private long validationResultCacheSize;
+    
+    /** Cached validation results. */
+    @Nullable private volatile Cache<ValidationResultKey, ValidationResult> validationResultCache;
+    
+    /** Prepared trust material, per validation information instance. */
+    @Nullable private volatile Cache<PKIXValidationInformation, TrustMaterial> trustMaterialCache;
+    
+    /** Source of trust material generations. */
+    @Nonnull private final AtomicLong trustMaterialGeneration;
 
     /** Constructor. */
     public CertPathPKIXTrustEvaluator() {
         options = new PKIXValidationOptions();
         x500DNHandler = new InternalX500DNHandler();
+        validationResultCacheSize = DEFAULT_VALIDATION_RESULT_CACHE_SIZE;
+        trustMaterialGeneration = new AtomicLong();
     }
     
     /**
@@ -84,6 +124,8 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
             @Nonnull final @ParameterName(name="newOptions") PKIXValidationOptions newOptions) {
         options = Constraint.isNotNull(newOptions, "PKIXValidationOptions cannot be null");
         x500DNHandler = new InternalX500DNHandler();
+        validationResultCacheSize = DEFAULT_VALIDATION_RESULT_CACHE_SIZE;
+        trustMaterialGeneration = new AtomicLong();
     }
     
     /** {@inheritDoc} */
@@ -99,6 +141,7 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
      */
     public void setPKIXValidationOptions(@Nonnull final PKIXValidationOptions newOptions) {
         options = Constraint.isNotNull(newOptions, "PKIXValidationOptions cannot be null");
+        invalidateValidationResultCache();
     }
 
     /**
@@ -123,10 +166,150 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
         x500DNHandler = Constraint.isNotNull(handler, "X500DNHandler cannot be null");
     }
 
+    /**
+     * Get the maximum time a validation result is cached.
+     * 
+     * @return the maximum time a validation result is cached, or null if caching is disabled
+     * 
+     * @since 5.2.0
+     */
+    @Nullable public Duration getValidationResultCacheTTL() {
+        return validationResultCacheTTL;
+    }
+
+    /**
+     * Set the maximum time a validation result is cached.
+     * 
+     * <p>Defaults to null, which disables caching of validation results and trust material.</p>
+     * 
+     * @param ttl the maximum time a validation result is cached, or null or zero to disable caching
+     * 
+     * @since 5.2.0
+     */
+    public synchronized void setValidationResultCacheTTL(@Nullable final Duration ttl) {
+        if (ttl != null) {
+            Constraint.isFalse(ttl.isNegative(), "Validation result cache TTL cannot be negative");
+        }
+        validationResultCacheTTL = ttl != null && !ttl.isZero() ? ttl : null;
+        rebuildCaches();
+    }
+
+    /**
+     * Get the maximum number of cached validation results.
+     * 
+     * @return the maximum number of cached validation results
+     * 
+     * @since 5.2.0
+     */
+    public long getValidationResultCacheSize() {
+        return validationResultCacheSize;
+    }
+
+    /**
+     * Set the maximum number of cached validation results.
+     * 
+     * <p>Defaults to {@link #DEFAULT_VALIDATION_RESULT_CACHE_SIZE}.</p>
+     * 
+     * @param size the maximum number of cached validation results
+     * 
+     * @since 5.2.0
+     */
+    public synchronized void setValidationResultCacheSize(final long size) {
+        validationResultCacheSize = Constraint.isGreaterThan(0, size, "Validation result cache size must be > 0");
+        rebuildCaches();
+    }
+
+    /**
+     * Discard all cached validation results and trust material.
+     * 
+     * <p>This should be called if the trust material of a {@link PKIXValidationInformation} instance is changed
+     * in a way which is not visible through its accessors.</p>
+     * 
+     * @since 5.2.0
+     */
+    public void invalidateValidationResultCache() {
+        final Cache<ValidationResultKey, ValidationResult> results = validationResultCache;
+        if (results != null) {
+            results.invalidateAll();
+        }
+        final Cache<PKIXValidationInformation, TrustMaterial> material = trustMaterialCache;
+        if (material != null) {
+            material.invalidateAll();
+        }
+    }
+
+    /** Build new, empty caches for the current cache settings. */
+    private void rebuildCaches() {
+        final Duration ttl = validationResultCacheTTL;
+        if (ttl == null) {
+            validationResultCache = null;
+            trustMaterialCache = null;
+            return;
+        }
+        validationResultCache = CacheBuilder.newBuilder()
+                .maximumSize(validationResultCacheSize)
+                .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        trustMaterialCache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .build();
+    }
+
     /** {@inheritDoc} */
     public boolean validate(@Nonnull final PKIXValidationInformation validationInfo,
             @Nonnull final X509Credential untrustedCredential) throws SecurityException {
         
+        final Cache<ValidationResultKey, ValidationResult> results = validationResultCache;
+        if (results == null) {
+            return doValidate(validationInfo, untrustedCredential);
+        }
+
+        final TrustMaterial material;
+        final ValidationResultKey key;
+        try {
+            material = getTrustMaterial(validationInfo);
+            key = new ValidationResultKey(fingerprint(untrustedCredential), material != null
+                    ? material.generation() : -1, getOptionsSnapshot());
+        } catch (final GeneralSecurityException e) {
+            log.error("PKIX validation failure: {}", e.getMessage());
+            throw new SecurityException("PKIX validation failure", e);
+        }
+
+        final Instant now = Instant.now();
+        final ValidationResult cached = results.getIfPresent(key);
+        if (cached != null) {
+            if (cached.expiration().isAfter(now)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Using cached PKIX validation result ({}) for untrusted credential: {}",
+                            cached.valid() ? "succeeded" : "failed",
+                            X509Support.getIdentifiersToken(untrustedCredential, getX500DNHandler()));
+                }
+                return cached.valid();
+            }
+            results.invalidate(key);
+        }
+
+        final boolean valid = doValidate(validationInfo, untrustedCredential);
+        final Instant expiration = getValidationResultExpiration(material, untrustedCredential);
+        if (expiration != null && expiration.isAfter(now)) {
+            results.put(key, new ValidationResult(valid, expiration));
+        }
+        return valid;
+    }
+
+    /**
+     * Perform PKIX validation of an untrusted credential, without consulting the validation result cache.
+     * 
+     * @param validationInfo PKIX validation information
+     * @param untrustedCredential credential to be validated
+     * 
+     * @return true if the credential was successfully validated, false otherwise
+     * 
+     * @throws SecurityException thrown if there is an error processing the validation
+     */
+    private boolean doValidate(@Nonnull final PKIXValidationInformation validationInfo,
+            @Nonnull final X509Credential untrustedCredential) throws SecurityException {
+        
         if (log.isDebugEnabled()) {
             log.debug("Attempting PKIX path validation on untrusted credential: {}",
                     X509Support.getIdentifiersToken(untrustedCredential, getX500DNHandler()));
@@ -176,7 +359,9 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
     @Nonnull protected PKIXBuilderParameters getPKIXBuilderParameters(
             @Nonnull final PKIXValidationInformation validationInfo, @Nonnull final X509Credential untrustedCredential)
                     throws GeneralSecurityException {
-        final Set<TrustAnchor> trustAnchors = getTrustAnchors(validationInfo);
+        final TrustMaterial material = getTrustMaterial(validationInfo);
+        final Set<TrustAnchor> trustAnchors = material != null ? material.trustAnchors()
+                : getTrustAnchors(validationInfo);
         if (trustAnchors == null || trustAnchors.isEmpty()) {
             throw new GeneralSecurityException(
                     "Unable to validate X509 certificate, no trust anchors found in the PKIX validation information");
@@ -343,8 +528,12 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
         
         final Date now = new Date();
         
+        final TrustMaterial material = getTrustMaterial(validationInfo);
         Collection<X509CRL> crls = validationInfo.getCRLs();
-        if (crls != null && !crls.isEmpty()) {
+        if (material != null) {
+            log.trace("Adding prepared CRLs from PKIX info set");
+            storeMaterial.addAll(material.storeCRLs());
+        } else if (crls != null && !crls.isEmpty()) {
             log.trace("Processing CRLs from PKIX info set");
             addCRLsToStoreMaterial(storeMaterial, crls, now);
         }        
@@ -404,6 +593,148 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
     }
 // Checkstyle: CyclomaticComplexity ON
 
+    /**
+     * Get the prepared trust material for the given validation information, preparing it if necessary.
+     * 
+     * <p>Prepared material is replaced when the certificates or CRLs of the validation information change, and
+     * when one of its certificates expires or CRLs becomes due for update.</p>
+     * 
+     * @param validationInfo PKIX validation information
+     * 
+     * @return the prepared trust material, or null if caching is disabled
+     */
+    @Nullable private TrustMaterial getTrustMaterial(@Nonnull final PKIXValidationInformation validationInfo) {
+        final Cache<PKIXValidationInformation, TrustMaterial> cache = trustMaterialCache;
+        if (cache == null) {
+            return null;
+        }
+        
+        final Collection<X509Certificate> certificates = validationInfo.getCertificates();
+        final Collection<X509CRL> crls = validationInfo.getCRLs();
+        final TrustMaterial cached = cache.getIfPresent(validationInfo);
+        if (cached != null && (cached.expiration() == null || cached.expiration().isAfter(Instant.now()))
+                && (cached.certificates() == certificates || Objects.equals(cached.certificates(), certificates))
+                && (cached.crls() == crls || Objects.equals(cached.crls(), crls))) {
+            return cached;
+        }
+
+        log.trace("Preparing trust material for PKIX info set");
+        final Date now = new Date();
+        final List<Object> storeCRLs = new ArrayList<>();
+        if (crls != null && !crls.isEmpty()) {
+            addCRLsToStoreMaterial(storeCRLs, crls, now);
+        }
+        
+        Instant expiration = null;
+        if (certificates != null) {
+            for (final X509Certificate cert : certificates) {
+                expiration = earliest(expiration, cert.getNotAfter());
+            }
+        }
+        if (crls != null) {
+            for (final X509CRL crl : crls) {
+                // The CRL is only filtered differently once it is due.
+                if (crl.getNextUpdate() != null && crl.getNextUpdate().after(now)) {
+                    expiration = earliest(expiration, crl.getNextUpdate());
+                }
+            }
+        }
+        
+        final TrustMaterial material = new TrustMaterial(trustMaterialGeneration.incrementAndGet(), certificates,
+                crls, getTrustAnchors(validationInfo), storeCRLs, expiration);
+        cache.put(validationInfo, material);
+        return material;
+    }
+
+    /**
+     * Get the time until which a validation result may be reused.
+     * 
+     * @param material the trust material the result was produced with
+     * @param untrustedCredential the credential which was validated
+     * 
+     * @return the expiration of the result, or null if there is no bound other than the cache TTL
+     */
+    @Nullable private Instant getValidationResultExpiration(@Nullable final TrustMaterial material,
+            @Nonnull final X509Credential untrustedCredential) {
+        Instant expiration = material != null ? material.expiration() : null;
+        for (final X509Certificate cert : untrustedCredential.getEntityCertificateChain()) {
+            expiration = earliest(expiration, cert.getNotAfter());
+        }
+        expiration = earliest(expiration, untrustedCredential.getEntityCertificate().getNotAfter());
+        
+        final Collection<X509CRL> crls = untrustedCredential.getCRLs();
+        if (crls != null && options.isProcessCredentialCRLs()) {
+            for (final X509CRL crl : crls) {
+                expiration = earliest(expiration, crl.getNextUpdate());
+            }
+        }
+        
+        final Instant now = Instant.now();
+        final Duration ttl = validationResultCacheTTL;
+        if (ttl != null) {
+            expiration = earliest(expiration, Date.from(now.plus(ttl)));
+        }
+        return expiration;
+    }
+
+    /**
+     * Get the earlier of an instant and a date.
+     * 
+     * @param current the current earliest instant, if any
+     * @param candidate the date to compare, if any
+     * 
+     * @return the earlier of the two
+     */
+    @Nullable private static Instant earliest(@Nullable final Instant current, @Nullable final Date candidate) {
+        if (candidate == null) {
+            return current;
+        }
+        final Instant instant = candidate.toInstant();
+        return current == null || instant.isBefore(current) ? instant : current;
+    }
+
+    /**
+     * Compute a fingerprint of the material of an untrusted credential which influences its validation.
+     * 
+     * @param untrustedCredential the credential
+     * 
+     * @return the fingerprint
+     * 
+     * @throws GeneralSecurityException if the credential material can not be encoded
+     */
+    @Nonnull private String fingerprint(@Nonnull final X509Credential untrustedCredential)
+            throws GeneralSecurityException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(untrustedCredential.getEntityCertificate().getEncoded());
+        for (final X509Certificate cert : untrustedCredential.getEntityCertificateChain()) {
+            digest.update(cert.getEncoded());
+        }
+        final Collection<X509CRL> crls = untrustedCredential.getCRLs();
+        if (crls != null && options.isProcessCredentialCRLs()) {
+            for (final X509CRL crl : crls) {
+                digest.update(crl.getEncoded());
+            }
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Get a snapshot of the validation options in effect, for use in a validation result key.
+     * 
+     * @return the options snapshot
+     */
+    @Nonnull private List<Object> getOptionsSnapshot() {
+        if (options instanceof CertPathPKIXValidationOptions certpathOptions) {
+            return Arrays.asList(options.isProcessEmptyCRLs(), options.isProcessExpiredCRLs(),
+                    options.isProcessCredentialCRLs(), options.getDefaultVerificationDepth(),
+                    certpathOptions.isForceRevocationEnabled(), certpathOptions.isRevocationEnabled(),
+                    certpathOptions.isPolicyMappingInhibited(), certpathOptions.isAnyPolicyInhibited(),
+                    certpathOptions.getInitialPolicies());
+        }
+        return Arrays.asList(options.isProcessEmptyCRLs(), options.isProcessExpiredCRLs(),
+                options.isProcessCredentialCRLs(), options.getDefaultVerificationDepth());
+    }
+
     /**
      * Log information from the constructed cert path at level debug.
      * 
@@ -429,4 +760,39 @@ public class CertPathPKIXTrustEvaluator implements PKIXTrustEvaluator {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Key of a cached validation result.
+     * 
+     * @param credential fingerprint of the untrusted credential material
+     * @param trustMaterial generation of the trust material used
+     * @param options snapshot of the validation options in effect
+     */
+    private record ValidationResultKey(@Nonnull String credential, long trustMaterial,
+            @Nonnull List<Object> options) {
+    }
+
+    /**
+     * A cached validation result.
+     * 
+     * @param valid whether validation succeeded
+     * @param expiration time until which the result may be reused
+     */
+    private record ValidationResult(boolean valid, @Nonnull Instant expiration) {
+    }
+
+    /**
+     * Trust material prepared from a {@link PKIXValidationInformation} instance.
+     * 
+     * @param generation unique generation of this material
+     * @param certificates the certificates the material was prepared from
+     * @param crls the CRLs the material was prepared from
+     * @param trustAnchors the trust anchors
+     * @param storeCRLs the CRLs to add to the cert store
+     * @param expiration time at which the material must be prepared again, if any
+     */
+    private record TrustMaterial(long generation, @Nullable Collection<X509Certificate> certificates,
+            @Nullable Collection<X509CRL> crls, @Nullable Set<TrustAnchor> trustAnchors,
+            @Nonnull List<Object> storeCRLs, @Nullable Instant expiration) {
+    }
+
+}
@@ -21,11 +21,15 @@ import net.shibboleth.shared.collection.CollectionSupport;
 import org.testng.annotations.BeforeMethod;
 import org.testng.Assert;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
 import org.opensaml.security.SecurityException;
@@ -370,6 +374,53 @@ public class CertPathPKIXTrustEvaluatorTest extends XMLObjectBaseTestCase {
         testValidateFailure("Intermediate CA with policy mapping, but mapping is inhibited", info, cred, opts);
     }    
     
+    @Test
+    public void testValidationResultCache() {
+        final AtomicInteger builds = new AtomicInteger();
+        final CertPathPKIXTrustEvaluator evaluator = new CertPathPKIXTrustEvaluator() {
+            @Override
+            protected PKIXBuilderParameters getPKIXBuilderParameters(PKIXValidationInformation validationInfo,
+                    X509Credential untrustedCredential) throws GeneralSecurityException {
+                builds.incrementAndGet();
+                return super.getPKIXBuilderParameters(validationInfo, untrustedCredential);
+            }
+        };
+        evaluator.setValidationResultCacheTTL(Duration.ofMinutes(10));
+        pkixEvaluator = evaluator;
+        
+        cred = getCredential("foo-1A1-revoked.crt");
+        info = getPKIXInfoSet(
+                getCertificates("root1-ca.crt", "inter1A-ca.crt", "inter1A1-ca.crt"),
+                EMPTY_CRLS,
+                MAX_DEPTH );
+        
+        testValidateSuccess("Sanity check that revoked cert is otherwise good, sans CRLs", info, cred);
+        testValidateSuccess("Cached result for revoked cert sans CRLs", info, cred);
+        Assert.assertEquals(builds.get(), 1);
+        
+        testValidateSuccess("Cached result for an equivalent credential",
+                info, getCredential("foo-1A1-revoked.crt"));
+        Assert.assertEquals(builds.get(), 1);
+        
+        info = getPKIXInfoSet(
+                getCertificates("root1-ca.crt", "inter1A-ca.crt", "inter1A1-ca.crt"),
+                getCRLS("inter1A1-v1.crl"),
+                MAX_DEPTH );
+        
+        testValidateFailure("Specified certificate was revoked, V1 CRL was processed", info, cred);
+        testValidateFailure("Cached result for revoked cert", info, cred);
+        Assert.assertEquals(builds.get(), 2);
+        
+        evaluator.invalidateValidationResultCache();
+        testValidateFailure("Specified certificate was revoked, V1 CRL was processed", info, cred);
+        Assert.assertEquals(builds.get(), 3);
+        
+        evaluator.setValidationResultCacheTTL(null);
+        testValidateFailure("Specified certificate was revoked, V1 CRL was processed", info, cred);
+        testValidateFailure("Specified certificate was revoked, V1 CRL was processed", info, cred);
+        Assert.assertEquals(builds.get(), 5);
+    }
+    
     //********************
     //* Helper methods.  *
     //********************
@@ -17,6 +17,7 @@ package org.opensaml.storage;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.stream.Collectors;
@@ -87,7 +88,9 @@ public abstract class AbstractMapBackedStorageService extends AbstractStorageSer
                 // It's dead, so we can just remove it now and create the new record.
             }
             
-            dataMap.put(key, new MutableStorageRecord<>(value, expiration));
+            final MutableStorageRecord<?> newRecord = new MutableStorageRecord<>(value, expiration);
+            dataMap.put(key, newRecord);
+            indexExpiration(context, key, newRecord);
             log.trace("Inserted record '{}' in context '{}' with expiration '{}'",
                     new Object[] { key, context, expiration });
             
@@ -181,9 +184,11 @@ public abstract class AbstractMapBackedStorageService extends AbstractStorageSer
             if (dataMap != null) {    
                 setDirty();
                 final long now = System.currentTimeMillis();
-                for (final MutableStorageRecord<?> record : dataMap.values()) {
-                    if (record.isValid(now)) {
+                for (final Map.Entry<String, MutableStorageRecord<?>> entry : dataMap.entrySet()) {
+                    final MutableStorageRecord<?> record = entry.getValue();
+                    if (record.isValid(now) && !Objects.equals(record.getExpiration(), expiration)) {
                         record.setExpiration(expiration);
+                        indexExpiration(context, entry.getKey(), record);
                     }
                 }
                 log.debug("Updated expiration of valid records in context '{}' to '{}'", context, expiration);
@@ -308,6 +313,26 @@ public abstract class AbstractMapBackedStorageService extends AbstractStorageSer
     protected void setDirty() throws IOException {
         
     }
+
+    /**
+     * A callback to indicate that a record has been created or has had its expiration changed.
+     * 
+     * <p>This allows subclasses to maintain an index of expirations so that cleanup need not scan every
+     * record. The record is live and may be modified or removed later without a further callback other
+     * than this one, so an index must verify its entries against the context map before acting on them.</p>
+     * 
+     * <p>This method is guaranteed to be called under cover the lock returned by {{@link #getLock()}.</p>
+     * 
+     * @param context   a storage context label
+     * @param key       a key unique to context
+     * @param record    the record whose expiration has been set
+     * 
+     * @since 5.2.0
+     */
+    protected void indexExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull final MutableStorageRecord<?> record) {
+        
+    }
     
     /**
      * Internal method to implement read functions.
@@ -423,7 +448,10 @@ public abstract class AbstractMapBackedStorageService extends AbstractStorageSer
                 record.incrementVersion();
             }
     
-            record.setExpiration(expiration);
+            if (!Objects.equals(record.getExpiration(), expiration)) {
+                record.setExpiration(expiration);
+                indexExpiration(context, key, record);
+            }
     
             log.trace("Updated record '{}' in context '{}' with expiration '{}'",
                     new Object[] { key, context, expiration });
@@ -15,6 +15,11 @@
 package org.opensaml.storage;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -337,6 +342,86 @@ public interface StorageService extends IdentifiedComponent {
     boolean deleteWithVersion(@Positive final long version, @Nonnull final Object value)
             throws IOException, VersionMismatchException;
     
+    /**
+     * Returns the existing records in the store for a set of keys in a context.
+     * 
+     * <p>The default implementation calls {@link #read(String, String)} for each key in turn. Implementations
+     * that can fetch several records in fewer operations should override it.</p>
+     * 
+     * @param <T>           type of record
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the records read back, indexed by key, omitting keys with no record
+     * @throws IOException  if errors occur in the read process
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull default <T> Map<String, StorageRecord<T>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        final Map<String, StorageRecord<T>> records = new HashMap<>(keys.size());
+        for (final String key : keys) {
+            final StorageRecord<T> record = read(context, key);
+            if (record != null) {
+                records.put(key, record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Creates new records in the store for a set of keys in a context, all with the same expiration.
+     * 
+     * <p>Each record is created independently, so a duplicate key does not prevent the others being
+     * created. The default implementation calls {@link #create(String, String, String, Long)} for each
+     * key in turn. Implementations that can create several records in fewer operations should override it.</p>
+     * 
+     * @param context       a storage context label
+     * @param values        values to store, indexed by key
+     * @param expiration    expiration for the records, or null
+     * 
+     * @return  the keys of the records that were inserted, excluding any for which a duplicate was found
+     * @throws IOException  if fatal errors occur in the insertion process
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull default Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        final Set<String> created = new HashSet<>(values.size());
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            if (create(context, entry.getKey(), entry.getValue(), expiration)) {
+                created.add(entry.getKey());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Deletes existing records from the store for a set of keys in a context.
+     * 
+     * <p>The default implementation calls {@link #delete(String, String)} for each key in turn.
+     * Implementations that can delete several records in fewer operations should override it.</p>
+     * 
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the keys of the records that existed and were deleted
+     * @throws IOException  if errors occur in the deletion process
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull default Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        final Set<String> deleted = new HashSet<>(keys.size());
+        for (final String key : keys) {
+            if (delete(context, key)) {
+                deleted.add(key);
+            }
+        }
+        return deleted;
+    }
+
     /**
      * Manually trigger a cleanup of expired records. The method <strong>MAY</strong> return without guaranteeing
      * that cleanup has already occurred.
@@ -0,0 +1,590 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.collection.Pair;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.LoggerFactory;
+
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+
+/**
+ * Implementation of {@link EnumeratableStorageService} that stores data in-memory in a shared data structure
+ * with no persistence, without a global lock.
+ *
+ * <p>Each context is held in its own {@link ConcurrentHashMap}, and records are never modified once they
+ * have been published. Reads are therefore lock-free, and writes are atomic compare-and-set replacements
+ * of a single record, so versioned updates and deletes retain the semantics of {@link MemoryStorageService}
+ * without serializing unrelated operations.</p>
+ *
+ * <p>Each context carries a lock that is only taken exclusively to retire the context, either on deletion
+ * or once cleanup has emptied it. Writers share that lock, so operations within a context do not block
+ * one another, and the cleanup task reaps one context at a time rather than stopping the whole store.</p>
+ *
+ * @since 5.2.0
+ */
+public class ConcurrentMemoryStorageService extends AbstractStorageService
+        implements EnumeratableStorageService, StorageCapabilities {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ConcurrentMemoryStorageService.class);
+
+    /** Map of contexts. */
+    @NonnullAfterInit private ConcurrentMap<String, ContextPartition> contextMap;
+
+    /** Constructor. */
+    public ConcurrentMemoryStorageService() {
+        setContextSize(Integer.MAX_VALUE);
+        setKeySize(Integer.MAX_VALUE);
+        setValueSize(Integer.MAX_VALUE);
+    }
+
+    /** {@inheritDoc} */
+    public boolean isServerSide() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isClustered() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        contextMap = new ConcurrentHashMap<>();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        contextMap = null;
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+
+        final VersionedRecord<?> newRecord = new VersionedRecord<>(value, expiration, 1);
+        final ContextPartition partition = acquirePartition(context);
+        try {
+            final ConcurrentMap<String, VersionedRecord<?>> dataMap = partition.getRecords();
+            while (true) {
+                final VersionedRecord<?> existing = dataMap.putIfAbsent(key, newRecord);
+                if (existing == null) {
+                    break;
+                } else if (existing.isValid(System.currentTimeMillis())) {
+                    return false;
+                } else if (dataMap.replace(key, existing, newRecord)) {
+                    // It was dead, so it's been swapped for the new record.
+                    break;
+                }
+            }
+        } finally {
+            partition.getLock().readLock().unlock();
+        }
+
+        log.trace("Inserted record '{}' in context '{}' with expiration '{}'",
+                new Object[] { key, context, expiration });
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        return this.<T>readImpl(context, key, null).getSecond();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public <T> Pair<Long, StorageRecord<T>> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, final long version) throws IOException {
+        return readImpl(context, key, version);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, value, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public Long updateWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+        return updateImpl(version, context, key, value, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, null, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean deleteWithVersion(final long version, @Nonnull final String context, @Nonnull final String key)
+            throws IOException, VersionMismatchException {
+        return deleteImpl(version, context, key);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        try {
+            return deleteImpl(null, context, key);
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by delete.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        final ContextPartition partition = lockPartition(context);
+        if (partition == null) {
+            return;
+        }
+
+        try {
+            final long now = System.currentTimeMillis();
+            partition.getRecords().replaceAll(
+                    (k, r) -> r.isValid(now) ? new VersionedRecord<>(r.getValue(), expiration, r.getVersion()) : r);
+            log.debug("Updated expiration of valid records in context '{}' to '{}'", context, expiration);
+        } finally {
+            partition.getLock().readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final ContextPartition partition = getContextMap().get(context);
+        if (partition != null) {
+            final Lock writeLock = partition.getLock().writeLock();
+            writeLock.lock();
+            try {
+                partition.retire(getContextMap(), context);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        log.debug("Deleted context '{}'", context);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        final ContextPartition partition = getContextMap().get(context);
+        if (partition != null) {
+            reapPartition(context, partition, System.currentTimeMillis());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public Iterable<String> getContextKeys(@Nonnull @NotEmpty final String context,
+            @Nullable final String prefix) throws IOException {
+
+        final ContextPartition partition = getContextMap().get(context);
+        if (partition == null) {
+            log.debug("Read failed, context '{}' not found", context);
+            return CollectionSupport.emptyList();
+        }
+
+        final long now = System.currentTimeMillis();
+        return partition.getRecords().entrySet().stream()
+                .filter(e -> e.getValue().isValid(now) && (prefix != null ? e.getKey().startsWith(prefix) : true))
+                .map(Map.Entry::getKey)
+                .collect(CollectionSupport.nonnullCollector(Collectors.toUnmodifiableList())).get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                log.debug("Running cleanup task");
+
+                final long now = System.currentTimeMillis();
+                boolean purged = false;
+                for (final Map.Entry<String, ContextPartition> entry : getContextMap().entrySet()) {
+                    if (reapPartition(entry.getKey(), entry.getValue(), now)) {
+                        purged = true;
+                    }
+                }
+
+                if (purged) {
+                    log.debug("Purged expired record(s) from storage");
+                } else {
+                    log.debug("No expired records found in storage");
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the map of contexts.
+     *
+     * @return map of contexts
+     */
+    @Nonnull private ConcurrentMap<String, ContextPartition> getContextMap() {
+        checkComponentActive();
+        assert contextMap != null;
+        return contextMap;
+    }
+
+    /**
+     * Get the partition for a context, creating it if necessary, and share-lock it against retirement.
+     *
+     * <p>The caller <strong>MUST</strong> release the read lock of the returned partition.</p>
+     *
+     * @param context a storage context label
+     *
+     * @return the locked partition
+     */
+    @Nonnull private ContextPartition acquirePartition(@Nonnull @NotEmpty final String context) {
+        final ConcurrentMap<String, ContextPartition> map = getContextMap();
+        while (true) {
+            final ContextPartition partition = map.computeIfAbsent(context, c -> new ContextPartition());
+            assert partition != null;
+            partition.getLock().readLock().lock();
+            if (!partition.isRetired()) {
+                return partition;
+            }
+            // Lost a race with retirement, which will have removed it from the map.
+            partition.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the partition for an existing context and share-lock it against retirement.
+     *
+     * <p>The caller <strong>MUST</strong> release the read lock of a non-null result.</p>
+     *
+     * @param context a storage context label
+     *
+     * @return the locked partition, or null if the context does not exist
+     */
+    @Nullable private ContextPartition lockPartition(@Nonnull @NotEmpty final String context) {
+        final ContextPartition partition = getContextMap().get(context);
+        if (partition == null) {
+            return null;
+        }
+
+        partition.getLock().readLock().lock();
+        if (partition.isRetired()) {
+            partition.getLock().readLock().unlock();
+            return null;
+        }
+        return partition;
+    }
+
+    /**
+     * Remove expired records from a partition, and retire it if that leaves it empty.
+     *
+     * <p>Retirement is opportunistic and is skipped if any writer is active in the partition.</p>
+     *
+     * @param context a storage context label
+     * @param partition the partition to reap
+     * @param expiration time at which to consider records expired
+     *
+     * @return true iff anything was purged
+     */
+    private boolean reapPartition(@Nonnull @NotEmpty final String context, @Nonnull final ContextPartition partition,
+            final long expiration) {
+
+        // ConcurrentHashMap removes each entry only if it still maps to the expired record.
+        final boolean purged = partition.getRecords().values().removeIf(r -> r.isExpired(expiration));
+
+        if (partition.getRecords().isEmpty()) {
+            final Lock writeLock = partition.getLock().writeLock();
+            if (writeLock.tryLock()) {
+                try {
+                    if (partition.getRecords().isEmpty()) {
+                        partition.retire(getContextMap(), context);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        return purged;
+    }
+
+    /**
+     * Internal method to implement read functions.
+     *
+     * @param <T>           type of object
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param version       only return record if newer than optionally supplied version
+     *
+     * @return  a pair consisting of the version of the record read back, if any, and the record itself
+     * @throws IOException  if errors occur in the read process
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull private <T> Pair<Long,StorageRecord<T>> readImpl(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final Long version) throws IOException {
+
+        final ContextPartition partition = getContextMap().get(context);
+        if (partition == null) {
+            log.debug("Read failed, context '{}' not found", context);
+            return new Pair<>();
+        }
+
+        final StorageRecord<?> record = partition.getRecords().get(key);
+        if (record == null) {
+            log.debug("Read failed, key '{}' not found in context '{}'", key, context);
+            return new Pair<>();
+        }
+
+        if (record.isExpired(System.currentTimeMillis())) {
+            log.debug("Read failed, key '{}' expired in context '{}'", key, context);
+            return new Pair<>();
+        }
+
+        if (version != null && record.getVersion() == version) {
+            // Nothing's changed, so just echo back the version.
+            return new Pair<>(version, null);
+        }
+
+        return new Pair<>(record.getVersion(), (StorageRecord<T>) record);
+    }
+
+    /**
+     * Internal method to implement update functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         updated value
+     * @param expiration    expiration for record. or null
+     *
+     * @return the version of the record after update, null if no record exists
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    @Nullable private Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+
+        final ContextPartition partition = lockPartition(context);
+        if (partition == null) {
+            log.debug("Update failed, context '{}' not found", context);
+            return null;
+        }
+
+        try {
+            final ConcurrentMap<String, VersionedRecord<?>> dataMap = partition.getRecords();
+            while (true) {
+                final VersionedRecord<?> record = dataMap.get(key);
+                if (record == null) {
+                    log.debug("Update failed, key '{}' not found in context '{}'", key, context);
+                    return null;
+                }
+
+                if (record.isExpired(System.currentTimeMillis())) {
+                    log.debug("Update failed, key '{}' expired in context '{}'", key, context);
+                    return null;
+                }
+
+                if (version != null && version != record.getVersion()) {
+                    // Caller is out of sync.
+                    throw new VersionMismatchException();
+                }
+
+                final VersionedRecord<?> updated = value != null
+                        ? new VersionedRecord<>(value, expiration, record.getVersion() + 1)
+                        : new VersionedRecord<>(record.getValue(), expiration, record.getVersion());
+
+                if (dataMap.replace(key, record, updated)) {
+                    log.trace("Updated record '{}' in context '{}' with expiration '{}'",
+                            new Object[] { key, context, expiration });
+                    return updated.getVersion();
+                }
+                // Somebody else got there first, so re-check against the winner.
+            }
+        } finally {
+            partition.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Internal method to implement delete functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     *
+     * @return true iff the record existed and was deleted
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    private boolean deleteImpl(@Nullable @Positive final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+
+        final ContextPartition partition = lockPartition(context);
+        if (partition == null) {
+            log.debug("Deleting record '{}' in context '{}'....context not found", key, context);
+            return false;
+        }
+
+        try {
+            final ConcurrentMap<String, VersionedRecord<?>> dataMap = partition.getRecords();
+            while (true) {
+                final VersionedRecord<?> record = dataMap.get(key);
+                if (record == null) {
+                    log.debug("Deleting record '{}' in context '{}'....key not found", key, context);
+                    return false;
+                } else if (version != null && record.getVersion() != version) {
+                    throw new VersionMismatchException();
+                } else if (dataMap.remove(key, record)) {
+                    log.trace("Deleted record '{}' in context '{}'", key, context);
+                    return true;
+                }
+            }
+        } finally {
+            partition.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Records for a single context, along with the lock guarding its retirement.
+     */
+    private static final class ContextPartition {
+
+        /** Records in the context. */
+        @Nonnull private final ConcurrentMap<String, VersionedRecord<?>> records;
+
+        /** Shared by writers, held exclusively to retire the partition. */
+        @Nonnull private final ReadWriteLock lock;
+
+        /** Whether the partition has been removed from the context map. */
+        private boolean retired;
+
+        /** Constructor. */
+        ContextPartition() {
+            records = new ConcurrentHashMap<>();
+            lock = new ReentrantReadWriteLock();
+        }
+
+        /**
+         * Get the records in the context.
+         *
+         * @return the records
+         */
+        @Nonnull ConcurrentMap<String, VersionedRecord<?>> getRecords() {
+            return records;
+        }
+
+        /**
+         * Get the partition lock.
+         *
+         * @return the lock
+         */
+        @Nonnull ReadWriteLock getLock() {
+            return lock;
+        }
+
+        /**
+         * Get whether the partition has been retired.
+         *
+         * <p>This method <strong>MUST</strong> be called while holding the partition lock.</p>
+         *
+         * @return true iff the partition is no longer in use
+         */
+        boolean isRetired() {
+            return retired;
+        }
+
+        /**
+         * Retire the partition and remove it from the context map.
+         *
+         * <p>This method <strong>MUST</strong> be called while holding the partition's write lock.</p>
+         *
+         * @param map the context map
+         * @param context the context label
+         */
+        void retire(@Nonnull final ConcurrentMap<String, ContextPartition> map, @Nonnull final String context) {
+            retired = true;
+            map.remove(context, this);
+        }
+    }
+
+    /**
+     * Storage record that is never modified once it has been published.
+     *
+     * @param <T> type of record
+     */
+    private static final class VersionedRecord<T> extends StorageRecord<T> {
+
+        /**
+         * Constructor.
+         *
+         * @param val   value
+         * @param exp   expiration, or null if none
+         * @param ver   version
+         */
+        VersionedRecord(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final long ver) {
+            super(val, exp);
+            setVersion(ver);
+        }
+    }
+
+}
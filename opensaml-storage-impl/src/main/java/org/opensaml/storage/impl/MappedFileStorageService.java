@@ -0,0 +1,687 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.annotation.constraint.Live;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.LoggerFactory;
+
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+
+/**
+ * Extension of {@link MemoryStorageService} that persists changes to a memory-mapped, append-only journal
+ * file, so that its contents survive a restart.
+ *
+ * <p>Every successful change is appended to the journal, under the same lock as the change itself, as a
+ * checksummed entry describing the resulting state. On initialization the journal is mapped and replayed,
+ * stopping at the first incomplete entry, and expired records are discarded. Records purged by the cleanup
+ * task are not journaled, since they are expired on reload anyway.</p>
+ *
+ * <p>The journal is rewritten to contain just the live records whenever it has doubled in size since it
+ * was last rewritten, which is checked by the cleanup task and whenever the mapping needs to grow. The
+ * replacement is written alongside and renamed over the journal.</p>
+ *
+ * @since 5.2.0
+ */
+public class MappedFileStorageService extends MemoryStorageService {
+
+    /** Identifies the journal format. */
+    private static final int MAGIC = 0x4F534A31;
+
+    /** Smallest mapping of the journal, and smallest journal size that triggers compaction. */
+    private static final int MIN_MAPPING_SIZE = 1024 * 1024;
+
+    /** Bytes of framing before each entry: the body length and its checksum. */
+    private static final int FRAME = 8;
+
+    /** Entry type setting the full state of a record. */
+    private static final byte PUT = 1;
+
+    /** Entry type removing a record. */
+    private static final byte REMOVE = 2;
+
+    /** Entry type removing a context. */
+    private static final byte REMOVE_CONTEXT = 3;
+
+    /** Entry type updating the expiration of the valid records in a context. */
+    private static final byte CONTEXT_EXPIRATION = 4;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MappedFileStorageService.class);
+
+    /** Journal file. */
+    @NonnullAfterInit private File journalFile;
+
+    /** Channel to the journal. */
+    @Nullable private FileChannel channel;
+
+    /** Mapping of the journal. */
+    @Nullable private MappedByteBuffer mapping;
+
+    /** Journal size after which to compact it. */
+    private int compactionThreshold;
+
+    /** Cleanup task, which also compacts the journal. */
+    @Nullable private TimerTask journalCleanupTask;
+
+    /**
+     * Get the journal file.
+     *
+     * @return the journal file
+     */
+    @NonnullAfterInit public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Set the journal file, which is created if it does not exist.
+     *
+     * @param file the journal file
+     */
+    public void setJournalFile(@Nonnull final File file) {
+        checkSetterPreconditions();
+
+        journalFile = Constraint.isNotNull(file, "Journal file cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        if (journalFile == null) {
+            throw new ComponentInitializationException("Journal file cannot be null");
+        }
+
+        super.doInitialize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        // Stop the cleanup task before the journal is closed, so it can no longer compact it.
+        if (journalCleanupTask != null) {
+            journalCleanupTask.cancel();
+            journalCleanupTask = null;
+        }
+
+        final Lock writeLock = getLock().writeLock();
+        try {
+            writeLock.lock();
+            closeJournal();
+        } catch (final IOException e) {
+            log.error("Error closing journal file '{}'", journalFile, e);
+        } finally {
+            writeLock.unlock();
+        }
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void loadContextMap(@Nonnull @Live final Map<String, Map<String, MutableStorageRecord<?>>> map)
+            throws ComponentInitializationException {
+        final long start = System.currentTimeMillis();
+        try {
+            openJournal();
+            assert mapping != null;
+            final int magic = mapping.getInt(0);
+            if (magic == 0) {
+                mapping.putInt(0, MAGIC);
+            } else if (magic != MAGIC) {
+                throw new ComponentInitializationException("File '" + journalFile + "' is not a journal");
+            }
+
+            mapping.position(Integer.BYTES);
+            int entries = 0;
+            while (replayEntry(mapping, map, start)) {
+                entries++;
+            }
+            mapping.putInt(mapping.position(), 0);
+
+            final long now = System.currentTimeMillis();
+            map.values().forEach(records -> records.values().removeIf(r -> r.isExpired(now)));
+            map.values().removeIf(Map::isEmpty);
+            compactionThreshold = Math.max(MIN_MAPPING_SIZE, 2 * mapping.position());
+
+            log.info("Loaded {} journal entries from '{}' in {} ms", entries, journalFile,
+                    System.currentTimeMillis() - start);
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Error loading journal file '" + journalFile + "'", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            final boolean result = super.create(context, key, value, expiration);
+            if (result) {
+                appendPut(context, key);
+            }
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            final long now = System.currentTimeMillis();
+            super.updateContextExpiration(context, expiration);
+            final Entry entry = new Entry(CONTEXT_EXPIRATION);
+            writeString(entry, context);
+            entry.getOutput().writeLong(now);
+            writeExpiration(entry, expiration);
+            append(entry);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            super.deleteContext(context);
+            final Entry entry = new Entry(REMOVE_CONTEXT);
+            writeString(entry, context);
+            append(entry);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            final Long result = super.updateImpl(version, context, key, value, expiration);
+            if (result != null) {
+                appendPut(context, key);
+            }
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean deleteImpl(@Nullable @Positive final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            final boolean result = super.deleteImpl(version, context, key);
+            if (result) {
+                final Entry entry = new Entry(REMOVE);
+                writeString(entry, context);
+                writeString(entry, key);
+                append(entry);
+            }
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        final TimerTask reaper = super.getCleanupTask();
+        journalCleanupTask = new TimerTask() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                if (reaper != null) {
+                    reaper.run();
+                }
+
+                final Lock writeLock = getLock().writeLock();
+                try {
+                    writeLock.lock();
+                    final MappedByteBuffer buffer = mapping;
+                    if (buffer != null && buffer.position() > compactionThreshold) {
+                        compact();
+                    }
+                } catch (final IOException e) {
+                    log.error("Error compacting journal file '{}'", journalFile, e);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        };
+        return journalCleanupTask;
+    }
+
+    /**
+     * Open and map the journal file, creating it if necessary.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    private void openJournal() throws IOException {
+        final FileChannel fc = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel = fc;
+        remap((int) Math.min(Integer.MAX_VALUE, Math.max(MIN_MAPPING_SIZE, fc.size())));
+    }
+
+    /**
+     * Flush and close the journal file.
+     *
+     * @throws IOException if an error occurs
+     */
+    private void closeJournal() throws IOException {
+        if (mapping != null) {
+            mapping.force();
+            mapping = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Map the journal at the given size, extending the file if necessary and preserving the position.
+     *
+     * @param size size of the mapping in bytes
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private void remap(final int size) throws IOException {
+        final FileChannel fc = channel;
+        assert fc != null;
+        final int position = mapping != null ? mapping.position() : 0;
+        final MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.position(position);
+        mapping = buffer;
+    }
+
+    /**
+     * Apply the journal entry at the current position to the map of contexts, and advance past it.
+     *
+     * @param buffer the mapped journal
+     * @param map map of contexts
+     * @param loadTime start of the load, used to compare when no other time is recorded
+     *
+     * @return false if there was no complete entry at the current position
+     */
+    private boolean replayEntry(@Nonnull final ByteBuffer buffer,
+            @Nonnull final Map<String, Map<String, MutableStorageRecord<?>>> map, final long loadTime) {
+
+        final int position = buffer.position();
+        if (buffer.remaining() < FRAME + 1) {
+            return false;
+        }
+        final int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.remaining() - FRAME) {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position + FRAME, length));
+        if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+            log.warn("Journal file '{}' has a damaged entry at offset {}, ignoring the remainder", journalFile,
+                    position);
+            return false;
+        }
+
+        final ByteBuffer body = buffer.slice(position + FRAME, length);
+        final byte type = body.get();
+        final String context = readString(body);
+        switch (type) {
+            case PUT:
+                final String key = readString(body);
+                final String value = readString(body);
+                final long version = body.getLong();
+                final Long expiration = readExpiration(body);
+                map.computeIfAbsent(context, c -> new HashMap<>()).put(key,
+                        new RestoredStorageRecord<>(value, expiration, version));
+                break;
+
+            case REMOVE:
+                final Map<String, MutableStorageRecord<?>> records = map.get(context);
+                if (records != null) {
+                    records.remove(readString(body));
+                }
+                break;
+
+            case REMOVE_CONTEXT:
+                map.remove(context);
+                break;
+
+            case CONTEXT_EXPIRATION:
+                final long time = body.getLong();
+                final Long contextExpiration = readExpiration(body);
+                final Map<String, MutableStorageRecord<?>> contextRecords = map.get(context);
+                if (contextRecords != null) {
+                    for (final MutableStorageRecord<?> record : contextRecords.values()) {
+                        if (record.isValid(time)) {
+                            record.setExpiration(contextExpiration);
+                        }
+                    }
+                }
+                break;
+
+            default:
+                log.warn("Journal file '{}' has an unknown entry type {} at offset {}, ignoring the remainder",
+                        journalFile, type, position);
+                return false;
+        }
+
+        buffer.position(position + FRAME + length);
+        return true;
+    }
+
+    /**
+     * Append an entry recording the current state of a record.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     *
+     * @param context   a storage context label
+     * @param key       a key unique to context
+     *
+     * @throws IOException if the entry cannot be written
+     */
+    private void appendPut(@Nonnull final String context, @Nonnull final String key) throws IOException {
+        final Map<String, MutableStorageRecord<?>> records = getContextMap().get(context);
+        final MutableStorageRecord<?> record = records != null ? records.get(key) : null;
+        if (record == null) {
+            return;
+        }
+
+        final Entry entry = new Entry(PUT);
+        writeString(entry, context);
+        writeString(entry, key);
+        writeString(entry, record.getValue());
+        entry.getOutput().writeLong(record.getVersion());
+        writeExpiration(entry, record.getExpiration());
+        append(entry);
+    }
+
+    /**
+     * Append an entry to the journal, followed by an end marker.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     *
+     * @param entry the entry
+     *
+     * @throws IOException if the entry cannot be written
+     */
+    private void append(@Nonnull final Entry entry) throws IOException {
+        final byte[] body = entry.toByteArray();
+        final long needed = (long) FRAME + body.length + Integer.BYTES;
+
+        MappedByteBuffer buffer = mapping;
+        if (buffer == null) {
+            throw new IOException("Journal file '" + journalFile + "' is closed");
+        }
+        if (buffer.remaining() < needed) {
+            if (buffer.position() > compactionThreshold) {
+                compact();
+                buffer = mapping;
+                assert buffer != null;
+            }
+            if (buffer.remaining() < needed) {
+                long size = buffer.capacity();
+                while (size - buffer.position() < needed) {
+                    size *= 2;
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Journal file '" + journalFile + "' has reached its maximum size");
+                }
+                remap((int) size);
+                buffer = mapping;
+                assert buffer != null;
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        final int position = buffer.position();
+        buffer.put(position + FRAME, body);
+        buffer.putInt(position + FRAME + body.length, 0);
+        buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        // The length goes last so an interrupted append leaves the previous end marker in place.
+        buffer.putInt(position, body.length);
+        buffer.position(position + FRAME + body.length);
+    }
+
+    /**
+     * Rewrite the journal to contain only the live records.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     *
+     * @throws IOException if the journal cannot be rewritten
+     */
+    private void compact() throws IOException {
+        final long start = System.currentTimeMillis();
+        final Path journal = journalFile.toPath();
+        final Path replacement = journal.resolveSibling(journal.getFileName() + ".tmp");
+
+        final MappedByteBuffer old = mapping;
+        final FileChannel oldChannel = channel;
+        assert old != null && oldChannel != null;
+        final int oldSize = old.position();
+        // Never compact recursively while writing the replacement.
+        compactionThreshold = Integer.MAX_VALUE;
+
+        try (final FileChannel fc = FileChannel.open(replacement, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel = fc;
+            mapping = null;
+            remap(Math.max(MIN_MAPPING_SIZE, oldSize));
+            assert mapping != null;
+            mapping.putInt(0, MAGIC);
+            mapping.position(Integer.BYTES);
+            mapping.putInt(Integer.BYTES, 0);
+
+            final long now = System.currentTimeMillis();
+            for (final Map.Entry<String, Map<String, MutableStorageRecord<?>>> context
+                    : getContextMap().entrySet()) {
+                for (final Map.Entry<String, MutableStorageRecord<?>> record : context.getValue().entrySet()) {
+                    if (record.getValue().isValid(now)) {
+                        appendPut(context.getKey(), record.getKey());
+                    }
+                }
+            }
+            mapping.force();
+        } catch (final IOException e) {
+            channel = oldChannel;
+            mapping = old;
+            compactionThreshold = Math.max(MIN_MAPPING_SIZE, 2 * oldSize);
+            throw e;
+        }
+
+        oldChannel.close();
+        Files.move(replacement, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        final int position = mapping.position();
+        mapping = null;
+        openJournal();
+        assert mapping != null;
+        mapping.position(position);
+        compactionThreshold = Math.max(MIN_MAPPING_SIZE, 2 * position);
+
+        log.debug("Compacted journal file '{}' from {} to {} bytes in {} ms", journalFile, oldSize, position,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param entry entry to write to
+     * @param s the string
+     *
+     * @throws IOException if an error occurs
+     */
+    private static void writeString(@Nonnull final Entry entry, @Nonnull final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        entry.getOutput().writeInt(bytes.length);
+        entry.getOutput().write(bytes);
+    }
+
+    /**
+     * Write an optional expiration.
+     *
+     * @param entry entry to write to
+     * @param expiration expiration, or null
+     *
+     * @throws IOException if an error occurs
+     */
+    private static void writeExpiration(@Nonnull final Entry entry, @Nullable final Long expiration)
+            throws IOException {
+        entry.getOutput().writeBoolean(expiration != null);
+        entry.getOutput().writeLong(expiration != null ? expiration : 0);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(Entry, String)}.
+     *
+     * @param body buffer to read from
+     *
+     * @return the string
+     */
+    @Nonnull private static String readString(@Nonnull final ByteBuffer body) {
+        final byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an optional expiration.
+     *
+     * @param body buffer to read from
+     *
+     * @return the expiration, or null
+     */
+    @Nullable private static Long readExpiration(@Nonnull final ByteBuffer body) {
+        final boolean present = body.get() != 0;
+        final long expiration = body.getLong();
+        return present ? expiration : null;
+    }
+
+    /**
+     * A journal entry under construction.
+     */
+    private static final class Entry {
+
+        /** Buffer for the entry body. */
+        @Nonnull private final ByteArrayOutputStream bytes;
+
+        /** Output to the entry body. */
+        @Nonnull private final DataOutputStream output;
+
+        /**
+         * Constructor.
+         *
+         * @param type entry type
+         *
+         * @throws IOException if an error occurs
+         */
+        Entry(final byte type) throws IOException {
+            bytes = new ByteArrayOutputStream();
+            output = new DataOutputStream(bytes);
+            output.writeByte(type);
+        }
+
+        /**
+         * Get the output to write the entry body to.
+         *
+         * @return the output
+         */
+        @Nonnull DataOutputStream getOutput() {
+            return output;
+        }
+
+        /**
+         * Get the entry body.
+         *
+         * @return the body
+         *
+         * @throws IOException if an error occurs
+         */
+        @Nonnull byte[] toByteArray() throws IOException {
+            output.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Record restored from the journal with its original version.
+     *
+     * @param <T> type of record
+     */
+    private static final class RestoredStorageRecord<T> extends MutableStorageRecord<T> {
+
+        /**
+         * Constructor.
+         *
+         * @param val   value
+         * @param exp   expiration, or null if none
+         * @param ver   version
+         */
+        RestoredStorageRecord(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final long ver) {
+            super(val, exp);
+            setVersion(ver);
+        }
+    }
+
+}
@@ -14,10 +14,14 @@
 
 package org.opensaml.storage.impl;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.TimerTask;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -28,20 +32,48 @@ import javax.annotation.Nullable;
 
 import net.shibboleth.shared.annotation.constraint.Live;
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
 import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.LoggerFactory;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.storage.AbstractMapBackedStorageService;
 import org.opensaml.storage.MutableStorageRecord;
 import org.opensaml.storage.StorageCapabilities;
 import org.slf4j.Logger;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer.Context;
+
 /**
  * Implementation of {@link AbstractMapBackedStorageService} that stores data in-memory in a shared data structure 
  * with no persistence.
+ * 
+ * <p>Expiring records are tracked in a min-heap ordered by expiration, so the cleanup task and
+ * {@link #reap(String)} only visit records that are due. The cleanup task releases the lock between batches of a
+ * configurable size.</p>
  */
 public class MemoryStorageService extends AbstractMapBackedStorageService implements StorageCapabilities {
 
+    /** Metric name for the timer for the cleanup task. */
+    @Nonnull @NotEmpty public static final String METRIC_TIMER_CLEANUP = "timer.cleanup";
+
+    /** Metric name for the counter of records purged by the cleanup task. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_PURGED = "counter.purged";
+
+    /**
+     * Metric name for the timer for explicit reaping.
+     * 
+     * @since 5.2.0
+     */
+    @Nonnull @NotEmpty public static final String METRIC_TIMER_REAP = "timer.reap";
+
+    /** Smallest index size at which stale entries are compacted. */
+    private static final int MIN_COMPACTION_THRESHOLD = 1024;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(MemoryStorageService.class);
 
@@ -51,6 +83,42 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
     /** A shared lock to synchronize access. */
     @NonnullAfterInit private ReadWriteLock lock;
 
+    /** Index of record expirations, earliest first, which may include stale entries. */
+    @NonnullAfterInit private PriorityQueue<ExpirationEntry> expirationIndex;
+
+    /** Index size at which to drop stale entries. */
+    private int compactionThreshold;
+
+    /** Maximum number of index entries to process per acquisition of the lock during cleanup. */
+    @Positive private int cleanupBatchSize;
+
+    /** Metrics Timer for the cleanup task. */
+    @Nullable private com.codahale.metrics.Timer timerCleanup;
+
+    /** Metrics Counter for records purged by the cleanup task. */
+    @Nullable private Counter counterPurged;
+
+    /** Metrics Timer for explicit reaping. */
+    @Nullable private com.codahale.metrics.Timer timerReap;
+
+    /** Constructor. */
+    public MemoryStorageService() {
+        cleanupBatchSize = 10000;
+    }
+
+    /**
+     * Set the maximum number of expiration entries processed per acquisition of the lock during cleanup.
+     * 
+     * @param size batch size
+     * 
+     * @since 5.2.0
+     */
+    public void setCleanupBatchSize(@Positive final int size) {
+        checkSetterPreconditions();
+
+        cleanupBatchSize = Constraint.isGreaterThan(0, size, "Batch size must be greater than zero");
+    }
+
     /** {@inheritDoc} */
     public boolean isServerSide() {
         return true;
@@ -67,6 +135,23 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
         super.doInitialize();
         contextMap = new HashMap<>();
         lock = new ReentrantReadWriteLock(true);
+        expirationIndex = new PriorityQueue<>();
+        compactionThreshold = MIN_COMPACTION_THRESHOLD;
+
+        loadContextMap(contextMap);
+        for (final Map.Entry<String, Map<String, MutableStorageRecord<?>>> context : contextMap.entrySet()) {
+            for (final Map.Entry<String, MutableStorageRecord<?>> record : context.getValue().entrySet()) {
+                indexExpiration(context.getKey(), record.getKey(), record.getValue());
+            }
+        }
+
+        final MetricRegistry metricRegistry = MetricsSupport.getMetricRegistry();
+        if (metricRegistry != null) {
+            final String baseName = MetricRegistry.name(getClass().getName(), getId());
+            timerCleanup = metricRegistry.timer(MetricRegistry.name(baseName, METRIC_TIMER_CLEANUP));
+            counterPurged = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_PURGED));
+            timerReap = metricRegistry.timer(MetricRegistry.name(baseName, METRIC_TIMER_REAP));
+        }
     }
 
     /** {@inheritDoc} */
@@ -74,10 +159,31 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
     protected void doDestroy() {
         contextMap = null;
         lock = null;
+        expirationIndex = null;
+        timerCleanup = null;
+        counterPurged = null;
+        timerReap = null;
         super.doDestroy();
     }
 
 
+    /**
+     * Supply the initial contents of the store.
+     * 
+     * <p>This is called during initialization with the empty map of contexts, before any other access to
+     * the store is possible. The default implementation does nothing.</p>
+     * 
+     * @param map the map of contexts to populate
+     * 
+     * @throws ComponentInitializationException if the contents cannot be loaded
+     * 
+     * @since 5.2.0
+     */
+    protected void loadContextMap(@Nonnull @Live final Map<String, Map<String, MutableStorageRecord<?>>> map)
+            throws ComponentInitializationException {
+        
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull @Live protected Map<String, Map<String, MutableStorageRecord<?>>> getContextMap() {
@@ -93,6 +199,39 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
         assert lock != null;
         return lock;
     }
+
+    /**
+     * Get the number of entries in the expiration index, including stale entries not yet compacted.
+     * 
+     * @return number of index entries
+     */
+    int getExpirationIndexSize() {
+        final Lock readLock = getLock().readLock();
+        try {
+            readLock.lock();
+            assert expirationIndex != null;
+            return expirationIndex.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void indexExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull final MutableStorageRecord<?> record) {
+        final Long expiration = record.getExpiration();
+        if (expiration == null) {
+            // Any existing entry for the record has become stale.
+            return;
+        }
+
+        assert expirationIndex != null;
+        expirationIndex.add(new ExpirationEntry(expiration, context, key, record));
+        if (expirationIndex.size() > compactionThreshold) {
+            compactIndex();
+        }
+    }
     
 // Checkstyle: AnonInnerLength OFF
     /** {@inheritDoc} */
@@ -105,32 +244,39 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
             public void run() {
                 log.debug("Running cleanup task");
                 
-                final Long now = System.currentTimeMillis();
-                final Lock writeLock = getLock().writeLock();
-                boolean purged = false;
+                final long now = System.currentTimeMillis();
+                final Context contextCleanup = MetricsSupport.startTimer(timerCleanup);
+                int purged = 0;
+                boolean more = true;
                 
                 try {
-                    writeLock.lock();
-                    
-                    final Collection<Map<String, MutableStorageRecord<?>>> contexts = getContextMap().values();
-                    final Iterator<Map<String, MutableStorageRecord<?>>> i = contexts.iterator();
-                    while (i.hasNext()) {
-                        final Map<String, MutableStorageRecord<?>> context = i.next();
-                        assert context != null;
-                        if (reapWithLock(context, now)) {
-                            purged = true;
-                            if (context.isEmpty()) {
-                                i.remove();
+                    // Release the lock between batches so other callers are not held up for the whole pass.
+                    while (more) {
+                        final Lock writeLock = getLock().writeLock();
+                        try {
+                            writeLock.lock();
+                            final PurgeResult batch = purgeDueWithLock(now, cleanupBatchSize);
+                            more = batch.visited() == cleanupBatchSize;
+                            if (batch.purged() > 0) {
+                                purged += batch.purged();
+                                setDirty();
                             }
+                        } finally {
+                            writeLock.unlock();
                         }
                     }
-                    
+                } catch (final IOException e) {
+                    log.error("Error signaling purge of expired records", e);
                 } finally {
-                    writeLock.unlock();
+                    MetricsSupport.stopTimer(contextCleanup);
                 }
                 
-                if (purged) {
-                    log.debug("Purged expired record(s) from storage");
+                if (counterPurged != null) {
+                    counterPurged.inc(purged);
+                }
+
+                if (purged > 0) {
+                    log.debug("Purged {} expired record(s) from storage", purged);
                 } else {
                     log.debug("No expired records found in storage");
                 }
@@ -139,4 +285,202 @@ public class MemoryStorageService extends AbstractMapBackedStorageService implem
     }
 // Checkstyle: AnonInnerLength ON
 
+    /** {@inheritDoc} */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        final Context contextReap = MetricsSupport.startTimer(timerReap);
+        try {
+            super.reap(context);
+        } finally {
+            MetricsSupport.stopTimer(contextReap);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records due are found through the expiration index rather than by scanning the map, so those of
+     * other contexts that are due are removed as well.</p>
+     */
+    @Override
+    protected boolean reapWithLock(@Nonnull final Map<String, MutableStorageRecord<?>> dataMap,
+            final long expiration) {
+        return purgeDueWithLock(expiration, Integer.MAX_VALUE).purged() > 0;
+    }
+
+    /**
+     * Remove the records that are due from the head of the expiration index.
+     * 
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     * 
+     * @param now time at which to consider records expired
+     * @param limit maximum number of index entries to visit
+     * 
+     * @return the number of index entries visited and of records removed
+     */
+    @Nonnull private PurgeResult purgeDueWithLock(final long now, @Positive final int limit) {
+        final PriorityQueue<ExpirationEntry> index = expirationIndex;
+        assert index != null;
+        int visited = 0;
+        int purged = 0;
+        while (visited < limit) {
+            final ExpirationEntry entry = index.peek();
+            if (entry == null || entry.getExpiration() > now) {
+                break;
+            }
+            index.poll();
+            visited++;
+            if (purgeWithLock(entry, now)) {
+                purged++;
+            }
+        }
+        return new PurgeResult(visited, purged);
+    }
+
+    /**
+     * Remove the record an index entry refers to if it is still present and expired.
+     * 
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     * 
+     * @param entry index entry
+     * @param now time at which to consider records expired
+     * 
+     * @return true iff the record was removed
+     */
+    private boolean purgeWithLock(@Nonnull final ExpirationEntry entry, final long now) {
+        final Map<String, Map<String, MutableStorageRecord<?>>> contexts = contextMap;
+        assert contexts != null;
+        final Map<String, MutableStorageRecord<?>> dataMap = contexts.get(entry.getContext());
+        if (dataMap == null || !entry.isCurrent(dataMap) || !entry.getRecord().isExpired(now)) {
+            return false;
+        }
+
+        dataMap.remove(entry.getKey());
+        if (dataMap.isEmpty()) {
+            contexts.remove(entry.getContext());
+        }
+        return true;
+    }
+
+    /**
+     * Drop index entries that no longer match a record, and all but one of the entries that match the same
+     * record, and reset the threshold for the next compaction.
+     * 
+     * <p>A record whose expiration is set back to an earlier value has several current entries, which would
+     * otherwise survive every compaction.</p>
+     * 
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     */
+    private void compactIndex() {
+        assert expirationIndex != null;
+        final Map<String, Map<String, MutableStorageRecord<?>>> contexts = contextMap;
+        assert contexts != null;
+        final int before = expirationIndex.size();
+        final Set<MutableStorageRecord<?>> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+        expirationIndex.removeIf(e -> {
+            final Map<String, MutableStorageRecord<?>> dataMap = contexts.get(e.getContext());
+            return dataMap == null || !e.isCurrent(dataMap) || !indexed.add(e.getRecord());
+        });
+        compactionThreshold = Math.max(MIN_COMPACTION_THRESHOLD, 2 * expirationIndex.size());
+        log.trace("Compacted expiration index from {} to {} entries", before, expirationIndex.size());
+    }
+
+    /**
+     * Outcome of a pass over the head of the expiration index.
+     * 
+     * @param visited number of index entries visited
+     * @param purged number of records removed
+     */
+    private record PurgeResult(int visited, int purged) {
+    }
+
+    /**
+     * An entry in the expiration index.
+     * 
+     * <p>Entries are not removed when records change, so an entry only applies if the record is still mapped
+     * under its key and still carries the expiration the entry was created with.</p>
+     */
+    private static final class ExpirationEntry implements Comparable<ExpirationEntry> {
+
+        /** Expiration of the record when indexed. */
+        private final long expiration;
+
+        /** Context of the record. */
+        @Nonnull private final String context;
+
+        /** Key of the record. */
+        @Nonnull private final String key;
+
+        /** The record. */
+        @Nonnull private final MutableStorageRecord<?> record;
+
+        /**
+         * Constructor.
+         *
+         * @param exp expiration of the record
+         * @param ctx context of the record
+         * @param k key of the record
+         * @param rec the record
+         */
+        ExpirationEntry(final long exp, @Nonnull final String ctx, @Nonnull final String k,
+                @Nonnull final MutableStorageRecord<?> rec) {
+            expiration = exp;
+            context = ctx;
+            key = k;
+            record = rec;
+        }
+
+        /**
+         * Get the expiration of the record when indexed.
+         * 
+         * @return expiration
+         */
+        long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Get the context of the record.
+         * 
+         * @return context
+         */
+        @Nonnull String getContext() {
+            return context;
+        }
+
+        /**
+         * Get the key of the record.
+         * 
+         * @return key
+         */
+        @Nonnull String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the record.
+         * 
+         * @return record
+         */
+        @Nonnull MutableStorageRecord<?> getRecord() {
+            return record;
+        }
+
+        /**
+         * Get whether this entry still describes the record mapped under its key.
+         * 
+         * @param dataMap records in the entry's context
+         * 
+         * @return true iff the entry is not stale
+         */
+        boolean isCurrent(@Nonnull final Map<String, MutableStorageRecord<?>> dataMap) {
+            return dataMap.get(key) == record && Objects.equals(record.getExpiration(), expiration);
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(@Nonnull final ExpirationEntry other) {
+            return Long.compare(expiration, other.expiration);
+        }
+    }
+
 }
\ No newline at end of file
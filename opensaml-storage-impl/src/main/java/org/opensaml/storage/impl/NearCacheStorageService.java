@@ -0,0 +1,655 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.annotation.constraint.ThreadSafeAfterInit;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.collection.Pair;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * {@link StorageService} decorator that keeps a bounded local copy of records read from another
+ * {@link StorageService}, typically a remote one such as
+ * {@link org.opensaml.storage.impl.memcached.MemcachedStorageService}.
+ *
+ * <p>Records are held for at most the configured time to live, and never beyond their own expiration.
+ * Every change made through this service invalidates the affected records, and a read that races with
+ * such a change never caches what it read, nor replaces a newer version of the record. Changes made to the
+ * underlying store by other means, such as by another server, are only seen once the local copy lapses,
+ * so the time to live bounds how stale a read may be, and caching may be limited to contexts whose records
+ * are read far more often than they change.</p>
+ *
+ * @since 5.2.0
+ */
+@ThreadSafeAfterInit
+public class NearCacheStorageService extends AbstractStorageService {
+
+    /** Metric name for the counter of reads answered locally. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_HITS = "counter.hits";
+
+    /** Metric name for the counter of reads passed to the underlying store. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_MISSES = "counter.misses";
+
+    /** Underlying store. */
+    @NonnullAfterInit private StorageService storage;
+
+    /** Contexts to cache, or empty for all. */
+    @Nonnull private Set<String> cachedContexts;
+
+    /** Maximum number of records to hold. */
+    @Positive private long maxEntries;
+
+    /** Maximum time to hold a record. */
+    @Nonnull private Duration timeToLive;
+
+    /** Local copies of records. */
+    @NonnullAfterInit private Cache<CacheKey, CacheEntry> cache;
+
+    /** Source of the sequence numbers that order invalidations after reads. */
+    @Nonnull private final AtomicLong invalidationSequence;
+
+    /** Sequence number of the last invalidation of a whole context. */
+    private volatile long lastContextInvalidation;
+
+    /** Metrics Counter for reads answered locally. */
+    @Nullable private Counter counterHits;
+
+    /** Metrics Counter for reads passed to the underlying store. */
+    @Nullable private Counter counterMisses;
+
+    /** Constructor. */
+    public NearCacheStorageService() {
+        cachedContexts = CollectionSupport.emptySet();
+        maxEntries = 10000;
+        timeToLive = Duration.ofMinutes(1);
+        invalidationSequence = new AtomicLong();
+    }
+
+    /**
+     * Get the underlying store.
+     *
+     * @return the underlying store
+     */
+    @NonnullAfterInit public StorageService getStorage() {
+        return storage;
+    }
+
+    /**
+     * Set the underlying store.
+     *
+     * @param storageService underlying store to use
+     */
+    public void setStorage(@Nonnull final StorageService storageService) {
+        checkSetterPreconditions();
+
+        storage = Constraint.isNotNull(storageService, "StorageService cannot be null");
+        Constraint.isTrue(storage.getCapabilities().isServerSide(), "StorageService cannot be client-side");
+    }
+
+    /**
+     * Set the contexts whose records to cache.
+     *
+     * <p>Defaults to all contexts.</p>
+     *
+     * @param contexts contexts to cache, or empty for all
+     */
+    public void setCachedContexts(@Nullable final Collection<String> contexts) {
+        checkSetterPreconditions();
+
+        cachedContexts = CollectionSupport.copyToSet(StringSupport.normalizeStringCollection(contexts));
+    }
+
+    /**
+     * Set the maximum number of records to hold.
+     *
+     * <p>Defaults to 10000.</p>
+     *
+     * @param max maximum number of records
+     */
+    public void setMaxEntries(@Positive final long max) {
+        checkSetterPreconditions();
+
+        maxEntries = Constraint.isGreaterThan(0, max, "Maximum number of entries must be greater than zero");
+    }
+
+    /**
+     * Set the maximum time to hold a record, which is further limited by the record's expiration.
+     *
+     * <p>Defaults to 1 minute.</p>
+     *
+     * @param ttl maximum time to hold a record
+     */
+    public void setTimeToLive(@Nonnull final Duration ttl) {
+        checkSetterPreconditions();
+
+        Constraint.isNotNull(ttl, "Time to live cannot be null");
+        Constraint.isFalse(ttl.isNegative() || ttl.isZero(), "Time to live must be greater than zero");
+        timeToLive = ttl;
+    }
+
+    /**
+     * Get the number of records currently held, including markers of recent invalidations.
+     *
+     * @return approximate number of records held
+     */
+    public long getSize() {
+        checkComponentActive();
+        return cache.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        if (storage == null) {
+            throw new ComponentInitializationException("StorageService cannot be null");
+        }
+
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(timeToLive.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+
+        final MetricRegistry metricRegistry = MetricsSupport.getMetricRegistry();
+        if (metricRegistry != null) {
+            final String baseName = MetricRegistry.name(getClass().getName(), getId());
+            counterHits = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_HITS));
+            counterMisses = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_MISSES));
+        }
+
+        super.doInitialize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        super.doDestroy();
+        if (cache != null) {
+            cache.invalidateAll();
+            cache = null;
+        }
+        counterHits = null;
+        counterMisses = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+            @Override
+            public void run() {
+                final Cache<CacheKey, CacheEntry> c = cache;
+                if (c != null) {
+                    c.cleanUp();
+                }
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public StorageCapabilities getCapabilities() {
+        return storage.getCapabilities();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getContextSize() {
+        return storage.getCapabilities().getContextSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getKeySize() {
+        return storage.getCapabilities().getKeySize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getValueSize() {
+        return storage.getCapabilities().getValueSize();
+    }
+
+    /** {@inheritDoc} */
+    public boolean isServerSide() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isClustered() {
+        return storage.getCapabilities().isClustered();
+    }
+
+    /** {@inheritDoc} */
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        final boolean result = storage.create(context, key, value, expiration);
+        invalidate(context, key);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        if (!isCached(context)) {
+            return storage.read(context, key);
+        }
+
+        final CacheKey cacheKey = new CacheKey(context, key);
+        final StorageRecord<T> cached = lookup(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long ticket = invalidationSequence.get();
+        final StorageRecord<T> record = storage.read(context, key);
+        if (record != null) {
+            populate(cacheKey, record, ticket);
+        }
+        return record;
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public <T> Pair<Long, StorageRecord<T>> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Positive final long version) throws IOException {
+        if (!isCached(context)) {
+            return storage.read(context, key, version);
+        }
+
+        final CacheKey cacheKey = new CacheKey(context, key);
+        final StorageRecord<T> cached = lookup(cacheKey);
+        if (cached != null) {
+            return new Pair<>(cached.getVersion(), cached.getVersion() == version ? null : cached);
+        }
+
+        final long ticket = invalidationSequence.get();
+        final Pair<Long, StorageRecord<T>> result = storage.read(context, key, version);
+        final StorageRecord<T> record = result.getSecond();
+        if (record != null) {
+            populate(cacheKey, record, ticket);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Records held locally are returned directly, and the rest are read from the underlying store
+     * in a single batch.</p>
+     */
+    @Override
+    @Nonnull public <T> Map<String, StorageRecord<T>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        if (!isCached(context)) {
+            return storage.readAll(context, keys);
+        }
+
+        final Map<String, StorageRecord<T>> records = new HashMap<>(keys.size());
+        final List<String> misses = new ArrayList<>();
+        for (final String key : keys) {
+            final StorageRecord<T> cached = lookup(new CacheKey(context, key));
+            if (cached != null) {
+                records.put(key, cached);
+            } else {
+                misses.add(key);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            final long ticket = invalidationSequence.get();
+            final Map<String, StorageRecord<T>> fetched = storage.readAll(context, misses);
+            for (final Map.Entry<String, StorageRecord<T>> entry : fetched.entrySet()) {
+                populate(new CacheKey(context, entry.getKey()), entry.getValue(), ticket);
+            }
+            records.putAll(fetched);
+        }
+        return records;
+    }
+
+    /** {@inheritDoc} */
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return storage.update(context, key, value, expiration);
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public Long updateWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable @Positive final Long expiration) throws IOException, VersionMismatchException {
+        try {
+            return storage.updateWithVersion(version, context, key, value, expiration);
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return storage.updateExpiration(context, key, expiration);
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        try {
+            return storage.delete(context, key);
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean deleteWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        try {
+            return storage.deleteWithVersion(version, context, key);
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        try {
+            return storage.createAll(context, values, expiration);
+        } finally {
+            values.keySet().forEach(key -> invalidate(context, key));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        try {
+            return storage.deleteAll(context, keys);
+        } finally {
+            keys.forEach(key -> invalidate(context, key));
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        storage.reap(context);
+    }
+
+    /** {@inheritDoc} */
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        try {
+            storage.updateContextExpiration(context, expiration);
+        } finally {
+            invalidateContext(context);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        try {
+            storage.deleteContext(context);
+        } finally {
+            invalidateContext(context);
+        }
+    }
+
+    /**
+     * Get whether a context's records are cached.
+     *
+     * @param context a storage context label
+     *
+     * @return true iff the context's records are cached
+     */
+    private boolean isCached(@Nonnull final String context) {
+        return cachedContexts.isEmpty() || cachedContexts.contains(context);
+    }
+
+    /**
+     * Return a record held locally, counting the outcome.
+     *
+     * @param <T> type of record
+     * @param cacheKey identifies the record
+     *
+     * @return the record, or null if it is not held or has expired
+     */
+    @Nullable private <T> StorageRecord<T> lookup(@Nonnull final CacheKey cacheKey) {
+        final CacheEntry entry = cache.getIfPresent(cacheKey);
+        if (entry != null) {
+            final StorageRecord<?> record = entry.getRecord();
+            if (record != null && !record.isExpired(System.currentTimeMillis())) {
+                increment(counterHits);
+                return (StorageRecord<T>) record;
+            }
+        }
+        increment(counterMisses);
+        return null;
+    }
+
+    /**
+     * Hold a copy of a record read from the underlying store, unless the record has been invalidated since
+     * the read began or a newer version is already held.
+     *
+     * @param cacheKey identifies the record
+     * @param record the record read
+     * @param ticket value of the invalidation sequence before the read began
+     */
+    private void populate(@Nonnull final CacheKey cacheKey, @Nonnull final StorageRecord<?> record,
+            final long ticket) {
+        final CachedStorageRecord<?> copy = new CachedStorageRecord<>(record);
+        cache.asMap().compute(cacheKey, (k, existing) -> {
+            if (lastContextInvalidation > ticket) {
+                return existing;
+            } else if (existing == null) {
+                return new CacheEntry(copy, 0);
+            }
+
+            final StorageRecord<?> held = existing.getRecord();
+            if (held == null) {
+                return existing.getSequence() > ticket ? existing : new CacheEntry(copy, 0);
+            } else if (held.getVersion() >= copy.getVersion() && !held.isExpired(System.currentTimeMillis())) {
+                return existing;
+            }
+            return new CacheEntry(copy, 0);
+        });
+    }
+
+    /**
+     * Discard any local copy of a record, leaving a marker that prevents reads that began earlier from
+     * replacing it.
+     *
+     * @param context a storage context label
+     * @param key a key unique to context
+     */
+    private void invalidate(@Nonnull final String context, @Nonnull final String key) {
+        if (isCached(context)) {
+            cache.put(new CacheKey(context, key), new CacheEntry(null, invalidationSequence.incrementAndGet()));
+        }
+    }
+
+    /**
+     * Discard the local copies of all the records in a context.
+     *
+     * @param context a storage context label
+     */
+    private void invalidateContext(@Nonnull final String context) {
+        if (isCached(context)) {
+            lastContextInvalidation = invalidationSequence.incrementAndGet();
+            cache.asMap().keySet().removeIf(k -> k.getContext().equals(context));
+        }
+    }
+
+    /**
+     * Increment a counter if it is in use.
+     *
+     * @param counter counter to increment
+     */
+    private void increment(@Nullable final Counter counter) {
+        if (counter != null) {
+            counter.inc();
+        }
+    }
+
+    /**
+     * Identifies a record within the cache.
+     */
+    private static final class CacheKey {
+
+        /** Storage context label. */
+        @Nonnull private final String context;
+
+        /** Key unique to context. */
+        @Nonnull private final String key;
+
+        /**
+         * Constructor.
+         *
+         * @param ctx a storage context label
+         * @param k a key unique to context
+         */
+        CacheKey(@Nonnull final String ctx, @Nonnull final String k) {
+            context = ctx;
+            key = k;
+        }
+
+        /**
+         * Get the storage context label.
+         *
+         * @return the context
+         */
+        @Nonnull String getContext() {
+            return context;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return 31 * context.hashCode() + key.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (obj instanceof CacheKey other) {
+                return context.equals(other.context) && key.equals(other.key);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A local copy of a record, or a marker left by an invalidation.
+     */
+    private static final class CacheEntry {
+
+        /** The record, or null for an invalidation marker. */
+        @Nullable private final StorageRecord<?> record;
+
+        /** Sequence number of the invalidation. */
+        private final long sequence;
+
+        /**
+         * Constructor.
+         *
+         * @param rec the record, or null for an invalidation marker
+         * @param seq sequence number of the invalidation
+         */
+        CacheEntry(@Nullable final StorageRecord<?> rec, final long seq) {
+            record = rec;
+            sequence = seq;
+        }
+
+        /**
+         * Get the record.
+         *
+         * @return the record, or null for an invalidation marker
+         */
+        @Nullable StorageRecord<?> getRecord() {
+            return record;
+        }
+
+        /**
+         * Get the sequence number of the invalidation.
+         *
+         * @return the sequence number
+         */
+        long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * Private copy of a record, so that callers cannot observe changes made to the original by the
+     * underlying store.
+     *
+     * @param <T> type of record
+     */
+    private static final class CachedStorageRecord<T> extends StorageRecord<T> {
+
+        /**
+         * Constructor.
+         *
+         * @param rec record to copy
+         */
+        CachedStorageRecord(@Nonnull final StorageRecord<?> rec) {
+            super(rec.getValue(), rec.getExpiration());
+            setVersion(rec.getVersion());
+        }
+    }
+
+}
@@ -0,0 +1,1113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.collection.Pair;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.LoggerFactory;
+
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+
+/**
+ * Implementation of {@link EnumeratableStorageService} that stores data in-memory, outside the Java heap,
+ * with no persistence.
+ *
+ * <p>Records are written into fixed-size blocks carved from direct {@link ByteBuffer} slabs, chaining
+ * as many blocks as a record needs, and are located through an open-addressing hash table built from
+ * primitive arrays. Large numbers of small records, such as replay cache and artifact entries, therefore
+ * do not add to the object graph the garbage collector has to trace; objects are only created for the
+ * duration of a call.</p>
+ *
+ * <p>Total record storage is bounded by a memory budget, which is allocated lazily a slab at a time. When
+ * the budget is exhausted, expired records are purged, and if there is still no room the operation fails
+ * with an {@link IOException}. The maximum value size reported by {@link StorageCapabilities} is reduced
+ * to what the budget could hold if necessary.</p>
+ *
+ * @since 5.2.0
+ */
+public class OffHeapStorageService extends AbstractStorageService
+        implements EnumeratableStorageService, StorageCapabilities {
+
+    /** Default memory budget, 64 megabytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /** Default block size in bytes. */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    /** Smallest permitted block size in bytes. */
+    private static final int MIN_BLOCK_SIZE = 64;
+
+    /** Target size of a slab in bytes. */
+    private static final int SLAB_SIZE = 16 * 1024 * 1024;
+
+    /** Initial size of the hash table. */
+    private static final int INITIAL_TABLE_SIZE = 1024;
+
+    /** Offset of the next block number in every block, -1 at the end of a chain. */
+    private static final int NEXT = 0;
+
+    /** Offset of the record version in the first block of a chain. */
+    private static final int VERSION = 4;
+
+    /** Offset of the record expiration in the first block of a chain. */
+    private static final int EXPIRATION = 12;
+
+    /** Offset of the context length in the first block of a chain. */
+    private static final int CONTEXT_LENGTH = 20;
+
+    /** Offset of the key length in the first block of a chain. */
+    private static final int KEY_LENGTH = 24;
+
+    /** Offset of the value length in the first block of a chain. */
+    private static final int VALUE_LENGTH = 28;
+
+    /** Offset of the record flags in the first block of a chain. */
+    private static final int FLAGS = 32;
+
+    /** Offset of character data in the first block of a chain. */
+    private static final int FIRST_DATA = 36;
+
+    /** Offset of character data in subsequent blocks of a chain. */
+    private static final int DATA = 4;
+
+    /** Flag indicating the record has an expiration. */
+    private static final int FLAG_EXPIRES = 1;
+
+    /** Hash table marker for an unused slot. */
+    private static final int EMPTY = 0;
+
+    /** Hash table marker for a slot whose record was removed. */
+    private static final int TOMBSTONE = -1;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(OffHeapStorageService.class);
+
+    /** Memory budget for record storage in bytes. */
+    @Positive private long memoryBudget;
+
+    /** Size of a block in bytes. */
+    @Positive private int blockSize;
+
+    /** A shared lock to synchronize access. */
+    @NonnullAfterInit private ReadWriteLock lock;
+
+    /** Slabs of blocks, allocated on demand. */
+    @NonnullAfterInit private ByteBuffer[] slabs;
+
+    /** Number of blocks per slab. */
+    private int blocksPerSlab;
+
+    /** Number of blocks the budget allows. */
+    private int totalBlocks;
+
+    /** Number of blocks ever handed out. */
+    private int highWater;
+
+    /** Head of the list of released blocks, or -1. */
+    private int freeHead;
+
+    /** Number of blocks on the free list. */
+    private int freeCount;
+
+    /** Hash table of first block numbers plus one, or {@link #EMPTY} or {@link #TOMBSTONE}. */
+    @NonnullAfterInit private int[] table;
+
+    /** Hashes of the records in {@link #table}. */
+    @NonnullAfterInit private int[] hashes;
+
+    /** Number of records in the table. */
+    private int live;
+
+    /** Number of tombstones in the table. */
+    private int tombstones;
+
+    /** Constructor. */
+    public OffHeapStorageService() {
+        memoryBudget = DEFAULT_MEMORY_BUDGET;
+        blockSize = DEFAULT_BLOCK_SIZE;
+        setContextSize(Integer.MAX_VALUE);
+        setKeySize(Integer.MAX_VALUE);
+        setValueSize(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the memory budget for record storage.
+     *
+     * @return budget in bytes
+     */
+    @Positive public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the memory budget for record storage.
+     *
+     * @param budget budget in bytes
+     */
+    public void setMemoryBudget(@Positive final long budget) {
+        checkSetterPreconditions();
+
+        memoryBudget = Constraint.isGreaterThan(0, budget, "Memory budget must be greater than zero");
+    }
+
+    /**
+     * Get the size of the blocks records are stored in.
+     *
+     * @return block size in bytes
+     */
+    @Positive public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Set the size of the blocks records are stored in.
+     *
+     * <p>Each record occupies at least one block, so this should approximate the size of a typical record,
+     * which takes 36 bytes plus two bytes per character of context, key and value.</p>
+     *
+     * @param size block size in bytes, even and at least 64
+     */
+    public void setBlockSize(@Positive final int size) {
+        checkSetterPreconditions();
+
+        Constraint.isGreaterThan(MIN_BLOCK_SIZE - 1, size, "Block size must be at least " + MIN_BLOCK_SIZE);
+        Constraint.isTrue(size % 2 == 0, "Block size must be even");
+        blockSize = size;
+    }
+
+    /**
+     * Get the number of bytes currently occupied by records.
+     *
+     * @return bytes in use
+     */
+    public long getMemoryInUse() {
+        final Lock readLock = getLock().readLock();
+        try {
+            readLock.lock();
+            return (long) (highWater - freeCount) * blockSize;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean isServerSide() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isClustered() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        final long blocks = memoryBudget / blockSize;
+        if (blocks < 1 || blocks > Integer.MAX_VALUE) {
+            throw new ComponentInitializationException("Memory budget must allow between 1 and "
+                    + Integer.MAX_VALUE + " blocks");
+        }
+        totalBlocks = (int) blocks;
+        blocksPerSlab = Math.max(1, Math.min(totalBlocks, SLAB_SIZE / blockSize));
+        slabs = new ByteBuffer[(totalBlocks + blocksPerSlab - 1) / blocksPerSlab];
+        highWater = 0;
+        freeHead = -1;
+        freeCount = 0;
+        table = new int[INITIAL_TABLE_SIZE];
+        hashes = new int[INITIAL_TABLE_SIZE];
+        live = 0;
+        tombstones = 0;
+        lock = new ReentrantReadWriteLock(true);
+
+        // A lone record could use every block, less the header space its first block gives up.
+        final long maxChars = ((long) totalBlocks * (blockSize - DATA) - (FIRST_DATA - DATA)) / 2;
+        if (getValueSize() > maxChars) {
+            setValueSize((int) Math.max(1, maxChars));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        // Direct buffers are released once unreachable.
+        slabs = null;
+        table = null;
+        hashes = null;
+        lock = null;
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+
+            final long now = System.currentTimeMillis();
+            final int hash = hash(context, key);
+            final int slot = findSlot(context, key, hash);
+            if (slot >= 0) {
+                // Not yet expired?
+                if (isValid(table[slot] - 1, now)) {
+                    return false;
+                }
+
+                // It's dead, so we can just remove it now and create the new record.
+                removeSlot(slot);
+            }
+
+            final int head = writeRecord(context, key, value, expiration, 1, now);
+            insert(head, hash);
+            log.trace("Inserted record '{}' in context '{}' with expiration '{}'",
+                    new Object[] { key, context, expiration });
+            return true;
+
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        return this.<T>readImpl(context, key, null).getSecond();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public <T> Pair<Long, StorageRecord<T>> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, final long version) throws IOException {
+        return readImpl(context, key, version);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, value, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public Long updateWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+        return updateImpl(version, context, key, value, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, null, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean deleteWithVersion(final long version, @Nonnull final String context, @Nonnull final String key)
+            throws IOException, VersionMismatchException {
+        return deleteImpl(version, context, key);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        try {
+            return deleteImpl(null, context, key);
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by delete.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+
+            final long now = System.currentTimeMillis();
+            for (final int entry : table) {
+                if (entry > 0 && matchesContext(entry - 1, context) && isValid(entry - 1, now)) {
+                    setExpiration(entry - 1, expiration);
+                }
+            }
+            log.debug("Updated expiration of valid records in context '{}' to '{}'", context, expiration);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            for (int slot = 0; slot < table.length; slot++) {
+                if (table[slot] > 0 && matchesContext(table[slot] - 1, context)) {
+                    removeSlot(slot);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        log.debug("Deleted context '{}'", context);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+            reapWithLock(context, System.currentTimeMillis());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public Iterable<String> getContextKeys(@Nonnull @NotEmpty final String context,
+            @Nullable final String prefix) throws IOException {
+        final Lock readLock = getLock().readLock();
+
+        try {
+            readLock.lock();
+
+            final long now = System.currentTimeMillis();
+            final List<String> keys = new ArrayList<>();
+            for (final int entry : table) {
+                if (entry > 0 && matchesContext(entry - 1, context) && isValid(entry - 1, now)) {
+                    final String key = new Cursor(entry - 1).skip(context.length()).getString(
+                            getInt(entry - 1, KEY_LENGTH));
+                    if (prefix == null || key.startsWith(prefix)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            return CollectionSupport.copyToList(keys);
+
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                log.debug("Running cleanup task");
+
+                final int purged;
+                final Lock writeLock = getLock().writeLock();
+                try {
+                    writeLock.lock();
+                    purged = reapWithLock(null, System.currentTimeMillis());
+                } finally {
+                    writeLock.unlock();
+                }
+
+                if (purged > 0) {
+                    log.debug("Purged {} expired record(s) from storage", purged);
+                } else {
+                    log.debug("No expired records found in storage");
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the shared lock to synchronize access.
+     *
+     * @return shared lock
+     */
+    @Nonnull private ReadWriteLock getLock() {
+        checkComponentActive();
+        assert lock != null;
+        return lock;
+    }
+
+    /**
+     * Internal method to implement read functions.
+     *
+     * @param <T>           type of object
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param version       only return record if newer than optionally supplied version
+     *
+     * @return  a pair consisting of the version of the record read back, if any, and the record itself
+     * @throws IOException  if errors occur in the read process
+     */
+    @Nonnull private <T> Pair<Long,StorageRecord<T>> readImpl(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final Long version) throws IOException {
+
+        final Lock readLock = getLock().readLock();
+        try {
+            readLock.lock();
+
+            final int slot = findSlot(context, key, hash(context, key));
+            if (slot < 0) {
+                log.debug("Read failed, key '{}' not found in context '{}'", key, context);
+                return new Pair<>();
+            }
+
+            final int head = table[slot] - 1;
+            if (!isValid(head, System.currentTimeMillis())) {
+                log.debug("Read failed, key '{}' expired in context '{}'", key, context);
+                return new Pair<>();
+            }
+
+            final long recordVersion = getLong(head, VERSION);
+            if (version != null && recordVersion == version) {
+                // Nothing's changed, so just echo back the version.
+                return new Pair<>(version, null);
+            }
+
+            final String value = new Cursor(head).skip(context.length() + key.length()).getString(
+                    getInt(head, VALUE_LENGTH));
+            return new Pair<>(recordVersion, new OffHeapRecord<>(value, getExpiration(head), recordVersion));
+
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Internal method to implement update functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         updated value
+     * @param expiration    expiration for record. or null
+     *
+     * @return the version of the record after update, null if no record exists
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    @Nullable private Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+
+            final int slot = findSlot(context, key, hash(context, key));
+            if (slot < 0) {
+                log.debug("Update failed, key '{}' not found in context '{}'", key, context);
+                return null;
+            }
+
+            final long now = System.currentTimeMillis();
+            final int head = table[slot] - 1;
+            if (!isValid(head, now)) {
+                log.debug("Update failed, key '{}' expired in context '{}'", key, context);
+                return null;
+            }
+
+            final long recordVersion = getLong(head, VERSION);
+            if (version != null && version != recordVersion) {
+                // Caller is out of sync.
+                throw new VersionMismatchException();
+            }
+
+            final long newVersion;
+            if (value != null) {
+                // Write the new chain before releasing the old one, so a failure leaves the record intact.
+                // Any purge it triggers uses the same time, so it cannot remove the record being updated.
+                newVersion = recordVersion + 1;
+                final int newHead = writeRecord(context, key, value, expiration, newVersion, now);
+                if (table[slot] != head + 1) {
+                    freeChain(newHead);
+                    log.debug("Update failed, key '{}' was purged from context '{}'", key, context);
+                    return null;
+                }
+                table[slot] = newHead + 1;
+                freeChain(head);
+            } else {
+                newVersion = recordVersion;
+                setExpiration(head, expiration);
+            }
+
+            log.trace("Updated record '{}' in context '{}' with expiration '{}'",
+                    new Object[] { key, context, expiration });
+            return newVersion;
+
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Internal method to implement delete functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     *
+     * @return true iff the record existed and was deleted
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    private boolean deleteImpl(@Nullable @Positive final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+
+        final Lock writeLock = getLock().writeLock();
+
+        try {
+            writeLock.lock();
+
+            final int slot = findSlot(context, key, hash(context, key));
+            if (slot < 0) {
+                log.debug("Deleting record '{}' in context '{}'....key not found", key, context);
+                return false;
+            } else if (version != null && getLong(table[slot] - 1, VERSION) != version) {
+                throw new VersionMismatchException();
+            } else {
+                removeSlot(slot);
+                log.trace("Deleted record '{}' in context '{}'", key, context);
+                return true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove expired records.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the write lock.</p>
+     *
+     * @param context   context to reap, or null for all
+     * @param now       time at which to consider records expired
+     *
+     * @return number of records removed
+     */
+    private int reapWithLock(@Nullable final String context, final long now) {
+        int purged = 0;
+        for (int slot = 0; slot < table.length; slot++) {
+            final int head = table[slot] - 1;
+            if (head >= 0 && !isValid(head, now) && (context == null || matchesContext(head, context))) {
+                removeSlot(slot);
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Compute the table hash of a record.
+     *
+     * @param context   a storage context label
+     * @param key       a key unique to context
+     *
+     * @return hash
+     */
+    private static int hash(@Nonnull final String context, @Nonnull final String key) {
+        final int h = context.hashCode() * 31 + key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Locate the table slot holding a record.
+     *
+     * @param context   a storage context label
+     * @param key       a key unique to context
+     * @param hash      hash of the context and key
+     *
+     * @return the slot, or -1
+     */
+    private int findSlot(@Nonnull final String context, @Nonnull final String key, final int hash) {
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            final int entry = table[slot];
+            if (entry == EMPTY) {
+                return -1;
+            } else if (entry != TOMBSTONE && hashes[slot] == hash && matches(entry - 1, context, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Add a record to the table, which must not already contain it.
+     *
+     * @param head  first block of the record
+     * @param hash  hash of the record's context and key
+     */
+    private void insert(final int head, final int hash) {
+        if ((live + tombstones + 1) * 4L > table.length * 3L) {
+            rehash();
+        }
+
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (table[slot] == TOMBSTONE) {
+            tombstones--;
+        }
+        table[slot] = head + 1;
+        hashes[slot] = hash;
+        live++;
+    }
+
+    /**
+     * Remove the record in a table slot and release its blocks.
+     *
+     * @param slot the slot
+     */
+    private void removeSlot(final int slot) {
+        freeChain(table[slot] - 1);
+        table[slot] = TOMBSTONE;
+        live--;
+        tombstones++;
+    }
+
+    /**
+     * Rebuild the table without tombstones, growing it if it is more than a quarter full.
+     */
+    private void rehash() {
+        int size = table.length;
+        while ((live + 1) * 4L > size) {
+            size *= 2;
+        }
+
+        final int[] oldTable = table;
+        final int[] oldHashes = hashes;
+        table = new int[size];
+        hashes = new int[size];
+        tombstones = 0;
+
+        final int mask = size - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] > 0) {
+                int slot = oldHashes[i] & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = oldTable[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    /**
+     * Allocate a chain of blocks and write a record into it.
+     *
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         value to store
+     * @param expiration    expiration for record, or null
+     * @param version       version of record
+     * @param now           time at which to consider records expired if space must be reclaimed
+     *
+     * @return first block of the chain
+     *
+     * @throws IOException if the memory budget is exhausted
+     */
+    private int writeRecord(@Nonnull final String context, @Nonnull final String key, @Nonnull final String value,
+            @Nullable final Long expiration, final long version, final long now) throws IOException {
+
+        final long chars = (long) context.length() + key.length() + value.length();
+        final long bytes = FIRST_DATA + 2 * chars;
+        final long needed = bytes <= blockSize ? 1 : 1 + (bytes - blockSize + blockSize - DATA - 1) / (blockSize - DATA);
+
+        if (needed > availableBlocks()) {
+            final int purged = reapWithLock(null, now);
+            log.debug("Memory budget exhausted, purged {} expired record(s)", purged);
+            if (needed > availableBlocks()) {
+                throw new IOException("Memory budget of " + memoryBudget + " bytes exhausted");
+            }
+        }
+
+        // Allocate back to front so each block can be linked to its successor.
+        int head = -1;
+        for (long i = 0; i < needed; i++) {
+            final int block = allocateBlock();
+            putInt(block, NEXT, head);
+            head = block;
+        }
+
+        putLong(head, VERSION, version);
+        putInt(head, CONTEXT_LENGTH, context.length());
+        putInt(head, KEY_LENGTH, key.length());
+        putInt(head, VALUE_LENGTH, value.length());
+        setExpiration(head, expiration);
+
+        new Cursor(head).putString(context).putString(key).putString(value);
+        return head;
+    }
+
+    /**
+     * Get the number of blocks that can still be allocated.
+     *
+     * @return free blocks
+     */
+    private int availableBlocks() {
+        return totalBlocks - highWater + freeCount;
+    }
+
+    /**
+     * Take a block from the free list or from unused budget.
+     *
+     * <p>The caller must have checked {@link #availableBlocks()}.</p>
+     *
+     * @return the block number
+     */
+    private int allocateBlock() {
+        if (freeHead >= 0) {
+            final int block = freeHead;
+            freeHead = getInt(block, NEXT);
+            freeCount--;
+            return block;
+        }
+
+        final int block = highWater++;
+        final int slab = block / blocksPerSlab;
+        if (slabs[slab] == null) {
+            final int blocks = Math.min(blocksPerSlab, totalBlocks - slab * blocksPerSlab);
+            slabs[slab] = ByteBuffer.allocateDirect(blocks * blockSize);
+        }
+        return block;
+    }
+
+    /**
+     * Return a chain of blocks to the free list.
+     *
+     * @param head first block of the chain
+     */
+    private void freeChain(final int head) {
+        int block = head;
+        while (block >= 0) {
+            final int next = getInt(block, NEXT);
+            putInt(block, NEXT, freeHead);
+            freeHead = block;
+            freeCount++;
+            block = next;
+        }
+    }
+
+    /**
+     * Get whether a record is valid with respect to the supplied time.
+     *
+     * @param head first block of the record
+     * @param now time to evaluate expiration against
+     *
+     * @return true iff the record is non-expired
+     */
+    private boolean isValid(final int head, final long now) {
+        return (getInt(head, FLAGS) & FLAG_EXPIRES) == 0 || now < getLong(head, EXPIRATION);
+    }
+
+    /**
+     * Get the expiration of a record.
+     *
+     * @param head first block of the record
+     *
+     * @return expiration, or null
+     */
+    @Nullable private Long getExpiration(final int head) {
+        return (getInt(head, FLAGS) & FLAG_EXPIRES) == 0 ? null : getLong(head, EXPIRATION);
+    }
+
+    /**
+     * Set the expiration of a record.
+     *
+     * @param head first block of the record
+     * @param expiration expiration, or null
+     */
+    private void setExpiration(final int head, @Nullable final Long expiration) {
+        if (expiration != null) {
+            putLong(head, EXPIRATION, expiration);
+            putInt(head, FLAGS, FLAG_EXPIRES);
+        } else {
+            putLong(head, EXPIRATION, 0);
+            putInt(head, FLAGS, 0);
+        }
+    }
+
+    /**
+     * Get whether a record has the given context and key.
+     *
+     * @param head      first block of the record
+     * @param context   a storage context label
+     * @param key       a key unique to context
+     *
+     * @return true iff the record matches
+     */
+    private boolean matches(final int head, @Nonnull final String context, @Nonnull final String key) {
+        return getInt(head, CONTEXT_LENGTH) == context.length()
+                && getInt(head, KEY_LENGTH) == key.length()
+                && new Cursor(head).matches(context) && new Cursor(head).skip(context.length()).matches(key);
+    }
+
+    /**
+     * Get whether a record belongs to the given context.
+     *
+     * @param head      first block of the record
+     * @param context   a storage context label
+     *
+     * @return true iff the record matches
+     */
+    private boolean matchesContext(final int head, @Nonnull final String context) {
+        return getInt(head, CONTEXT_LENGTH) == context.length() && new Cursor(head).matches(context);
+    }
+
+    /**
+     * Get a long from a block.
+     *
+     * @param block block number
+     * @param offset offset within the block
+     *
+     * @return the value
+     */
+    private long getLong(final int block, final int offset) {
+        return slab(block).getLong(position(block, offset));
+    }
+
+    /**
+     * Get an integer from a block.
+     *
+     * @param block block number
+     * @param offset offset within the block
+     *
+     * @return the value
+     */
+    private int getInt(final int block, final int offset) {
+        return slab(block).getInt(position(block, offset));
+    }
+
+    /**
+     * Store an integer in a block.
+     *
+     * @param block block number
+     * @param offset offset within the block
+     * @param value the value
+     */
+    private void putInt(final int block, final int offset, final int value) {
+        slab(block).putInt(position(block, offset), value);
+    }
+
+    /**
+     * Store a long in a block.
+     *
+     * @param block block number
+     * @param offset offset within the block
+     * @param value the value
+     */
+    private void putLong(final int block, final int offset, final long value) {
+        slab(block).putLong(position(block, offset), value);
+    }
+
+    /**
+     * Get the slab containing a block.
+     *
+     * @param block block number
+     *
+     * @return the slab
+     */
+    @Nonnull private ByteBuffer slab(final int block) {
+        final ByteBuffer slab = slabs[block / blocksPerSlab];
+        assert slab != null;
+        return slab;
+    }
+
+    /**
+     * Get the position within its slab of an offset within a block.
+     *
+     * @param block block number
+     * @param offset offset within the block
+     *
+     * @return slab position
+     */
+    private int position(final int block, final int offset) {
+        return (block % blocksPerSlab) * blockSize + offset;
+    }
+
+    /**
+     * Sequential access to the character data of a record, following its chain of blocks.
+     */
+    private final class Cursor {
+
+        /** Current block. */
+        private int block;
+
+        /** Offset within the current block. */
+        private int offset;
+
+        /**
+         * Constructor.
+         *
+         * @param head first block of the record
+         */
+        Cursor(final int head) {
+            block = head;
+            offset = FIRST_DATA;
+        }
+
+        /**
+         * Move to the next block if the current one is used up.
+         */
+        private void advance() {
+            if (offset == blockSize) {
+                block = getInt(block, NEXT);
+                offset = DATA;
+            }
+        }
+
+        /**
+         * Skip characters.
+         *
+         * @param count number of characters
+         *
+         * @return this cursor
+         */
+        @Nonnull Cursor skip(final int count) {
+            for (int remaining = count; remaining > 0;) {
+                advance();
+                final int step = Math.min(remaining, (blockSize - offset) / 2);
+                offset += 2 * step;
+                remaining -= step;
+            }
+            return this;
+        }
+
+        /**
+         * Write a string.
+         *
+         * @param s string to write
+         *
+         * @return this cursor
+         */
+        @Nonnull Cursor putString(@Nonnull final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                advance();
+                slab(block).putChar(position(block, offset), s.charAt(i));
+                offset += 2;
+            }
+            return this;
+        }
+
+        /**
+         * Read a string.
+         *
+         * @param length number of characters
+         *
+         * @return the string
+         */
+        @Nonnull String getString(final int length) {
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                advance();
+                chars[i] = slab(block).getChar(position(block, offset));
+                offset += 2;
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Compare the next characters with a string.
+         *
+         * @param s string to compare
+         *
+         * @return true iff the characters match
+         */
+        boolean matches(@Nonnull final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                advance();
+                if (slab(block).getChar(position(block, offset)) != s.charAt(i)) {
+                    return false;
+                }
+                offset += 2;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Storage record decoded from off-heap storage.
+     *
+     * @param <T> type of record
+     */
+    private static final class OffHeapRecord<T> extends StorageRecord<T> {
+
+        /**
+         * Constructor.
+         *
+         * @param val   value
+         * @param exp   expiration, or null if none
+         * @param ver   version
+         */
+        OffHeapRecord(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final long ver) {
+            super(val, exp);
+            setVersion(ver);
+        }
+    }
+
+}
@@ -19,13 +19,18 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.storage.ReplayCache;
 import org.opensaml.storage.StorageCapabilities;
-import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer.Context;
+
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.ThreadSafeAfterInit;
@@ -39,14 +44,27 @@ import net.shibboleth.shared.primitive.LoggerFactory;
 /**
  * {@link ReplayCache} implementation backed by a {@link StorageService}.
  * 
- * <p>This class is thread-safe and uses a synchronized method to prevent race conditions within the underlying
- * store (lacking an atomic "check and insert" operation).</p>
+ * <p>This class is thread-safe and relies on the atomicity of {@link StorageService#create(String, String, String,
+ * Long)}, which fails if an unexpired record already exists, so checks of different values never contend
+ * with one another within this class.</p>
  * 
  * @since 5.0.0
  */
 @ThreadSafeAfterInit
 public class StorageServiceReplayCache extends AbstractIdentifiableInitializableComponent implements ReplayCache {
 
+    /** Metric name for the counter of values detected as replays. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_REPLAYS = "counter.replays";
+
+    /** Metric name for the counter of values stored as not previously seen. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_NON_REPLAYS = "counter.nonReplays";
+
+    /** Metric name for the counter of storage failures. */
+    @Nonnull @NotEmpty public static final String METRIC_COUNTER_FAILURES = "counter.failures";
+
+    /** Metric name for the timer for {@link #check(String, String, Instant)}. */
+    @Nonnull @NotEmpty public static final String METRIC_TIMER_CHECK = "timer.check";
+
     /** Logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StorageServiceReplayCache.class);
 
@@ -58,6 +76,18 @@ public class StorageServiceReplayCache extends AbstractIdentifiableInitializable
     
     /** Flag controlling behavior on storage failure. */
     private boolean strict;
+
+    /** Metrics Counter for replays detected. */
+    @Nullable private Counter counterReplays;
+
+    /** Metrics Counter for values not previously seen. */
+    @Nullable private Counter counterNonReplays;
+
+    /** Metrics Counter for storage failures. */
+    @Nullable private Counter counterFailures;
+
+    /** Metrics Timer for {@link #check(String, String, Instant)}, covering time spent in the storage service. */
+    @Nullable private com.codahale.metrics.Timer timerCheck;
     
     /**
      * Get the backing store for the cache.
@@ -113,10 +143,29 @@ public class StorageServiceReplayCache extends AbstractIdentifiableInitializable
         } catch (final NoSuchAlgorithmException e) {
             throw new ComponentInitializationException(e);
         }
+
+        final MetricRegistry metricRegistry = MetricsSupport.getMetricRegistry();
+        if (metricRegistry != null) {
+            final String baseName = MetricRegistry.name(getClass().getName(), getId());
+            counterReplays = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_REPLAYS));
+            counterNonReplays = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_NON_REPLAYS));
+            counterFailures = metricRegistry.counter(MetricRegistry.name(baseName, METRIC_COUNTER_FAILURES));
+            timerCheck = metricRegistry.timer(MetricRegistry.name(baseName, METRIC_TIMER_CHECK));
+        }
     }
 
     /** {@inheritDoc} */
-    public synchronized boolean check(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String s,
+    @Override
+    protected void doDestroy() {
+        counterReplays = null;
+        counterNonReplays = null;
+        counterFailures = null;
+        timerCheck = null;
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    public boolean check(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String s,
             @Nonnull final Instant expires) {
 
         final String key;
@@ -135,22 +184,36 @@ public class StorageServiceReplayCache extends AbstractIdentifiableInitializable
             key = s;
         }
 
+        final Context contextCheck = MetricsSupport.startTimer(timerCheck);
         try {
-            final StorageRecord<?> entry = storage.read(context, key);
-            if (entry == null) {
-                log.debug("Value '{}' was not a replay, adding to cache with expiration time {}", s, expires);
-                storage.create(context, key, "x", expires.toEpochMilli());
+            // Creation fails if an unexpired record exists, so this is an atomic check-and-insert.
+            if (storage.create(context, key, "x", expires.toEpochMilli())) {
+                log.debug("Value '{}' was not a replay, added to cache with expiration time {}", s, expires);
+                increment(counterNonReplays);
                 return true;
             }
 
-            final Long existingExp = entry.getExpiration();
-            log.debug("Replay of value '{}' detected in cache, expires at {}", s,
-                    Instant.ofEpochMilli(existingExp != null ? existingExp : 0));
+            log.debug("Replay of value '{}' detected in cache", s);
+            increment(counterReplays);
             return false;
             
         } catch (final IOException e) {
             log.error("Exception reading/writing to storage service, returning {}", strict ? "failure" : "success", e);
+            increment(counterFailures);
             return !strict;
+        } finally {
+            MetricsSupport.stopTimer(contextCheck);
+        }
+    }
+
+    /**
+     * Increment a counter if it is in use.
+     * 
+     * @param counter counter to increment
+     */
+    private void increment(@Nullable final Counter counter) {
+        if (counter != null) {
+            counter.inc();
         }
     }
 
@@ -0,0 +1,725 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.impl.client.ClientStorageService.ClientStorageSource;
+import org.slf4j.Logger;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.primitive.StringSupport;
+import net.shibboleth.shared.security.DataSealerException;
+
+/**
+ * Compact binary storage for {@link ClientStorageService}.
+ *
+ * <p>Each context is encoded as a self-contained segment of length-prefixed fields and variable-length
+ * integers, deflated once it exceeds a threshold. Context names found in a configured dictionary are
+ * written as their position in it. The encoded segments are kept after loading and saving, and reused for
+ * any context whose records have not changed since, so only modified contexts are encoded again.</p>
+ *
+ * <p>Data written by {@link JSONClientStorageServiceStore} is also accepted, and rewritten in this format
+ * on the next save. Stored data identifies the whole dictionary it was written with, and is discarded by a
+ * store using any other dictionary, so any change to the dictionary, even appending to it, discards the data
+ * held by clients.</p>
+ *
+ * @since 5.2.0
+ */
+public class CompactClientStorageServiceStore extends AbstractClientStorageServiceStore {
+
+    /** Format identifier, leading the data. */
+    private static final int FORMAT = 1;
+
+    /** Flag marking a deflated context segment. */
+    private static final int FLAG_COMPRESSED = 1;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CompactClientStorageServiceStore.class);
+
+    /** Factory supplying the encoding settings. */
+    @Nonnull private final CompactClientStorageServiceStoreFactory settings;
+
+    /** Encoded segments of the contexts as last loaded or saved. */
+    @Nonnull private final Map<String, EncodedContext> encodedContexts;
+
+    /**
+     * Constructor.
+     *
+     * @param factory factory supplying the encoding settings
+     */
+    CompactClientStorageServiceStore(@Nonnull final CompactClientStorageServiceStoreFactory factory) {
+        settings = factory;
+        encodedContexts = new HashMap<>();
+    }
+
+    /** {@inheritDoc} */
+    public void doLoad(@Nullable @NotEmpty final String raw) throws IOException {
+        encodedContexts.clear();
+        if (raw == null) {
+            return;
+        }
+
+        if (raw.startsWith("{")) {
+            log.debug("Converting data stored by JSONClientStorageServiceStore");
+            final JSONClientStorageServiceStore legacy = new JSONClientStorageServiceStore();
+            legacy.doLoad(raw);
+            getContextMap().putAll(legacy.getContextMap());
+            setDirty(true);
+            return;
+        }
+
+        try {
+            final Reader reader = new Reader(Base64.getDecoder().decode(raw));
+            if (reader.readByte() != FORMAT) {
+                throw new IOException("Unsupported data format");
+            } else if (reader.readInt() != settings.getDictionaryHash()) {
+                throw new IOException("Context dictionary has changed since data was stored");
+            }
+
+            while (reader.hasRemaining()) {
+                final int start = reader.getPosition();
+                final String context = readContextName(reader);
+                final int flags = reader.readByte();
+                final byte[] segment = reader.readBytes((int) reader.readVarLong());
+                final Map<String, MutableStorageRecord<?>> records = decodeSegment(
+                        (flags & FLAG_COMPRESSED) != 0 ? inflate(segment) : segment);
+                getContextMap().put(context, records);
+                encodedContexts.put(context, new EncodedContext(reader.copy(start), records));
+            }
+            setDirty(false);
+        } catch (final IllegalArgumentException | IndexOutOfBoundsException e) {
+            log.error("Found invalid data structure while parsing context map", e);
+            throw new IOException(e);
+        } catch (final IOException e) {
+            log.error("Found invalid data structure while parsing context map", e);
+            throw e;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public ClientStorageServiceOperation save(@Nonnull final ClientStorageService storageService)
+            throws IOException {
+
+        if (!isDirty()) {
+            log.trace("{} Storage state has not been modified, save operation skipped", storageService.getLogPrefix());
+            return null;
+        }
+
+        final ClientStorageSource source = getSource();
+        if (source == null) {
+            throw new IOException("Client storage medium not set");
+        }
+
+        if (getContextMap().isEmpty()) {
+            log.trace("{} Data is empty", storageService.getLogPrefix());
+            encodedContexts.clear();
+            return new ClientStorageServiceOperation(storageService.ensureId(), storageService.getStorageName(), null,
+                    source);
+        }
+
+        final long now = System.currentTimeMillis();
+        long exp = 0L;
+        int reused = 0;
+
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream(128);
+        sink.write(FORMAT);
+        writeInt(sink, settings.getDictionaryHash());
+
+        encodedContexts.keySet().retainAll(getContextMap().keySet());
+        for (final Map.Entry<String, Map<String, MutableStorageRecord<?>>> context : getContextMap().entrySet()) {
+            EncodedContext encoded = encodedContexts.get(context.getKey());
+            if (encoded != null && encoded.isCurrent(context.getValue(), now)) {
+                reused++;
+            } else {
+                encoded = encodeContext(context.getKey(), context.getValue(), now);
+                if (encoded == null) {
+                    encodedContexts.remove(context.getKey());
+                    continue;
+                }
+                encodedContexts.put(context.getKey(), encoded);
+            }
+            sink.write(encoded.getBytes());
+            exp = Math.max(exp, encoded.getMaxExpiration());
+        }
+
+        if (encodedContexts.isEmpty()) {
+            log.trace("{} Data is empty", storageService.getLogPrefix());
+            return new ClientStorageServiceOperation(storageService.getId(), storageService.getStorageName(), null,
+                    source);
+        }
+
+        final String raw = Base64.getEncoder().withoutPadding().encodeToString(sink.toByteArray());
+
+        log.trace("{} Size of data before encryption is {}, {} of {} contexts unchanged",
+                storageService.getLogPrefix(), raw.length(), reused, encodedContexts.size());
+        try {
+            final String wrapped = storageService.getDataSealer().wrap(raw,
+                    exp > 0 ? Instant.ofEpochMilli(exp) : Instant.now().plus(Duration.ofDays(1)));
+            log.trace("{} Size of data after encryption is {}", storageService.getLogPrefix(), wrapped.length());
+            setDirty(false);
+            return new ClientStorageServiceOperation(storageService.getId(), storageService.getStorageName(),
+                    wrapped, source);
+        } catch (final DataSealerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Encode the unexpired records of a context.
+     *
+     * @param context context name
+     * @param records records in the context
+     * @param now current time
+     *
+     * @return the encoded context, or null if it has no unexpired records
+     */
+    @Nullable private EncodedContext encodeContext(@Nonnull final String context,
+            @Nonnull final Map<String, MutableStorageRecord<?>> records, final long now) {
+
+        final ByteArrayOutputStream segment = new ByteArrayOutputStream(64);
+        final Map<String, MutableStorageRecord<?>> encoded = new HashMap<>(records.size());
+        for (final Map.Entry<String, MutableStorageRecord<?>> entry : records.entrySet()) {
+            final MutableStorageRecord<?> record = entry.getValue();
+            final Long recexp = record.getExpiration();
+            if (recexp == null || recexp > now) {
+                writeString(segment, entry.getKey());
+                writeString(segment, record.getValue());
+                writeVarLong(segment, recexp != null ? recexp : 0);
+                encoded.put(entry.getKey(), record);
+            }
+        }
+        if (encoded.isEmpty()) {
+            return null;
+        }
+
+        byte[] body = segment.toByteArray();
+        int flags = 0;
+        if (body.length > settings.getCompressionThreshold()) {
+            final byte[] deflated = deflate(body);
+            if (deflated != null) {
+                body = deflated;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        final ByteArrayOutputStream entry = new ByteArrayOutputStream(body.length + context.length() + 8);
+        final int code = settings.getDictionaryCode(context);
+        writeVarLong(entry, code);
+        if (code == 0) {
+            writeString(entry, context);
+        }
+        entry.write(flags);
+        writeVarLong(entry, body.length);
+        entry.write(body, 0, body.length);
+        return new EncodedContext(entry.toByteArray(), encoded);
+    }
+
+    /**
+     * Read a context name, either literally or as its dictionary position.
+     *
+     * @param reader data source
+     *
+     * @return the context name
+     *
+     * @throws IOException if the dictionary does not contain the name
+     */
+    @Nonnull private String readContextName(@Nonnull final Reader reader) throws IOException {
+        final long code = reader.readVarLong();
+        if (code == 0) {
+            return reader.readString();
+        }
+        final String context = settings.getDictionaryEntry(code);
+        if (context == null) {
+            throw new IOException("Context dictionary entry " + code + " not found");
+        }
+        return context;
+    }
+
+    /**
+     * Decode the records of a context.
+     *
+     * @param segment encoded records
+     *
+     * @return the records
+     */
+    @Nonnull private static Map<String, MutableStorageRecord<?>> decodeSegment(@Nonnull final byte[] segment) {
+        final Reader reader = new Reader(segment);
+        final Map<String, MutableStorageRecord<?>> records = new HashMap<>();
+        while (reader.hasRemaining()) {
+            final String key = reader.readString();
+            final String value = reader.readString();
+            final long exp = reader.readVarLong();
+            records.put(key, new MutableStorageRecord<>(value, exp != 0 ? exp : null));
+        }
+        return records;
+    }
+
+    /**
+     * Deflate data.
+     *
+     * @param data data to deflate
+     *
+     * @return the deflated data, or null if deflating did not make it smaller
+     */
+    @Nullable private static byte[] deflate(@Nonnull final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buffer = new byte[data.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate data.
+     *
+     * @param data data to inflate
+     *
+     * @return the inflated data
+     *
+     * @throws IOException if the data is corrupt
+     */
+    @Nonnull private static byte[] inflate(@Nonnull final byte[] data) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            final byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                final int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed data");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (final DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param out stream to write to
+     * @param s string to write
+     */
+    private static void writeString(@Nonnull final ByteArrayOutputStream out, @Nonnull final String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write a big-endian integer.
+     *
+     * @param out stream to write to
+     * @param value value to write
+     */
+    private static void writeInt(@Nonnull final ByteArrayOutputStream out, final int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Write an unsigned variable-length integer, seven bits per byte.
+     *
+     * @param out stream to write to
+     * @param value value to write
+     */
+    private static void writeVarLong(@Nonnull final ByteArrayOutputStream out, final long value) {
+        long v = value;
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Sequential reader over encoded data.
+     */
+    private static final class Reader {
+
+        /** Data to read. */
+        @Nonnull private final byte[] data;
+
+        /** Current position. */
+        private int position;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes data to read
+         */
+        Reader(@Nonnull final byte[] bytes) {
+            data = bytes;
+        }
+
+        /**
+         * Get whether any data remains.
+         *
+         * @return true iff data remains
+         */
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        /**
+         * Get the current position.
+         *
+         * @return the current position
+         */
+        int getPosition() {
+            return position;
+        }
+
+        /**
+         * Copy the data between a previous position and the current one.
+         *
+         * @param start previous position
+         *
+         * @return the data read since that position
+         */
+        @Nonnull byte[] copy(final int start) {
+            return Arrays.copyOfRange(data, start, position);
+        }
+
+        /**
+         * Read an unsigned byte.
+         *
+         * @return the byte
+         */
+        int readByte() {
+            if (position >= data.length) {
+                throw new IndexOutOfBoundsException("Unexpected end of data");
+            }
+            return data[position++] & 0xff;
+        }
+
+        /**
+         * Read a big-endian integer.
+         *
+         * @return the integer
+         */
+        int readInt() {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        /**
+         * Read an unsigned variable-length integer.
+         *
+         * @return the integer
+         */
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Malformed variable-length integer");
+                }
+                b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Read a run of bytes.
+         *
+         * @param length number of bytes
+         *
+         * @return the bytes
+         */
+        @Nonnull byte[] readBytes(final int length) {
+            if (length < 0 || length > data.length - position) {
+                throw new IndexOutOfBoundsException("Unexpected end of data");
+            }
+            final byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        /**
+         * Read a length-prefixed UTF-8 string.
+         *
+         * @return the string
+         */
+        @Nonnull String readString() {
+            final long length = readVarLong();
+            if (length > data.length - position) {
+                throw new IndexOutOfBoundsException("Unexpected end of data");
+            }
+            final String s = new String(data, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return s;
+        }
+    }
+
+    /**
+     * The encoded form of a context, along with the state of the records it was produced from.
+     */
+    private static final class EncodedContext {
+
+        /** Encoded context. */
+        @Nonnull private final byte[] bytes;
+
+        /** Records encoded, and their versions and expirations when encoded. */
+        @Nonnull private final Map<String, RecordState> records;
+
+        /** Latest expiration of the records, or 0 if none expire. */
+        private final long maxExpiration;
+
+        /**
+         * Constructor.
+         *
+         * @param encoded encoded context
+         * @param source records encoded
+         */
+        EncodedContext(@Nonnull final byte[] encoded, @Nonnull final Map<String, MutableStorageRecord<?>> source) {
+            bytes = encoded;
+            records = new HashMap<>(source.size());
+            long exp = 0;
+            for (final Map.Entry<String, MutableStorageRecord<?>> entry : source.entrySet()) {
+                records.put(entry.getKey(), new RecordState(entry.getValue()));
+                final Long recexp = entry.getValue().getExpiration();
+                if (recexp != null) {
+                    exp = Math.max(exp, recexp);
+                }
+            }
+            maxExpiration = exp;
+        }
+
+        /**
+         * Get the encoded context.
+         *
+         * @return the encoded context
+         */
+        @Nonnull byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the latest expiration of the records.
+         *
+         * @return the latest expiration, or 0 if none expire
+         */
+        long getMaxExpiration() {
+            return maxExpiration;
+        }
+
+        /**
+         * Get whether the encoded form still matches the records of the context.
+         *
+         * @param current current records of the context
+         * @param now current time
+         *
+         * @return true iff the same records are present, unmodified and unexpired
+         */
+        boolean isCurrent(@Nonnull final Map<String, MutableStorageRecord<?>> current, final long now) {
+            if (current.size() != records.size()) {
+                return false;
+            }
+            for (final Map.Entry<String, MutableStorageRecord<?>> entry : current.entrySet()) {
+                final RecordState state = records.get(entry.getKey());
+                if (state == null || !state.matches(entry.getValue()) || entry.getValue().isExpired(now)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The identity, version and expiration of a record when it was encoded.
+     */
+    private static final class RecordState {
+
+        /** The record. */
+        @Nonnull private final MutableStorageRecord<?> record;
+
+        /** Version when encoded. */
+        private final long version;
+
+        /** Expiration when encoded. */
+        @Nullable private final Long expiration;
+
+        /**
+         * Constructor.
+         *
+         * @param rec the record
+         */
+        RecordState(@Nonnull final MutableStorageRecord<?> rec) {
+            record = rec;
+            version = rec.getVersion();
+            expiration = rec.getExpiration();
+        }
+
+        /**
+         * Get whether a record is the same, unmodified record.
+         *
+         * @param rec record to compare
+         *
+         * @return true iff the record is unchanged
+         */
+        boolean matches(@Nonnull final MutableStorageRecord<?> rec) {
+            return rec == record && rec.getVersion() == version && Objects.equals(rec.getExpiration(), expiration);
+        }
+    }
+
+    /** Factory for compact binary store. */
+    public static class CompactClientStorageServiceStoreFactory implements Factory {
+
+        /** Default size in bytes above which context segments are compressed. */
+        public static final int DEFAULT_COMPRESSION_THRESHOLD = 128;
+
+        /** Context names written by position. */
+        @Nonnull private List<String> dictionary;
+
+        /** Positions of context names, counting from 1. */
+        @Nonnull private Map<String, Integer> dictionaryIndex;
+
+        /** Identifies the dictionary in stored data. */
+        private int dictionaryHash;
+
+        /** Size in bytes above which context segments are compressed. */
+        private int compressionThreshold;
+
+        /** Constructor. */
+        public CompactClientStorageServiceStoreFactory() {
+            dictionary = CollectionSupport.emptyList();
+            dictionaryIndex = CollectionSupport.emptyMap();
+            dictionaryHash = dictionary.hashCode();
+            compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        }
+
+        /**
+         * Set the context names to write by position rather than in full.
+         *
+         * <p>Any change to the list, including appending entries, discards data stored by clients.</p>
+         *
+         * @param contexts context names
+         */
+        public void setContextDictionary(@Nullable final List<String> contexts) {
+            final List<String> names = new ArrayList<>(StringSupport.normalizeStringCollection(contexts));
+            final Map<String, Integer> index = new HashMap<>(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                Constraint.isTrue(index.putIfAbsent(names.get(i), i + 1) == null,
+                        "Context dictionary cannot contain duplicates");
+            }
+            dictionary = CollectionSupport.copyToList(names);
+            dictionaryIndex = CollectionSupport.copyToMap(index);
+            // The hash of a list of strings is specified in full, so it is stable across JVMs.
+            dictionaryHash = dictionary.hashCode();
+        }
+
+        /**
+         * Set the size in bytes above which context segments are compressed.
+         *
+         * <p>Defaults to {@link #DEFAULT_COMPRESSION_THRESHOLD}. A value of 0 disables compression.</p>
+         *
+         * @param threshold compression threshold
+         */
+        public void setCompressionThreshold(final int threshold) {
+            Constraint.isGreaterThanOrEqual(0, threshold, "Compression threshold cannot be negative");
+            compressionThreshold = threshold > 0 ? threshold : Integer.MAX_VALUE;
+        }
+
+        /**
+         * Get the size in bytes above which context segments are compressed.
+         *
+         * @return compression threshold
+         */
+        int getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        /**
+         * Get the value identifying the dictionary in stored data.
+         *
+         * @return dictionary identifier
+         */
+        int getDictionaryHash() {
+            return dictionaryHash;
+        }
+
+        /**
+         * Get the position of a context name in the dictionary.
+         *
+         * @param context context name
+         *
+         * @return position counting from 1, or 0 if not present
+         */
+        int getDictionaryCode(@Nonnull final String context) {
+            final Integer code = dictionaryIndex.get(context);
+            return code != null ? code : 0;
+        }
+
+        /**
+         * Get the context name at a position in the dictionary.
+         *
+         * @param code position counting from 1
+         *
+         * @return the context name, or null if out of range
+         */
+        @Nullable String getDictionaryEntry(final long code) {
+            return code > 0 && code <= dictionary.size() ? dictionary.get((int) code - 1) : null;
+        }
+
+        /** {@inheritDoc} */
+        @Nonnull public ClientStorageServiceStore load(@Nullable @NotEmpty final String raw,
+                @Nonnull final ClientStorageSource src) {
+            final ClientStorageServiceStore store = new CompactClientStorageServiceStore(this);
+            store.load(raw, src);
+            return store;
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl.memcached;
+
+import net.spy.memcached.CachedData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Handles conversion of {@link MemcachedStorageRecord} to a compact binary form and back, optionally
+ * compressing large values.
+ *
+ * <p>The format is identified by the memcached item flags, which carry a format version and a compression
+ * marker. The expiration is written as a variable-length integer rather than a fixed eight bytes, followed
+ * by the UTF-8 value, which is deflated when it exceeds the compression threshold and deflating makes it
+ * smaller. Items without a format version are decoded as written by {@link StorageRecordTranscoder}, so
+ * this transcoder can be introduced without discarding existing records; all servers sharing the cache
+ * must be able to read this format before any of them writes it.</p>
+ *
+ * @since 5.2.0
+ */
+public class CompactStorageRecordTranscoder extends StorageRecordTranscoder {
+
+    /** Item flags bits holding the format version. */
+    public static final int FORMAT_MASK = 0xff00;
+
+    /** Format version written by this transcoder. */
+    public static final int FORMAT_COMPACT = 0x0100;
+
+    /** Item flag marking a deflated value. */
+    public static final int FLAG_COMPRESSED = 0x0001;
+
+    /** Default size in bytes above which values are compressed. */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 2048;
+
+    /** Max size is maximum default memcached value size, 1MB. */
+    private static final int MAX_SIZE = 1024 * 1024;
+
+    /** Size in bytes above which values are compressed. */
+    private int compressionThreshold;
+
+    /** Constructor. */
+    public CompactStorageRecordTranscoder() {
+        this(DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Creates a new instance with a specific compression threshold.
+     *
+     * @param threshold size in bytes above which values are compressed, or 0 to never compress
+     */
+    public CompactStorageRecordTranscoder(final int threshold) {
+        compressionThreshold = threshold > 0 ? threshold : Integer.MAX_VALUE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CachedData encode(final MemcachedStorageRecord<?> o) {
+        final byte[] value = o.getValue().getBytes(StandardCharsets.UTF_8);
+        final Long exp = o.getExpiration();
+
+        if (value.length > compressionThreshold) {
+            final byte[] deflated = deflate(value);
+            if (deflated != null) {
+                final byte[] encoded = new byte[varLongSize(exp) + varLongSize((long) value.length) + deflated.length];
+                int pos = putVarLong(encoded, 0, exp == null ? 0 : exp);
+                pos = putVarLong(encoded, pos, value.length);
+                System.arraycopy(deflated, 0, encoded, pos, deflated.length);
+                return new CachedData(FORMAT_COMPACT | FLAG_COMPRESSED, encoded, MAX_SIZE);
+            }
+        }
+
+        final byte[] encoded = new byte[varLongSize(exp) + value.length];
+        final int pos = putVarLong(encoded, 0, exp == null ? 0 : exp);
+        System.arraycopy(value, 0, encoded, pos, value.length);
+        return new CachedData(FORMAT_COMPACT, encoded, MAX_SIZE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MemcachedStorageRecord<?> decode(final CachedData d) {
+        final int format = d.getFlags() & FORMAT_MASK;
+        if (format == 0) {
+            return super.decode(d);
+        } else if (format != FORMAT_COMPACT) {
+            throw new IllegalArgumentException("Unsupported record format " + (format >>> 8));
+        }
+
+        final byte[] bytes = d.getData();
+        final long[] exp = new long[1];
+        int pos = getVarLong(bytes, 0, exp);
+        final String value;
+        if ((d.getFlags() & FLAG_COMPRESSED) != 0) {
+            final long[] length = new long[1];
+            pos = getVarLong(bytes, pos, length);
+            value = new String(inflate(bytes, pos, (int) length[0]), StandardCharsets.UTF_8);
+        } else {
+            value = new String(bytes, pos, bytes.length - pos, StandardCharsets.UTF_8);
+        }
+        return new MemcachedStorageRecord<>(value, exp[0] == 0 ? null : exp[0]);
+    }
+
+    /**
+     * Deflate a value.
+     *
+     * @param value value to deflate
+     *
+     * @return the deflated value, or null if deflating did not make it smaller
+     */
+    private static byte[] deflate(final byte[] value) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            final byte[] buffer = new byte[value.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate a value.
+     *
+     * @param bytes buffer containing the deflated value
+     * @param offset offset of the deflated value
+     * @param length length of the inflated value
+     *
+     * @return the inflated value
+     */
+    private static byte[] inflate(final byte[] bytes, final int offset, final int length) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            final byte[] value = new byte[length];
+            int pos = 0;
+            while (pos < length && !inflater.finished()) {
+                final int n = inflater.inflate(value, pos, length - pos);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += n;
+            }
+            if (pos != length) {
+                throw new IllegalArgumentException("Truncated compressed record");
+            }
+            return value;
+        } catch (final DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed record", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Get the encoded size of an optional value.
+     *
+     * @param value value to encode, where null is encoded as 0
+     *
+     * @return the number of bytes needed
+     */
+    private static int varLongSize(final Long value) {
+        long v = value == null ? 0 : value;
+        int size = 1;
+        while ((v & ~0x7fL) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write a value as an unsigned variable-length integer, seven bits per byte.
+     *
+     * @param buffer buffer to write to
+     * @param offset offset to write at
+     * @param value value to write
+     *
+     * @return offset following the value
+     */
+    private static int putVarLong(final byte[] buffer, final int offset, final long value) {
+        long v = value;
+        int pos = offset;
+        while ((v & ~0x7fL) != 0) {
+            buffer[pos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    /**
+     * Read an unsigned variable-length integer.
+     *
+     * @param buffer buffer to read from
+     * @param offset offset to read at
+     * @param value receives the value read
+     *
+     * @return offset following the value
+     */
+    private static int getVarLong(final byte[] buffer, final int offset, final long[] value) {
+        long v = 0;
+        int shift = 0;
+        int pos = offset;
+        byte b;
+        do {
+            if (pos >= buffer.length || shift > 63) {
+                throw new IllegalArgumentException("Corrupt record header");
+            }
+            b = buffer[pos++];
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        value[0] = v;
+        return pos;
+    }
+
+}
@@ -42,8 +42,12 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -150,13 +154,34 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
      */
     public MemcachedStorageService(@Nonnull final MemcachedClient client, @Positive final int timeout,
             final boolean enableContextKeyTracking) {
+        this(client, timeout, enableContextKeyTracking, new StorageRecordTranscoder());
+    }
+
+    /**
+     * Creates a new instance with optional context key tracking and a specific record format.
+     *
+     * @param client Memcached client object. The client MUST be configured to use the binary memcached protocol,
+     *               i.e. {@link net.spy.memcached.BinaryConnectionFactory}, in order for
+     *               {@link #deleteWithVersion(long, String, String)} and {@link #deleteWithVersion(long, Object)}
+     *               to work correctly. The binary protocol is recommended for efficiency as well.
+     * @param timeout Memcached operation timeout in seconds.
+     * @param enableContextKeyTracking True to enable context key tracking, false otherwise.
+     * @param transcoder Handles conversion of records to bytes and back, e.g.
+     *                   {@link CompactStorageRecordTranscoder}. Every server sharing the cache MUST be able to
+     *                   decode the records it writes.
+     *
+     * @since 5.2.0
+     */
+    public MemcachedStorageService(@Nonnull final MemcachedClient client, @Positive final int timeout,
+            final boolean enableContextKeyTracking,
+            @Nonnull final Transcoder<MemcachedStorageRecord<?>> transcoder) {
         Constraint.isNotNull(client, "Client cannot be null");
         Constraint.isGreaterThan(0, timeout, "Operation timeout must be positive");
         memcacheClient = client;
         operationTimeout = timeout;
         trackContextKeys = enableContextKeyTracking;
         storageCapabilities = new MemcachedStorageCapabilities();
-        storageRecordTranscoder = new StorageRecordTranscoder();
+        storageRecordTranscoder = Constraint.isNotNull(transcoder, "Transcoder cannot be null");
         stringTranscoder = new StringTranscoder();
     }
 
@@ -505,6 +530,145 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
         return deleteWithVersion(version, context, key);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The context namespace is looked up once, and the reads are pipelined rather than waiting for each
+     * in turn. {@link MemcachedClient#asyncGetBulk(Collection)} is not used since it does not return the CAS
+     * values that serve as record versions.</p>
+     */
+    @Override
+    @Nonnull public <T> Map<String, StorageRecord<T>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(keys, "Keys cannot be null");
+        final Map<String, StorageRecord<T>> records = new HashMap<>(keys.size());
+        final String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            logger.debug("Namespace for context {} does not exist", context);
+            return records;
+        }
+        logger.debug("Reading {} entries for context={}", keys.size(), context);
+        final Map<String, OperationFuture<CASValue<MemcachedStorageRecord<?>>>> results =
+                new LinkedHashMap<>(keys.size());
+        try {
+            for (final String key : keys) {
+                Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+                results.put(key, memcacheClient.asyncGets(memcachedKey(namespace, key), storageRecordTranscoder));
+            }
+            for (final Map.Entry<String, OperationFuture<CASValue<MemcachedStorageRecord<?>>>> result
+                    : results.entrySet()) {
+                final CASValue<MemcachedStorageRecord<?>> record = handleAsyncResult(result.getValue());
+                if (record != null) {
+                    record.getValue().setVersion(record.getCas());
+                    records.put(result.getKey(), (StorageRecord<T>) record.getValue());
+                }
+            }
+        } catch (final RuntimeException e) {
+            throw new IOException("Memcached operation failed", e);
+        }
+        return records;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The context namespace is looked up or created once, the add operations are pipelined, and with key
+     * tracking enabled the created keys are appended to the context key list in a single operation.</p>
+     */
+    @Override
+    @Nonnull public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(values, "Values cannot be null");
+        final int expiry = MemcachedStorageRecord.expiry(expiration);
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        final Set<String> created = new HashSet<>(values.size());
+        if (values.isEmpty()) {
+            return created;
+        }
+        String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            namespace = createNamespace(context);
+        }
+        logger.debug("Creating {} new entries for context={}, exp={}", values.size(), context, expiry);
+        final Map<String, OperationFuture<Boolean>> results = new LinkedHashMap<>(values.size());
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            Constraint.isNotNull(StringSupport.trimOrNull(entry.getKey()), "Key cannot be null or empty");
+            Constraint.isNotNull(StringSupport.trimOrNull(entry.getValue()), "Value cannot be null or empty");
+            final MemcachedStorageRecord<?> record = new MemcachedStorageRecord<>(entry.getValue(), expiration);
+            results.put(entry.getKey(), memcacheClient.add(memcachedKey(namespace, entry.getKey()), expiry, record,
+                    storageRecordTranscoder));
+        }
+        final List<String> cacheKeys = new ArrayList<>(values.size());
+        for (final Map.Entry<String, OperationFuture<Boolean>> result : results.entrySet()) {
+            if (handleAsyncResult(result.getValue())) {
+                created.add(result.getKey());
+                cacheKeys.add(memcachedKey(namespace, result.getKey()));
+            }
+        }
+        if (!cacheKeys.isEmpty() && trackContextKeys) {
+            logger.debug("Tracking {} keys for context {}", cacheKeys.size(), context);
+            if (!updateContextKeyList(CTX_KEY_LIST_SUFFIX, namespace,
+                    String.join(CTX_KEY_LIST_DELIMITER, cacheKeys))) {
+                logger.debug("Failed appending {} keys to list of keys for context {}", cacheKeys.size(), context);
+                // Try to clean up records we just created
+                // Cache entry expiration will clean them up regardless
+                final List<OperationFuture<Boolean>> deletes = new ArrayList<>(cacheKeys.size());
+                for (final String cacheKey : cacheKeys) {
+                    deletes.add(memcacheClient.delete(cacheKey));
+                }
+                for (final OperationFuture<Boolean> delete : deletes) {
+                    handleAsyncResult(delete);
+                }
+                created.clear();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The context namespace is looked up once, the delete operations are pipelined, and with key
+     * tracking enabled the deleted keys are appended to the deleted key list in a single operation.</p>
+     */
+    @Override
+    @Nonnull public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull final Collection<String> keys) throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(keys, "Keys cannot be null");
+        final Set<String> deleted = new HashSet<>(keys.size());
+        final String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            logger.debug("Namespace for context {} does not exist", context);
+            return deleted;
+        }
+        logger.debug("Deleting {} entries for context={}", keys.size(), context);
+        final Map<String, OperationFuture<Boolean>> results = new LinkedHashMap<>(keys.size());
+        for (final String key : keys) {
+            Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+            results.put(key, memcacheClient.delete(memcachedKey(namespace, key)));
+        }
+        final List<String> cacheKeys = new ArrayList<>(keys.size());
+        for (final Map.Entry<String, OperationFuture<Boolean>> result : results.entrySet()) {
+            if (handleAsyncResult(result.getValue())) {
+                deleted.add(result.getKey());
+                cacheKeys.add(memcachedKey(namespace, result.getKey()));
+            }
+        }
+        if (!cacheKeys.isEmpty() && trackContextKeys) {
+            logger.debug("Noting deletion of {} keys for context {}", cacheKeys.size(), context);
+            if (!updateContextKeyList(CTX_KEY_DELETED_SUFFIX, namespace,
+                    String.join(CTX_KEY_LIST_DELIMITER, cacheKeys))) {
+                logger.debug("Failed appending {} keys to list of deleted keys for context {}", cacheKeys.size(),
+                        context);
+            }
+        }
+        return deleted;
+    }
+
     /** {@inheritDoc} */
     public void reap(@Nonnull @NotEmpty final String context) throws IOException {
         return;
@@ -675,7 +839,7 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
      * 
      * @param suffix the suffix
      * @param namespace the namespace
-     * @param key the storage key
+     * @param key the storage key, or several separated by the list delimiter
      * @return whether the update was a success
      * @throws IOException if an error occurs
      */
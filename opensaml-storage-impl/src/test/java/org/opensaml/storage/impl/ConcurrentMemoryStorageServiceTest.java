@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.opensaml.storage.testing.StorageServiceTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Test of {@link ConcurrentMemoryStorageService} implementation.
+ */
+@SuppressWarnings("null")
+public class ConcurrentMemoryStorageServiceTest extends StorageServiceTest {
+
+    /** Number of worker threads. */
+    private static final int THREADS = 8;
+
+    /** Operations per worker thread. */
+    private static final int OPERATIONS = 5000;
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected EnumeratableStorageService getStorageService() {
+        final ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.setCleanupInterval(Duration.ofSeconds(1));
+        return ss;
+    }
+
+    /**
+     * Test config.
+     *
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void validConfig() throws ComponentInitializationException {
+        final ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        ss.destroy();
+    }
+
+    /**
+     * Test that versioned updates racing on one record never lose an increment.
+     *
+     * @throws Exception on error
+     */
+    @Test
+    public void contendedVersionedUpdates() throws Exception {
+        final String context = Long.toString(random.nextLong());
+        Assert.assertTrue(shared.create(context, "counter", "0", null));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(() -> {
+                    int applied = 0;
+                    while (applied < 100) {
+                        final StorageRecord<?> rec = shared.read(context, "counter");
+                        assert rec != null;
+                        final String next = Integer.toString(Integer.parseInt(rec.getValue()) + 1);
+                        try {
+                            shared.updateWithVersion(rec.getVersion(), context, "counter", next, null);
+                            applied++;
+                        } catch (final VersionMismatchException e) {
+                            // Retry against the newer version.
+                        }
+                    }
+                    return applied;
+                }));
+            }
+            for (final Future<Integer> result : results) {
+                Assert.assertEquals(result.get().intValue(), 100);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final StorageRecord<?> rec = shared.read(context, "counter");
+        assert rec != null;
+        Assert.assertEquals(rec.getValue(), Integer.toString(THREADS * 100));
+        Assert.assertEquals(rec.getVersion(), THREADS * 100 + 1);
+    }
+
+    /**
+     * Test that a context emptied by cleanup can be reused while the cleanup task runs.
+     *
+     * @throws IOException on error
+     * @throws InterruptedException on thread interruption
+     */
+    @Test
+    public void reapAndReuse() throws IOException, InterruptedException {
+        final String context = Long.toString(random.nextLong());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(shared.create(context, Integer.toString(i), "value", System.currentTimeMillis() + 100));
+        }
+        Thread.sleep(150);
+        shared.reap(context);
+        Assert.assertFalse(shared.getContextKeys(context, null).iterator().hasNext());
+
+        Assert.assertTrue(shared.create(context, "0", "value", null));
+        Assert.assertNotNull(shared.read(context, "0"));
+    }
+
+    /**
+     * Test that a mixed workload from several threads, each on its own keys in a shared context, leaves
+     * exactly the records it did not delete.
+     *
+     * <p>Relative throughput is measured by StorageServiceBenchmark in the opensaml-benchmarks module.</p>
+     *
+     * @throws Exception on error
+     */
+    @Test
+    public void concurrentWorkload() throws Exception {
+        final String context = Long.toString(random.nextLong());
+        final AtomicInteger created = new AtomicInteger();
+        final List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = t + "-";
+            tasks.add(() -> {
+                final long expiration = System.currentTimeMillis() + 60000;
+                for (int i = 0; i < OPERATIONS; i++) {
+                    final String key = prefix + i;
+                    if (shared.create(context, key, "x", expiration)) {
+                        created.incrementAndGet();
+                    }
+                    Assert.assertNotNull(shared.read(context, key));
+                    if (i % 2 == 0) {
+                        Assert.assertTrue(shared.delete(context, key));
+                    }
+                }
+                return null;
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (final Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(created.get(), THREADS * OPERATIONS);
+        int remaining = 0;
+        for (final String key : shared.getContextKeys(context, null)) {
+            Assert.assertEquals(Integer.parseInt(key.substring(key.indexOf('-') + 1)) % 2, 1);
+            remaining++;
+        }
+        Assert.assertEquals(remaining, THREADS * OPERATIONS / 2);
+        shared.deleteContext(context);
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.testing.StorageServiceTest;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Test of {@link MappedFileStorageService} implementation.
+ */
+@SuppressWarnings("null")
+public class MappedFileStorageServiceTest extends StorageServiceTest {
+
+    /** Journal used by the shared tests. */
+    private File sharedJournal;
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected EnumeratableStorageService getStorageService() {
+        try {
+            sharedJournal = File.createTempFile("journal", ".dat");
+            sharedJournal.delete();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newService(sharedJournal);
+    }
+
+    /** Remove the shared journal. */
+    @AfterClass
+    public void deleteJournal() {
+        if (sharedJournal != null) {
+            sharedJournal.delete();
+        }
+    }
+
+    /**
+     * Test config.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void validConfig() throws ComponentInitializationException, IOException {
+        final MappedFileStorageService ss = new MappedFileStorageService();
+        ss.setId("test");
+        try {
+            ss.initialize();
+            Assert.fail("Missing journal file should have been rejected");
+        } catch (final ComponentInitializationException e) {
+            // expected
+        }
+
+        final File journal = File.createTempFile("journal", ".dat");
+        try {
+            final MappedFileStorageService ss2 = newService(journal);
+            ss2.initialize();
+            ss2.destroy();
+        } finally {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Test that the contents survive a restart.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void reload() throws ComponentInitializationException, IOException, InterruptedException {
+        final File journal = File.createTempFile("journal", ".dat");
+        try {
+            MappedFileStorageService ss = newService(journal);
+            ss.initialize();
+            Assert.assertTrue(ss.create("c1", "k1", "v1", null));
+            Assert.assertTrue(ss.create("c1", "k2", "v2", null));
+            Assert.assertTrue(ss.create("c1", "gone", "v", System.currentTimeMillis() + 100));
+            Assert.assertTrue(ss.create("c2", "k1", "v1", null));
+            Assert.assertTrue(ss.create("c3", "k1", "x".repeat(100000), null));
+            Assert.assertTrue(ss.update("c1", "k1", "v1a", null));
+            Assert.assertTrue(ss.delete("c1", "k2"));
+            ss.deleteContext("c2");
+            final long exp = System.currentTimeMillis() + 60000;
+            ss.updateContextExpiration("c3", exp);
+            ss.destroy();
+
+            Thread.sleep(150);
+
+            ss = newService(journal);
+            ss.initialize();
+            try {
+                final StorageRecord<?> rec = ss.read("c1", "k1");
+                assert rec != null;
+                Assert.assertEquals(rec.getValue(), "v1a");
+                Assert.assertEquals(rec.getVersion(), 2);
+                Assert.assertNull(ss.read("c1", "k2"));
+                Assert.assertNull(ss.read("c1", "gone"));
+                Assert.assertNull(ss.read("c2", "k1"));
+                final StorageRecord<?> big = ss.read("c3", "k1");
+                assert big != null;
+                Assert.assertEquals(big.getValue().length(), 100000);
+                Assert.assertEquals(big.getExpiration(), Long.valueOf(exp));
+
+                // Writes after a reload are appended to the existing journal.
+                Assert.assertTrue(ss.create("c1", "k3", "v3", null));
+            } finally {
+                ss.destroy();
+            }
+
+            ss = newService(journal);
+            ss.initialize();
+            try {
+                Assert.assertNotNull(ss.read("c1", "k1"));
+                Assert.assertNotNull(ss.read("c1", "k3"));
+            } finally {
+                ss.destroy();
+            }
+        } finally {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Test that the journal is compacted, and that the compacted journal reloads.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void compaction() throws ComponentInitializationException, IOException {
+        final File journal = File.createTempFile("journal", ".dat");
+        try {
+            MappedFileStorageService ss = newService(journal);
+            ss.initialize();
+            final String value = "x".repeat(1000);
+            for (int i = 0; i < 5000; i++) {
+                Assert.assertTrue(ss.create("c", "k", value, null));
+                Assert.assertTrue(ss.delete("c", "k"));
+            }
+            Assert.assertTrue(ss.create("c", "k", value, null));
+            ss.destroy();
+
+            // Repeated churn on one key would need 5MB uncompacted.
+            Assert.assertTrue(journal.length() < 4 * 1024 * 1024);
+
+            ss = newService(journal);
+            ss.initialize();
+            try {
+                final StorageRecord<?> rec = ss.read("c", "k");
+                assert rec != null;
+                Assert.assertEquals(rec.getValue(), value);
+            } finally {
+                ss.destroy();
+            }
+        } finally {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Test that destroying the service stops its cleanup task before the journal is closed.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void destroyWithSharedTimer() throws ComponentInitializationException, IOException, InterruptedException {
+        final File journal = File.createTempFile("journal", ".dat");
+        final Timer timer = new Timer(true);
+        try {
+            MappedFileStorageService ss = newService(journal);
+            ss.setCleanupTaskTimer(timer);
+            ss.initialize();
+            Assert.assertTrue(ss.create("c", "k", "v", null));
+            ss.destroy();
+
+            // The shared timer outlives the service, so its cleanup task must not run against the closed journal.
+            Thread.sleep(1500);
+            final CountDownLatch ran = new CountDownLatch(1);
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    ran.countDown();
+                }
+            }, 0);
+            Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+
+            ss = newService(journal);
+            ss.initialize();
+            try {
+                final StorageRecord<?> rec = ss.read("c", "k");
+                assert rec != null;
+                Assert.assertEquals(rec.getValue(), "v");
+            } finally {
+                ss.destroy();
+            }
+        } finally {
+            timer.cancel();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Build a service over a journal file.
+     *
+     * @param journal journal file
+     *
+     * @return the uninitialized service
+     */
+    @Nonnull private MappedFileStorageService newService(@Nonnull final File journal) {
+        final MappedFileStorageService ss = new MappedFileStorageService();
+        ss.setId("test");
+        ss.setJournalFile(journal);
+        ss.setCleanupInterval(Duration.ofSeconds(1));
+        return ss;
+    }
+
+}
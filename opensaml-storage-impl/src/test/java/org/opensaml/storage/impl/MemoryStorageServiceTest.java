@@ -14,12 +14,15 @@
 
 package org.opensaml.storage.impl;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.TimerTask;
 
 import javax.annotation.Nonnull;
 
 import org.opensaml.storage.EnumeratableStorageService;
 import org.opensaml.storage.testing.StorageServiceTest;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import net.shibboleth.shared.component.ComponentInitializationException;
@@ -51,4 +54,106 @@ public class MemoryStorageServiceTest extends StorageServiceTest {
         ss.destroy();
     }
     
-}
\ No newline at end of file
+    /**
+     * Test that cleanup purges expired records through the expiration index and leaves those whose
+     * expiration was extended.
+     * 
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void indexedCleanup() throws ComponentInitializationException, IOException, InterruptedException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.setCleanupBatchSize(3);
+        ss.initialize();
+        try {
+            final long exp = System.currentTimeMillis() + 100;
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(ss.create("context", Integer.toString(i), "value", exp));
+            }
+            Assert.assertTrue(ss.updateExpiration("context", "0", exp + 300000));
+            Assert.assertTrue(ss.update("context", "1", "value2", null));
+            Assert.assertTrue(ss.create("other", "0", "value", exp));
+            ss.deleteContext("other");
+            
+            Thread.sleep(200);
+            final TimerTask task = ss.getCleanupTask();
+            assert task != null;
+            task.run();
+            
+            Assert.assertEquals(ss.getContextMap().get("context").keySet().size(), 2);
+            Assert.assertNotNull(ss.read("context", "0"));
+            Assert.assertNotNull(ss.read("context", "1"));
+            Assert.assertNull(ss.getContextMap().get("other"));
+        } finally {
+            ss.destroy();
+        }
+    }
+
+    /**
+     * Test that reaping a context purges expired records through the expiration index.
+     * 
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void indexedReap() throws ComponentInitializationException, IOException, InterruptedException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        try {
+            final long exp = System.currentTimeMillis() + 100;
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(ss.create("context", Integer.toString(i), "value", exp));
+            }
+            Assert.assertTrue(ss.updateExpiration("context", "0", exp + 300000));
+            Assert.assertTrue(ss.create("context", "forever", "value", null));
+            Assert.assertEquals(ss.getExpirationIndexSize(), 11);
+            
+            Thread.sleep(200);
+            ss.reap("context");
+            
+            Assert.assertEquals(ss.getContextMap().get("context").keySet().size(), 2);
+            Assert.assertNotNull(ss.read("context", "0"));
+            Assert.assertNotNull(ss.read("context", "forever"));
+            Assert.assertEquals(ss.getExpirationIndexSize(), 1);
+        } finally {
+            ss.destroy();
+        }
+    }
+
+    /**
+     * Test that frequent updates of the same records do not grow the expiration index without bound.
+     * 
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void indexBoundedUnderUpdates() throws ComponentInitializationException, IOException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        try {
+            final long exp = System.currentTimeMillis() + 300000;
+            Assert.assertTrue(ss.create("context", "key", "value", exp));
+            
+            // Unchanged expiration.
+            for (int i = 0; i < 10000; i++) {
+                Assert.assertTrue(ss.update("context", "key", "value" + i, exp));
+            }
+            Assert.assertEquals(ss.getExpirationIndexSize(), 1);
+            
+            // Expiration alternating between two values.
+            for (int i = 0; i < 10000; i++) {
+                Assert.assertTrue(ss.updateExpiration("context", "key", i % 2 == 0 ? exp + 1000 : exp));
+            }
+            Assert.assertTrue(ss.getExpirationIndexSize() <= 1025, "Index grew to " + ss.getExpirationIndexSize());
+        } finally {
+            ss.destroy();
+        }
+    }
+
+}
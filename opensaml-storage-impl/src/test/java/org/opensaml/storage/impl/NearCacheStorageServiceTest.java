@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.opensaml.storage.testing.StorageServiceTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Test of {@link NearCacheStorageService} implementation.
+ */
+@SuppressWarnings("null")
+public class NearCacheStorageServiceTest extends StorageServiceTest {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected EnumeratableStorageService getStorageService() {
+        final EnumeratableNearCacheStorageService ss = new EnumeratableNearCacheStorageService(newBacking());
+        ss.setId("test");
+        return ss;
+    }
+
+    /**
+     * Test config.
+     *
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void validConfig() throws ComponentInitializationException {
+        final NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        try {
+            ss.initialize();
+            Assert.fail("Missing storage should have been rejected");
+        } catch (final ComponentInitializationException e) {
+            // expected
+        }
+
+        final MemoryStorageService backing = newBacking();
+        final NearCacheStorageService ss2 = new NearCacheStorageService();
+        ss2.setId("test");
+        ss2.setStorage(backing);
+        ss2.initialize();
+        Assert.assertSame(ss2.getCapabilities(), backing.getCapabilities());
+        ss2.destroy();
+        backing.destroy();
+    }
+
+    /**
+     * Test that reads are answered locally until a change is made through the cache.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws VersionMismatchException
+     */
+    @Test
+    public void localReads() throws ComponentInitializationException, IOException, VersionMismatchException {
+        final MemoryStorageService backing = newBacking();
+        final NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setStorage(backing);
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("c", "k", "v1", null));
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v1");
+
+            // A change behind the cache's back is not seen...
+            Assert.assertTrue(backing.update("c", "k", "v2", null));
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v1");
+            Assert.assertEquals(ss.readAll("c", List.of("k")).get("k").getValue(), "v1");
+
+            // ...but one made through it is.
+            final Long version = ss.updateWithVersion(2, "c", "k", "v3", null);
+            Assert.assertEquals(version, Long.valueOf(3));
+            final StorageRecord<?> rec = ss.read("c", "k");
+            Assert.assertEquals(rec.getValue(), "v3");
+            Assert.assertEquals(rec.getVersion(), 3);
+            Assert.assertNull(ss.read("c", "k", 3).getSecond());
+
+            Assert.assertTrue(ss.delete("c", "k"));
+            Assert.assertNull(ss.read("c", "k"));
+
+            Assert.assertTrue(ss.create("c", "k", "v4", null));
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v4");
+            ss.deleteContext("c");
+            Assert.assertNull(ss.read("c", "k"));
+        } finally {
+            ss.destroy();
+            backing.destroy();
+        }
+    }
+
+    /**
+     * Test that local copies lapse with the time to live or the record's expiration, whichever is sooner.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void lapse() throws ComponentInitializationException, IOException, InterruptedException {
+        final MemoryStorageService backing = newBacking();
+        final NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setStorage(backing);
+        ss.setTimeToLive(Duration.ofMillis(200));
+        ss.setCachedContexts(List.of("c"));
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("c", "k", "v1", null));
+            Assert.assertTrue(ss.create("c", "short", "v1", System.currentTimeMillis() + 50));
+            Assert.assertTrue(ss.create("other", "k", "v1", null));
+            Assert.assertNotNull(ss.read("c", "short"));
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v1");
+            Assert.assertEquals(ss.read("other", "k").getValue(), "v1");
+
+            Assert.assertTrue(backing.update("c", "k", "v2", null));
+            Assert.assertTrue(backing.update("other", "k", "v2", null));
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v1");
+            Assert.assertEquals(ss.read("other", "k").getValue(), "v2");
+
+            Thread.sleep(100);
+            Assert.assertNull(ss.read("c", "short"));
+
+            Thread.sleep(150);
+            Assert.assertEquals(ss.read("c", "k").getValue(), "v2");
+        } finally {
+            ss.destroy();
+            backing.destroy();
+        }
+    }
+
+    /**
+     * Test that the number of local copies is bounded.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void bounded() throws ComponentInitializationException, IOException {
+        final MemoryStorageService backing = newBacking();
+        final NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setStorage(backing);
+        ss.setMaxEntries(10);
+        ss.initialize();
+        try {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertTrue(backing.create("c", Integer.toString(i), "v", null));
+                Assert.assertNotNull(ss.read("c", Integer.toString(i)));
+            }
+            Assert.assertTrue(ss.getSize() <= 10);
+        } finally {
+            ss.destroy();
+            backing.destroy();
+        }
+    }
+
+    /**
+     * Build an initialized store to put behind the cache.
+     *
+     * @return the store
+     */
+    @Nonnull private MemoryStorageService newBacking() {
+        final MemoryStorageService backing = new MemoryStorageService();
+        backing.setId("backing");
+        try {
+            backing.initialize();
+        } catch (final ComponentInitializationException e) {
+            throw new RuntimeException(e);
+        }
+        return backing;
+    }
+
+    /**
+     * Exposes the enumeration of the underlying store so that the shared tests can run.
+     */
+    private static class EnumeratableNearCacheStorageService extends NearCacheStorageService
+            implements EnumeratableStorageService {
+
+        /** Underlying store. */
+        @Nonnull private final MemoryStorageService backing;
+
+        /**
+         * Constructor.
+         *
+         * @param ss underlying store
+         */
+        EnumeratableNearCacheStorageService(@Nonnull final MemoryStorageService ss) {
+            backing = ss;
+            setStorage(ss);
+            setCachedContexts(CollectionSupport.emptyList());
+        }
+
+        /** {@inheritDoc} */
+        @Nonnull public Iterable<String> getContextKeys(@Nonnull final String context,
+                @Nullable final String prefix) throws IOException {
+            return backing.getContextKeys(context, prefix);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void doDestroy() {
+            super.doDestroy();
+            backing.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.EnumeratableStorageService;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.testing.StorageServiceTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Test of {@link OffHeapStorageService} implementation.
+ */
+@SuppressWarnings("null")
+public class OffHeapStorageServiceTest extends StorageServiceTest {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected EnumeratableStorageService getStorageService() {
+        final OffHeapStorageService ss = new OffHeapStorageService();
+        ss.setId("test");
+        // Small blocks so that the shared tests exercise chained records.
+        ss.setBlockSize(64);
+        ss.setCleanupInterval(Duration.ofSeconds(1));
+        return ss;
+    }
+
+    /**
+     * Test config.
+     *
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void validConfig() throws ComponentInitializationException {
+        final OffHeapStorageService ss = new OffHeapStorageService();
+        ss.setId("test");
+        ss.initialize();
+        Assert.assertEquals(ss.getMemoryInUse(), 0);
+        ss.destroy();
+    }
+
+    /**
+     * Test that the budget is enforced, and that expired and deleted records release their space.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void memoryBudget() throws ComponentInitializationException, IOException, InterruptedException {
+        final OffHeapStorageService ss = new OffHeapStorageService();
+        ss.setId("test");
+        ss.setBlockSize(64);
+        ss.setMemoryBudget(64 * 10);
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.getCapabilities().getValueSize() < 64 * 10);
+
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(ss.create("c", Integer.toString(i), "v", System.currentTimeMillis() + 100));
+            }
+            Assert.assertEquals(ss.getMemoryInUse(), 64 * 10);
+            try {
+                ss.create("c", "full", "v", null);
+                Assert.fail("Create should have exceeded the budget");
+            } catch (final IOException e) {
+                // expected
+            }
+
+            // Expired records are purged to make room.
+            Thread.sleep(150);
+            Assert.assertTrue(ss.create("c", "full", "v", null));
+            Assert.assertEquals(ss.getMemoryInUse(), 64);
+
+            // A value spanning several blocks, replacing a one-block value.
+            final String big = "x".repeat(100);
+            Assert.assertTrue(ss.update("c", "full", big, null));
+            final StorageRecord<?> rec = ss.read("c", "full");
+            assert rec != null;
+            Assert.assertEquals(rec.getValue(), big);
+            Assert.assertEquals(rec.getVersion(), 2);
+            Assert.assertEquals(ss.getMemoryInUse(), 64 * 5);
+
+            ss.deleteContext("c");
+            Assert.assertNull(ss.read("c", "full"));
+            Assert.assertEquals(ss.getMemoryInUse(), 0);
+        } finally {
+            ss.destroy();
+        }
+    }
+
+    /**
+     * Test that updating a record on the point of expiring, when the budget is exhausted, leaves the block
+     * accounting intact.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void updateExpiringWhenFull() throws ComponentInitializationException, IOException {
+        final OffHeapStorageService ss = new OffHeapStorageService();
+        ss.setId("test");
+        ss.setBlockSize(64);
+        ss.setMemoryBudget(64 * 10);
+        ss.initialize();
+        try {
+            final String big = "x".repeat(100);
+            for (int round = 0; round < 50; round++) {
+                final long expiration = System.currentTimeMillis() + 5;
+                for (int i = 0; i < 9; i++) {
+                    Assert.assertTrue(ss.create("c", Integer.toString(i), "v", expiration));
+                }
+                Assert.assertTrue(ss.create("c", "target", "v", expiration));
+                Assert.assertEquals(ss.getMemoryInUse(), 64 * 10);
+
+                // Update just as everything expires, forcing the update to reclaim space.
+                while (System.currentTimeMillis() < expiration - 1) {
+                    Thread.onSpinWait();
+                }
+                try {
+                    if (ss.update("c", "target", big, null)) {
+                        final StorageRecord<?> rec = ss.read("c", "target");
+                        assert rec != null;
+                        Assert.assertEquals(rec.getValue(), big);
+                    }
+                } catch (final IOException e) {
+                    // Budget still exhausted, so the update was refused.
+                }
+
+                ss.deleteContext("c");
+                Assert.assertEquals(ss.getMemoryInUse(), 0);
+            }
+
+            // The free list must still hand out each block only once.
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(ss.create("c", Integer.toString(i), Integer.toString(i), null));
+            }
+            for (int i = 0; i < 10; i++) {
+                final StorageRecord<?> rec = ss.read("c", Integer.toString(i));
+                assert rec != null;
+                Assert.assertEquals(rec.getValue(), Integer.toString(i));
+            }
+            Assert.assertEquals(ss.getMemoryInUse(), 64 * 10);
+        } finally {
+            ss.destroy();
+        }
+    }
+
+    /**
+     * Test that the index survives growth and removals.
+     *
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void indexGrowth() throws ComponentInitializationException, IOException {
+        final OffHeapStorageService ss = new OffHeapStorageService();
+        ss.setId("test");
+        ss.initialize();
+        try {
+            for (int i = 0; i < 5000; i++) {
+                Assert.assertTrue(ss.create("c", Integer.toString(i), Integer.toString(i), null));
+            }
+            for (int i = 0; i < 5000; i += 2) {
+                Assert.assertTrue(ss.delete("c", Integer.toString(i)));
+            }
+            for (int i = 0; i < 5000; i++) {
+                final StorageRecord<?> rec = ss.read("c", Integer.toString(i));
+                if (i % 2 == 0) {
+                    Assert.assertNull(rec);
+                } else {
+                    assert rec != null;
+                    Assert.assertEquals(rec.getValue(), Integer.toString(i));
+                }
+            }
+        } finally {
+            ss.destroy();
+        }
+    }
+
+}
@@ -15,6 +15,12 @@
 package org.opensaml.storage.impl;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.opensaml.storage.impl.client.ClientStorageService;
 import org.testng.annotations.AfterMethod;
@@ -125,4 +131,55 @@ public class StorageServiceReplayCacheTest {
         Assert.assertTrue(replayCache.check(context, messageID, Instant.now().plusSeconds(1)),
                 "Message was not replay, previous cache entry should have expired");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that concurrent checks of one value admit exactly one caller.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testConcurrentReplay() throws Exception {
+        final int threads = 8;
+        final List<Callable<Boolean>> tasks = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> replayCache.check(context, messageID, expiration));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            int accepted = 0;
+            for (final Future<Boolean> result : executor.invokeAll(tasks)) {
+                if (result.get()) {
+                    accepted++;
+                }
+            }
+            Assert.assertEquals(accepted, 1, "Only one check should have been accepted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test replay detection against the concurrent storage service.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testReplayWithConcurrentStorage() throws Exception {
+        final ConcurrentMemoryStorageService concurrentStorage = new ConcurrentMemoryStorageService();
+        concurrentStorage.setId("concurrent");
+        concurrentStorage.initialize();
+
+        final StorageServiceReplayCache cache = new StorageServiceReplayCache();
+        cache.setStorage(concurrentStorage);
+        cache.initialize();
+        try {
+            Assert.assertTrue(cache.check(context, messageID, expiration),
+                    "Message was not replay, insert into empty cache");
+            Assert.assertFalse(cache.check(context, messageID, expiration), "Message was replay");
+        } finally {
+            cache.destroy();
+            concurrentStorage.destroy();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.impl.client.ClientStorageService.ClientStorageSource;
+import org.opensaml.storage.impl.client.CompactClientStorageServiceStore.CompactClientStorageServiceStoreFactory;
+import org.opensaml.storage.impl.client.JSONClientStorageServiceStore.JSONClientStorageServiceStoreFactory;
+import org.slf4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.LoggerFactory;
+import net.shibboleth.shared.security.DataSealerException;
+
+/** Unit test for {@link CompactClientStorageServiceStore}. */
+@SuppressWarnings({"javadoc", "null"})
+public class CompactClientStorageServiceStoreTest extends AbstractBaseClientStorageServiceTest {
+
+    private final Logger log = LoggerFactory.getLogger(CompactClientStorageServiceStoreTest.class);
+
+    private ClientStorageService ss;
+
+    private CompactClientStorageServiceStoreFactory factory;
+
+    @BeforeClass public void setUpClass() throws ComponentInitializationException {
+        init();
+    }
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        ss = getStorageService();
+        factory = new CompactClientStorageServiceStoreFactory();
+        factory.setContextDictionary(List.of("session", "consent"));
+        factory.setCompressionThreshold(64);
+    }
+
+    @Test public void testRoundTrip() throws IOException, DataSealerException {
+        final long exp = System.currentTimeMillis() + 3600000;
+        final ClientStorageServiceStore store = factory.load(null, ClientStorageSource.COOKIE);
+        put(store, "session", "key1", "value1", null);
+        put(store, "session", "key2", "<xml>" + "床前明月光".repeat(50) + "</xml>", exp);
+        put(store, "consent", "key1", "value2", exp);
+        put(store, "org.example.Context", "key1", "value3", null);
+        put(store, "org.example.Context", "expired", "value4", System.currentTimeMillis() - 1);
+
+        final ClientStorageServiceStore loaded = saveAndLoad(store);
+        Assert.assertFalse(loaded.isDirty());
+        Assert.assertEquals(loaded.getContextMap().size(), 3);
+        assertRecord(loaded, "session", "key1", "value1", null);
+        assertRecord(loaded, "session", "key2", "<xml>" + "床前明月光".repeat(50) + "</xml>", exp);
+        assertRecord(loaded, "consent", "key1", "value2", exp);
+        assertRecord(loaded, "org.example.Context", "key1", "value3", null);
+        Assert.assertNull(loaded.getContextMap().get("org.example.Context").get("expired"));
+    }
+
+    @Test public void testModifiedContexts() throws IOException, DataSealerException {
+        final ClientStorageServiceStore store = factory.load(null, ClientStorageSource.COOKIE);
+        put(store, "session", "key1", "value1", null);
+        put(store, "consent", "key1", "value1", null);
+        put(store, "other", "key1", "value1", null);
+
+        final ClientStorageServiceStore loaded = saveAndLoad(store);
+        Assert.assertNull(loaded.save(ss));
+
+        // Modify one record in place, add to another context, and drop the last.
+        final MutableStorageRecord<?> record = loaded.getContextMap().get("session").get("key1");
+        record.setValue("value2");
+        record.incrementVersion();
+        put(loaded, "consent", "key2", "value2", null);
+        loaded.getContextMap().remove("other");
+
+        final ClientStorageServiceStore reloaded = saveAndLoad(loaded);
+        Assert.assertEquals(reloaded.getContextMap().size(), 2);
+        assertRecord(reloaded, "session", "key1", "value2", null);
+        assertRecord(reloaded, "consent", "key1", "value1", null);
+        assertRecord(reloaded, "consent", "key2", "value2", null);
+
+        // Expiration alone also invalidates the encoded context.
+        reloaded.getContextMap().get("consent").get("key2").setExpiration(System.currentTimeMillis() - 1);
+        reloaded.setDirty(true);
+        final ClientStorageServiceStore expired = saveAndLoad(reloaded);
+        Assert.assertEquals(expired.getContextMap().get("consent").size(), 1);
+        assertRecord(expired, "consent", "key1", "value1", null);
+    }
+
+    @Test public void testEmpty() throws IOException {
+        final ClientStorageServiceStore store = factory.load(null, ClientStorageSource.COOKIE);
+        put(store, "session", "expired", "value1", System.currentTimeMillis() - 1);
+        final ClientStorageServiceOperation op = store.save(ss);
+        Assert.assertNotNull(op);
+        Assert.assertNull(op.getValue());
+    }
+
+    @Test public void testLegacyJSON() throws IOException, DataSealerException {
+        final ClientStorageServiceStore json =
+                new JSONClientStorageServiceStoreFactory().load(null, ClientStorageSource.COOKIE);
+        put(json, "session", "key1", "value1", null);
+        put(json, "org.example.Context", "key1", "value2", Long.MAX_VALUE);
+        final String raw = ss.getDataSealer().unwrap(json.save(ss).getValue());
+
+        final ClientStorageServiceStore loaded = factory.load(raw, ClientStorageSource.COOKIE);
+        Assert.assertTrue(loaded.isDirty());
+        assertRecord(loaded, "session", "key1", "value1", null);
+        assertRecord(loaded, "org.example.Context", "key1", "value2", Long.MAX_VALUE);
+
+        final ClientStorageServiceStore converted = saveAndLoad(loaded);
+        assertRecord(converted, "session", "key1", "value1", null);
+        assertRecord(converted, "org.example.Context", "key1", "value2", Long.MAX_VALUE);
+    }
+
+    @Test public void testDictionaryChange() throws IOException, DataSealerException {
+        final ClientStorageServiceStore store = factory.load(null, ClientStorageSource.COOKIE);
+        put(store, "session", "key1", "value1", null);
+        final String raw = ss.getDataSealer().unwrap(store.save(ss).getValue());
+
+        // The same dictionary keeps existing data readable.
+        final CompactClientStorageServiceStoreFactory same = new CompactClientStorageServiceStoreFactory();
+        same.setContextDictionary(List.of("session", "consent"));
+        final ClientStorageServiceStore loaded = same.load(raw, ClientStorageSource.COOKIE);
+        Assert.assertFalse(loaded.isDirty());
+        assertRecord(loaded, "session", "key1", "value1", null);
+
+        // Any other dictionary discards it, even if only entries after the first differ.
+        for (final List<String> dictionary : List.of(List.of("session", "consent", "other"), List.of("session"),
+                List.of("session", "other"))) {
+            final CompactClientStorageServiceStoreFactory modified = new CompactClientStorageServiceStoreFactory();
+            modified.setContextDictionary(dictionary);
+            final ClientStorageServiceStore discarded = modified.load(raw, ClientStorageSource.COOKIE);
+            Assert.assertTrue(discarded.isDirty(), dictionary.toString());
+            Assert.assertTrue(discarded.getContextMap().isEmpty(), dictionary.toString());
+        }
+
+        final CompactClientStorageServiceStoreFactory changed = new CompactClientStorageServiceStoreFactory();
+        changed.setContextDictionary(List.of("consent", "session"));
+        final ClientStorageServiceStore discarded = changed.load(raw, ClientStorageSource.COOKIE);
+        Assert.assertTrue(discarded.isDirty());
+        Assert.assertTrue(discarded.getContextMap().isEmpty());
+    }
+
+    @Test public void testCorrupt() {
+        final ClientStorageServiceStore store = factory.load("AQ-not-base64", ClientStorageSource.COOKIE);
+        Assert.assertTrue(store.isDirty());
+        Assert.assertTrue(store.getContextMap().isEmpty());
+    }
+
+    /**
+     * Compares the size of the data with {@link JSONClientStorageServiceStore}. The sizes are logged rather
+     * than asserted beyond the compact form being smaller.
+     */
+    @Test public void testComparison() throws IOException, DataSealerException {
+        final long exp = System.currentTimeMillis() + 3600000;
+        final ClientStorageServiceStore json =
+                new JSONClientStorageServiceStoreFactory().load(null, ClientStorageSource.COOKIE);
+        final ClientStorageServiceStore compact = factory.load(null, ClientStorageSource.COOKIE);
+        for (final ClientStorageServiceStore store : List.of(json, compact)) {
+            for (int i = 0; i < 5; i++) {
+                put(store, "session", "_" + i + "b7d4e1c0f9a8e7d6c5b4a3", "<session>"
+                        + "<attribute name=\"mail\">user@example.org</attribute>".repeat(5) + "</session>", exp);
+            }
+            put(store, "consent", "jdoe", "[\"mail\",\"eduPersonPrincipalName\",\"displayName\"]", exp);
+        }
+
+        final int jsonSize = json.save(ss).getValue().length();
+        final String compactValue = compact.save(ss).getValue();
+        log.info("Sealed size: JSONClientStorageServiceStore {}, CompactClientStorageServiceStore {}", jsonSize,
+                compactValue.length());
+        Assert.assertTrue(compactValue.length() < jsonSize);
+        Assert.assertEquals(factory.load(ss.getDataSealer().unwrap(compactValue), ClientStorageSource.COOKIE)
+                .getContextMap().get("session").size(), 5);
+    }
+
+    private ClientStorageServiceStore saveAndLoad(final ClientStorageServiceStore store)
+            throws IOException, DataSealerException {
+        final ClientStorageServiceOperation op = store.save(ss);
+        Assert.assertNotNull(op);
+        Assert.assertFalse(store.isDirty());
+        return factory.load(ss.getDataSealer().unwrap(op.getValue()), ClientStorageSource.COOKIE);
+    }
+
+    private void put(final ClientStorageServiceStore store, final String context, final String key,
+            final String value, final Long exp) {
+        store.getContextMap().computeIfAbsent(context, c -> new HashMap<>())
+                .put(key, new MutableStorageRecord<>(value, exp));
+        store.setDirty(true);
+    }
+
+    private void assertRecord(final ClientStorageServiceStore store, final String context, final String key,
+            final String value, final Long exp) {
+        final Map<String, MutableStorageRecord<?>> records = store.getContextMap().get(context);
+        Assert.assertNotNull(records);
+        final MutableStorageRecord<?> record = records.get(key);
+        Assert.assertNotNull(record);
+        Assert.assertEquals(record.getValue(), value);
+        Assert.assertEquals(record.getExpiration(), exp);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl.memcached;
+
+import net.spy.memcached.CachedData;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Unit test for {@link CompactStorageRecordTranscoder} class.
+ */
+@SuppressWarnings("javadoc")
+public class CompactStorageRecordTranscoderTest {
+
+    private final CompactStorageRecordTranscoder transcoder = new CompactStorageRecordTranscoder(64);
+
+    private final StorageRecordTranscoder legacy = new StorageRecordTranscoder();
+
+    @DataProvider
+    public Object[][] testRecords() {
+        return new Object[][] {
+                new Object[] {new MemcachedStorageRecord<>("Whither the weather", null)},
+                new Object[] {new MemcachedStorageRecord<>("x", Long.MAX_VALUE)},
+                new Object[] {new MemcachedStorageRecord<>("x", 1L)},
+                new Object[] {new MemcachedStorageRecord<>("床前明月光，疑是地上霜. 举头望明月，低头思故乡.", 2515878896L)},
+                new Object[] {new MemcachedStorageRecord<>("<xml>" + "床前明月光".repeat(100) + "</xml>",
+                        System.currentTimeMillis())},
+                new Object[] {new MemcachedStorageRecord<>(randomBase64(1000), System.currentTimeMillis())},
+        };
+    }
+
+    @Test(dataProvider = "testRecords")
+    public void testEncodeDecode(final MemcachedStorageRecord<?> expected) {
+        final MemcachedStorageRecord<?> actual = transcoder.decode(transcoder.encode(expected));
+        assertEquals(actual.getValue(), expected.getValue());
+        assertEquals(actual.getExpiration(), expected.getExpiration());
+        assertEquals(actual.getVersion(), expected.getVersion());
+    }
+
+    @Test(dataProvider = "testRecords")
+    public void testDecodeLegacy(final MemcachedStorageRecord<?> expected) {
+        final MemcachedStorageRecord<?> actual = transcoder.decode(legacy.encode(expected));
+        assertEquals(actual.getValue(), expected.getValue());
+        assertEquals(actual.getExpiration(), expected.getExpiration());
+    }
+
+    @Test
+    public void testCompression() {
+        final MemcachedStorageRecord<?> record =
+                new MemcachedStorageRecord<>("<xml>" + "a".repeat(10000) + "</xml>", System.currentTimeMillis());
+        final CachedData compressed = transcoder.encode(record);
+        assertEquals(compressed.getFlags(), CompactStorageRecordTranscoder.FORMAT_COMPACT
+                | CompactStorageRecordTranscoder.FLAG_COMPRESSED);
+        assertTrue(compressed.getData().length < 1000);
+
+        final CachedData uncompressed = new CompactStorageRecordTranscoder(0).encode(record);
+        assertEquals(uncompressed.getFlags(), CompactStorageRecordTranscoder.FORMAT_COMPACT);
+        assertEquals(new CompactStorageRecordTranscoder(0).decode(compressed).getValue(), record.getValue());
+
+        // Compression never makes a value larger.
+        final byte[] noise = new byte[100];
+        new Random(0).nextBytes(noise);
+        final MemcachedStorageRecord<?> incompressible =
+                new MemcachedStorageRecord<>(new String(noise, StandardCharsets.ISO_8859_1), null);
+        final CachedData random = transcoder.encode(incompressible);
+        assertEquals(random.getFlags() & CompactStorageRecordTranscoder.FLAG_COMPRESSED, 0);
+        assertEquals(transcoder.decode(random).getValue(), incompressible.getValue());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        transcoder.decode(new CachedData(0x0200, new byte[] {0, 'x'}, transcoder.getMaxSize()));
+    }
+
+    /**
+     * Compares encoded sizes with {@link StorageRecordTranscoder}. The encode/decode cost is measured by
+     * StorageRecordTranscoderBenchmark in the opensaml-benchmarks module.
+     */
+    @Test
+    public void testSizeComparison() {
+        final long exp = System.currentTimeMillis() + 3600000;
+        final MemcachedStorageRecord<?>[] records = {
+                new MemcachedStorageRecord<>("x", exp),
+                new MemcachedStorageRecord<>(randomBase64(200), exp),
+                new MemcachedStorageRecord<>("<session>" + "<attribute name=\"mail\">user@example.org</attribute>"
+                        .repeat(100) + "</session>", exp),
+        };
+        final CompactStorageRecordTranscoder compact = new CompactStorageRecordTranscoder();
+        for (final MemcachedStorageRecord<?> record : records) {
+            assertTrue(compact.encode(record).getData().length < legacy.encode(record).getData().length);
+        }
+    }
+
+    private static String randomBase64(final int bytes) {
+        final byte[] data = new byte[bytes];
+        new Random(bytes).nextBytes(data);
+        return Base64.getEncoder().encodeToString(data);
+    }
+}
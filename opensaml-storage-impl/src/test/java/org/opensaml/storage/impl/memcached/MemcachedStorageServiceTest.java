@@ -30,7 +30,9 @@ import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -215,6 +217,29 @@ public class MemcachedStorageServiceTest {
         }
     }
 
+    @Test
+    public void testBatchOperations() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            values.put(generator.generate(), generator.generate());
+        }
+        assertEquals(keyTrackingService.createAll(context, values, null), values.keySet());
+        assertTrue(keyTrackingService.createAll(context, values, null).isEmpty());
+
+        final Map<String, StorageRecord<Object>> records = keyTrackingService.readAll(context, values.keySet());
+        assertEquals(records.size(), values.size());
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            assertEquals(records.get(entry.getKey()).getValue(), entry.getValue());
+            assertEquals(records.get(entry.getKey()).getVersion(),
+                    keyTrackingService.read(context, entry.getKey()).getVersion());
+        }
+
+        assertEquals(keyTrackingService.deleteAll(context, values.keySet()), values.keySet());
+        assertTrue(keyTrackingService.readAll(context, values.keySet()).isEmpty());
+    }
+
     @AfterClass
     public void tearDown() {
         service.destroy();
@@ -20,7 +20,10 @@ import static org.testng.Assert.assertNotEquals;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -288,6 +291,43 @@ public abstract class StorageServiceTest {
         Assert.assertEquals(copy.size(), 2);
     }
     
+    /**
+     * Test of batch operations.
+     * 
+     * @throws IOException on error
+     */
+    @Test
+    public void batch() throws IOException {
+        threadInit();
+
+        final String context = Long.toString(random.nextLong());
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 1; i <= 10; i++) {
+            values.put(Integer.toString(i), Integer.toString(i + 1));
+        }
+        Assert.assertTrue(shared.create(context, "1", "existing", null));
+
+        final Set<String> created = shared.createAll(context, values, System.currentTimeMillis() + 300000);
+        Assert.assertEquals(created.size(), 9);
+        Assert.assertFalse(created.contains("1"));
+
+        final Map<String, StorageRecord<Object>> records =
+                shared.readAll(context, List.of("1", "5", "10", "missing"));
+        Assert.assertEquals(records.size(), 3);
+        Assert.assertEquals(records.get("1").getValue(), "existing");
+        Assert.assertEquals(records.get("5").getValue(), "6");
+        Assert.assertEquals(records.get("10").getValue(), "11");
+        Assert.assertEquals(records.get("10").getVersion(), shared.read(context, "10").getVersion());
+
+        final Set<String> deleted = shared.deleteAll(context, List.of("1", "2", "missing"));
+        Assert.assertEquals(deleted, Set.of("1", "2"));
+        Assert.assertNull(shared.read(context, "1"));
+        Assert.assertNull(shared.read(context, "2"));
+        Assert.assertNotNull(shared.read(context, "3"));
+
+        Assert.assertTrue(shared.readAll("missing" + context, List.of("1")).isEmpty());
+    }
+
     /**
      * Annotated object class to test with.
      */
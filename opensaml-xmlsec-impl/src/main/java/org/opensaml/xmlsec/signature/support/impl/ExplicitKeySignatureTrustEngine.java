@@ -14,8 +14,29 @@
 
 package org.opensaml.xmlsec.signature.support.impl;
 
+import java.math.BigInteger;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.security.auth.x500.X500Principal;
 
 import net.shibboleth.shared.annotation.ParameterName;
 import net.shibboleth.shared.logic.Constraint;
@@ -31,10 +52,17 @@ import org.opensaml.security.criteria.KeyAlgorithmCriterion;
 import org.opensaml.security.criteria.UsageCriterion;
 import org.opensaml.security.trust.TrustedCredentialTrustEngine;
 import org.opensaml.security.trust.impl.ExplicitKeyTrustEvaluator;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.security.x509.X509Support;
 import org.opensaml.xmlsec.algorithm.AlgorithmSupport;
 import org.opensaml.xmlsec.crypto.XMLSigningUtil;
 import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
 import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.opensaml.xmlsec.signature.X509IssuerSerial;
+import org.opensaml.xmlsec.signature.X509SKI;
 import org.slf4j.Logger;
 
 import com.google.common.base.Strings;
@@ -49,6 +77,13 @@ import com.google.common.base.Strings;
  * key, then all trusted credentials obtained by the trusted credential resolver will be used to attempt to validate the
  * signature.
  * </p>
+ * 
+ * <p>
+ * Before any of this, the hints in the Signature's KeyInfo (certificates, public keys, subject key identifiers and
+ * issuer/serial pairs) are matched against an index of the trusted credentials' key fingerprints, and any trusted
+ * credential so identified is used to verify the signature directly. Verifications with trusted credentials which
+ * fail are counted by {@link #getWastedVerifications()}.
+ * </p>
  */
 public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<Iterable<Credential>> implements
         TrustedCredentialTrustEngine<Signature> {
@@ -61,6 +96,12 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
 
     /** The external explicit key trust engine to use as a basis for trust in this implementation. */
     @Nonnull private final ExplicitKeyTrustEvaluator keyTrust;
+    
+    /** Fingerprints of the trusted credentials seen so far. */
+    @Nonnull private final Map<Credential, Set<KeyFingerprint>> credentialFingerprints;
+    
+    /** Number of verifications with trusted credentials which failed. */
+    @Nonnull private final LongAdder wastedVerifications;
 
     /**
      * Constructor.
@@ -75,12 +116,25 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
 
         credentialResolver = Constraint.isNotNull(resolver, "Credential resolver cannot be null");
         keyTrust = new ExplicitKeyTrustEvaluator();
+        credentialFingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+        wastedVerifications = new LongAdder();
     }
 
     /** {@inheritDoc} */
     @Nonnull public CredentialResolver getCredentialResolver() {
         return credentialResolver;
     }
+    
+    /**
+     * Get the number of signature verifications with trusted credentials which have failed.
+     * 
+     * @return the number of failed verifications
+     * 
+     * @since 5.2.0
+     */
+    public long getWastedVerifications() {
+        return wastedVerifications.sum();
+    }
 
     /** {@inheritDoc} */
     @Override protected boolean doValidate(@Nonnull final Signature signature,
@@ -99,14 +153,25 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
             criteriaSet.add(new KeyAlgorithmCriterion(jcaAlgorithm), true);
         }
 
-        final Iterable<Credential> trustedCredentials;
+        final List<Credential> trustedCredentials = new ArrayList<>();
         try {
-            trustedCredentials = getCredentialResolver().resolve(criteriaSet);
+            getCredentialResolver().resolve(criteriaSet).forEach(trustedCredentials::add);
         } catch (final ResolverException e) {
             throw new SecurityException("Error resolving trusted credentials", e);
         }
+        
+        // Trusted credentials identified by the KeyInfo hints are tried first, without any crypto spent on
+        // KeyInfo-derived credentials.
+        final Set<Credential> candidates = selectCandidates(signature.getKeyInfo(), trustedCredentials);
+        for (final Credential candidate : candidates) {
+            if (verifySignature(signature, candidate)) {
+                log.debug("Successfully verified signature using trusted credential identified by KeyInfo");
+                return true;
+            }
+            wastedVerifications.increment();
+        }
 
-        if (validate(signature, trustedCredentials)) {
+        if (candidates.isEmpty() && validate(signature, trustedCredentials)) {
             return true;
         }
 
@@ -117,14 +182,151 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
 
         for (final Credential trustedCredential : trustedCredentials) {
             assert trustedCredential != null;
+            if (candidates.contains(trustedCredential)) {
+                continue;
+            }
             if (verifySignature(signature, trustedCredential)) {
                 log.debug("Successfully verified signature using resolved trusted credential");
                 return true;
             }
+            wastedVerifications.increment();
         }
         log.debug("Failed to verify signature using either KeyInfo-derived or directly trusted credentials");
         return false;
     }
+    
+    /**
+     * Select the trusted credentials whose key is identified by a hint in the KeyInfo.
+     * 
+     * @param keyInfo the signature's KeyInfo
+     * @param trustedCredentials the trusted credentials
+     * 
+     * @return the matching trusted credentials, in the order in which they were resolved
+     */
+    @Nonnull private Set<Credential> selectCandidates(@Nullable final KeyInfo keyInfo,
+            @Nonnull final List<Credential> trustedCredentials) {
+        if (keyInfo == null || trustedCredentials.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        final Set<KeyFingerprint> hints = getKeyInfoFingerprints(keyInfo);
+        if (hints.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        final Map<KeyFingerprint, List<Credential>> index = new HashMap<>();
+        for (final Credential trustedCredential : trustedCredentials) {
+            for (final KeyFingerprint fingerprint : getCredentialFingerprints(trustedCredential)) {
+                index.computeIfAbsent(fingerprint, k -> new ArrayList<>()).add(trustedCredential);
+            }
+        }
+        
+        final Set<Credential> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final KeyFingerprint hint : hints) {
+            matches.addAll(index.getOrDefault(hint, Collections.emptyList()));
+        }
+        
+        final Set<Credential> candidates = new LinkedHashSet<>();
+        for (final Credential trustedCredential : trustedCredentials) {
+            if (matches.contains(trustedCredential)) {
+                candidates.add(trustedCredential);
+            }
+        }
+        log.debug("KeyInfo hints identified {} of {} trusted credentials", candidates.size(),
+                trustedCredentials.size());
+        return candidates;
+    }
+    
+    /**
+     * Get the fingerprints of a trusted credential's key, computing them on first use.
+     * 
+     * @param credential the trusted credential
+     * 
+     * @return the fingerprints
+     */
+    @Nonnull private Set<KeyFingerprint> getCredentialFingerprints(@Nonnull final Credential credential) {
+        Set<KeyFingerprint> fingerprints = credentialFingerprints.get(credential);
+        if (fingerprints == null) {
+            fingerprints = new HashSet<>();
+            final PublicKey publicKey = credential.getPublicKey();
+            if (publicKey != null) {
+                fingerprints.add(KeyFingerprint.ofPublicKey(publicKey));
+            }
+            if (credential instanceof X509Credential x509Credential) {
+                addCertificateFingerprints(x509Credential.getEntityCertificate(), fingerprints);
+            }
+            credentialFingerprints.put(credential, fingerprints);
+        }
+        return fingerprints;
+    }
+    
+    /**
+     * Get the fingerprints of the keys identified by a KeyInfo.
+     * 
+     * @param keyInfo the KeyInfo
+     * 
+     * @return the fingerprints
+     */
+    @Nonnull private Set<KeyFingerprint> getKeyInfoFingerprints(@Nonnull final KeyInfo keyInfo) {
+        final Set<KeyFingerprint> fingerprints = new HashSet<>();
+        try {
+            for (final PublicKey publicKey : KeyInfoSupport.getPublicKeys(keyInfo)) {
+                fingerprints.add(KeyFingerprint.ofPublicKey(publicKey));
+            }
+        } catch (final KeyException e) {
+            log.debug("Unable to extract public keys from KeyInfo", e);
+        }
+        try {
+            for (final X509Certificate certificate : KeyInfoSupport.getCertificates(keyInfo)) {
+                addCertificateFingerprints(certificate, fingerprints);
+            }
+        } catch (final CertificateException e) {
+            log.debug("Unable to extract certificates from KeyInfo", e);
+        }
+        for (final X509Data x509Data : keyInfo.getX509Datas()) {
+            for (final X509SKI ski : x509Data.getX509SKIs()) {
+                final String value = ski.getValue();
+                if (value != null) {
+                    fingerprints.add(new KeyFingerprint(KeyFingerprint.Type.SKI, value.replaceAll("\\s", "")));
+                }
+            }
+            for (final X509IssuerSerial issuerSerial : x509Data.getX509IssuerSerials()) {
+                final String issuer = issuerSerial.getX509IssuerName() != null
+                        ? issuerSerial.getX509IssuerName().getValue() : null;
+                final BigInteger serial = issuerSerial.getX509SerialNumber() != null
+                        ? issuerSerial.getX509SerialNumber().getValue() : null;
+                if (issuer != null && serial != null) {
+                    try {
+                        fingerprints.add(KeyFingerprint.ofIssuerSerial(new X500Principal(issuer), serial));
+                    } catch (final IllegalArgumentException e) {
+                        log.debug("Unable to parse X509IssuerName '{}' from KeyInfo", issuer, e);
+                    }
+                }
+            }
+        }
+        return fingerprints;
+    }
+    
+    /**
+     * Add the fingerprints of a certificate's key: the digest of its public key, its subject key identifier and
+     * its issuer/serial pair.
+     * 
+     * @param certificate the certificate
+     * @param fingerprints the fingerprints to add to
+     */
+    private void addCertificateFingerprints(@Nullable final X509Certificate certificate,
+            @Nonnull final Set<KeyFingerprint> fingerprints) {
+        if (certificate == null) {
+            return;
+        }
+        fingerprints.add(KeyFingerprint.ofPublicKey(certificate.getPublicKey()));
+        final byte[] ski = X509Support.getSubjectKeyIdentifier(certificate);
+        if (ski != null) {
+            fingerprints.add(new KeyFingerprint(KeyFingerprint.Type.SKI, Base64.getEncoder().encodeToString(ski)));
+        }
+        fingerprints.add(KeyFingerprint.ofIssuerSerial(certificate.getIssuerX500Principal(),
+                certificate.getSerialNumber()));
+    }
 
     /** {@inheritDoc} */
     // CheckStyle: CyclomaticComplexity OFF
@@ -185,6 +387,7 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
                 // Java 7 now throws this exception under conditions such as mismatched key sizes.
                 log.debug("Saw fatal error attempting to verify raw signature with trusted credential", e);
             }
+            wastedVerifications.increment();
         }
         log.debug("Failed to verify signature using either supplied candidate credential"
                 + " or directly trusted credentials");
@@ -205,4 +408,54 @@ public class ExplicitKeySignatureTrustEngine extends BaseSignatureTrustEngine<It
         return keyTrust.validate(untrustedCredential, trustedCredentials);
     }
 
-}
\ No newline at end of file
+    /**
+     * A fingerprint identifying a key.
+     * 
+     * @param type the type of fingerprint
+     * @param value the fingerprint value
+     */
+    private record KeyFingerprint(@Nonnull Type type, @Nonnull String value) {
+        
+        /** Types of fingerprint. */
+        enum Type {
+            /** SHA-256 digest of the SubjectPublicKeyInfo. */
+            SPKI,
+            /** X.509 subject key identifier. */
+            SKI,
+            /** X.509 issuer name and serial number. */
+            ISSUER_SERIAL,
+        }
+        
+        /**
+         * Build the fingerprint of a public key.
+         * 
+         * @param publicKey the public key
+         * 
+         * @return the fingerprint
+         */
+        @Nonnull static KeyFingerprint ofPublicKey(@Nonnull final PublicKey publicKey) {
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+                return new KeyFingerprint(Type.SPKI, Base64.getEncoder().encodeToString(digest));
+            } catch (final NoSuchAlgorithmException e) {
+                // SHA-256 is required of every platform.
+                throw new IllegalStateException("Unable to compute key fingerprint", e);
+            }
+        }
+        
+        /**
+         * Build the fingerprint of a certificate's issuer and serial number.
+         * 
+         * @param issuer the issuer name
+         * @param serial the serial number
+         * 
+         * @return the fingerprint
+         */
+        @Nonnull static KeyFingerprint ofIssuerSerial(@Nonnull final X500Principal issuer,
+                @Nonnull final BigInteger serial) {
+            return new KeyFingerprint(Type.ISSUER_SERIAL, issuer.getName(X500Principal.CANONICAL) + "#" + serial);
+        }
+        
+    }
+
+}
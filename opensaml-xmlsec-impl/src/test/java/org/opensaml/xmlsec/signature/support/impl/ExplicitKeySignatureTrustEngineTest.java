@@ -14,6 +14,8 @@
 
 package org.opensaml.xmlsec.signature.support.impl;
 
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
@@ -26,6 +28,7 @@ import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.security.SecurityException;
 import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
 import org.opensaml.security.credential.impl.CollectionCredentialResolver;
 import org.opensaml.security.crypto.KeySupport;
 import org.opensaml.security.x509.BasicX509Credential;
@@ -199,6 +202,41 @@ public class ExplicitKeySignatureTrustEngineTest extends XMLObjectBaseTestCase {
         Assert.assertTrue(engine.validate(signature, criteriaSet), "Signature was valid and signing cred was trusted");
     }
     
+    /**
+     * Test that the trusted credential identified by the KeyInfo is tried before the other trusted credentials.
+     * 
+     * @throws SecurityException ...
+     */
+    @Test
+    public void testKeyInfoSelectsTrustedCredential() throws GeneralSecurityException, SecurityException {
+        final KeyPair otherKeyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        trustedCredentials.add(CredentialSupport.getSimpleCredential(otherKeyPair.getPublic(), null));
+        trustedCredentials.add(signingX509Cred);
+        
+        final SignableXMLObject signableXO = getValidSignedObject();
+        final Signature signature = signableXO.getSignature();
+        assert signature != null;
+        Assert.assertTrue(engine.validate(signature, criteriaSet), "Signature was valid and signing cred was trusted");
+        Assert.assertEquals(engine.getWastedVerifications(), 0);
+    }
+    
+    /**
+     * Test that failed verifications against trusted credentials are counted.
+     * 
+     * @throws SecurityException ...
+     */
+    @Test
+    public void testRawWastedVerifications() throws GeneralSecurityException, SecurityException {
+        final KeyPair otherKeyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        trustedCredentials.add(CredentialSupport.getSimpleCredential(otherKeyPair.getPublic(), null));
+        trustedCredentials.add(signingX509Cred);
+        
+        Assert.assertTrue(engine.validate(rawControlSignature, rawData.getBytes(), rawAlgorithmURI, 
+                criteriaSet, null), 
+                "Raw Signature was valid and non-supplied candidate signing cred was in trusted set");
+        Assert.assertEquals(engine.getWastedVerifications(), 1);
+    }
+    
     /**
      * Test valid signature, untrusted signing credential.
      * 